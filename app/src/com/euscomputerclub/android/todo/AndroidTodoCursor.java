@@ -0,0 +1,71 @@
+package com.euscomputerclub.android.todo;
+
+import android.database.Cursor;
+
+import com.euscomputerclub.android.todo.core.TodoCursor;
+
+/**
+ * Class AndroidTodoCursor lets the SyncEngine iterate over an Android cursor.
+ *
+ * @author eus
+ */
+public class AndroidTodoCursor implements TodoCursor {
+
+	/** The wrapped cursor. */
+	protected final Cursor c;
+
+	public AndroidTodoCursor(Cursor c) {
+
+		this.c = c;
+	}
+
+	public int getCount() {
+
+		return c.getCount();
+	}
+
+	public boolean moveToNext() {
+
+		return c.moveToNext();
+	}
+
+	public int getColumnCount() {
+
+		return c.getColumnCount();
+	}
+
+	public int getColumnIndex(String columnName) {
+
+		return c.getColumnIndex(columnName);
+	}
+
+	public boolean isNull(int columnIndex) {
+
+		return c.isNull(columnIndex);
+	}
+
+	public int getInt(int columnIndex) {
+
+		return c.getInt(columnIndex);
+	}
+
+	public long getLong(int columnIndex) {
+
+		return c.getLong(columnIndex);
+	}
+
+	public String getString(int columnIndex) {
+
+		return c.getString(columnIndex);
+	}
+
+	public byte[] getBlob(int columnIndex) {
+
+		return c.getBlob(columnIndex);
+	}
+
+	public void close() {
+
+		c.close();
+	}
+}
@@ -93,7 +93,7 @@ public class Deadline {
 
 		return (String.valueOf(year)
 				+ "-"
-				+ (month < 10 ? "0" : "") + String.valueOf(month + 1)
+				+ (month + 1 < 10 ? "0" : "") + String.valueOf(month + 1)
 				+ "-"
 				+ (dayOfMonth < 10 ? "0" : "") + String.valueOf(dayOfMonth));
 	}
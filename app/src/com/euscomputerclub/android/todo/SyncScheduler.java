@@ -0,0 +1,311 @@
+package com.euscomputerclub.android.todo;
+
+import java.util.Random;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.euscomputerclub.android.todo.core.NotifyCoalescer;
+import com.euscomputerclub.android.todo.core.SyncSchedule;
+
+/**
+ * Class SyncScheduler starts a background sync when the SyncSchedule says
+ * that one is due after some edits. A due sync is postponed while there is
+ * no network connection or while the battery is low and not charging. The
+ * scheduler runs on the thread that creates it, which must have a Looper,
+ * and uses the uptime clock so that it never wakes a sleeping device.
+ *
+ * Shortly after every edit, the scheduler also starts a push of the outbox
+ * if there is a network connection so that the edits reach the server long
+ * before the sync, which then has less to send.
+ *
+ * The notifies of the changes made by the other devices are coalesced into
+ * a pull shortly after the first one, and a pull that leaves some changes
+ * to a sync makes a sync due as if the todo items had been edited.
+ *
+ * The maintenance of the todo DB, which archives the old closed items,
+ * runs once the todo items have been left alone for MAINTENANCE_IDLE_DELAY
+ * and at most once per MAINTENANCE_INTERVAL, and is postponed like a sync
+ * while the battery is low.
+ *
+ * @author eus
+ */
+public class SyncScheduler {
+
+	/** The time without edits after which a sync is due. */
+	public static final long QUIET_PERIOD = 30 * 1000;
+	/** The longest time an edit waits for a sync. */
+	public static final long MAX_DELAY = 5 * 60 * 1000;
+	/** The backoff after the first failed sync. */
+	public static final long MIN_BACKOFF = 30 * 1000;
+	/** The longest backoff. */
+	public static final long MAX_BACKOFF = 60 * 60 * 1000;
+	/** The delay before checking again for a network connection. */
+	public static final long NO_NETWORK_DELAY = 60 * 1000;
+	/** The delay before checking again whether the battery is still low. */
+	public static final long LOW_BATTERY_DELAY = 15 * 60 * 1000;
+	/** The battery level in percent below which no sync is started unless charging. */
+	public static final int LOW_BATTERY_LEVEL = 15;
+	/** The time after an edit at which the outbox is pushed, which lets a quick series of edits share a push. */
+	public static final long PUSH_DELAY = 2 * 1000;
+	/** The time after a notify at which the changes are pulled, which lets a burst of notifies share a pull. */
+	public static final long PULL_DELAY = 1000;
+	/** The time without edits and syncs after which the maintenance runs. */
+	public static final long MAINTENANCE_IDLE_DELAY = 10 * 60 * 1000;
+	/** The shortest time between two maintenance runs. */
+	public static final long MAINTENANCE_INTERVAL = 24 * 60 * 60 * 1000;
+
+	/** The context to query the network and battery state. */
+	protected final Context context;
+	/** Starts a sync and calls syncStarted() and syncFinished() around it. */
+	protected final Runnable startSync;
+	/** Starts a push of the outbox. */
+	protected final Runnable startPush;
+	/** Starts a pull and calls pullStarted() and pullFinished() around it. */
+	protected final Runnable startPull;
+	/** Starts the maintenance of the todo DB. */
+	protected final Runnable startMaintenance;
+	/** The earliest uptime of the next maintenance run. */
+	protected long nextMaintenance;
+	/** The handler to which the due sync is posted. */
+	protected final Handler handler = new Handler();
+	/** The policy deciding when a sync is due. */
+	protected final SyncSchedule schedule = new SyncSchedule(QUIET_PERIOD, MAX_DELAY,
+								 MIN_BACKOFF, MAX_BACKOFF, new Random());
+	/** The policy deciding when a pull is due. */
+	protected final NotifyCoalescer coalescer = new NotifyCoalescer(PULL_DELAY);
+	/** Runs when the posted sync is due. */
+	protected final Runnable dueSync = new Runnable() {
+
+		public void run() {
+
+			long now = SystemClock.uptimeMillis();
+			if (!isNetworkAvailable()) {
+
+				schedule.postpone(now, NO_NETWORK_DELAY);
+				reschedule();
+			} else if (isBatteryLow()) {
+
+				schedule.postpone(now, LOW_BATTERY_DELAY);
+				reschedule();
+			} else {
+
+				startSync.run();
+			}
+		}
+	};
+
+	/** Runs when the push after the last edit is due. */
+	protected final Runnable duePush = new Runnable() {
+
+		public void run() {
+
+			if (isNetworkAvailable()) {
+
+				startPush.run();
+			}
+		}
+	};
+
+	/** Runs when the pull after the first notify is due. */
+	protected final Runnable duePull = new Runnable() {
+
+		public void run() {
+
+			if (isNetworkAvailable()) {
+
+				startPull.run();
+			} else {
+
+				handler.postAtTime(duePull, SystemClock.uptimeMillis() + NO_NETWORK_DELAY);
+			}
+		}
+	};
+
+	/** Runs when the todo items have been left alone long enough for the maintenance. */
+	protected final Runnable dueMaintenance = new Runnable() {
+
+		public void run() {
+
+			long now = SystemClock.uptimeMillis();
+			if (isBatteryLow()) {
+
+				handler.postAtTime(dueMaintenance, now + LOW_BATTERY_DELAY);
+			} else {
+
+				nextMaintenance = now + MAINTENANCE_INTERVAL;
+				startMaintenance.run();
+			}
+		}
+	};
+
+	/**
+	 * Constructs a scheduler.
+	 *
+	 * @param startSync starts a sync without waiting for it; it must call
+	 *                  syncStarted() when the sync starts
+	 * @param startPush starts a push of the outbox without waiting for it
+	 * @param startPull starts a pull without waiting for it unless a sync
+	 *                  or a pull is running; it must call pullStarted()
+	 *                  when the pull starts
+	 * @param startMaintenance starts the maintenance of the todo DB
+	 *                         without waiting for it
+	 */
+	public SyncScheduler(Context context, Runnable startSync, Runnable startPush, Runnable startPull,
+			     Runnable startMaintenance) {
+
+		this.context = context;
+		this.startSync = startSync;
+		this.startPush = startPush;
+		this.startPull = startPull;
+		this.startMaintenance = startMaintenance;
+		scheduleMaintenance();
+	}
+
+	/** Records an edit of the todo DB that has to be synchronized. */
+	public void noteEdit() {
+
+		long now = SystemClock.uptimeMillis();
+
+		schedule.noteEdit(now);
+		reschedule();
+		handler.removeCallbacks(duePush);
+		handler.postAtTime(duePush, now + PUSH_DELAY);
+		scheduleMaintenance();
+	}
+
+	/** Records the start of a background or manual sync. */
+	public void syncStarted() {
+
+		schedule.syncStarted(SystemClock.uptimeMillis());
+		handler.removeCallbacks(dueSync);
+	}
+
+	/** Records the end of the running sync. */
+	public void syncFinished(boolean isSuccessful) {
+
+		schedule.syncFinished(SystemClock.uptimeMillis(), isSuccessful);
+		reschedule();
+		scheduleMaintenance();
+
+		// a pull that has been due during the sync has not been started
+		long dueTime = coalescer.getDueTime();
+		if (dueTime != NotifyCoalescer.NEVER) {
+
+			handler.removeCallbacks(duePull);
+			handler.postAtTime(duePull, dueTime);
+		}
+	}
+
+	/**
+	 * Records a notify of the sync server. This may be called from any
+	 * thread.
+	 */
+	public void noteNotify(final long watermark) {
+
+		handler.post(new Runnable() {
+
+			public void run() {
+
+				if (coalescer.noteNotify(SystemClock.uptimeMillis(), watermark)) {
+
+					handler.postAtTime(duePull, coalescer.getDueTime());
+				}
+			}
+		});
+	}
+
+	/** Records the start of a pull. */
+	public void pullStarted() {
+
+		coalescer.pullStarted();
+		handler.removeCallbacks(duePull);
+	}
+
+	/**
+	 * Records the end of the running pull. This may be called from any
+	 * thread.
+	 *
+	 * @param isSuccessful false if some changes need a sync
+	 * @param watermark the pull watermark of the todo DB
+	 */
+	public void pullFinished(final boolean isSuccessful, final long watermark) {
+
+		handler.post(new Runnable() {
+
+			public void run() {
+
+				long now = SystemClock.uptimeMillis();
+				if (coalescer.pullFinished(now, isSuccessful, watermark)) {
+
+					handler.postAtTime(duePull, coalescer.getDueTime());
+				}
+				if (!isSuccessful) {
+
+					schedule.noteEdit(now);
+					reschedule();
+				}
+			}
+		});
+	}
+
+	/** Cancels the sync, the push, the pull and the maintenance that are due. */
+	public void stop() {
+
+		handler.removeCallbacks(dueSync);
+		handler.removeCallbacks(duePush);
+		handler.removeCallbacks(duePull);
+		handler.removeCallbacks(dueMaintenance);
+	}
+
+	/** Posts dueSync for the time the schedule gives. */
+	protected void reschedule() {
+
+		handler.removeCallbacks(dueSync);
+
+		long dueTime = schedule.getDueTime();
+		if (dueTime != SyncSchedule.NEVER) {
+
+			handler.postAtTime(dueSync, dueTime);
+		}
+	}
+
+	/** Posts dueMaintenance for MAINTENANCE_IDLE_DELAY from now but not before nextMaintenance. */
+	protected void scheduleMaintenance() {
+
+		handler.removeCallbacks(dueMaintenance);
+		handler.postAtTime(dueMaintenance,
+				   Math.max(SystemClock.uptimeMillis() + MAINTENANCE_IDLE_DELAY, nextMaintenance));
+	}
+
+	/** Returns true if there is a network connection. */
+	protected boolean isNetworkAvailable() {
+
+		ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo info = cm.getActiveNetworkInfo();
+
+		return info != null && info.isConnected();
+	}
+
+	/** Returns true if the battery is low and not charging. */
+	protected boolean isBatteryLow() {
+
+		Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		if (battery == null) {
+
+			return false;
+		}
+
+		int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+		int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+		boolean isCharging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+
+		return !isCharging && level >= 0 && scale > 0 && level * 100 < LOW_BATTERY_LEVEL * scale;
+	}
+}
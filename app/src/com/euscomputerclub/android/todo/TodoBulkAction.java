@@ -0,0 +1,64 @@
+package com.euscomputerclub.android.todo;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
+import android.util.Log;
+
+import com.euscomputerclub.android.todo.core.TodoBulkEdit;
+
+/**
+ * Class TodoBulkAction applies a bulk edit to the selected todo items or
+ * deletes them in the background, since a single transaction over many
+ * items would block the UI thread. It tells the todo list to show the
+ * items once the transaction is over.
+ *
+ * @author eus
+ */
+public class TodoBulkAction extends Thread {
+
+	/** Bundle key of the message sent once the bulk action is over. */
+	public static final String BULK_DONE = "bulk_done";
+
+	/** The todo DB. */
+	protected final TodoDb db;
+	/** The handler of the todo list. */
+	protected final Handler handler;
+	/** The IDs of the todo items. */
+	protected final long[] ids;
+	/** The edit or null to delete the todo items. */
+	protected final TodoBulkEdit edit;
+
+	/** Constructs a TodoBulkAction applying an edit to todo items or deleting them if the edit is null. */
+	TodoBulkAction(TodoDb db, Handler todoListHandler, long[] ids, TodoBulkEdit edit) {
+
+		this.db = db;
+		handler = todoListHandler;
+		this.ids = ids;
+		this.edit = edit;
+	}
+
+	@Override
+	public void run() {
+
+		try {
+
+			if (edit == null) {
+
+				db.deleteTodos(ids);
+			} else {
+
+				db.updateTodos(ids, edit);
+			}
+		} catch (Exception e) {
+
+			Log.w("com.euscomputerclub.android.todo.TodoBulkAction", "Cannot apply the bulk action", e);
+		}
+
+		Bundle b = new Bundle();
+		b.putBoolean(BULK_DONE, true);
+		Message m = handler.obtainMessage();
+		m.setData(b);
+		handler.sendMessage(m);
+	}
+}
@@ -0,0 +1,2457 @@
+package com.euscomputerclub.android.todo;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import com.euscomputerclub.android.todo.core.HashTree;
+import com.euscomputerclub.android.todo.core.OutboxOp;
+import com.euscomputerclub.android.todo.core.SyncCheckpoint;
+import com.euscomputerclub.android.todo.core.SyncPlan;
+import com.euscomputerclub.android.todo.core.SyncState;
+import com.euscomputerclub.android.todo.core.Todo;
+import com.euscomputerclub.android.todo.core.TodoBulkEdit;
+import com.euscomputerclub.android.todo.core.TodoCache;
+import com.euscomputerclub.android.todo.core.TodoCursor;
+import com.euscomputerclub.android.todo.core.TodoDescription;
+import com.euscomputerclub.android.todo.core.TodoRow;
+import com.euscomputerclub.android.todo.core.TodoSchema;
+import com.euscomputerclub.android.todo.core.TodoSchemaUpgrade;
+import com.euscomputerclub.android.todo.core.TodoStore;
+import com.euscomputerclub.android.todo.core.TodoSummary;
+import com.euscomputerclub.android.todo.core.TodoTlv;
+
+/**
+ * Class TodoDB serves as the central storage for all created todo items.
+ *
+ * From Jelly Bean on, the DB is in write-ahead logging mode through
+ * enableWriteAheadLogging(), so the queries made outside a transaction,
+ * like those of the list and getTodo(), read a consistent snapshot through
+ * the pooled read-only connections and do not wait for a long sync. The
+ * writes and the transactions go through the primary connection, which
+ * alone holds the sync table in its temp database, so the sync table is
+ * read in a transaction. A cursor over the sync table reads it in pages of
+ * SYNC_PAGE_SIZE rows, each copied out of its own short transaction, so
+ * that the writes of the UI wait for a page rather than for a whole sync
+ * pass. The WAL is checkpointed after every sync. Before Jelly Bean, the DB
+ * keeps its single connection.
+ *
+ * The DB is in incremental auto_vacuum mode, so that optimize() can give
+ * back the pages freed when the closed items are moved to archived_todo.
+ * A DB that is not yet is switched by the first optimize(), which
+ * TodoMaintenance runs in the background, because the switch takes a
+ * VACUUM of the whole file.
+ *
+ * The numbers of the listed items per status, per priority and per
+ * deadline are kept in todo_counter and deadline_counter by triggers, so
+ * that getSummary() does not scan the todo table.
+ *
+ * getTodo() keeps the items it returns in a TodoCache, which every write
+ * of the todo items invalidates once committed.
+ *
+ * The descriptions longer than TodoDescription.MAX_INLINE_LENGTH are kept
+ * compressed in todo_description, leaving the description column NULL, so
+ * that the list and the sync scan only small rows. getTodo() reads them in
+ * the same statement as the item and the sync loads them only for the
+ * items that differ.
+ * 
+ * @author eus
+ */
+public class TodoDb implements TodoStore {
+
+	/** The todo table name. */
+	protected static final String TODO_TABLE = TodoSchema.TODO_TABLE;
+	/** The sync table name. */
+	protected static final String SYNC_TABLE = TodoSchema.SYNC_TABLE;
+	/** The deleted todo table name. */
+	protected static final String DELETED_TODO_TABLE = TodoSchema.DELETED_TODO_TABLE;
+	/** The ID column name. */
+	protected static final String ID_COLUMN = TodoSchema.ID_COLUMN;
+	/** The title column name. */
+	public static final String TITLE_COLUMN = TodoSchema.TITLE_COLUMN;
+	/** The deadline column name. */
+	public static final String DEADLINE_COLUMN = TodoSchema.DEADLINE_COLUMN;
+	/** The priority column name. */
+	public static final String PRIORITY_COLUMN = TodoSchema.PRIORITY_COLUMN;
+	/** The status column name. */
+	public static final String STATUS_COLUMN = TodoSchema.STATUS_COLUMN;
+	/** The description column name. */
+	public static final String DESCRIPTION_COLUMN = TodoSchema.DESCRIPTION_COLUMN;
+	/** The revision column name. */
+	public static final String REVISION_COLUMN = TodoSchema.REVISION_COLUMN;
+	/** The fingerprint column name. */
+	public static final String FINGERPRINT_COLUMN = TodoSchema.FINGERPRINT_COLUMN;
+	/** The revision number assigned to a new todo item. */
+	public static final int NEW_TODO_REVISION = TodoSchema.NEW_TODO_REVISION;
+	/** The estimated number of bytes of the items that getTodo() keeps. */
+	public static final int TODO_CACHE_BYTES = 64 * 1024;
+	/** The number of rows of the sync table that a cursor reads in a transaction. */
+	public static final int SYNC_PAGE_SIZE = 1000;
+
+	/**
+	 * Class TodoDbOpenHelper is a convenience to access the DB.
+	 * 
+	 * @author eus
+	 */
+	protected static class TodoDbOpenHelper extends SQLiteOpenHelper {
+
+		/** The SQL statement to create todo table. */
+		protected static final String CREATE_TODO_TABLE = ("create table " + TODO_TABLE +" ("
+				+ ID_COLUMN + " integer primary key autoincrement, "
+				+ TITLE_COLUMN + " text not null, "
+				+ DEADLINE_COLUMN + " text not null, "
+				+ PRIORITY_COLUMN + " integer not null, "
+				+ STATUS_COLUMN + " text not null, "
+				+ DESCRIPTION_COLUMN + " text, "
+				+ "UNIQUE (" + TITLE_COLUMN + ", " + DEADLINE_COLUMN + "));");
+		/** The version 2 of the SQL statement to create todo table. */
+		protected static final String CREATE_TODO_TABLE_2 = TodoSchemaUpgrade.CREATE_TODO_TABLE_2;
+		/** The version 3 of the SQL statement to create todo table. */
+		protected static final String CREATE_TODO_TABLE_3 = TodoSchemaUpgrade.CREATE_TODO_TABLE_3;
+		/** The version 5 of the SQL statement to create todo table. */
+		protected static final String CREATE_TODO_TABLE_5 = TodoSchema.CREATE_TODO_TABLE;
+
+		/** The SQL statement to create sync table. */
+		protected static final String CREATE_SYNC_TABLE = TodoSchema.CREATE_SYNC_TABLE;
+
+		/** The SQL statement to create deleted_todo table. */
+		protected static final String CREATE_DELETED_TODO_TABLE = TodoSchema.CREATE_DELETED_TODO_TABLE;
+
+		/** The SQL statement to create id_sequence table. */
+		protected static final String CREATE_ID_SEQUENCE_TABLE = TodoSchema.CREATE_ID_SEQUENCE_TABLE;
+
+		/** The DB name. */
+		protected static final String DB_NAME = "todo";
+		/** The DB version. */
+		protected static final int DB_VERSION = TodoSchemaUpgrade.LAST_VERSION;
+
+		/** True if onUpgrade() has moved the rows of the sync table of version 10 to the temp one. */
+		protected boolean isDiskSyncTableCopied;
+
+		/**
+		 * Constructs a TodoDbOpenHelper working on the DB referred by the context.
+		 * 
+		 * @param context the context in which the DB should be opened/created.
+		 */
+		public TodoDbOpenHelper(Context context) {
+
+			super(context, DB_NAME, null, DB_VERSION);
+		}
+
+		/* (non-Javadoc)
+		 * @see android.database.sqlite.SQLiteOpenHelper#onCreate(android.database.sqlite.SQLiteDatabase)
+		 */
+		@Override
+		public void onCreate(SQLiteDatabase db) {
+			
+			db.execSQL(CREATE_TODO_TABLE_5);
+			db.execSQL(CREATE_SYNC_TABLE);
+			db.execSQL(CREATE_DELETED_TODO_TABLE);
+			createIdSequence(db);
+			db.execSQL(TodoSchema.CREATE_SYNC_CHECKPOINT_TABLE);
+			db.execSQL(TodoSchema.CREATE_OUTBOX_TABLE);
+			db.execSQL(TodoSchema.CREATE_PULL_WATERMARK_TABLE);
+			db.execSQL(TodoSchema.CREATE_MERGE_BASE_TABLE);
+			db.execSQL(TodoSchema.CREATE_ARCHIVED_TODO_TABLE);
+			db.execSQL(TodoSchema.CREATE_ARCHIVE_HASH_TABLE);
+			createCounters(db);
+			createDescriptions(db);
+		}
+
+		/* (non-Javadoc)
+		 * @see android.database.sqlite.SQLiteOpenHelper#onUpgrade(android.database.sqlite.SQLiteDatabase, int, int)
+		 */
+		@Override
+		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+			TodoSchemaUpgrade upgrade = new AndroidSchemaUpgrade(db);
+			upgrade.upgrade(oldVersion, newVersion);
+			isDiskSyncTableCopied = upgrade.isDiskSyncTableCopied();
+		}
+
+		/**
+		 * Creates the sync table in the temp database of the connection
+		 * and restarts the download of an interrupted sync because the
+		 * rows of the last connection are gone.
+		 *
+		 * @see android.database.sqlite.SQLiteOpenHelper#onOpen(android.database.sqlite.SQLiteDatabase)
+		 */
+		@Override
+		public void onOpen(SQLiteDatabase db) {
+
+			db.execSQL(CREATE_SYNC_TABLE);
+			if (!isDiskSyncTableCopied) {
+
+				db.execSQL(TodoSchema.RESTART_SYNC_CHECKPOINT);
+			}
+			isDiskSyncTableCopied = false;
+		}
+
+		/**
+		 * Class AndroidSchemaUpgrade runs the steps of TodoSchemaUpgrade
+		 * on the DB being upgraded.
+		 */
+		protected class AndroidSchemaUpgrade extends TodoSchemaUpgrade {
+
+			/** The DB being upgraded. */
+			protected final SQLiteDatabase db;
+
+			public AndroidSchemaUpgrade(SQLiteDatabase db) {
+
+				this.db = db;
+			}
+
+			@Override
+			protected void execSQL(String sql) {
+
+				db.execSQL(sql);
+			}
+
+			@Override
+			protected long queryLong(String sql) {
+
+				return DatabaseUtils.longForQuery(db, sql, null);
+			}
+
+			@Override
+			protected void createIdSequence() {
+
+				TodoDbOpenHelper.this.createIdSequence(db);
+			}
+
+			@Override
+			protected void renumberLegacyNewTodos() {
+
+				TodoDbOpenHelper.this.renumberLegacyNewTodos(db);
+			}
+
+			@Override
+			protected void computeFingerprints(String sql) {
+
+				TodoDbOpenHelper.this.computeFingerprints(db, sql);
+			}
+
+			@Override
+			protected void compressDescriptions(String sql) {
+
+				TodoDb.compressDescriptions(db, sql);
+			}
+		}
+
+		/** Creates the counter tables and the triggers keeping them up to date. */
+		protected void createCounters(SQLiteDatabase db) {
+
+			db.execSQL(TodoSchema.CREATE_COUNTER_TABLE);
+			db.execSQL(TodoSchema.CREATE_DEADLINE_COUNTER_TABLE);
+			db.execSQL(TodoSchema.CREATE_DELETED_TODO_INDEX);
+			for (String sql : TodoSchema.CREATE_COUNTER_TRIGGERS) {
+
+				db.execSQL(sql);
+			}
+		}
+
+		/** Creates the todo_description table and the triggers dropping its rows. */
+		protected void createDescriptions(SQLiteDatabase db) {
+
+			db.execSQL(TodoSchema.CREATE_DESCRIPTION_TABLE);
+			for (String sql : TodoSchema.CREATE_DESCRIPTION_TRIGGERS) {
+
+				db.execSQL(sql);
+			}
+		}
+
+		/** Creates the ID sequence of this device with a random prefix. */
+		protected void createIdSequence(SQLiteDatabase db) {
+
+			db.execSQL(CREATE_ID_SEQUENCE_TABLE);
+			db.execSQL(TodoSchema.INSERT_ID_SEQUENCE, new Object[] {
+				TodoSchema.firstLastId(TodoSchema.newIdPrefix(new SecureRandom()))
+			});
+		}
+
+		/**
+		 * Gives the new todo items created before version 6 IDs with the
+		 * device prefix so that they cannot collide with the server items.
+		 */
+		protected void renumberLegacyNewTodos(SQLiteDatabase db) {
+
+			Cursor c = db.rawQuery(TodoSchema.SELECT_LEGACY_NEW_TODO_IDS, null);
+			long[] ids = new long[c.getCount()];
+			for (int i = 0; c.moveToNext(); i++) {
+
+				ids[i] = c.getLong(0);
+			}
+			c.close();
+
+			ContentValues v = new ContentValues();
+			for (long id : ids) {
+
+				v.put(ID_COLUMN, nextId(db));
+				db.update(TODO_TABLE, v, ID_COLUMN + " = ?", new String[] {String.valueOf(id)});
+			}
+		}
+
+		/**
+		 * Stores the fingerprint of the todo items that a statement
+		 * selects with all their columns, which are read before any is
+		 * updated since the statement may select them by fingerprint.
+		 */
+		protected void computeFingerprints(SQLiteDatabase db, String sql) {
+
+			List<Todo> todos = new ArrayList<Todo>();
+			TodoCursor c = new AndroidTodoCursor(db.rawQuery(sql, null));
+			try {
+
+				TodoRow row = new TodoRow(c);
+				while (c.moveToNext()) {
+
+					todos.add(row.toTodo());
+				}
+			} finally {
+
+				c.close();
+			}
+
+			ContentValues v = new ContentValues();
+			for (Todo t : todos) {
+
+				v.put(FINGERPRINT_COLUMN, t.computeFingerprint());
+				db.update(TODO_TABLE, v, ID_COLUMN + " = ?", new String[] {t.id.toString()});
+			}
+		}
+	}
+
+	/** Advances the ID sequence of this device and returns the generated ID. */
+	protected static long nextId(SQLiteDatabase db) {
+
+		db.execSQL(TodoSchema.INCREMENT_LAST_ID);
+
+		Cursor c = db.rawQuery(TodoSchema.SELECT_LAST_ID, null);
+		try {
+
+			if (!c.moveToFirst()) {
+
+				throw new IllegalStateException("Empty " + TodoSchema.ID_SEQUENCE_TABLE + " table");
+			}
+
+			return c.getLong(0);
+		} finally {
+
+			c.close();
+		}
+	}
+
+	/**
+	 * Moves a description that has just been written to a todo item into
+	 * todo_description if it is long. Since the trigger has dropped the
+	 * former compressed description of an item whose description column
+	 * has been written, nothing is done for a short one. The column of a
+	 * long one is cleared before it is saved because clearing the column
+	 * fires the trigger as well.
+	 */
+	protected static void compressDescription(SQLiteDatabase db, long id, String description) {
+
+		if (TodoDescription.isLong(description)) {
+
+			db.execSQL(TodoSchema.UNSET_DESCRIPTION, new Object[] {id});
+			db.execSQL(TodoSchema.SAVE_DESCRIPTION, new Object[] {id, TodoDescription.compress(description)});
+		}
+	}
+
+	/** Moves the long descriptions that a statement selects with the IDs of their items into todo_description. */
+	protected static void compressDescriptions(SQLiteDatabase db, String sql) {
+
+		Cursor c = db.rawQuery(sql, null);
+		long[] ids = new long[c.getCount()];
+		String[] descriptions = new String[ids.length];
+		try {
+
+			for (int i = 0; c.moveToNext(); i++) {
+
+				ids[i] = c.getLong(0);
+				descriptions[i] = c.getString(1);
+			}
+		} finally {
+
+			c.close();
+		}
+		for (int i = 0; i < ids.length; i++) {
+
+			compressDescription(db, ids[i], descriptions[i]);
+		}
+	}
+
+	/** Runs a pragma, which returns a row that execSQL() may refuse. */
+	protected static void pragma(SQLiteDatabase db, String pragma) {
+
+		Cursor c = db.rawQuery(pragma, null);
+		try {
+
+			c.moveToFirst();
+		} finally {
+
+			c.close();
+		}
+	}
+
+	/** Field helper stores the helper to open the DB. */
+	protected TodoDbOpenHelper helper;
+
+	/** Field db stores the writable DB. */
+	protected SQLiteDatabase db;
+
+	/** Field todoCache stores the items recently returned by getTodo(). */
+	protected final TodoCache todoCache = new TodoCache(TODO_CACHE_BYTES);
+
+	/**
+	 * Constructs and initializes the internal states of the DB.
+	 * 
+	 * @param c the context on which the DB should be opened or created
+	 */
+	public TodoDb(Context c) {
+
+		helper = new TodoDbOpenHelper (c);
+	}
+
+	/** Closes DB and frees up unused resources. */
+	public void close() {
+
+		helper.close();
+		db = null;
+		todoCache.clear();
+	}
+
+	/**
+	 * Runs a passive checkpoint of the WAL so that the pages written by a
+	 * sync are moved to the DB file without waiting for the readers.
+	 */
+	public void checkpoint() {
+
+		ensureDb();
+
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && db.isWriteAheadLoggingEnabled()) {
+
+			pragma(db, "pragma wal_checkpoint");
+		}
+	}
+
+	/** Empties the sync table without DDL for a new sync. */
+	public void recreateSyncTable() {
+
+		ensureDb();
+
+		db.execSQL(TodoSchema.CLEAR_SYNC_TABLE);
+	}
+
+	/** Empties the sync table to save memory once a sync is over. */
+	public void dropSync() {
+
+		ensureDb();
+
+		db.execSQL(TodoSchema.CLEAR_SYNC_TABLE);
+	}
+
+	/**
+	 * Creates a new todo item.
+	 * 
+	 * @param title the todo's title
+	 * @param deadline the todo's deadline
+	 * @param priority the todo's priority
+	 * @param status the todo's status
+	 * @param description the todo's description
+	 * 
+	 * @return the row ID of the newly inserted row or -1 if an error occurred.
+	 */
+	public long createTodo(String title, Deadline deadline, int priority, String status, String description) {
+
+		return createTodo(title, deadline.toString(), priority, status, description);
+	}
+
+	/**
+	 * Creates a new todo item.
+	 *
+	 * @param deadline the todo's deadline as YYYY-MM-DD
+	 *
+	 * @see #createTodo(String, Deadline, int, String, String)
+	 */
+	public long createTodo(String title, String deadline, int priority, String status, String description) {
+		
+		ensureDb();
+
+		db.beginTransaction();
+		try {
+
+			long id = nextId(db);
+			ContentValues v = new ContentValues();
+			v.put(ID_COLUMN, id);
+			v.put(TITLE_COLUMN, title);
+			v.put(DEADLINE_COLUMN, deadline);
+			v.put(PRIORITY_COLUMN, priority);
+			v.put(STATUS_COLUMN, status);
+			v.put(DESCRIPTION_COLUMN, TodoDescription.inline(description));
+			v.put(FINGERPRINT_COLUMN, new Todo(null, title, deadline, priority, status, description,
+							   null).computeFingerprint());
+
+			long rowId = db.insert(TODO_TABLE, null, v);
+			if (rowId != -1) {
+
+				compressDescription(db, id, description);
+				appendOutbox(id, TodoTlv.CHUNK_NEW_TODO, SyncPlan.ALL_FIELDS, null);
+			}
+			db.setTransactionSuccessful();
+
+			return rowId;
+		} finally {
+
+			db.endTransaction();
+		}
+	}
+
+	/** Creates new todo items with a compiled statement in a single transaction. */
+	public int createTodos(Iterator<? extends Todo> todos) {
+
+		ensureDb();
+
+		db.beginTransaction();
+		try {
+
+			long lastId = DatabaseUtils.longForQuery(db, TodoSchema.SELECT_LAST_ID, null);
+			int n = 0;
+			SQLiteStatement s = db.compileStatement(TodoSchema.INSERT_NEW_TODO);
+			try {
+
+				while (todos.hasNext()) {
+
+					Todo t = todos.next();
+					s.bindLong(1, ++lastId);
+					bind(s, 2, t.title);
+					bind(s, 3, t.deadline);
+					bind(s, 4, t.priority);
+					bind(s, 5, t.status);
+					bind(s, 6, TodoDescription.inline(t.description));
+					s.bindLong(7, new Todo(null, t.title, t.deadline, t.priority, t.status, t.description,
+							       null).computeFingerprint());
+					s.executeInsert();
+					compressDescription(db, lastId, t.description);
+					n++;
+				}
+			} finally {
+
+				s.close();
+			}
+			db.execSQL(TodoSchema.SET_LAST_ID, new Object[] {Long.valueOf(lastId)});
+			db.setTransactionSuccessful();
+
+			return n;
+		} finally {
+
+			db.endTransaction();
+		}
+	}
+
+	public void clearTodos() {
+
+		ensureDb();
+
+		db.beginTransaction();
+		try {
+
+			for (String sql : TodoSchema.CLEAR_TODOS) {
+
+				db.execSQL(sql);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+
+			db.endTransaction();
+			todoCache.clear();
+		}
+	}
+
+	public int restoreTodos(Iterator<? extends Todo> todos) {
+
+		ensureDb();
+
+		db.beginTransaction();
+		try {
+
+			long lastId = DatabaseUtils.longForQuery(db, TodoSchema.SELECT_LAST_ID, null);
+			long prefix = lastId >>> TodoSchema.ID_COUNTER_BITS;
+			int n = 0;
+			SQLiteStatement s = db.compileStatement(TodoSchema.INSERT_RESTORED_TODO);
+			try {
+
+				while (todos.hasNext()) {
+
+					Todo t = todos.next();
+					long id = t.id.longValue();
+					s.bindLong(1, id);
+					bind(s, 2, t.title);
+					bind(s, 3, t.deadline);
+					bind(s, 4, t.priority);
+					bind(s, 5, t.status);
+					bind(s, 6, TodoDescription.inline(t.description));
+					s.bindLong(7, t.revision == null ? TodoSchema.NEW_TODO_REVISION : t.revision.longValue());
+					s.bindLong(8, t.getFingerprint());
+					s.executeInsert();
+					compressDescription(db, id, t.description);
+					if (id >>> TodoSchema.ID_COUNTER_BITS == prefix && id > lastId) {
+
+						lastId = id;
+					}
+					n++;
+				}
+			} finally {
+
+				s.close();
+			}
+			db.execSQL(TodoSchema.SET_LAST_ID, new Object[] {Long.valueOf(lastId)});
+			db.setTransactionSuccessful();
+
+			return n;
+		} finally {
+
+			db.endTransaction();
+			todoCache.clear();
+		}
+	}
+
+	public void restoreDeletedTodos(long[] ids) {
+
+		ensureDb();
+
+		db.beginTransaction();
+		try {
+
+			SQLiteStatement s = db.compileStatement(TodoSchema.INSERT_DELETED_TODO);
+			try {
+
+				for (long id : ids) {
+
+					s.bindLong(1, id);
+					s.executeInsert();
+				}
+			} finally {
+
+				s.close();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+
+			db.endTransaction();
+			todoCache.invalidate(ids);
+		}
+	}
+
+	/** Binds a text parameter, which may be null. */
+	protected static void bind(SQLiteStatement s, int i, String value) {
+
+		if (value == null) {
+
+			s.bindNull(i);
+		} else {
+
+			s.bindString(i, value);
+		}
+	}
+
+	/** Binds an integer parameter, which may be null. */
+	protected static void bind(SQLiteStatement s, int i, Integer value) {
+
+		if (value == null) {
+
+			s.bindNull(i);
+		} else {
+
+			s.bindLong(i, value.longValue());
+		}
+	}
+
+	/**
+	 * Creates a new sync todo item
+	 */
+	public long createSyncTodo(long id, String title, String deadline,
+				   int priority, String status, String description,
+				   int revision) {
+		
+		return createSyncTodo(new Todo(id, title, deadline, priority, status, description, revision));
+	}
+
+	/**
+	 * Creates a new sync todo item computing its fingerprint if the
+	 * server has not sent it.
+	 */
+	public long createSyncTodo(Todo remoteTodo) {
+		
+		ensureDb();
+
+		ContentValues v = new ContentValues();
+		v.put(ID_COLUMN, remoteTodo.id);
+		v.put(TITLE_COLUMN, remoteTodo.title);
+		v.put(DEADLINE_COLUMN, remoteTodo.deadline);
+		v.put(PRIORITY_COLUMN, remoteTodo.priority);
+		v.put(STATUS_COLUMN, remoteTodo.status);
+		v.put(DESCRIPTION_COLUMN, remoteTodo.description);
+		v.put(REVISION_COLUMN, remoteTodo.revision);
+		v.put(FINGERPRINT_COLUMN, remoteTodo.getFingerprint());
+		v.put(TodoSchema.FIELD_REVISIONS_COLUMN, remoteTodo.fieldRevisions);
+		v.put(TodoSchema.VERSION_VECTOR_COLUMN, remoteTodo.versionVector);
+		
+		return db.insert(SYNC_TABLE, null, v);
+	}
+
+	/**
+	 * Update a todo item.
+	 * 
+	 * @param id the todo's id
+	 * @param title the todo's title (set to NULL to not update this field)
+	 * @param deadline the todo's deadline (set to NULL to not update this field)
+	 * @param priority the todo's priority (set to NULL to not update this field)
+	 * @param status the todo's status (set to NULL to not update this field)
+	 * @param description the todo's description (set to NULL to not update this field)
+	 * 
+	 * @return the number of updated todo items.
+	 */
+	public int updateTodo(long id, String title, Deadline deadline, Integer priority, String status, String description) {
+
+		return updateTodo(id, title, deadline == null ? null : deadline.toString(), priority, status, description);
+	}
+
+	/**
+	 * Update a todo item.
+	 *
+	 * @param deadline the todo's deadline as YYYY-MM-DD (set to NULL to not update this field)
+	 *
+	 * @see #updateTodo(long, String, Deadline, Integer, String, String)
+	 */
+	public int updateTodo(long id, String title, String deadline, Integer priority, String status, String description) {
+
+		ensureDb();
+
+		ContentValues v = new ContentValues();
+		if (title != null) {
+
+			v.put(TITLE_COLUMN, title);
+		}
+		if (deadline != null) {
+
+			v.put(DEADLINE_COLUMN, deadline);
+		}
+		if (priority != null) {
+
+			v.put(PRIORITY_COLUMN, priority.intValue());
+		}
+		if (status != null) {
+
+			v.put(STATUS_COLUMN, status);
+		}
+		if (description != null) {
+
+			v.put(DESCRIPTION_COLUMN, description);
+		}
+		if (v.size() == 0) {
+
+			return 0;
+		}
+		db.beginTransaction();
+		try {
+
+			unarchiveTodos(new long[] {id});
+
+			// the fingerprint covers the fields that are not updated as well
+			TodoItem t = getLocalTodo(id);
+			if (t == null) {
+
+				// an enclosing transaction is not rolled back
+				db.setTransactionSuccessful();
+
+				return 0;
+			}
+			Todo old = new Todo(t);
+			t.title = title != null ? title : t.title;
+			t.deadline = deadline != null ? deadline : t.deadline;
+			t.priority = priority != null ? priority : t.priority;
+			t.status = status != null ? status : t.status;
+			t.description = description != null ? description : t.description;
+			v.put(FINGERPRINT_COLUMN, t.computeFingerprint());
+
+			int count = db.update(TODO_TABLE, v, ID_COLUMN + " = ?", new String[] {String.valueOf(id)});
+			compressDescription(db, id, description);
+			int mask = SyncPlan.fieldMask(t, old);
+			if (mask != 0) {
+
+				appendOutbox(id, TodoTlv.CHUNK_UPDATE_TODO, mask, null);
+			}
+			db.setTransactionSuccessful();
+
+			return count;
+		} finally {
+
+			db.endTransaction();
+			todoCache.invalidate(id);
+		}
+	}
+
+	/**
+	 * Update the revision of a todo item.
+	 * 
+	 * @param id the todo's id
+	 * @param newRevision the new revision for this todo item
+	 * 
+	 * @return the number of updated todo items.
+	 */
+	public int updateTodoRevision(long id, int newRevision) {
+
+		ensureDb();
+
+		ContentValues v = new ContentValues();
+		v.put(REVISION_COLUMN, newRevision);
+
+		int count = db.update(TODO_TABLE, v, ID_COLUMN + " = ?", new String[] {String.valueOf(id)});
+		todoCache.invalidate(id);
+
+		return count;
+	}
+
+	/**
+	 * Update a remote todo item.
+	 * 
+	 * @param remoteTodo the remote todo to be updated
+	 * @param localTodo the local todo whose data are used to update the remote one
+	 * 
+	 * @return the number of updated todo items.
+	 */
+	public int updateSync(Todo remoteTodo, Todo localTodo) {
+
+		ensureDb();
+
+		ContentValues v = new ContentValues();
+		if (remoteTodo.title.equals(localTodo.title)) {
+
+			v.putNull(TITLE_COLUMN);
+		} else {
+
+			v.put(TITLE_COLUMN, localTodo.title);
+		}
+		if (remoteTodo.deadline.equals(localTodo.deadline)) {
+
+			v.putNull(DEADLINE_COLUMN);
+		} else {
+
+			v.put(DEADLINE_COLUMN, localTodo.deadline);
+		}
+		if (remoteTodo.priority.equals(localTodo.priority)) {
+
+			v.putNull(PRIORITY_COLUMN);
+		} else {
+
+			v.put(PRIORITY_COLUMN, localTodo.priority);
+		}
+		if (remoteTodo.status.equals(localTodo.status)) {
+
+			v.putNull(STATUS_COLUMN);
+		} else {
+
+			v.put(STATUS_COLUMN, localTodo.status);
+		}
+		if (remoteTodo.description.equals(localTodo.description)) {
+
+			v.putNull(DESCRIPTION_COLUMN);
+		} else {
+
+			v.put(DESCRIPTION_COLUMN, localTodo.description);
+		}
+		v.putNull(REVISION_COLUMN);
+		v.putNull(FINGERPRINT_COLUMN);
+		
+		return db.update(SYNC_TABLE, v, ID_COLUMN + " = ?", new String[] {localTodo.id.toString()});
+	}
+
+	/**
+	 * Replace a local todo item with the remote one.
+	 * 
+	 * @param remoteTodo the remote todo that will replace the local one
+	 * 
+	 * @return the number of updated todo items.
+	 *
+	 * @throw IllegalArgumentException if one of the arguments is null.
+	 */
+	public int replaceTodo(Todo remoteTodo) {
+
+		ensureDb();
+
+		ContentValues v = new ContentValues();
+		if (remoteTodo.title == null) {
+
+			throw new IllegalArgumentException("title is null");
+		} else {
+
+			v.put(TITLE_COLUMN, remoteTodo.title);
+		}
+		if (remoteTodo.deadline == null) {
+
+			throw new IllegalArgumentException("deadline is null");
+		} else {
+
+			v.put(DEADLINE_COLUMN, remoteTodo.deadline);
+		}
+		if (remoteTodo.priority == null) {
+
+			throw new IllegalArgumentException("priority is null");
+		} else {
+
+			v.put(PRIORITY_COLUMN, remoteTodo.priority.intValue());
+		}
+		if (remoteTodo.status == null) {
+
+			throw new IllegalArgumentException("status is null");
+		} else {
+
+			v.put(STATUS_COLUMN, remoteTodo.status);
+		}
+		if (remoteTodo.description == null) {
+
+			throw new IllegalArgumentException("description is null");
+		} else {
+
+			v.put(DESCRIPTION_COLUMN, remoteTodo.description);
+		}
+		if (remoteTodo.revision == null) {
+
+			throw new IllegalArgumentException("revision is null");
+		} else {
+
+			v.put(REVISION_COLUMN, remoteTodo.revision.intValue() + 1);
+		}
+		v.put(FINGERPRINT_COLUMN, remoteTodo.getFingerprint());
+
+		db.delete(
+			DELETED_TODO_TABLE,
+			ID_COLUMN + " = ?",
+			new String[] {remoteTodo.id.toString()}
+		);
+
+		int count = db.update(TODO_TABLE, v, ID_COLUMN + " = ?", new String[] {remoteTodo.id.toString()});
+		compressDescription(db, remoteTodo.id.longValue(), remoteTodo.description);
+		todoCache.invalidate(remoteTodo.id.longValue());
+
+		return count;
+	}
+
+	/**
+	 * Writes the data fields of a todo item merged by ThreeWayMerge to the
+	 * local one keeping its revision.
+	 *
+	 * @return the number of updated todo items.
+	 */
+	public int mergeTodo(Todo mergedTodo) {
+
+		ensureDb();
+
+		ContentValues v = new ContentValues();
+		v.put(TITLE_COLUMN, mergedTodo.title);
+		v.put(DEADLINE_COLUMN, mergedTodo.deadline);
+		v.put(PRIORITY_COLUMN, mergedTodo.priority);
+		v.put(STATUS_COLUMN, mergedTodo.status);
+		v.put(DESCRIPTION_COLUMN, mergedTodo.description);
+		v.put(FINGERPRINT_COLUMN, mergedTodo.computeFingerprint());
+
+		int count = db.update(TODO_TABLE, v, ID_COLUMN + " = ?", new String[] {mergedTodo.id.toString()});
+		compressDescription(db, mergedTodo.id.longValue(), mergedTodo.description);
+		todoCache.invalidate(mergedTodo.id.longValue());
+
+		return count;
+	}
+
+	/**
+	 * Creates a new remote todo item.
+	 * 
+	 * @param localTodo the local todo to be stored in the sync server
+	 * 
+	 * @return the row ID of the newly inserted row or -1 if an error occurred.
+	 */
+	public long insertToSync(Todo localTodo) {
+		
+		ensureDb();
+
+		ContentValues v = new ContentValues();
+		v.put(ID_COLUMN, localTodo.id);
+		v.put(TITLE_COLUMN, localTodo.title);
+		v.put(DEADLINE_COLUMN, localTodo.deadline);
+		v.put(PRIORITY_COLUMN, localTodo.priority);
+		v.put(STATUS_COLUMN, localTodo.status);
+		v.put(DESCRIPTION_COLUMN, localTodo.description);
+		v.put(REVISION_COLUMN, TodoSchema.toSyncRevision(localTodo.revision.intValue()));
+		v.put(FINGERPRINT_COLUMN, localTodo.getFingerprint());
+		
+		return db.insert(SYNC_TABLE, null, v);
+	}
+
+	/**
+	 * Remove a remote todo item from the synchronization process.
+	 * 
+	 * @param id the remote todo's ID
+	 * 
+	 * @return the number of removed todo items.
+	 */
+	public int removeSync(long id) {
+		
+		ensureDb();
+
+		return db.delete(
+			SYNC_TABLE,
+			ID_COLUMN + " = ?",
+			new String[] {String.valueOf(id)}
+		);
+	}
+
+	/**
+	 * Delete a local todo item.
+	 * 
+	 * @param id the local todo's ID
+	 * 
+	 * @return the number of removed todo items.
+	 */
+	public int deleteLocal(long id) {
+		
+		ensureDb();
+
+		db.delete(
+			TodoSchema.MERGE_BASE_TABLE,
+			ID_COLUMN + " = ?",
+			new String[] {String.valueOf(id)}
+		);
+
+		int count = db.delete(
+			TODO_TABLE,
+			ID_COLUMN + " = ?",
+			new String[] {String.valueOf(id)}
+		) + db.delete(
+			DELETED_TODO_TABLE,
+			ID_COLUMN + " = ?",
+			new String[] {String.valueOf(id)}
+		);
+		todoCache.invalidate(id);
+
+		return count;
+	}
+
+	/**
+	 * Delete a remote todo item.
+	 * 
+	 * @param id the remote todo's ID
+	 * 
+	 * @return the number of removed todo items.
+	 */
+	public int deleteSync(long id) {
+		
+		ensureDb();
+
+		ContentValues v = new ContentValues();
+		v.putNull(TITLE_COLUMN);
+		v.putNull(DEADLINE_COLUMN);
+		v.putNull(PRIORITY_COLUMN);
+		v.putNull(STATUS_COLUMN);
+		v.putNull(DESCRIPTION_COLUMN);
+		v.putNull(REVISION_COLUMN);
+		v.putNull(FINGERPRINT_COLUMN);
+	
+		return db.update(SYNC_TABLE, v, ID_COLUMN + " = ?", new String[] {String.valueOf(id)});
+	}
+
+	/**
+	 * Returns true if the user has deleted the local todo, otherwise false.
+	 * 
+	 * @param id the local todo's ID
+	 */
+	public boolean isLocalDeleted(long id) {
+		
+		boolean result = false;
+		ensureDb();
+
+		Cursor c = db.query(
+			DELETED_TODO_TABLE,
+			null,
+			ID_COLUMN + " = ?",
+			new String[] {String.valueOf(id)},
+			null,
+			null,
+			null
+		);
+
+		if (c.getCount() != 0) {
+
+			result = true;
+		}
+
+		c.close();
+	
+		return result;
+	}
+
+	/** Imports remote todos that do not exist in the local DB to the DB. */
+	public void importNewTodos() {
+		
+		ensureDb();
+
+		db.execSQL(TodoSchema.IMPORT_NEW_TODOS);
+		compressDescriptions(db, TodoSchema.SELECT_IMPORTED_LONG_DESCRIPTIONS);
+		todoCache.clear();
+	}
+
+	/** Confirms the new local todo items that will be sent to the server. */
+	public void confirmNewTodos() {
+
+		ensureDb();
+
+		db.execSQL(TodoSchema.CONFIRM_NEW_TODOS);
+		db.execSQL(TodoSchema.DELETE_NEW_TODOS);
+		todoCache.clear();
+	}
+	
+	/**
+	 * Deletes a todo item.
+	 * 
+	 * @param id the id of the todo item.
+	 * 
+	 * @return the number of deleted todo items.
+	 */
+	public int deleteTodo(long id) {
+
+		ensureDb();
+		unarchiveTodos(new long[] {id});
+		
+		Cursor c = db.query(
+			TODO_TABLE,
+			new String[] {REVISION_COLUMN},
+			ID_COLUMN + " = ?",
+			new String[] {String.valueOf(id)},
+			null,
+			null,
+			null
+		);
+		if (c.getCount() == 0) {
+
+			c.close();
+
+			return 0;
+		}
+		c.moveToNext();
+		int revision = c.getInt(c.getColumnIndex(REVISION_COLUMN));
+
+		c.close();
+		db.beginTransaction();
+		try {
+
+			int count;
+			if (revision == NEW_TODO_REVISION) {
+
+				// the server has never seen the item
+				count = db.delete(
+						TODO_TABLE,
+						ID_COLUMN + " = ?",
+						new String[] {String.valueOf(id)}
+				);
+				removeOutboxOf(id);
+			} else {
+
+				ContentValues v = new ContentValues();
+				v.put(ID_COLUMN, id);
+
+				db.insert(DELETED_TODO_TABLE, null, v);
+				appendOutbox(id, TodoTlv.CHUNK_DELETE_TODO, 0, null);
+				count = 1;
+			}
+			db.setTransactionSuccessful();
+
+			return count;
+		} finally {
+
+			db.endTransaction();
+			todoCache.invalidate(id);
+		}
+	}
+
+	/** Applies an edit to the listed todo items with compiled statements in a single transaction. */
+	public int updateTodos(long[] ids, TodoBulkEdit edit) {
+
+		ensureDb();
+
+		if (edit.isEmpty()) {
+
+			return 0;
+		}
+		db.beginTransaction();
+		try {
+
+			unarchiveTodos(ids);
+			int n = 0;
+			SQLiteStatement s = db.compileStatement(TodoSchema.UPDATE_BULK_EDITED_TODO);
+			SQLiteStatement outbox = db.compileStatement(TodoSchema.INSERT_OUTBOX);
+			try {
+
+				for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+					// the fingerprint covers the fields that are not edited as well
+					Cursor c = db.rawQuery(
+						TodoSchema.selectWithDescription(TODO_TABLE) + " where " + ID_COLUMN + " in "
+						+ TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)),
+						null);
+					try {
+
+						TodoRow row = new TodoRow(new AndroidTodoCursor(c));
+						while (row.moveToNext()) {
+
+							Todo t = row.toTodo();
+							int mask = edit.apply(t);
+							if (mask == 0) {
+
+								continue;
+							}
+							bind(s, 1, t.deadline);
+							bind(s, 2, t.priority);
+							bind(s, 3, t.status);
+							s.bindLong(4, t.computeFingerprint());
+							s.bindLong(5, t.id.longValue());
+							s.execute();
+							addOutbox(outbox, t.id.longValue(), TodoTlv.CHUNK_UPDATE_TODO, mask);
+							n++;
+						}
+					} finally {
+
+						c.close();
+					}
+				}
+			} finally {
+
+				s.close();
+				outbox.close();
+			}
+			db.setTransactionSuccessful();
+
+			return n;
+		} finally {
+
+			db.endTransaction();
+			todoCache.invalidate(ids);
+		}
+	}
+
+	/** Deletes the listed todo items with set-based statements in a single transaction. */
+	public int deleteTodos(long[] ids) {
+
+		ensureDb();
+
+		db.beginTransaction();
+		try {
+
+			unarchiveTodos(ids);
+			long[] newIds = new long[ids.length];
+			long[] sentIds = new long[ids.length];
+			int newCount = 0;
+			int sentCount = 0;
+			for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+				Cursor c = db.rawQuery(
+					TodoSchema.SELECT_DELETABLE_TODOS_IN
+					+ TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)),
+					null);
+				try {
+
+					while (c.moveToNext()) {
+
+						if (c.getInt(1) == NEW_TODO_REVISION) {
+
+							newIds[newCount++] = c.getLong(0);
+						} else {
+
+							sentIds[sentCount++] = c.getLong(0);
+						}
+					}
+				} finally {
+
+					c.close();
+				}
+			}
+
+			// the server has never seen the new items
+			newIds = Arrays.copyOf(newIds, newCount);
+			execSQLIn(TodoSchema.DELETE_TODO_IN, newIds);
+			execSQLIn(TodoSchema.DELETE_OUTBOX_OF_TODOS_IN, newIds);
+
+			SQLiteStatement s = db.compileStatement(TodoSchema.INSERT_DELETED_TODO);
+			SQLiteStatement outbox = db.compileStatement(TodoSchema.INSERT_OUTBOX);
+			try {
+
+				for (int i = 0; i < sentCount; i++) {
+
+					s.bindLong(1, sentIds[i]);
+					s.executeInsert();
+					addOutbox(outbox, sentIds[i], TodoTlv.CHUNK_DELETE_TODO, 0);
+				}
+			} finally {
+
+				s.close();
+				outbox.close();
+			}
+			db.setTransactionSuccessful();
+
+			return newCount + sentCount;
+		} finally {
+
+			db.endTransaction();
+			todoCache.invalidate(ids);
+		}
+	}
+
+	/** Appends an operation without a base revision to the outbox through a compiled INSERT_OUTBOX. */
+	protected static void addOutbox(SQLiteStatement outbox, long todoId, byte type, int fieldMask) {
+
+		outbox.bindLong(1, todoId);
+		outbox.bindLong(2, type);
+		outbox.bindLong(3, fieldMask);
+		outbox.bindNull(4);
+		outbox.executeInsert();
+	}
+	
+	/**
+	 * Returns a todo item that is received from the synchronization server.
+	 * 
+	 * @param id the id of the todo to be retrieved.
+	 * 
+	 * @return a cursor containing the desired todo item if it exists.
+	 */
+	public TodoItem getRemoteTodo(long id) {
+
+		ensureDb();
+
+		// only the primary connection has the sync table
+		db.beginTransaction();
+		try {
+
+			TodoItem t = getTodoItemFromCursor(db.query(
+				SYNC_TABLE,
+				null,
+				ID_COLUMN + " = ? ",
+				new String[] {String.valueOf(id)},
+				null,
+				null,
+				null
+			));
+			db.setTransactionSuccessful();
+
+			return t;
+		} finally {
+
+			db.endTransaction();
+		}
+	}
+
+	public List<Todo> getRemoteTodos(long[] ids) {
+
+		ensureDb();
+
+		// only the primary connection has the sync table
+		db.beginTransaction();
+		try {
+
+			List<Todo> todos = new ArrayList<Todo>();
+			for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+				readTodoItems(db.rawQuery(
+					"select * from " + SYNC_TABLE + " where " + ID_COLUMN + " in "
+					+ TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)),
+					null), todos);
+			}
+			db.setTransactionSuccessful();
+
+			return todos;
+		} finally {
+
+			db.endTransaction();
+		}
+	}
+
+	/** Adds the todo items of a cursor to a list and closes the cursor. */
+	protected void readTodoItems(Cursor c, List<Todo> todos) {
+
+		try {
+
+			TodoRow row = new TodoRow(new AndroidTodoCursor(c));
+			while (row.moveToNext()) {
+
+				todos.add(new TodoItem(row.toTodo()));
+			}
+		} finally {
+
+			c.close();
+		}
+	}
+
+	protected TodoItem getTodoItemFromCursor(Cursor c) {
+
+		TodoItem todoItem = null;
+
+		if (c.getCount() == 0) {
+
+			c.close();
+
+			return todoItem;
+		}
+		c.moveToNext();
+		todoItem = new TodoItem(c);
+		c.close();
+
+		return todoItem;
+	}
+	
+	/**
+	 * Returns a todo item, which may be archived.
+	 * 
+	 * @param id the id of the todo to be retrieved.
+	 * 
+	 * @return the desired todo item if it exists, otherwise null.
+	 */
+	public TodoItem getTodo(long id) {
+
+		ensureDb();
+
+		// a transaction of this thread reads its own uncommitted writes
+		boolean isCacheable = !db.inTransaction();
+		if (isCacheable) {
+
+			Todo cached = todoCache.get(id);
+			if (cached != null) {
+
+				return new TodoItem(cached);
+			}
+		}
+		long generation = todoCache.getGeneration();
+
+		TodoItem t = getTodoItemFromCursor(db.rawQuery(
+			TodoSchema.selectWithDescription(TODO_TABLE)
+			+ " where " + ID_COLUMN + " = ? and not exists (select "
+			+ ID_COLUMN + " from " + DELETED_TODO_TABLE + " where " + ID_COLUMN + " = ?)",
+			new String[] {String.valueOf(id), String.valueOf(id)}
+		));
+
+		if (t == null) {
+
+			t = getTodoItemFromCursor(db.rawQuery(
+				TodoSchema.selectWithDescription(TodoSchema.ARCHIVED_TODO_TABLE)
+				+ " where " + ID_COLUMN + " = ?",
+				new String[] {String.valueOf(id)}
+			));
+		}
+		if (t != null && isCacheable) {
+
+			todoCache.put(new Todo(t), generation);
+		}
+
+		return t;
+	}
+
+	/** Reads the items without the cache, which is only filled by single reads. */
+	public List<Todo> getTodos(long[] ids) {
+
+		ensureDb();
+
+		List<Todo> todos = new ArrayList<Todo>();
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			String idList = TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT));
+			readTodoItems(db.rawQuery(
+				TodoSchema.selectWithDescription(TODO_TABLE) + " where " + ID_COLUMN + " in " + idList
+				+ " and " + ID_COLUMN + " not in (select " + ID_COLUMN + " from " + DELETED_TODO_TABLE + ")",
+				null), todos);
+			readTodoItems(db.rawQuery(
+				TodoSchema.selectWithDescription(TodoSchema.ARCHIVED_TODO_TABLE)
+				+ " where " + ID_COLUMN + " in " + idList,
+				null), todos);
+		}
+
+		return todos;
+	}
+
+	/** Returns the cache of getTodo() whose hit rate tells how well it is sized. */
+	public TodoCache getTodoCache() {
+
+		return todoCache;
+	}
+	
+	/**
+	 * Returns a todo item even if it is deleted.
+	 *
+	 * @param id the id of the todo to be retrieved.
+	 *
+	 * @return the desired todo item if it exists, otherwise null.
+	 */
+	public TodoItem getLocalTodo(long id) {
+
+		ensureDb();
+
+		return getTodoItemFromCursor(db.rawQuery(
+			TodoSchema.selectWithDescription(TODO_TABLE) + " where " + ID_COLUMN + " = ?",
+			new String[] {String.valueOf(id)}
+		));
+	}
+
+	public String getLongDescription(long id) {
+
+		ensureDb();
+
+		Cursor c = db.rawQuery(TodoSchema.SELECT_DESCRIPTION, new String[] {String.valueOf(id)});
+		try {
+
+			return c.moveToFirst() ? TodoDescription.decompress(c.getBlob(0)) : null;
+		} finally {
+
+			c.close();
+		}
+	}
+
+	/**
+	 * Returns all todo items.
+	 * 
+	 * @param desiredColumns the attributes of every todo items to be retrieved
+	 * @param sortByColumn the attribute used to sort the todo items
+	 * @param isAsc the sorting order of the todo items
+	 * 
+	 * @return a cursor containing all todo items sorted in a particular order if any exists.
+	 */
+	public Cursor getAllTodo(String[] desiredColumns, String sortByColumn, boolean isAsc) {
+
+		ensureDb();
+
+		return db.query(
+				TODO_TABLE,
+				desiredColumns,
+				ID_COLUMN + " not in (select "
+				+ ID_COLUMN + " from " + DELETED_TODO_TABLE + ")",
+				null,
+				null,
+				null,
+				sortByColumn + " " + (isAsc ? "asc" : "desc")
+		);
+	}
+	
+	/**
+	 * Returns all archived todo items.
+	 *
+	 * @see #getAllTodo(String[], String, boolean)
+	 */
+	public Cursor getAllArchivedTodo(String[] desiredColumns, String sortByColumn, boolean isAsc) {
+
+		ensureDb();
+
+		return db.query(
+				TodoSchema.ARCHIVED_TODO_TABLE,
+				desiredColumns,
+				null,
+				null,
+				null,
+				null,
+				sortByColumn + " " + (isAsc ? "asc" : "desc")
+		);
+	}
+
+	public TodoSummary getSummary(String today) {
+
+		ensureDb();
+
+		TodoSummary summary = new TodoSummary();
+		Cursor c = db.rawQuery(TodoSchema.SELECT_COUNTERS, null);
+		try {
+
+			while (c.moveToNext()) {
+
+				summary.putCounter(c.getString(0), c.getInt(1));
+			}
+		} finally {
+
+			c.close();
+		}
+		summary.overdueCount = (int) DatabaseUtils.longForQuery(db, TodoSchema.SELECT_OVERDUE_COUNT,
+							     new String[] {today});
+
+		return summary;
+	}
+
+	/**
+	 * Returns all todo items including the ones that have ever been
+	 * synchronized and get deleted before this sync.
+	 * 
+	 * @return a cursor containing all todo items in the todo table.
+	 */
+	public TodoCursor getAllTodoIncludingDeletedOnes() {
+		
+		ensureDb();
+
+		return new AndroidTodoCursor(db.query(
+			TODO_TABLE,
+			new String[] {
+				ID_COLUMN,
+				TITLE_COLUMN,
+				DEADLINE_COLUMN,
+				PRIORITY_COLUMN,
+				STATUS_COLUMN,
+				DESCRIPTION_COLUMN,
+				REVISION_COLUMN,
+				FINGERPRINT_COLUMN
+			},
+			null,
+			null,
+			null,
+			null,
+			ID_COLUMN
+		));
+	}
+
+	/** Returns all records of the sync table sorted by ID. */
+	public TodoCursor getAllSyncTodo() {
+		
+		return querySync(
+			new String[] {
+				ID_COLUMN,
+				TITLE_COLUMN,
+				DEADLINE_COLUMN,
+				PRIORITY_COLUMN,
+				STATUS_COLUMN,
+				DESCRIPTION_COLUMN,
+				REVISION_COLUMN,
+				FINGERPRINT_COLUMN
+			},
+			null
+		);
+	}
+	
+	/** Returns the ID, revision and fingerprint of all todo items including the deleted ones sorted by ID. */
+	public TodoCursor getAllTodoFingerprints() {
+		
+		ensureDb();
+
+		return new AndroidTodoCursor(db.query(
+			TODO_TABLE,
+			TodoSchema.FINGERPRINT_COLUMNS,
+			null,
+			null,
+			null,
+			null,
+			ID_COLUMN
+		));
+	}
+	
+	/** Returns the ID, revision and fingerprint of all records of the sync table sorted by ID. */
+	public TodoCursor getAllSyncFingerprints() {
+		
+		return querySync(
+			TodoSchema.FINGERPRINT_COLUMNS,
+			null
+		);
+	}
+	
+	/** Returns the IDs of the todo items deleted since the last sync sorted by ID. */
+	public TodoCursor getAllDeletedTodoIds() {
+		
+		ensureDb();
+
+		return new AndroidTodoCursor(db.query(
+			DELETED_TODO_TABLE,
+			new String[] {ID_COLUMN},
+			null,
+			null,
+			null,
+			null,
+			ID_COLUMN
+		));
+	}
+	
+	/** Returns all new todo items to be sent to the synchronization server. */
+	public TodoCursor getAllNewSyncTodo() {
+		
+		return querySync(
+				new String[] {
+					ID_COLUMN,
+					TITLE_COLUMN,
+					DEADLINE_COLUMN,
+					PRIORITY_COLUMN,
+					STATUS_COLUMN,
+					DESCRIPTION_COLUMN,
+					REVISION_COLUMN
+				},
+				REVISION_COLUMN + " < 0"
+		);
+	}
+	
+	/** Returns all updated todo items to be sent to the synchronization server. */
+	public TodoCursor getAllUpdatedSyncTodo() {
+		
+		return querySync(
+				new String[] {
+					ID_COLUMN,
+					TITLE_COLUMN,
+					DEADLINE_COLUMN,
+					PRIORITY_COLUMN,
+					STATUS_COLUMN,
+					DESCRIPTION_COLUMN,
+					REVISION_COLUMN
+				},
+				"(" + TITLE_COLUMN + " is not null"
+				+ " or " + DEADLINE_COLUMN + " is not null"
+				+ " or " + PRIORITY_COLUMN + " is not null"
+				+ " or " + STATUS_COLUMN + " is not null"
+				+ " or " + DESCRIPTION_COLUMN + " is not null)"
+				+ " and revision is null"
+		);
+	}
+	
+	/** Returns all deleted todo items to be sent to the synchronization server. */
+	public TodoCursor getAllDeletedSyncTodo() {
+		
+		return querySync(
+				new String[] {ID_COLUMN},
+				TITLE_COLUMN + " is null"
+				+ " and " + DEADLINE_COLUMN + " is null"
+				+ " and " + PRIORITY_COLUMN + " is null"
+				+ " and " + STATUS_COLUMN + " is null"
+				+ " and " + DESCRIPTION_COLUMN + " is null"
+				+ " and revision is null"
+		);
+	}
+
+	/** Creates new remote todo items from the listed local ones skipping colliding IDs. */
+	public void insertToSync(long[] ids) {
+
+		inlineDescriptions(ids);
+		execSQLIn(TodoSchema.INSERT_TO_SYNC_IN, ids);
+		compressDescriptions(ids);
+	}
+
+	/** Updates the listed remote todo items with the fields that differ locally. */
+	public void updateSync(long[] ids) {
+
+		inlineDescriptions(ids);
+		execSQLIn(TodoSchema.UPDATE_SYNC_IN, ids);
+		compressDescriptions(ids);
+	}
+
+	/** Replaces the listed local todo items with the remote ones. */
+	public void replaceTodos(long[] ids) {
+
+		execSQLIn(TodoSchema.DELETE_DELETED_TODO_IN, ids);
+		execSQLIn(TodoSchema.REPLACE_TODOS_IN, ids);
+		compressDescriptions(ids);
+		todoCache.invalidate(ids);
+	}
+
+	/** Removes the listed remote todo items from the synchronization process. */
+	public void removeSync(long[] ids) {
+
+		execSQLIn(TodoSchema.REMOVE_SYNC_IN, ids);
+	}
+
+	/** Deletes the listed local todo items. */
+	public void deleteLocal(long[] ids) {
+
+		execSQLIn(TodoSchema.DELETE_TODO_IN, ids);
+		execSQLIn(TodoSchema.DELETE_DELETED_TODO_IN, ids);
+		execSQLIn(TodoSchema.DELETE_MERGE_BASE_IN, ids);
+		todoCache.invalidate(ids);
+	}
+
+	/** Marks the listed remote todo items for deletion. */
+	public void deleteSync(long[] ids) {
+
+		execSQLIn(TodoSchema.DELETE_SYNC_IN, ids);
+	}
+
+	/** Adds delta to the revision of the listed local todo items. */
+	public void addTodoRevision(long[] ids, int delta) {
+
+		execSQLIn(TodoSchema.ADD_TODO_REVISION_IN, ids, Integer.valueOf(delta));
+		todoCache.invalidate(ids);
+	}
+
+	public SyncCheckpoint getSyncCheckpoint() {
+
+		ensureDb();
+
+		Cursor c = db.rawQuery(TodoSchema.SELECT_SYNC_CHECKPOINT, null);
+		try {
+
+			if (!c.moveToFirst()) {
+
+				return null;
+			}
+
+			return new SyncCheckpoint(c.getLong(0), SyncState.valueOf(c.getString(1)), c.getInt(2),
+						  c.isNull(3) ? null : c.getBlob(3), c.isNull(4) ? null : c.getBlob(4));
+		} finally {
+
+			c.close();
+		}
+	}
+
+	public void saveSyncCheckpoint(SyncCheckpoint checkpoint) {
+
+		ensureDb();
+
+		db.execSQL(TodoSchema.SAVE_SYNC_CHECKPOINT, new Object[] {
+			Long.valueOf(checkpoint.token), checkpoint.phase.name(),
+			Integer.valueOf(checkpoint.received), checkpoint.bucketSet, checkpoint.pending
+		});
+	}
+
+	public void clearSyncCheckpoint() {
+
+		ensureDb();
+
+		db.execSQL(TodoSchema.DELETE_SYNC_CHECKPOINT);
+	}
+
+	public long getIdPrefix() {
+
+		return queryLong(TodoSchema.SELECT_ID_PREFIX);
+	}
+
+	public void appendOutbox(long todoId, byte type, int fieldMask, Integer baseRevision) {
+
+		ensureDb();
+
+		db.execSQL(TodoSchema.INSERT_OUTBOX, new Object[] {
+			Long.valueOf(todoId), Integer.valueOf(type), Integer.valueOf(fieldMask), baseRevision
+		});
+	}
+
+	public List<OutboxOp> getOutbox(int limit) {
+
+		ensureDb();
+
+		List<OutboxOp> ops = new ArrayList<OutboxOp>();
+		Cursor c = db.rawQuery(TodoSchema.SELECT_OUTBOX, new String[] {String.valueOf(limit)});
+		try {
+
+			while (c.moveToNext()) {
+
+				ops.add(new OutboxOp(c.getLong(0), c.getLong(1), (byte) c.getInt(2), c.getInt(3),
+						     c.isNull(4) ? null : Integer.valueOf(c.getInt(4))));
+			}
+		} finally {
+
+			c.close();
+		}
+
+		return ops;
+	}
+
+	public long getLastOutboxSequence() {
+
+		return queryLong(TodoSchema.SELECT_LAST_OUTBOX_SEQUENCE);
+	}
+
+	public void removeOutbox(long[] sequences) {
+
+		execSQLIn(TodoSchema.DELETE_OUTBOX_IN, sequences);
+	}
+
+	public void removeOutboxOf(long todoId) {
+
+		ensureDb();
+
+		db.execSQL(TodoSchema.DELETE_OUTBOX_OF_TODO, new Object[] {Long.valueOf(todoId)});
+	}
+
+	public void clearOutbox(long lastSequence) {
+
+		ensureDb();
+
+		db.execSQL(TodoSchema.DELETE_OUTBOX_UP_TO, new Object[] {Long.valueOf(lastSequence)});
+	}
+
+	public long getPullWatermark() {
+
+		return queryLong(TodoSchema.SELECT_PULL_WATERMARK);
+	}
+
+	public void savePullWatermark(long watermark) {
+
+		ensureDb();
+
+		db.execSQL(TodoSchema.SAVE_PULL_WATERMARK, new Object[] {Long.valueOf(watermark)});
+	}
+
+	public byte[] getMergeBase(long id) {
+
+		ensureDb();
+
+		Cursor c = db.rawQuery(TodoSchema.SELECT_MERGE_BASE, new String[] {String.valueOf(id)});
+		try {
+
+			return c.moveToFirst() ? c.getBlob(0) : null;
+		} finally {
+
+			c.close();
+		}
+	}
+
+	public void saveMergeBase(long id, byte[] base) {
+
+		ensureDb();
+
+		db.execSQL(TodoSchema.SAVE_MERGE_BASE, new Object[] {Long.valueOf(id), base});
+	}
+
+	public Map<Long, byte[]> getMergeBases(long[] ids) {
+
+		return queryBlobsIn(TodoSchema.SELECT_MERGE_BASES_IN, ids);
+	}
+
+	public void saveMergeBases(Map<Long, byte[]> bases) {
+
+		ensureDb();
+
+		db.beginTransaction();
+		try {
+
+			SQLiteStatement s = db.compileStatement(TodoSchema.SAVE_MERGE_BASE);
+			try {
+
+				for (Map.Entry<Long, byte[]> e : bases.entrySet()) {
+
+					s.bindLong(1, e.getKey().longValue());
+					s.bindBlob(2, e.getValue());
+					s.executeInsert();
+				}
+			} finally {
+
+				s.close();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+
+			db.endTransaction();
+		}
+	}
+
+	public Map<Long, byte[]> getRemoteVersionVectors(long[] ids) {
+
+		ensureDb();
+
+		// only the primary connection has the sync table
+		db.beginTransaction();
+		try {
+
+			Map<Long, byte[]> vectors = queryBlobsIn(TodoSchema.SELECT_SYNC_VERSION_VECTORS_IN, ids);
+			db.setTransactionSuccessful();
+
+			return vectors;
+		} finally {
+
+			db.endTransaction();
+		}
+	}
+
+	public int archiveTodos(String deadlineBefore) {
+
+		ensureDb();
+
+		db.beginTransaction();
+		try {
+
+			long[] buckets = getArchiveBuckets();
+			long[] ids;
+			TodoCursor c = new AndroidTodoCursor(db.rawQuery(TodoSchema.SELECT_ARCHIVABLE_TODOS,
+									new String[] {deadlineBefore}));
+			try {
+
+				ids = HashTree.addAll(buckets, c);
+			} finally {
+
+				c.close();
+			}
+			if (ids.length != 0) {
+
+				execSQLIn(TodoSchema.ARCHIVE_TODOS_IN, ids);
+				execSQLIn(TodoSchema.DELETE_TODO_IN, ids);
+				db.execSQL(TodoSchema.SAVE_ARCHIVE_HASH, new Object[] {HashTree.pack(buckets)});
+			}
+			db.setTransactionSuccessful();
+
+			return ids.length;
+		} finally {
+
+			db.endTransaction();
+			todoCache.clear();
+		}
+	}
+
+	public void unarchiveBuckets(byte[] bucketSet) {
+
+		ensureDb();
+
+		TodoCursor c = new AndroidTodoCursor(db.rawQuery(TodoSchema.SELECT_ARCHIVED_FINGERPRINTS, null));
+		unarchive(bucketSet == null ? c : HashTree.filter(c, bucketSet));
+	}
+
+	public void unarchiveTodos(long[] ids) {
+
+		ensureDb();
+
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			unarchive(new AndroidTodoCursor(db.rawQuery(
+				TodoSchema.SELECT_ARCHIVED_FINGERPRINTS + " where " + ID_COLUMN + " in "
+				+ TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)),
+				null)));
+		}
+	}
+
+	/**
+	 * Moves the archived items of a cursor with the FINGERPRINT_COLUMNS back
+	 * to the todo table and closes the cursor. No transaction is begun if
+	 * the cursor is empty, which it mostly is when an edit checks its item.
+	 */
+	protected void unarchive(TodoCursor c) {
+
+		long[] removed = new long[HashTree.BUCKET_COUNT];
+		long[] ids;
+		try {
+
+			ids = HashTree.addAll(removed, c);
+		} finally {
+
+			c.close();
+		}
+		if (ids.length == 0) {
+
+			return;
+		}
+
+		db.beginTransaction();
+		try {
+
+			long[] buckets = getArchiveBuckets();
+			HashTree.addBuckets(buckets, removed);
+			execSQLIn(TodoSchema.UNARCHIVE_TODOS_IN, ids);
+			execSQLIn(TodoSchema.DELETE_ARCHIVED_TODO_IN, ids);
+			db.execSQL(TodoSchema.SAVE_ARCHIVE_HASH, new Object[] {HashTree.pack(buckets)});
+			db.setTransactionSuccessful();
+		} finally {
+
+			db.endTransaction();
+			todoCache.invalidate(ids);
+		}
+	}
+
+	public long[] getArchiveBuckets() {
+
+		ensureDb();
+
+		Cursor c = db.rawQuery(TodoSchema.SELECT_ARCHIVE_HASH, null);
+		try {
+
+			return HashTree.unpack(c.moveToFirst() ? c.getBlob(0) : null);
+		} finally {
+
+			c.close();
+		}
+	}
+
+	/** Returns all archived todo items sorted by ID. */
+	public TodoCursor getAllArchivedTodo() {
+
+		ensureDb();
+
+		return new AndroidTodoCursor(db.query(
+			TodoSchema.ARCHIVED_TODO_TABLE,
+			TodoSchema.ALL_COLUMNS,
+			null,
+			null,
+			null,
+			null,
+			ID_COLUMN
+		));
+	}
+
+	/**
+	 * Switches the DB to incremental auto_vacuum by a VACUUM of the whole
+	 * file the first time, which is why only TodoMaintenance calls it.
+	 */
+	public void optimize() {
+
+		ensureDb();
+
+		db.execSQL(TodoSchema.ANALYZE);
+		if (DatabaseUtils.longForQuery(db, TodoSchema.SELECT_AUTO_VACUUM, null)
+		    != TodoSchema.AUTO_VACUUM_INCREMENTAL) {
+
+			// the VACUUM gives all free pages back as well
+			db.execSQL(TodoSchema.SET_AUTO_VACUUM_INCREMENTAL);
+			db.execSQL(TodoSchema.VACUUM);
+			return;
+		}
+		Cursor c = db.rawQuery(TodoSchema.INCREMENTAL_VACUUM, null);
+		try {
+
+			// the pragma frees a page per row, which counting the rows steps through
+			c.getCount();
+		} finally {
+
+			c.close();
+		}
+	}
+
+	public void beginTransaction() {
+
+		ensureDb();
+
+		db.beginTransaction();
+	}
+
+	public void setTransactionSuccessful() {
+
+		db.setTransactionSuccessful();
+	}
+
+	/**
+	 * Ends a transaction of the sync, whose writes only invalidate the
+	 * cached items once they have been committed.
+	 */
+	public void endTransaction() {
+
+		db.endTransaction();
+		todoCache.clear();
+	}
+
+	/** Executes one of the *_IN statements of TodoSchema for every chunk of the IDs. */
+	protected void execSQLIn(String sql, long[] ids, Object... bindArgs) {
+
+		ensureDb();
+
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			db.execSQL(sql + TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)),
+				   bindArgs);
+		}
+	}
+
+	/**
+	 * Executes a *_IN statement selecting an ID and a blob for every chunk
+	 * of the IDs and returns the blobs by ID.
+	 */
+	protected Map<Long, byte[]> queryBlobsIn(String sql, long[] ids) {
+
+		ensureDb();
+
+		Map<Long, byte[]> blobs = new HashMap<Long, byte[]>();
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			Cursor c = db.rawQuery(
+				sql + TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)),
+				null);
+			try {
+
+				while (c.moveToNext()) {
+
+					blobs.put(Long.valueOf(c.getLong(0)), c.getBlob(1));
+				}
+			} finally {
+
+				c.close();
+			}
+		}
+
+		return blobs;
+	}
+
+	/** Moves the long descriptions of the todo items that a *_IN statement has written into todo_description. */
+	protected void compressDescriptions(long[] ids) {
+
+		ensureDb();
+
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			compressDescriptions(db, TodoSchema.SELECT_LONG_DESCRIPTIONS_IN
+					     + TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)));
+		}
+	}
+
+	/**
+	 * Writes the compressed descriptions of todo items back to their
+	 * description columns for a *_IN statement copying the descriptions
+	 * in SQL, after which compressDescriptions() moves them out again.
+	 */
+	protected void inlineDescriptions(long[] ids) {
+
+		ensureDb();
+
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			Cursor c = db.rawQuery(
+				TodoSchema.SELECT_COMPRESSED_DESCRIPTIONS_IN
+				+ TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)),
+				null);
+			long[] inlined = new long[c.getCount()];
+			String[] descriptions = new String[inlined.length];
+			try {
+
+				for (int j = 0; c.moveToNext(); j++) {
+
+					inlined[j] = c.getLong(0);
+					descriptions[j] = TodoDescription.decompress(c.getBlob(1));
+				}
+			} finally {
+
+				c.close();
+			}
+			for (int j = 0; j < inlined.length; j++) {
+
+				db.execSQL(TodoSchema.INLINE_DESCRIPTION, new Object[] {descriptions[j], inlined[j]});
+			}
+		}
+	}
+
+	/** Returns the single value that a query gives. */
+	protected long queryLong(String sql) {
+
+		ensureDb();
+
+		Cursor c = db.rawQuery(sql, null);
+		try {
+
+			if (!c.moveToFirst()) {
+
+				throw new IllegalStateException("No result of " + sql);
+			}
+
+			return c.getLong(0);
+		} finally {
+
+			c.close();
+		}
+	}
+
+	/** Ensures that the DB is ready for reading and writing. */
+	protected void ensureDb() {
+
+		if (db == null) {
+
+			db = helper.getWritableDatabase();
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+
+				db.enableWriteAheadLogging();
+			}
+		}
+	}
+
+	/**
+	 * Queries the sync table sorted by ID. In WAL mode, the rows are read
+	 * by a SyncPageCursor since only the primary connection has the sync
+	 * table.
+	 *
+	 * @param columns the columns, which must include the ID
+	 */
+	protected TodoCursor querySync(String[] columns, String selection) {
+
+		ensureDb();
+
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+
+			return new SyncPageCursor(columns, selection);
+		}
+
+		return new AndroidTodoCursor(db.query(SYNC_TABLE, columns, selection, null, null, null, ID_COLUMN));
+	}
+
+	/**
+	 * Class SyncPageCursor reads the rows of the sync table by ascending ID
+	 * in pages of SYNC_PAGE_SIZE rows. Every page is copied out of its own
+	 * transaction on the primary connection, so the cursor holds no
+	 * transaction between two calls and can be closed on any thread.
+	 */
+	protected class SyncPageCursor implements TodoCursor {
+
+		/** The queried columns. */
+		protected final String[] columns;
+		/** The selection of the rows or null for all. */
+		protected final String selection;
+		/** The index of the ID in the columns. */
+		protected final int idIndex;
+		/** The rows of the current page. */
+		protected final List<Object[]> page = new ArrayList<Object[]>(SYNC_PAGE_SIZE);
+		/** The position in the page. */
+		protected int position = -1;
+		/** The ID of the last row read or Long.MIN_VALUE before the first page. */
+		protected long lastId = Long.MIN_VALUE;
+		/** True once a page has had fewer than SYNC_PAGE_SIZE rows. */
+		protected boolean isLastPage;
+		/** The number of rows or -1 if not counted yet. */
+		protected int count = -1;
+
+		public SyncPageCursor(String[] columns, String selection) {
+
+			this.columns = columns;
+			this.selection = selection;
+			idIndex = Arrays.asList(columns).indexOf(ID_COLUMN);
+			if (idIndex < 0) {
+
+				throw new IllegalArgumentException("The columns lack " + ID_COLUMN);
+			}
+		}
+
+		public int getCount() {
+
+			if (count < 0) {
+
+				db.beginTransaction();
+				try {
+
+					count = (int) DatabaseUtils.queryNumEntries(db, SYNC_TABLE, selection);
+					db.setTransactionSuccessful();
+				} finally {
+
+					db.endTransaction();
+				}
+			}
+
+			return count;
+		}
+
+		public boolean moveToNext() {
+
+			if (position + 1 < page.size()) {
+
+				position++;
+
+				return true;
+			}
+			if (isLastPage) {
+
+				return false;
+			}
+			readPage();
+			position = page.isEmpty() ? -1 : 0;
+
+			return !page.isEmpty();
+		}
+
+		/** Copies the rows following lastId into the page. */
+		protected void readPage() {
+
+			page.clear();
+			db.beginTransaction();
+			try {
+
+				Cursor c = db.query(
+					SYNC_TABLE,
+					columns,
+					(selection == null ? "" : "(" + selection + ") and ") + ID_COLUMN + " > ?",
+					new String[] {String.valueOf(lastId)},
+					null,
+					null,
+					ID_COLUMN,
+					String.valueOf(SYNC_PAGE_SIZE)
+				);
+				try {
+
+					while (c.moveToNext()) {
+
+						Object[] row = new Object[columns.length];
+						for (int i = 0; i < row.length; i++) {
+
+							switch (c.getType(i)) {
+							case Cursor.FIELD_TYPE_INTEGER:
+								row[i] = Long.valueOf(c.getLong(i));
+								break;
+							case Cursor.FIELD_TYPE_FLOAT:
+								row[i] = Double.valueOf(c.getDouble(i));
+								break;
+							case Cursor.FIELD_TYPE_STRING:
+								row[i] = c.getString(i);
+								break;
+							case Cursor.FIELD_TYPE_BLOB:
+								row[i] = c.getBlob(i);
+								break;
+							}
+						}
+						page.add(row);
+					}
+				} finally {
+
+					c.close();
+				}
+				db.setTransactionSuccessful();
+			} finally {
+
+				db.endTransaction();
+			}
+			isLastPage = page.size() < SYNC_PAGE_SIZE;
+			if (!page.isEmpty()) {
+
+				lastId = ((Number) page.get(page.size() - 1)[idIndex]).longValue();
+			}
+		}
+
+		public int getColumnCount() {
+
+			return columns.length;
+		}
+
+		public int getColumnIndex(String columnName) {
+
+			return Arrays.asList(columns).indexOf(columnName);
+		}
+
+		public boolean isNull(int columnIndex) {
+
+			return page.get(position)[columnIndex] == null;
+		}
+
+		public int getInt(int columnIndex) {
+
+			return (int) getLong(columnIndex);
+		}
+
+		public long getLong(int columnIndex) {
+
+			Object v = page.get(position)[columnIndex];
+			if (v == null) {
+
+				return 0;
+			}
+
+			return v instanceof Number ? ((Number) v).longValue() : Long.parseLong(v.toString());
+		}
+
+		public String getString(int columnIndex) {
+
+			Object v = page.get(position)[columnIndex];
+
+			return v == null ? null : v.toString();
+		}
+
+		public byte[] getBlob(int columnIndex) {
+
+			return (byte[]) page.get(position)[columnIndex];
+		}
+
+		public void close() {
+
+			page.clear();
+			isLastPage = true;
+		}
+	}
+}
@@ -15,6 +15,8 @@ import android.widget.DatePicker;
 import android.widget.EditText;
 import android.widget.Spinner;
 
+import com.euscomputerclub.android.todo.core.TodoSchema;
+
 public class TodoEdit extends Activity {
 
 	/** A request code to create a todo item. */
@@ -151,7 +153,7 @@ public class TodoEdit extends Activity {
 		deadline = new Deadline(todo.deadline);
 		deadlineDatePicker.init(deadline.getYear(), deadline.getMonth(), deadline.getDayOfMonth(), null);
 
-		priority = todo.priority.intValue();
+		priority = todo.priority == null ? TodoSchema.MIN_PRIORITY : todo.priority.intValue();
 		prioritySpinner.setSelection(priority - 1);
 
 		status = todo.status;
@@ -0,0 +1,77 @@
+package com.euscomputerclub.android.todo;
+
+import android.database.Cursor;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.euscomputerclub.android.todo.core.Todo;
+import com.euscomputerclub.android.todo.core.TodoRow;
+
+/**
+ * Class TodoItem represents a single todo item that can be passed between
+ * activities.
+ *
+ * @author Tadeus Prastowo
+ */
+public class TodoItem extends Todo implements Parcelable
+{
+	/** Copies the current row of a cursor, looking each column up once. */
+	TodoItem(Cursor c) {
+
+		this(new TodoRow(new AndroidTodoCursor(c)).toTodo());
+	}
+
+	TodoItem(Long id, String title, String deadline, Integer priority,
+		String status, String description, Integer revision) {
+
+		super(id, title, deadline, priority, status, description, revision);
+	}
+
+	/** Wraps a platform-independent todo item. */
+	TodoItem(Todo t) {
+
+		super(t);
+	}
+
+	public void writeToParcel(Parcel out, int flags) {
+
+		out.writeValue(id);
+		out.writeValue(title);
+		out.writeValue(deadline);
+		out.writeValue(priority);
+		out.writeValue(status);
+		out.writeValue(description);
+		out.writeValue(revision);
+		out.writeValue(fingerprint);
+	}
+
+	private TodoItem(Parcel in) {
+
+		super(
+			(Long) in.readValue(Long.class.getClassLoader()),
+			(String) in.readValue(String.class.getClassLoader()),
+			(String) in.readValue(String.class.getClassLoader()),
+			(Integer) in.readValue(Integer.class.getClassLoader()),
+			(String) in.readValue(String.class.getClassLoader()),
+			(String) in.readValue(String.class.getClassLoader()),
+			(Integer) in.readValue(Integer.class.getClassLoader())
+		);
+		fingerprint = (Long) in.readValue(Long.class.getClassLoader());
+	}
+
+	public int describeContents() {
+		return 0;
+	}
+
+	public static final Parcelable.Creator<TodoItem> CREATOR
+		= new Parcelable.Creator<TodoItem>() {
+
+		public TodoItem createFromParcel(Parcel in) {
+			return new TodoItem(in);
+		}
+
+		public TodoItem[] newArray(int size) {
+			return new TodoItem[size];
+		}
+	};
+}
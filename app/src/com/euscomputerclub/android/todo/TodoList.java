@@ -1,5 +1,10 @@
 package com.euscomputerclub.android.todo;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.ListActivity;
@@ -18,10 +23,16 @@ import android.view.ViewGroup;
 import android.view.View.OnClickListener;
 import android.widget.AdapterView;
 import android.widget.Button;
+import android.widget.CompoundButton;
 import android.widget.LinearLayout;
 import android.widget.ListView;
 import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
+import android.widget.ToggleButton;
+
+import com.euscomputerclub.android.todo.core.ConflictResolution;
+import com.euscomputerclub.android.todo.core.TodoBulkEdit;
+import com.euscomputerclub.android.todo.core.TodoSummary;
 
 public class TodoList extends ListActivity {
 
@@ -121,6 +132,19 @@ public class TodoList extends ListActivity {
 		public void handleMessage(Message msg) {
 
 			Bundle b = msg.getData();
+			if (b.getBoolean(TodoPull.PULLED, false) || b.getBoolean(TodoMaintenance.MAINTAINED, false)) {
+
+				updateTodoList();
+				return;
+			}
+			if (b.getBoolean(TodoBulkAction.BULK_DONE, false)) {
+
+				// the edits are committed and can be pushed
+				updateTodoList();
+				syncScheduler.noteEdit();
+				return;
+			}
+
 			TodoItem localTodo = (TodoItem) b.get(TodoSync.LOCAL_TODO);
 			TodoItem remoteTodo = (TodoItem) b.get(TodoSync.REMOTE_TODO);
 			String message = b.getString(TodoSync.MESSAGE);
@@ -129,13 +153,22 @@ public class TodoList extends ListActivity {
 
 			if (isDone) {
 
-				syncProgressDialog.dismiss();
+				if (syncProgressDialog != null) {
+
+					syncProgressDialog.dismiss();
+				}
+				syncScheduler.syncFinished(!isSyncFailed);
 				updateTodoList();
 				return;
 			}
 
 			if (errorMessage != null) {
 
+				isSyncFailed = true;
+				if (isBackgroundSync) {
+
+					return;
+				}
 				alertBuilder.setTitle("Sync Error");
 				alertBuilder.setMessage(errorMessage);
 				alertBuilder.show();
@@ -146,7 +179,10 @@ public class TodoList extends ListActivity {
 
 			if (message != null) {
 
-				syncProgressDialog.setMessage(message);
+				if (!isBackgroundSync) {
+
+					syncProgressDialog.setMessage(message);
+				}
 				return;
 			}
 
@@ -203,6 +239,45 @@ public class TodoList extends ListActivity {
 	};
 	/** The sync thread. */
 	protected TodoSync syncThread;
+	/** True if the running sync has been started by syncScheduler and shows no progress. */
+	protected boolean isBackgroundSync;
+	/** True if the running sync has reported an error. */
+	protected boolean isSyncFailed;
+	/** Starts a background sync some time after the todo items have been edited. */
+	protected SyncScheduler syncScheduler;
+	/** The thread pushing the outbox. */
+	protected TodoPush pushThread;
+	/** The thread pulling the changes notified by the sync server. */
+	protected TodoPull pullThread;
+	/** The thread archiving the old closed todo items. */
+	protected TodoMaintenance maintenanceThread;
+	/** True if the list shows the archived todo items instead of the others. */
+	protected boolean isArchiveShown;
+	/** The header showing the numbers of the listed todo items per status and priority. */
+	protected TextView summaryText;
+	/** The statuses counted in the summary header. */
+	protected String statusValues[];
+	/** The thread receiving the notifies of the sync server or null if there is no user ID. */
+	protected TodoNotifyListener notifyListener;
+	/** The IDs of the todo items selected by a long click for a bulk action. */
+	protected final HashSet<Long> selectedIds = new HashSet<Long>();
+	/** The bulk actions in the order of the BULK_* constants. */
+	protected static final String[] BULK_ACTIONS = {
+			"Set status",
+			"Set priority",
+			"Shift deadline",
+			"Delete",
+			"Select all",
+			"Clear selection"
+	};
+	protected static final int BULK_STATUS = 0;
+	protected static final int BULK_PRIORITY = 1;
+	protected static final int BULK_DEADLINE = 2;
+	protected static final int BULK_DELETE = 3;
+	protected static final int BULK_SELECT_ALL = 4;
+	protected static final int BULK_CLEAR = 5;
+	/** The numbers of days by which the deadlines of the selected todo items can be shifted. */
+	protected static final int[] DEADLINE_SHIFTS = {-7, -1, 1, 7, 30};
 
 	@Override
 	protected Dialog onCreateDialog(int id) {
@@ -243,6 +318,7 @@ public class TodoList extends ListActivity {
 							e.putInt(USER_ID, id);
 							userId = id;
 							e.commit();
+							startNotifyListener();
 						}
 						d.dismiss();
 					} catch (NumberFormatException e) {
@@ -295,7 +371,7 @@ public class TodoList extends ListActivity {
 
 			public void onClick(DialogInterface dialog, int which) {
 
-				syncThread.setConflictResolution(TodoSync.ConflictResolution.PICK_LOCAL);
+				syncThread.setConflictResolution(ConflictResolution.PICK_LOCAL);
 				dialog.dismiss();
 			}
 		});
@@ -303,12 +379,40 @@ public class TodoList extends ListActivity {
 
 			public void onClick(DialogInterface dialog, int which) {
 
-				syncThread.setConflictResolution(TodoSync.ConflictResolution.PICK_REMOTE);
+				syncThread.setConflictResolution(ConflictResolution.PICK_REMOTE);
 				dialog.dismiss();
 			}
 		});
 
 		priorityValues = getResources().getStringArray(R.array.priority_values);
+		statusValues = getResources().getStringArray(R.array.status_values);
+		summaryText = (TextView) findViewById(R.id.MainSummaryText);
+
+		syncScheduler = new SyncScheduler(this, new Runnable() {
+
+			public void run() {
+
+				startSync(true);
+			}
+		}, new Runnable() {
+
+			public void run() {
+
+				startPush();
+			}
+		}, new Runnable() {
+
+			public void run() {
+
+				startPull();
+			}
+		}, new Runnable() {
+
+			public void run() {
+
+				startMaintenance();
+			}
+		});
 
 		SharedPreferences s = getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
 		userId = s.getInt(USER_ID, NO_USER_ID);
@@ -351,6 +455,7 @@ public class TodoList extends ListActivity {
 		sortByColumn = TodoDb.DEADLINE_COLUMN;
 		isAsc = true;
 		db = new TodoDb(this);
+		startNotifyListener();
 
 		rowAdapter = new SimpleCursorAdapter(this, R.layout.todo_list_row, c, cols, viewIds) {
 			
@@ -359,7 +464,7 @@ public class TodoList extends ListActivity {
 
 				LinearLayout v = (LinearLayout) super.getView(position, convertView, parent);
 
-				if (position == curr_selected_position) {
+				if (position == curr_selected_position || selectedIds.contains(Long.valueOf(getItemId(position)))) {
 
 					setHighlight(v);
 					curr_selected_row = v;
@@ -388,6 +493,19 @@ public class TodoList extends ListActivity {
 			public void onNothingSelected(AdapterView<?> parent) {
 			}
 		});
+		getListView().setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+
+			public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+
+				if (!selectedIds.remove(Long.valueOf(id))) {
+
+					selectedIds.add(Long.valueOf(id));
+				}
+				rowAdapter.notifyDataSetChanged();
+
+				return true;
+			}
+		});
 
 		updateTodoList();
 		updateSortStatus();
@@ -421,6 +539,16 @@ public class TodoList extends ListActivity {
 
 				db.deleteTodo(curr_selected_id);
 				updateTodoList();
+				syncScheduler.noteEdit();
+			}
+		});
+
+		b = (Button) findViewById(R.id.MainBulkButton);
+		b.setOnClickListener(new OnClickListener() {
+
+			public void onClick(View v) {
+
+				showBulkDialog();
 			}
 		});
 
@@ -441,6 +569,141 @@ public class TodoList extends ListActivity {
 				showDialog(USER_ID_DIALOG);
 			}
 		});
+
+		ToggleButton t = (ToggleButton) findViewById(R.id.MainArchiveButton);
+		t.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+
+				isArchiveShown = isChecked;
+				selectedIds.clear();
+				updateTodoList();
+			}
+		});
+	}
+
+	/** Shows the actions that apply to all selected todo items at once. */
+	protected void showBulkDialog() {
+
+		AlertDialog.Builder b = new AlertDialog.Builder(this);
+		b.setTitle(selectedIds.size() + " selected");
+		b.setItems(BULK_ACTIONS, new DialogInterface.OnClickListener() {
+
+			public void onClick(DialogInterface dialog, int which) {
+
+				switch (which) {
+				case BULK_STATUS:
+					chooseBulkEdit("Status", statusValues, new DialogInterface.OnClickListener() {
+
+						public void onClick(DialogInterface dialog, int which) {
+
+							applyBulkEdit(new TodoBulkEdit(statusValues[which], null, 0));
+						}
+					});
+					break;
+				case BULK_PRIORITY:
+					chooseBulkEdit("Priority", priorityValues, new DialogInterface.OnClickListener() {
+
+						public void onClick(DialogInterface dialog, int which) {
+
+							applyBulkEdit(new TodoBulkEdit(null, Integer.valueOf(which + 1), 0));
+						}
+					});
+					break;
+				case BULK_DEADLINE:
+					String[] shifts = new String[DEADLINE_SHIFTS.length];
+					for (int i = 0; i < shifts.length; i++) {
+
+						shifts[i] = (DEADLINE_SHIFTS[i] > 0 ? "+" : "") + DEADLINE_SHIFTS[i] + " day"
+							+ (Math.abs(DEADLINE_SHIFTS[i]) == 1 ? "" : "s");
+					}
+					chooseBulkEdit("Deadline", shifts, new DialogInterface.OnClickListener() {
+
+						public void onClick(DialogInterface dialog, int which) {
+
+							applyBulkEdit(new TodoBulkEdit(null, null, DEADLINE_SHIFTS[which]));
+						}
+					});
+					break;
+				case BULK_DELETE:
+					if (selectedIds.isEmpty()) {
+
+						break;
+					}
+					new AlertDialog.Builder(TodoList.this)
+						.setMessage("Delete " + selectedIds.size() + " items?")
+						.setNegativeButton("Cancel", null)
+						.setPositiveButton("Delete", new DialogInterface.OnClickListener() {
+
+							public void onClick(DialogInterface dialog, int which) {
+
+								startBulkAction(null);
+							}
+						})
+						.show();
+					break;
+				case BULK_SELECT_ALL:
+					int idIndex = c.getColumnIndex(TodoDb.ID_COLUMN);
+					for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+
+						selectedIds.add(Long.valueOf(c.getLong(idIndex)));
+					}
+					rowAdapter.notifyDataSetChanged();
+					break;
+				case BULK_CLEAR:
+					selectedIds.clear();
+					rowAdapter.notifyDataSetChanged();
+					break;
+				}
+			}
+		});
+		b.show();
+	}
+
+	/** Lets the user pick the value of a bulk edit unless no todo item is selected. */
+	protected void chooseBulkEdit(String title, String[] values, DialogInterface.OnClickListener listener) {
+
+		if (selectedIds.isEmpty()) {
+
+			return;
+		}
+
+		AlertDialog.Builder b = new AlertDialog.Builder(this);
+		b.setTitle(title);
+		b.setItems(values, listener);
+		b.show();
+	}
+
+	/** Applies an edit to all selected todo items in a single transaction. */
+	protected void applyBulkEdit(TodoBulkEdit edit) {
+
+		startBulkAction(edit);
+	}
+
+	/**
+	 * Clears the selection and applies an edit to the selected todo items,
+	 * or deletes them if the edit is null, in a TodoBulkAction. The list is
+	 * refreshed once the action is over.
+	 */
+	protected void startBulkAction(TodoBulkEdit edit) {
+
+		long[] ids = getSelectedIds();
+		selectedIds.clear();
+		rowAdapter.notifyDataSetChanged();
+		new TodoBulkAction(db, handler, ids, edit).start();
+	}
+
+	/** Returns the IDs of the selected todo items. */
+	protected long[] getSelectedIds() {
+
+		long[] ids = new long[selectedIds.size()];
+		int i = 0;
+		for (Long id : selectedIds) {
+
+			ids[i++] = id.longValue();
+		}
+
+		return ids;
 	}
 
 	/** Synchronize the ToDo items in the DB with the server. */
@@ -453,11 +716,107 @@ public class TodoList extends ListActivity {
 		syncProgressDialog.setCancelable(false);
 		syncProgressDialog.show();
 
-		if (syncThread == null || syncThread.getState() == Thread.State.TERMINATED) {
+		isBackgroundSync = false;
+		startSync(false);
+	}
+
+	/**
+	 * Starts a sync unless one is running. A background sync only asks the
+	 * user to resolve conflicts and does not report errors, which
+	 * syncScheduler handles by retrying later.
+	 */
+	protected void startSync(boolean isBackground) {
+
+		if (syncThread != null && syncThread.getState() != Thread.State.TERMINATED) {
+
+			return;
+		}
+		if (isBackground && userId == NO_USER_ID) {
+
+			return;
+		}
+
+		isBackgroundSync = isBackground;
+		isSyncFailed = false;
+		syncScheduler.syncStarted();
+		syncThread = new TodoSync(db, handler, userId);
+		syncThread.start();
+	}
+
+	/**
+	 * Starts a push of the outbox unless a sync or a push is running, in
+	 * which case the edits are sent by the running one or the next sync.
+	 */
+	protected void startPush() {
 
-			syncThread = new TodoSync(db, handler, userId);
-			syncThread.start();
+		if (userId == NO_USER_ID
+		    || syncThread != null && syncThread.getState() != Thread.State.TERMINATED
+		    || pushThread != null && pushThread.getState() != Thread.State.TERMINATED) {
+
+			return;
 		}
+
+		pushThread = new TodoPush(db, userId);
+		pushThread.start();
+	}
+
+	/**
+	 * Starts a pull of the notified changes unless a sync or a pull is
+	 * running, in which case syncScheduler starts it again once the sync is
+	 * over or the running pull has fetched them.
+	 */
+	protected void startPull() {
+
+		if (userId == NO_USER_ID
+		    || syncThread != null && syncThread.getState() != Thread.State.TERMINATED
+		    || pullThread != null && pullThread.getState() != Thread.State.TERMINATED) {
+
+			return;
+		}
+
+		syncScheduler.pullStarted();
+		pullThread = new TodoPull(db, handler, syncScheduler, userId);
+		pullThread.start();
+	}
+
+	/** Starts the maintenance of the todo DB unless it is running. */
+	protected void startMaintenance() {
+
+		if (maintenanceThread != null && maintenanceThread.getState() != Thread.State.TERMINATED) {
+
+			return;
+		}
+
+		maintenanceThread = new TodoMaintenance(db, handler);
+		maintenanceThread.start();
+	}
+
+	/** Listens to the notifies of the current user replacing the listener of the previous one. */
+	protected void startNotifyListener() {
+
+		if (notifyListener != null) {
+
+			notifyListener.quit();
+			notifyListener = null;
+		}
+		if (userId == NO_USER_ID) {
+
+			return;
+		}
+
+		notifyListener = new TodoNotifyListener(db, syncScheduler, userId);
+		notifyListener.start();
+	}
+
+	@Override
+	protected void onDestroy() {
+
+		syncScheduler.stop();
+		if (notifyListener != null) {
+
+			notifyListener.quit();
+		}
+		super.onDestroy();
 	}
 
 	/** Sets the background of a ListView's row indicating a selection. */
@@ -502,6 +861,7 @@ public class TodoList extends ListActivity {
 		if (resultCode == RESULT_OK) {
 
 			updateTodoList();
+			syncScheduler.noteEdit();
 		}
 	}
 
@@ -513,10 +873,36 @@ public class TodoList extends ListActivity {
 			stopManagingCursor(c);
 		}
 
-		c = db.getAllTodo(cols, sortByColumn, isAsc);
+		if (isArchiveShown) {
+
+			c = db.getAllArchivedTodo(cols, sortByColumn, isAsc);
+		} else {
+
+			c = db.getAllTodo(cols, sortByColumn, isAsc);
+		}
 		startManagingCursor(c);
 
 		rowAdapter.changeCursor(c);
+		updateSummary();
+	}
+
+	/** Updates the summary header from the counters of the todo DB. */
+	protected void updateSummary() {
+
+		TodoSummary summary = db.getSummary(new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(new Date()));
+		StringBuilder text = new StringBuilder();
+
+		for (String status : statusValues) {
+
+			text.append(status).append(": ").append(summary.getStatusCount(status)).append("  ");
+		}
+		text.append(getString(R.string.overdue)).append(": ").append(summary.overdueCount).append('\n');
+		text.append(getString(R.string.priority));
+		for (int i = 1; i <= priorityValues.length; i++) {
+
+			text.append("  ").append(i).append(": ").append(summary.getPriorityCount(Integer.valueOf(i)));
+		}
+		summaryText.setText(text);
 	}
 
 	/** Updates the sort button labels according to the selected sorting criteria. */
@@ -0,0 +1,51 @@
+package com.euscomputerclub.android.todo;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
+import android.util.Log;
+
+import com.euscomputerclub.android.todo.core.TodoArchiver;
+
+/**
+ * Class TodoMaintenance archives the old closed todo items and optimizes the
+ * todo DB in the background. It tells the todo list to show the items that
+ * are left.
+ *
+ * @author eus
+ */
+public class TodoMaintenance extends Thread {
+
+	/** Bundle key of the message sent once the maintenance is over. */
+	public static final String MAINTAINED = "maintained";
+
+	/** The todo DB. */
+	protected final TodoDb db;
+	/** The handler of the todo list. */
+	protected final Handler handler;
+
+	/** Constructs a TodoMaintenance of a todo DB. */
+	TodoMaintenance(TodoDb db, Handler todoListHandler) {
+
+		this.db = db;
+		handler = todoListHandler;
+	}
+
+	@Override
+	public void run() {
+
+		try {
+
+			new TodoArchiver(db).maintain(System.currentTimeMillis());
+		} catch (Exception e) {
+
+			Log.w("com.euscomputerclub.android.todo.TodoMaintenance", "Cannot maintain the todo DB", e);
+		}
+
+		Bundle b = new Bundle();
+		b.putBoolean(MAINTAINED, true);
+		Message m = handler.obtainMessage();
+		m.setData(b);
+		handler.sendMessage(m);
+	}
+}
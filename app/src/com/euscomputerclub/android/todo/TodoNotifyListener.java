@@ -0,0 +1,106 @@
+package com.euscomputerclub.android.todo;
+
+import java.net.InetSocketAddress;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.euscomputerclub.android.todo.core.TodoSyncCommunication;
+
+/**
+ * Class TodoNotifyListener subscribes to the changes of a user on the sync
+ * server and passes every notified watermark to the SyncScheduler, which
+ * coalesces them into pulls. The subscription is renewed well before the
+ * server forgets it, and the watermark that the server gives then is passed
+ * on as well so that the changes made while the listener was not running
+ * are pulled too.
+ *
+ * @author eus
+ */
+public class TodoNotifyListener extends Thread {
+
+	/** The time after which the subscription is renewed. */
+	public static final long RENEW_INTERVAL = TodoSyncCommunication.SUBSCRIPTION_TIMEOUT / 2;
+	/** The delay before subscribing again after the server has not responded. */
+	public static final long RETRY_DELAY = 60 * 1000;
+
+	/** The todo DB. */
+	protected final TodoDb db;
+	/** The scheduler that gets the notified watermarks. */
+	protected final SyncScheduler scheduler;
+	/** The user whose changes are notified. */
+	protected final int userId;
+	/** The communication receiving the notifies while the listener runs. */
+	protected volatile TodoSyncCommunication comm;
+	/** Whether quit() has been called. */
+	protected volatile boolean isQuitting;
+
+	/** Constructs a TodoNotifyListener for a user identified by userId. */
+	TodoNotifyListener(TodoDb db, SyncScheduler scheduler, int userId) {
+
+		this.db = db;
+		this.scheduler = scheduler;
+		this.userId = userId;
+	}
+
+	/** Stops listening without waiting for the thread to end. */
+	public void quit() {
+
+		isQuitting = true;
+		interrupt();
+
+		TodoSyncCommunication c = comm;
+		if (c != null) {
+
+			c.disconnect();
+		}
+	}
+
+	@Override
+	public void run() {
+
+		try {
+
+			// an ephemeral port does not disturb a sync bound to the default one
+			comm = new TodoSyncCommunication(new InetSocketAddress(TodoSyncCommunication.DEFAULT_HOST,
+									      TodoSyncCommunication.DEFAULT_PORT), 0);
+			long renewAt = 0;
+			while (!isQuitting) {
+
+				long now = SystemClock.uptimeMillis();
+				if (now >= renewAt) {
+
+					long watermark = comm.subscribe(userId, db.getIdPrefix());
+					if (watermark == -1) {
+
+						Thread.sleep(RETRY_DELAY);
+						continue;
+					}
+					scheduler.noteNotify(watermark);
+					renewAt = now + RENEW_INTERVAL;
+				}
+
+				long watermark = comm.receiveNotify((int) (renewAt - now));
+				if (watermark != -1) {
+
+					scheduler.noteNotify(watermark);
+				}
+			}
+		} catch (InterruptedException ie) {
+
+			// quit() has been called
+		} catch (Exception e) {
+
+			if (!isQuitting) {
+
+				Log.w("com.euscomputerclub.android.todo.TodoNotifyListener", "Cannot receive notifies", e);
+			}
+		} finally {
+
+			if (comm != null) {
+
+				comm.disconnect();
+			}
+		}
+	}
+}
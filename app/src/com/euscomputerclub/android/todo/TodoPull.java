@@ -0,0 +1,75 @@
+package com.euscomputerclub.android.todo;
+
+import java.net.InetSocketAddress;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
+import android.util.Log;
+
+import com.euscomputerclub.android.todo.core.ChangePuller;
+import com.euscomputerclub.android.todo.core.TodoSyncCommunication;
+
+/**
+ * Class TodoPull pulls the todo items that the sync server has changed since
+ * the last sync or pull in the background. It tells the todo list to show
+ * the pulled items and the SyncScheduler to start a sync if some changes
+ * need one.
+ *
+ * @author eus
+ */
+public class TodoPull extends Thread {
+
+	/** Bundle key of the message sent once the pull is over. */
+	public static final String PULLED = "pulled";
+
+	/** The todo DB. */
+	protected final TodoDb db;
+	/** The handler of the todo list. */
+	protected final Handler handler;
+	/** The scheduler that is told about the end of the pull. */
+	protected final SyncScheduler scheduler;
+	/** The user for which the pull will be made. */
+	protected final int userId;
+
+	/** Constructs a TodoPull for a user identified by userId. */
+	TodoPull(TodoDb db, Handler todoListHandler, SyncScheduler scheduler, int userId) {
+
+		this.db = db;
+		handler = todoListHandler;
+		this.scheduler = scheduler;
+		this.userId = userId;
+	}
+
+	@Override
+	public void run() {
+
+		TodoSyncCommunication comm = null;
+		boolean isPulled = false;
+		long watermark = 0;
+		try {
+
+			// an ephemeral port does not disturb a sync bound to the default one
+			comm = new TodoSyncCommunication(new InetSocketAddress(TodoSyncCommunication.DEFAULT_HOST,
+									      TodoSyncCommunication.DEFAULT_PORT), 0);
+			isPulled = new ChangePuller(db).pull(comm, userId);
+			watermark = db.getPullWatermark();
+		} catch (Exception e) {
+
+			Log.w("com.euscomputerclub.android.todo.TodoPull", "Cannot pull the changes", e);
+		} finally {
+
+			if (comm != null) {
+
+				comm.disconnect();
+			}
+		}
+		scheduler.pullFinished(isPulled, watermark);
+
+		Bundle b = new Bundle();
+		b.putBoolean(PULLED, true);
+		Message m = handler.obtainMessage();
+		m.setData(b);
+		handler.sendMessage(m);
+	}
+}
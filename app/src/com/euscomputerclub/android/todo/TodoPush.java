@@ -0,0 +1,52 @@
+package com.euscomputerclub.android.todo;
+
+import java.net.InetSocketAddress;
+
+import android.util.Log;
+
+import com.euscomputerclub.android.todo.core.OutboxPusher;
+import com.euscomputerclub.android.todo.core.TodoSyncCommunication;
+
+/**
+ * Class TodoPush pushes the outbox of the todo DB to the sync server in the
+ * background. It reports nothing to the user because the edits that it
+ * fails to push are sent by the next sync anyway.
+ *
+ * @author eus
+ */
+public class TodoPush extends Thread {
+
+	/** The todo DB. */
+	protected final TodoDb db;
+	/** The user for which the push will be made. */
+	protected final int userId;
+
+	/** Constructs a TodoPush for a user identified by userId. */
+	TodoPush(TodoDb db, int userId) {
+
+		this.db = db;
+		this.userId = userId;
+	}
+
+	@Override
+	public void run() {
+
+		TodoSyncCommunication comm = null;
+		try {
+
+			// an ephemeral port does not disturb a sync bound to the default one
+			comm = new TodoSyncCommunication(new InetSocketAddress(TodoSyncCommunication.DEFAULT_HOST,
+									      TodoSyncCommunication.DEFAULT_PORT), 0);
+			new OutboxPusher(db).push(comm, userId);
+		} catch (Exception e) {
+
+			Log.w("com.euscomputerclub.android.todo.TodoPush", "Cannot push the outbox", e);
+		} finally {
+
+			if (comm != null) {
+
+				comm.disconnect();
+			}
+		}
+	}
+}
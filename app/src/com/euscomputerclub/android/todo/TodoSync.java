@@ -0,0 +1,204 @@
+package com.euscomputerclub.android.todo;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
+import android.util.Log;
+
+import com.euscomputerclub.android.todo.core.ConflictResolution;
+import com.euscomputerclub.android.todo.core.ConflictResolver;
+import com.euscomputerclub.android.todo.core.SyncEngine;
+import com.euscomputerclub.android.todo.core.Todo;
+import com.euscomputerclub.android.todo.core.TodoSyncCommunication;
+
+/**
+ * Class TodoSync handles the synchronization between the local database and
+ * the remote database. The reconciliation itself is done by the SyncEngine
+ * while this thread reports the progress and asks the user to resolve
+ * conflicts.
+ *
+ * @author Tadeus Prastowo
+ */
+public class TodoSync extends Thread implements ConflictResolver
+{
+	/** The user for which the sync will be made. */
+	protected int userId;
+	/** The sync communication handler. */
+	protected TodoSyncCommunication comm;
+	/** The activity for displaying the progress dialog. */
+	protected Handler handler;
+	/** User's decision regarding a conflict. */
+	protected volatile ConflictResolution conflictResolution = ConflictResolution.UNDECIDED_YET;
+	/** Bundle key for local todo item. */
+	public static final String LOCAL_TODO = "localTodo";
+	/** Bundle key for remote todo item. */
+	public static final String REMOTE_TODO = "remoteTodo";
+	/** Bundle key for synchronization activity. */
+	public static final String MESSAGE = "message";
+	/** Bundle key for synchronization error. */
+	public static final String ERROR_MESSAGE = "error";
+	/** Bundle key for synchronization completion. */
+	public static final String DONE = "done";
+	/** The todo DB. */
+	protected TodoDb db;
+	/** The engine reconciling the todo DB with the sync server. */
+	protected SyncEngine engine;
+	/** The synchronization worker thread. */
+	protected final Thread workerThread = new Thread() {
+
+		@Override
+		public void run() {
+
+			try {
+				comm = new TodoSyncCommunication();
+
+				if (!engine.synchronize(comm, userId)) {
+					sendErrorMessage("Cannot register to server");
+					return;
+				}
+				db.checkpoint();
+			} catch (Exception e) {
+
+				sendErrorMessage("Exception: " + e.getMessage());
+			}
+		}
+	};
+
+	/** Constructs a TodoSync for a user identified by userId. */
+	TodoSync(TodoDb db, Handler todoListHandler, int userId) {
+
+		this.userId = userId;
+		handler = todoListHandler;
+		this.db = db;
+		engine = new SyncEngine(db, this);
+	}
+
+	public void setConflictResolution(ConflictResolution resolution) {
+
+		conflictResolution = resolution;
+	}
+
+	protected void sendMessageWithHandler(Bundle b) {
+
+		Message m = handler.obtainMessage();
+		m.setData(b);
+		handler.sendMessage(m);
+	}
+
+	protected ConflictResolution waitForResolution(Bundle b) {
+
+		sendMessageWithHandler(b);
+
+		while (conflictResolution == ConflictResolution.UNDECIDED_YET) {
+
+			yield();
+		}
+		ConflictResolution result = conflictResolution;
+		conflictResolution = ConflictResolution.UNDECIDED_YET;
+
+		return result;
+	}
+
+	public ConflictResolution resolveTwoItemsConflict(Todo localTodo, Todo remoteTodo) {
+
+		Bundle b = new Bundle();
+		b.putParcelable(LOCAL_TODO, new TodoItem(localTodo));
+		b.putParcelable(REMOTE_TODO, new TodoItem(remoteTodo));
+
+		return waitForResolution(b);
+	}
+
+	public ConflictResolution resolveRemoteDeletion(Todo localTodo) {
+
+		Bundle b = new Bundle();
+		b.putParcelable(LOCAL_TODO, new TodoItem(localTodo));
+
+		return waitForResolution(b);
+	}
+
+	public ConflictResolution resolveLocalDeletion(Todo remoteTodo) {
+
+		Bundle b = new Bundle();
+		b.putParcelable(REMOTE_TODO, new TodoItem(remoteTodo));
+
+		return waitForResolution(b);
+	}
+
+	protected void sendProgressMessage(String msg) {
+
+		Bundle b = new Bundle();
+		b.putString(MESSAGE, msg);
+		sendMessageWithHandler(b);
+	}
+
+	protected void sendErrorMessage(String errMsg) {
+
+		Bundle b = new Bundle();
+		b.putString(ERROR_MESSAGE, errMsg);
+		sendMessageWithHandler(b);
+	}
+
+	protected void sendDismissMessage() {
+
+		Bundle b = new Bundle();
+		b.putBoolean(DONE, true);
+		sendMessageWithHandler(b);
+	}
+
+	public void run() {
+
+		sendProgressMessage("Starting...");
+		workerThread.start();
+		while (workerThread.getState() != Thread.State.TERMINATED) {
+
+			try {
+
+				switch (engine.syncState) {
+
+				case REGISTER:
+					sendProgressMessage("Registering...");
+					break;
+				case COMPARE:
+					sendProgressMessage("Comparing...");
+					break;
+				case SERVER_CLIENT:
+					sendProgressMessage(
+						"Server -> Client: "
+						+ engine.processTodosCurrBytes
+						+ " out of "
+						+ engine.processTodosTotalBytes
+						+ " bytes"
+					);
+					break;
+				case SYNC:
+					sendProgressMessage(
+						"Synchronizing "
+						+ engine.syncCurrRecords
+						+ " out of "
+						+ engine.syncTotalRecords
+						+ " records"
+					);
+					break;
+				case CLIENT_SERVER:
+					sendProgressMessage(
+						"Client -> Server: "
+						+ engine.createDataCurrBytes
+						+ " out of "
+						+ engine.createDataTotalBytes
+						+ " bytes"
+					);
+					break;
+				case RESET:
+					sendProgressMessage("Closing...");
+					break;
+				}
+				Thread.sleep (100);
+			} catch (InterruptedException ie) {
+
+				Log.e("com.euscomputerclub.android.todo.TodoSync", "TodoSync is interrupted");
+			}
+		}
+
+		sendDismissMessage();
+	}
+}
@@ -0,0 +1,99 @@
+package com.euscomputerclub.android.todo.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.euscomputerclub.android.todo.core.ColumnarDiff;
+import com.euscomputerclub.android.todo.core.SyncEngine;
+import com.euscomputerclub.android.todo.core.SyncPlan;
+import com.euscomputerclub.android.todo.core.TodoCursor;
+import com.euscomputerclub.android.todo.core.TodoSnapshot;
+import com.euscomputerclub.android.todo.core.TodoStore;
+
+/**
+ * Class DiffBenchmark compares planning a sync with the cursor loop of
+ * SyncPlanner against the fork/join ColumnarDiff, both including and
+ * excluding the time to read the snapshots from the store.
+ *
+ * @author eus
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class DiffBenchmark extends Workload {
+
+	/** The parallelism of the fork/join pool. */
+	@Param({"1", "4"})
+	public int parallelism;
+
+	protected TodoStore db;
+	protected SyncEngine engine;
+	protected ForkJoinPool pool;
+	protected TodoSnapshot local;
+	protected TodoSnapshot remote;
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException, IOException {
+
+		db = createWorkload();
+		engine = new SyncEngine(db, new AlternatingResolver());
+		db.recreateSyncTable();
+		engine.processTodos(ByteBuffer.wrap(serverData));
+		serverData = null;
+		pool = new ForkJoinPool(parallelism);
+
+		TodoCursor c = db.getAllTodoIncludingDeletedOnes();
+		TodoCursor d = db.getAllDeletedTodoIds();
+		local = TodoSnapshot.readLocal(c, d);
+		c.close();
+		d.close();
+		c = db.getAllSyncTodo();
+		remote = TodoSnapshot.readRemote(c);
+		c.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+
+		pool.shutdown();
+		closeStore(db);
+	}
+
+	/** The current sequential planner reading the three cursors. */
+	@Benchmark
+	public SyncPlan cursorLoop() {
+
+		return engine.plan();
+	}
+
+	/** Reading the snapshots and diffing them in parallel. */
+	@Benchmark
+	public SyncPlan columnar() {
+
+		return ColumnarDiff.plan(db, pool);
+	}
+
+	/** Diffing snapshots that have already been read. */
+	@Benchmark
+	public SyncPlan columnarDiffOnly() {
+
+		return ColumnarDiff.diff(local, remote, pool);
+	}
+}
@@ -0,0 +1,86 @@
+package com.euscomputerclub.android.todo.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.euscomputerclub.android.todo.core.TodoExporter;
+import com.euscomputerclub.android.todo.core.TodoStore;
+
+/**
+ * Class ExportBenchmark measures TodoExporter writing a snapshot of the
+ * local store to a file and restoring the store from it. The restore
+ * replaces the store with its own snapshot, so every invocation restores
+ * the same items.
+ *
+ * @author eus
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExportBenchmark extends Workload {
+
+	protected TodoStore db;
+	protected TodoExporter exporter;
+	protected File snapshot;
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException, IOException {
+
+		db = createWorkload();
+		exporter = new TodoExporter(db);
+		snapshot = File.createTempFile("todo-bench", ".snapshot");
+		export();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+
+		closeStore(db);
+		snapshot.delete();
+	}
+
+	@Benchmark
+	public int export() throws IOException {
+
+		RandomAccessFile f = new RandomAccessFile(snapshot, "rw");
+		try {
+
+			f.setLength(0);
+
+			return exporter.export(f.getChannel());
+		} finally {
+
+			f.close();
+		}
+	}
+
+	@Benchmark
+	public int restore() throws IOException {
+
+		FileInputStream in = new FileInputStream(snapshot);
+		try {
+
+			return exporter.restore(in.getChannel());
+		} finally {
+
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.euscomputerclub.android.todo.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.euscomputerclub.android.todo.core.SyncEngine;
+import com.euscomputerclub.android.todo.core.TodoStore;
+
+/**
+ * Class ProcessTodosBenchmark measures SyncEngine.processTodos(), i.e.
+ * decoding the server-to-client data into the sync table.
+ *
+ * @author eus
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessTodosBenchmark extends Workload {
+
+	protected TodoStore db;
+	protected SyncEngine engine;
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException, IOException {
+
+		db = createWorkload();
+		engine = new SyncEngine(db, new AlternatingResolver());
+	}
+
+	@Setup(Level.Invocation)
+	public void clearSyncTable() {
+
+		db.recreateSyncTable();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+
+		closeStore(db);
+	}
+
+	@Benchmark
+	public void processTodos() {
+
+		engine.processTodos(ByteBuffer.wrap(serverData));
+	}
+}
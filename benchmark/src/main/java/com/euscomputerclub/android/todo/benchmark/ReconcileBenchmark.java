@@ -0,0 +1,73 @@
+package com.euscomputerclub.android.todo.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.euscomputerclub.android.todo.core.SyncEngine;
+import com.euscomputerclub.android.todo.core.SyncPlan;
+import com.euscomputerclub.android.todo.core.TodoStore;
+
+/**
+ * Class ReconcileBenchmark measures SyncEngine.sync(), i.e. applying the
+ * [A1]-[A16] rules. Since sync() consumes its input, every measurement is a
+ * single shot on a freshly built store.
+ *
+ * plan() measures the planning alone, which changes nothing and is
+ * therefore repeated on the same store, in a 16 MB young generation so
+ * that the young collections counted by -prof gc show the per-row
+ * allocation of the reconciliation.
+ *
+ * @author eus
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReconcileBenchmark extends Workload {
+
+	protected TodoStore db;
+	protected SyncEngine engine;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws SQLException, IOException {
+
+		db = createWorkload();
+		engine = new SyncEngine(db, new AlternatingResolver());
+		db.recreateSyncTable();
+		engine.processTodos(ByteBuffer.wrap(serverData));
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws SQLException {
+
+		closeStore(db);
+	}
+
+	@Benchmark
+	public void sync() {
+
+		engine.sync();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@Fork(value = 1, jvmArgsAppend = "-Xmn16m")
+	public SyncPlan plan() {
+
+		return engine.plan();
+	}
+}
@@ -0,0 +1,116 @@
+package com.euscomputerclub.android.todo.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.euscomputerclub.android.todo.core.SyncEngine;
+import com.euscomputerclub.android.todo.core.TodoStore;
+
+/**
+ * Class StagingBenchmark measures the life of the sync table in a sync:
+ * emptying it, storing the server-to-client data in it in a transaction and
+ * emptying it again. Besides the time, the bytes that the process has
+ * written (wchar of /proc/self/io, which is Linux only) are reported as the
+ * writtenBytes counter, so the benchmark is meant to be run with
+ * -p store=sqlite.
+ *
+ * @author eus
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StagingBenchmark extends Workload {
+
+	protected TodoStore db;
+	protected SyncEngine engine;
+
+	/** The bytes written by an invocation. */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Writes {
+
+		public long writtenBytes;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException, IOException {
+
+		db = createWorkload();
+		engine = new SyncEngine(db, new AlternatingResolver());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+
+		closeStore(db);
+	}
+
+	@Benchmark
+	public void stage(Writes writes) throws IOException {
+
+		long written = writtenBytes();
+
+		db.beginTransaction();
+		try {
+
+			db.recreateSyncTable();
+			engine.processTodos(ByteBuffer.wrap(serverData));
+			db.setTransactionSuccessful();
+		} finally {
+
+			db.endTransaction();
+		}
+		db.dropSync();
+
+		writes.writtenBytes += writtenBytes() - written;
+	}
+
+	/** Returns the bytes that the process has written so far or 0 if unknown. */
+	protected static long writtenBytes() throws IOException {
+
+		BufferedReader r;
+		try {
+
+			r = new BufferedReader(new FileReader("/proc/self/io"));
+		} catch (IOException e) {
+
+			return 0;
+		}
+		try {
+
+			String line;
+			while ((line = r.readLine()) != null) {
+
+				if (line.startsWith("wchar:")) {
+
+					return Long.parseLong(line.substring("wchar:".length()).trim());
+				}
+			}
+
+			return 0;
+		} finally {
+
+			r.close();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.euscomputerclub.android.todo.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.euscomputerclub.android.todo.core.Todo;
+import com.euscomputerclub.android.todo.core.TodoTlv;
+
+/**
+ * Class TlvBenchmark measures decoding a server-to-client data packet.
+ *
+ * @author eus
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TlvBenchmark {
+
+	/** The number of todo items in the packet. */
+	@Param({"1000"})
+	public int itemCount;
+	/** The size of every description. */
+	@Param({"64"})
+	public int descriptionSize;
+
+	/** The encoded CHUNK_TODO chunks. */
+	protected byte[] data;
+
+	@Setup
+	public void setUp() {
+
+		Todo[] todos = new Todo[itemCount];
+		int len = 0;
+		char[] description = new char[descriptionSize];
+		Arrays.fill(description, 'x');
+		for (int i = 0; i < itemCount; i++) {
+
+			todos[i] = new Todo(Long.valueOf(i + 1), "todo " + i, "2011-01-01", Integer.valueOf(3),
+					    "Open", new String(description), Integer.valueOf(0));
+			len += TodoTlv.sizeOf(todos[i]);
+		}
+
+		ByteBuffer b = ByteBuffer.allocate(len);
+		for (Todo t : todos) {
+
+			TodoTlv.put(b, TodoTlv.CHUNK_TODO, t);
+		}
+		data = b.array();
+	}
+
+	@Benchmark
+	public void decode(final Blackhole bh) {
+
+		TodoTlv.read(ByteBuffer.wrap(data), new TodoTlv.Visitor() {
+
+			public void visit(byte chunkType, Todo todo) {
+
+				bh.consume(todo);
+			}
+		});
+	}
+}
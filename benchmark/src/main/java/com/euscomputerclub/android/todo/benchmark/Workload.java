@@ -0,0 +1,220 @@
+package com.euscomputerclub.android.todo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.euscomputerclub.android.todo.core.ConflictResolution;
+import com.euscomputerclub.android.todo.core.ConflictResolver;
+import com.euscomputerclub.android.todo.core.JdbcTodoStore;
+import com.euscomputerclub.android.todo.core.MemoryTodoStore;
+import com.euscomputerclub.android.todo.core.Todo;
+import com.euscomputerclub.android.todo.core.TodoStore;
+import com.euscomputerclub.android.todo.core.TodoTlv;
+
+/**
+ * Class Workload builds the data of a sync: the todo items stored in the
+ * server and a local store that has been synchronized with them before the
+ * user edited some of the items.
+ *
+ * A fraction (changeRatio) of the items is edited locally according to the
+ * new:updated:deleted mix. A fraction (conflictRatio) of the local updates
+ * is also updated in the server by another device so that both sides end
+ * up with the same revision but different data ([A5]/[A6]).
+ *
+ * @author eus
+ */
+@State(Scope.Benchmark)
+public abstract class Workload {
+
+	/** The number of todo items in the server. */
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int itemCount;
+	/** The size of every description. */
+	@Param({"64", "1024"})
+	public int descriptionSize;
+	/** The fraction of the items edited locally since the last sync. */
+	@Param({"0.1"})
+	public double changeRatio;
+	/** The fraction of the local updates that conflict with the server. */
+	@Param({"0.0", "0.1"})
+	public double conflictRatio;
+	/** The ratio of new, updated and deleted items among the local edits. */
+	@Param({"2:6:2"})
+	public String mix;
+	/** The store: "memory" for MemoryTodoStore or "sqlite" for an on-disk JdbcTodoStore. */
+	@Param({"memory", "sqlite"})
+	public String store;
+
+	/** The statuses a todo item can have. */
+	protected static final String[] STATUS_VALUES = {"Open", "Closed", "In progress"};
+
+	/** The server-to-client data without the packet type. */
+	protected byte[] serverData;
+	/** The SQLite file of the current store if any. */
+	protected File dbFile;
+
+	/** A resolver that alternately picks the local and the remote item. */
+	protected static class AlternatingResolver implements ConflictResolver {
+
+		protected int count;
+
+		protected ConflictResolution next() {
+
+			return (count++ & 1) == 0 ? ConflictResolution.PICK_LOCAL : ConflictResolution.PICK_REMOTE;
+		}
+
+		public ConflictResolution resolveTwoItemsConflict(Todo localTodo, Todo remoteTodo) {
+
+			return next();
+		}
+
+		public ConflictResolution resolveRemoteDeletion(Todo localTodo) {
+
+			return next();
+		}
+
+		public ConflictResolution resolveLocalDeletion(Todo remoteTodo) {
+
+			return next();
+		}
+	}
+
+	/** Returns a random text of the given size. */
+	protected static String randomText(Random random, int size) {
+
+		char[] c = new char[size];
+		for (int i = 0; i < size; i++) {
+
+			c[i] = (char) ('a' + random.nextInt(26));
+		}
+
+		return new String(c);
+	}
+
+	/** Returns an empty store of the configured kind. */
+	protected TodoStore openStore() throws SQLException, IOException {
+
+		closeStore(null);
+		if (store.equals("memory")) {
+
+			return new MemoryTodoStore();
+		} else if (store.equals("sqlite")) {
+
+			dbFile = File.createTempFile("todo-bench", ".db");
+			dbFile.delete();
+
+			return new JdbcTodoStore("jdbc:sqlite:" + dbFile.getPath());
+		} else {
+
+			throw new IllegalArgumentException("Unknown store: " + store);
+		}
+	}
+
+	/** Closes a store and deletes its SQLite file if any. */
+	protected void closeStore(TodoStore db) throws SQLException {
+
+		if (db instanceof JdbcTodoStore) {
+
+			((JdbcTodoStore) db).close();
+		}
+		if (dbFile != null) {
+
+			dbFile.delete();
+			new File(dbFile.getPath() + "-journal").delete();
+			dbFile = null;
+		}
+	}
+
+	/**
+	 * Fills an empty store as it is after a sync followed by local edits
+	 * and computes the server data that the next sync will receive.
+	 */
+	protected TodoStore createWorkload() throws SQLException, IOException {
+
+		Random random = new Random(42);
+		TodoStore db = openStore();
+		db.beginTransaction();
+
+		// the server items and their initial import just like [A16]
+		List<Todo> server = new ArrayList<Todo>(itemCount);
+		db.recreateSyncTable();
+		for (int i = 1; i <= itemCount; i++) {
+
+			Todo t = new Todo(Long.valueOf(i), "todo " + i,
+					  String.format("%04d-%02d-%02d", 2010 + random.nextInt(10),
+							1 + random.nextInt(12), 1 + random.nextInt(28)),
+					  Integer.valueOf(1 + random.nextInt(5)),
+					  STATUS_VALUES[random.nextInt(STATUS_VALUES.length)],
+					  randomText(random, descriptionSize),
+					  Integer.valueOf(random.nextInt(4)));
+			server.add(t);
+			db.createSyncTodo(i, t.title, t.deadline, t.priority.intValue(), t.status,
+					  t.description, t.revision.intValue());
+		}
+		db.importNewTodos();
+		db.dropSync();
+
+		// the local edits
+		String[] parts = mix.split(":");
+		int newWeight = Integer.parseInt(parts[0]);
+		int updatedWeight = Integer.parseInt(parts[1]);
+		int deletedWeight = Integer.parseInt(parts[2]);
+		int changes = (int) Math.round(itemCount * changeRatio);
+		List<Integer> ids = new ArrayList<Integer>(itemCount);
+		for (int i = 1; i <= itemCount; i++) {
+
+			ids.add(Integer.valueOf(i));
+		}
+		Collections.shuffle(ids, random);
+
+		for (int k = 0; k < changes; k++) {
+
+			int op = random.nextInt(newWeight + updatedWeight + deletedWeight);
+			int id = ids.get(k).intValue();
+
+			if (op < newWeight) {
+
+				db.createTodo("new todo " + k, "2011-01-01", 3, "Open", randomText(random, descriptionSize));
+			} else if (op < newWeight + updatedWeight) {
+
+				db.updateTodo(id, null, null, null, null, randomText(random, descriptionSize));
+				if (random.nextDouble() < conflictRatio) {
+
+					Todo t = server.get(id - 1);
+					t.description = randomText(random, descriptionSize);
+					t.revision = Integer.valueOf(t.revision.intValue() + 1);
+				}
+			} else {
+
+				db.deleteTodo(id);
+			}
+		}
+
+		db.setTransactionSuccessful();
+		db.endTransaction();
+
+		int len = 0;
+		for (Todo t : server) {
+
+			len += TodoTlv.sizeOf(t);
+		}
+		ByteBuffer b = ByteBuffer.allocate(len);
+		for (Todo t : server) {
+
+			TodoTlv.put(b, TodoTlv.CHUNK_TODO, t);
+		}
+		serverData = b.array();
+
+		return db;
+	}
+}
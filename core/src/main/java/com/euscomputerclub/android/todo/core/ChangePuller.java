@@ -0,0 +1,260 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class ChangePuller fetches the todo items that the server has changed
+ * after the watermark of a TodoStore and applies them without a sync. The
+ * changes are decided by the [A1]-[A16] rules of SyncPlanner like in a sync,
+ * but only the rules that change nothing on the server are applied: a
+ * remote item replaces, confirms or adds to the local one, and a remote
+ * deletion removes a locally deleted item. Local edits are left to the
+ * outbox or the next sync, which also sends them.
+ *
+ * An item of which only some fields have changed arrives as a
+ * CHUNK_UPDATE_TODO, whose absent fields are taken from the local item if
+ * the fingerprint of the update confirms that they are the remote ones.
+ * Otherwise the item is left to a sync like a conflict. A changed item that
+ * has been archived is moved back to the todo table first.
+ *
+ * A conflict that ThreeWayMerge resolves by taking the remote item or the
+ * remote deletion is applied as well. Any other conflict, including a merge
+ * that has local changes to send, needs a sync. The watermark is
+ * advanced past it anyway because the sync compares all items and gives a
+ * new watermark, so the caller only has to start one. Pulls and syncs of
+ * the same store are serialized on the store.
+ *
+ * @author eus
+ */
+public class ChangePuller {
+
+	/** The store that the changes are applied to. */
+	protected final TodoStore db;
+	/** The number of changed items that have been fetched. */
+	public volatile int pulledItems;
+	/** The number of changed items that have come as updates of some fields. */
+	public volatile int updatedItems;
+	/** The number of changed items that need a sync. */
+	public volatile int deferredItems;
+	/** The number of pull responses that have been received. */
+	public volatile int responses;
+	/** The number of bytes of the chunks that have been received. */
+	public volatile long pulledBytes;
+
+	public ChangePuller(TodoStore db) {
+
+		this.db = db;
+	}
+
+	/**
+	 * Fetches and applies all changes after the watermark of the store.
+	 * Nothing is pulled before the first sync, which gives the watermark,
+	 * nor while an interrupted sync has a checkpoint.
+	 *
+	 * @return true if the store has all changes of the server or false if
+	 *         a sync is needed because some changes conflict, because the
+	 *         server has forgotten some deletions or does not respond.
+	 */
+	public boolean pull(TodoSyncCommunication comm, int userId) throws IOException {
+
+		synchronized (db) {
+
+			long since = db.getPullWatermark();
+			if (since == 0 || db.getSyncCheckpoint() != null) {
+
+				return false;
+			}
+
+			int deferred = 0;
+			for (;;) {
+
+				TodoSyncCommunication.PullData d = comm.pull(userId, since);
+				if (d == null || d.status != TodoSyncCommunication.PULL_OK) {
+
+					return false;
+				}
+				responses++;
+				pulledBytes += d.chunks.remaining();
+
+				deferred += apply(d);
+				if (d.isComplete) {
+
+					return deferred == 0;
+				}
+				since = d.watermark;
+			}
+		}
+	}
+
+	/**
+	 * Applies the changes of a pull response and advances the watermark.
+	 *
+	 * @return the number of changes that need a sync.
+	 */
+	protected int apply(TodoSyncCommunication.PullData d) {
+
+		// the changed items keyed by ID with null for the deleted ones
+		final TreeMap<Long, Todo> changes = new TreeMap<Long, Todo>();
+		final int[] incomplete = new int[1];
+		TodoTlv.read(d.chunks, new TodoTlv.Visitor() {
+
+			public void visit(byte chunkType, Todo t) {
+
+				db.unarchiveTodos(new long[] {t.id.longValue()});
+				if (chunkType == TodoTlv.CHUNK_TODO) {
+
+					if (!t.isComplete() || t.revision == null) {
+
+						throw new IllegalStateException("Incomplete remote todo " + t.id);
+					}
+					changes.put(t.id, t);
+				} else if (chunkType == TodoTlv.CHUNK_UPDATE_TODO) {
+
+					if (t.revision == null || t.fingerprint == null) {
+
+						throw new IllegalStateException("Invalid pull data: Update of " + t.id + " without revision or fingerprint");
+					}
+					updatedItems++;
+					Todo remote = complete(t);
+					if (remote == null) {
+
+						incomplete[0]++;
+					} else {
+
+						changes.put(t.id, remote);
+					}
+				} else if (chunkType == TodoTlv.CHUNK_DELETE_TODO) {
+
+					changes.put(t.id, null);
+				} else {
+
+					throw new IllegalStateException("Invalid pull data: Unexpected chunk " + chunkType);
+				}
+			}
+		});
+		pulledItems += changes.size() + incomplete[0];
+
+		int deferred = incomplete[0];
+		SyncPlan plan = new SyncPlan();
+		db.beginTransaction();
+		try {
+
+			db.recreateSyncTable();
+			for (Todo remote : changes.values()) {
+
+				if (remote != null) {
+
+					db.createSyncTodo(remote);
+				}
+			}
+
+			for (Long id : changes.keySet()) {
+
+				Todo remote = changes.get(id);
+				Todo local = db.getLocalTodo(id.longValue());
+				if (local == null) {
+
+					if (remote != null) {
+
+						SyncPlanner.planImport(plan, id.longValue());
+					}
+					continue;
+				}
+
+				int localRev = local.revision.intValue();
+				int mask = (remote == null || localRev == TodoSchema.NEW_TODO_REVISION || local.equals(remote)
+					    ? 0 : SyncPlan.fieldMask(local, remote));
+				SyncPlanner.decide(plan, id.longValue(), localRev, db.isLocalDeleted(id.longValue()),
+						   remote != null, remote == null ? 0 : remote.revision.intValue(),
+						   mask == 0, mask, local, remote);
+			}
+
+			// no resolver as the conflicts that need the user are left to a sync
+			SyncPlanExecutor executor = new SyncPlanExecutor(db, null);
+			executor.autoResolve(plan);
+			Map<Long, byte[]> versionVectors = new HashMap<Long, byte[]>();
+			executor.readVersionVectors(plan.getIds(SyncAction.REPLACE_LOCAL, SyncAction.DROP_REMOTE,
+								SyncAction.CONFIRM), false, versionVectors);
+			for (int i = 0; i < plan.size(); i++) {
+
+				switch (plan.getAction(i)) {
+				case REPLACE_LOCAL:
+				case DELETE_LOCAL:
+					// the server side wins like in a sync
+					db.removeOutboxOf(plan.getId(i));
+					break;
+				case PUSH_NEW:
+				case OVERRIDE_REMOTE:
+				case MERGE:
+				case CONFLICT:
+				case REMOTE_DELETION_CONFLICT:
+				case LOCAL_DELETION_CONFLICT:
+					deferred++;
+					break;
+				default:
+					// the local side already has the change or sends its own
+					break;
+				}
+			}
+			db.replaceTodos(plan.getIds(SyncAction.REPLACE_LOCAL));
+			db.deleteLocal(plan.getIds(SyncAction.DELETE_LOCAL));
+			db.addTodoRevision(plan.getIds(SyncAction.CONFIRM), 1);
+			// every remote item that is not imported exists locally
+			db.importNewTodos();
+			executor.saveMergeBases(plan.getIds(SyncAction.REPLACE_LOCAL, SyncAction.DROP_REMOTE,
+							    SyncAction.CONFIRM), versionVectors);
+			executor.saveImportedMergeBases(plan.getIds(SyncAction.IMPORT));
+			db.dropSync();
+			db.savePullWatermark(d.watermark);
+			db.setTransactionSuccessful();
+		} finally {
+
+			db.endTransaction();
+		}
+		deferredItems += deferred;
+
+		return deferred;
+	}
+
+	/**
+	 * Returns the remote item described by a pulled update whose absent
+	 * fields are taken from the local item or null if the local item does
+	 * not have the remote values of these fields, e.g. because it has been
+	 * edited since.
+	 */
+	protected Todo complete(Todo update) {
+
+		Todo local = db.getLocalTodo(update.id.longValue());
+		if (local == null) {
+
+			return null;
+		}
+
+		Todo t = new Todo(update);
+		if (t.title == null) {
+
+			t.title = local.title;
+		}
+		if (t.deadline == null) {
+
+			t.deadline = local.deadline;
+		}
+		if (t.priority == null) {
+
+			t.priority = local.priority;
+		}
+		if (t.status == null) {
+
+			t.status = local.status;
+		}
+		if (t.description == null) {
+
+			t.description = local.description;
+		}
+
+		return t.computeFingerprint() == update.fingerprint.longValue() ? t : null;
+	}
+}
@@ -0,0 +1,162 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Class ColumnarDiff computes the same SyncPlan as SyncPlanner from two
+ * TodoSnapshot objects using a fork/join pool. The local rows are split in
+ * halves at an ID and the remote rows at the same ID until a range is small
+ * enough to be merged sequentially, so that every range decides its IDs
+ * independently and the partial plans are concatenated in ID order.
+ *
+ * Equal fingerprints are taken as equal data, which makes a 64-bit
+ * collision the only way to miss a change. The plan carries no field mask
+ * but for the conflicts, whose sides are read from the store afterwards.
+ *
+ * The class needs java.util.concurrent.ForkJoinPool, which Android only
+ * has since API level 21, so the app keeps using SyncPlanner.
+ *
+ * @author eus
+ */
+public class ColumnarDiff extends RecursiveTask<SyncPlan> {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The number of local rows below which a range is merged sequentially. */
+	public static final int THRESHOLD = 8192;
+
+	protected final TodoSnapshot local;
+	protected final TodoSnapshot remote;
+	/** The range of local rows. */
+	protected final int localFrom, localTo;
+	/** The range of remote rows. */
+	protected final int remoteFrom, remoteTo;
+
+	protected ColumnarDiff(TodoSnapshot local, int localFrom, int localTo,
+			       TodoSnapshot remote, int remoteFrom, int remoteTo) {
+
+		this.local = local;
+		this.localFrom = localFrom;
+		this.localTo = localTo;
+		this.remote = remote;
+		this.remoteFrom = remoteFrom;
+		this.remoteTo = remoteTo;
+	}
+
+	/** Returns the plan of two snapshots leaving the sides of the conflicts unattached. */
+	public static SyncPlan diff(TodoSnapshot local, TodoSnapshot remote, ForkJoinPool pool) {
+
+		return pool.invoke(new ColumnarDiff(local, 0, local.size, remote, 0, remote.size));
+	}
+
+	/**
+	 * Returns the plan of a store whose sync table holds the received
+	 * todos, with the sides of the conflicts attached for the
+	 * ConflictResolver so that SyncEngine.sync(SyncPlan) can execute it.
+	 */
+	public static SyncPlan plan(TodoStore db, ForkJoinPool pool) {
+
+		TodoSnapshot local;
+		TodoSnapshot remote;
+
+		TodoCursor c = db.getAllTodoFingerprints();
+		TodoCursor d = db.getAllDeletedTodoIds();
+		try {
+
+			local = TodoSnapshot.readLocal(c, d);
+		} finally {
+
+			c.close();
+			d.close();
+		}
+		c = db.getAllSyncFingerprints();
+		try {
+
+			remote = TodoSnapshot.readRemote(c);
+		} finally {
+
+			c.close();
+		}
+
+		SyncPlan plan = diff(local, remote, pool);
+
+		if (plan.getConflictCount() == 0) {
+
+			return plan;
+		}
+		for (int i = 0; i < plan.size(); i++) {
+
+			switch (plan.getAction(i)) {
+
+			case CONFLICT:
+				plan.setConflictTodos(i, db.getTodo(plan.getId(i)), db.getRemoteTodo(plan.getId(i)));
+				break;
+			case REMOTE_DELETION_CONFLICT:
+				plan.setConflictTodos(i, db.getTodo(plan.getId(i)), null);
+				break;
+			case LOCAL_DELETION_CONFLICT:
+				plan.setConflictTodos(i, null, db.getRemoteTodo(plan.getId(i)));
+				break;
+			}
+		}
+
+		return plan;
+	}
+
+	@Override
+	protected SyncPlan compute() {
+
+		if (localTo - localFrom <= THRESHOLD) {
+
+			return merge();
+		}
+
+		int localMid = (localFrom + localTo) >>> 1;
+		int remoteMid = remote.lowerBound(remoteFrom, remoteTo, local.ids[localMid]);
+		ColumnarDiff left = new ColumnarDiff(local, localFrom, localMid, remote, remoteFrom, remoteMid);
+		ColumnarDiff right = new ColumnarDiff(local, localMid, localTo, remote, remoteMid, remoteTo);
+
+		left.fork();
+		SyncPlan rightPlan = right.compute();
+		SyncPlan plan = left.join();
+		plan.addAll(rightPlan);
+
+		return plan;
+	}
+
+	/** Merges the ranges sequentially like SyncPlanner.plan(). */
+	protected SyncPlan merge() {
+
+		SyncPlan plan = new SyncPlan();
+		int r = remoteFrom;
+
+		for (int i = localFrom; i < localTo; i++) {
+
+			long id = local.ids[i];
+
+			while (r < remoteTo && remote.ids[r] < id) {
+
+				SyncPlanner.planImport(plan, remote.ids[r++]);
+			}
+
+			boolean hasRemote = r < remoteTo && remote.ids[r] == id;
+			int remoteRev = hasRemote ? remote.revisions[r] : 0;
+			boolean isEqual = hasRemote && local.fingerprints[i] == remote.fingerprints[r];
+			if (hasRemote) {
+
+				r++;
+			}
+
+			SyncPlanner.decide(plan, id, local.revisions[i], local.deleted[i],
+					   hasRemote, remoteRev, isEqual, 0, null, null);
+		}
+
+		while (r < remoteTo) {
+
+			SyncPlanner.planImport(plan, remote.ids[r++]);
+		}
+
+		return plan;
+	}
+}
@@ -0,0 +1,12 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Enum ConflictResolution lists the user's decisions regarding a conflict.
+ *
+ * @author Tadeus Prastowo
+ */
+public enum ConflictResolution {
+	UNDECIDED_YET,
+	PICK_LOCAL,
+	PICK_REMOTE
+}
@@ -0,0 +1,19 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Interface ConflictResolver lets the SyncEngine involve the user when a
+ * local and a remote todo item cannot be reconciled automatically.
+ *
+ * @author Tadeus Prastowo
+ */
+public interface ConflictResolver {
+
+	/** Both items have the same revision but different data ([A5]/[A6]). */
+	ConflictResolution resolveTwoItemsConflict(Todo localTodo, Todo remoteTodo);
+
+	/** The item has been deleted in the server ([A7]/[A8]). */
+	ConflictResolution resolveRemoteDeletion(Todo localTodo);
+
+	/** The item has been deleted locally but changed remotely ([A12]/[A13]). */
+	ConflictResolution resolveLocalDeletion(Todo remoteTodo);
+}
@@ -0,0 +1,71 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Class FieldRevisions packs the revision at which every data field of a
+ * todo item has last changed on the server into an int. A field is kept as
+ * its age, i.e. the item revision minus the field revision, in AGE_BITS
+ * bits so that the vector costs a single int field in a TLV chunk and in
+ * the sync table. An age that does not fit saturates at MAX_AGE, which can
+ * only make a field look changed more recently than it has been.
+ *
+ * The fields are the SyncPlan *_FIELD bits and the age of field 1 << i is
+ * at bit i * AGE_BITS.
+ *
+ * @author eus
+ */
+public final class FieldRevisions {
+
+	/** The number of bits of the age of a field. */
+	public static final int AGE_BITS = 6;
+	/** The saturated age of a field. */
+	public static final int MAX_AGE = (1 << AGE_BITS) - 1;
+	/** The vector of an item whose fields have all changed at its current revision. */
+	public static final int ALL_CHANGED = 0;
+
+	/** The number of data fields. */
+	private static final int FIELD_COUNT = Integer.bitCount(SyncPlan.ALL_FIELDS);
+
+	private FieldRevisions() {
+	}
+
+	/**
+	 * Returns the vector after an update that has incremented the item
+	 * revision by one and changed the fields of a field mask.
+	 */
+	public static int update(int packed, int fieldMask) {
+
+		int updated = 0;
+		for (int i = 0; i < FIELD_COUNT; i++) {
+
+			int age = (packed >>> (i * AGE_BITS)) & MAX_AGE;
+			if ((fieldMask & (1 << i)) != 0) {
+
+				age = 0;
+			} else if (age < MAX_AGE) {
+
+				age++;
+			}
+			updated |= age << (i * AGE_BITS);
+		}
+
+		return updated;
+	}
+
+	/**
+	 * Returns the field mask of the fields of an item having the given
+	 * revision that have changed after an earlier revision of the item.
+	 */
+	public static int changedAfter(int packed, int revision, int sinceRevision) {
+
+		int mask = 0;
+		for (int i = 0; i < FIELD_COUNT; i++) {
+
+			if (revision - ((packed >>> (i * AGE_BITS)) & MAX_AGE) > sinceRevision) {
+
+				mask |= 1 << i;
+			}
+		}
+
+		return mask;
+	}
+}
@@ -0,0 +1,333 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class HashTree is a two-level hash tree over the (ID, revision,
+ * fingerprint) of the todo items that lets the client and the server find
+ * out which items differ without sending them. The items are spread over
+ * BUCKET_COUNT buckets by a hash of their IDs. A bucket hash is the XOR of
+ * the leaf hashes of its items so that an item can be added or removed in
+ * constant time, and the root is a hash of all bucket hashes in order.
+ *
+ * The server hashes its revisions as they are. The client hashes the
+ * revision of the server item that its local item was last synchronized
+ * with, i.e. the local revision minus one, so that both trees are equal when
+ * a sync would only apply [A2] to every item. New and deleted local items
+ * have no such revision and mark their buckets as changed instead. The
+ * archived items are not read but come as the bucket hashes that the store
+ * keeps for them.
+ *
+ * @author eus
+ */
+public class HashTree {
+
+	/** The number of buckets. */
+	public static final int BUCKET_COUNT = 256;
+	/** The size of a bucket set in bytes. */
+	public static final int BUCKET_SET_LEN = BUCKET_COUNT / 8;
+
+	/** The hash of every bucket. */
+	protected final long[] buckets = new long[BUCKET_COUNT];
+	/** The buckets whose local items must be sent regardless of the hashes. */
+	protected final byte[] changed = new byte[BUCKET_SET_LEN];
+
+	/**
+	 * Returns the tree of the todo table of a store, which must have a
+	 * fingerprint for every item.
+	 */
+	public static HashTree readLocal(TodoStore db) {
+
+		TodoCursor local = db.getAllTodoFingerprints();
+		TodoCursor deleted = db.getAllDeletedTodoIds();
+		TodoSnapshot s;
+		try {
+
+			s = TodoSnapshot.readLocal(local, deleted);
+		} finally {
+
+			local.close();
+			deleted.close();
+		}
+
+		HashTree tree = new HashTree();
+		for (int i = 0; i < s.size; i++) {
+
+			if (s.revisions[i] == TodoSchema.NEW_TODO_REVISION || s.deleted[i]) {
+
+				setBucket(tree.changed, bucketOf(s.ids[i]));
+			} else {
+
+				tree.add(s.ids[i], s.revisions[i] - 1, s.fingerprints[i]);
+			}
+		}
+		addBuckets(tree.buckets, db.getArchiveBuckets());
+
+		return tree;
+	}
+
+	/**
+	 * Adds the items of a cursor with the TodoSchema.FINGERPRINT_COLUMNS to
+	 * bucket hashes like readLocal() adds a synchronized item, which
+	 * removes the items that have been added before, e.g. to keep the
+	 * bucket hashes of the archived items.
+	 *
+	 * @return the IDs of the items
+	 */
+	public static long[] addAll(long[] buckets, TodoCursor c) {
+
+		int idIndex = c.getColumnIndex(TodoSchema.ID_COLUMN);
+		int revisionIndex = c.getColumnIndex(TodoSchema.REVISION_COLUMN);
+		int fingerprintIndex = c.getColumnIndex(TodoSchema.FINGERPRINT_COLUMN);
+		long[] ids = new long[16];
+		int n = 0;
+
+		while (c.moveToNext()) {
+
+			long id = c.getLong(idIndex);
+			buckets[bucketOf(id)] ^= leaf(id, c.getInt(revisionIndex) - 1, c.getLong(fingerprintIndex));
+			if (n == ids.length) {
+
+				long[] grown = new long[2 * n];
+				System.arraycopy(ids, 0, grown, 0, n);
+				ids = grown;
+			}
+			ids[n++] = id;
+		}
+
+		long[] result = new long[n];
+		System.arraycopy(ids, 0, result, 0, n);
+
+		return result;
+	}
+
+	/** Adds other bucket hashes to bucket hashes. */
+	public static void addBuckets(long[] buckets, long[] other) {
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+
+			buckets[i] ^= other[i];
+		}
+	}
+
+	/** Packs bucket hashes into a blob of BUCKET_COUNT longs. */
+	public static byte[] pack(long[] buckets) {
+
+		ByteBuffer b = ByteBuffer.allocate(BUCKET_COUNT * TodoTlv.LONG_LEN);
+		for (long h : buckets) {
+
+			b.putLong(h);
+		}
+
+		return b.array();
+	}
+
+	/** Unpacks the bucket hashes that pack() has given or returns zero hashes if the blob is null. */
+	public static long[] unpack(byte[] blob) {
+
+		long[] buckets = new long[BUCKET_COUNT];
+		if (blob != null) {
+
+			ByteBuffer.wrap(blob).asLongBuffer().get(buckets);
+		}
+
+		return buckets;
+	}
+
+	/** Returns the bucket of an ID. */
+	public static int bucketOf(long id) {
+
+		return (int) (mix(id) >>> 56);
+	}
+
+	/** Returns the leaf hash of an item. */
+	public static long leaf(long id, int revision, long fingerprint) {
+
+		return mix(mix(mix(id) ^ revision) ^ fingerprint);
+	}
+
+	/** Returns the SplitMix64 finalizer of a value. */
+	protected static long mix(long z) {
+
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+
+		return z ^ (z >>> 31);
+	}
+
+	/** Adds an item to its bucket. */
+	public void add(long id, int revision, long fingerprint) {
+
+		buckets[bucketOf(id)] ^= leaf(id, revision, fingerprint);
+	}
+
+	/** Removes an item that has been added with the same values. */
+	public void remove(long id, int revision, long fingerprint) {
+
+		add(id, revision, fingerprint);
+	}
+
+	/** Returns the hash of a bucket. */
+	public long getBucket(int bucket) {
+
+		return buckets[bucket];
+	}
+
+	/** Returns a copy of the bucket hashes. */
+	public long[] getBuckets() {
+
+		return buckets.clone();
+	}
+
+	/** Returns the root hash. */
+	public long getRoot() {
+
+		return getRoot(buckets);
+	}
+
+	/** Returns the root hash of the given bucket hashes. */
+	public static long getRoot(long[] buckets) {
+
+		long h = BUCKET_COUNT;
+		for (long b : buckets) {
+
+			h = mix(h ^ b);
+		}
+
+		return h;
+	}
+
+	/**
+	 * Returns the buckets to reconcile with another tree, which are those
+	 * whose hashes differ and those having new or deleted local items.
+	 *
+	 * @param remoteBuckets the bucket hashes of the other tree or null if
+	 *                      its root is equal to that of this tree
+	 */
+	public byte[] getChangedBuckets(long[] remoteBuckets) {
+
+		byte[] result = changed.clone();
+		if (remoteBuckets != null) {
+
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+
+				if (buckets[i] != remoteBuckets[i]) {
+
+					setBucket(result, i);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/** Adds a bucket to a bucket set. */
+	public static void setBucket(byte[] bucketSet, int bucket) {
+
+		bucketSet[bucket >>> 3] |= (byte) (1 << (bucket & 7));
+	}
+
+	/** Returns true if a bucket set contains a bucket. */
+	public static boolean hasBucket(byte[] bucketSet, int bucket) {
+
+		return (bucketSet[bucket >>> 3] & (1 << (bucket & 7))) != 0;
+	}
+
+	/** Returns true if a bucket set contains the bucket of an ID. */
+	public static boolean hasId(byte[] bucketSet, long id) {
+
+		return hasBucket(bucketSet, bucketOf(id));
+	}
+
+	/** Returns the number of buckets in a bucket set. */
+	public static int countBuckets(byte[] bucketSet) {
+
+		int n = 0;
+		for (byte b : bucketSet) {
+
+			n += Integer.bitCount(b & 0xff);
+		}
+
+		return n;
+	}
+
+	/** Returns a cursor over the rows of another cursor whose IDs are in a bucket set. */
+	public static TodoCursor filter(TodoCursor c, byte[] bucketSet) {
+
+		return new BucketCursor(c, bucketSet);
+	}
+
+	/** Class BucketCursor skips the rows whose IDs are not in a bucket set. */
+	protected static class BucketCursor implements TodoCursor {
+
+		protected final TodoCursor c;
+		protected final byte[] bucketSet;
+		protected final int idIndex;
+
+		protected BucketCursor(TodoCursor c, byte[] bucketSet) {
+
+			this.c = c;
+			this.bucketSet = bucketSet;
+			idIndex = c.getColumnIndex(TodoSchema.ID_COLUMN);
+		}
+
+		/** Returns the number of rows before filtering, which is an upper bound. */
+		public int getCount() {
+
+			return c.getCount();
+		}
+
+		public boolean moveToNext() {
+
+			while (c.moveToNext()) {
+
+				if (hasId(bucketSet, c.getLong(idIndex))) {
+
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		public int getColumnCount() {
+
+			return c.getColumnCount();
+		}
+
+		public int getColumnIndex(String columnName) {
+
+			return c.getColumnIndex(columnName);
+		}
+
+		public boolean isNull(int columnIndex) {
+
+			return c.isNull(columnIndex);
+		}
+
+		public int getInt(int columnIndex) {
+
+			return c.getInt(columnIndex);
+		}
+
+		public long getLong(int columnIndex) {
+
+			return c.getLong(columnIndex);
+		}
+
+		public String getString(int columnIndex) {
+
+			return c.getString(columnIndex);
+		}
+
+		public byte[] getBlob(int columnIndex) {
+
+			return c.getBlob(columnIndex);
+		}
+
+		public void close() {
+
+			c.close();
+		}
+	}
+}
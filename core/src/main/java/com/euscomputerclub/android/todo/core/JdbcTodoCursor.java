@@ -0,0 +1,171 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Class JdbcTodoCursor adapts a forward-only JDBC ResultSet to a TodoCursor.
+ * The row count is computed with a separate count query on demand because a
+ * forward-only ResultSet does not know its size.
+ *
+ * @author eus
+ */
+public class JdbcTodoCursor implements TodoCursor {
+
+	/** The underlying result set. */
+	protected final ResultSet rs;
+	/** The statement returning the number of rows. */
+	protected final PreparedStatement countStatement;
+	/** The column names as reported by the result set. */
+	protected final String[] columnNames;
+	/** The number of rows or -1 if not yet known. */
+	protected int count = -1;
+
+	/**
+	 * Constructs a cursor.
+	 *
+	 * @param rs the result set to iterate
+	 * @param countStatement the statement returning the number of rows
+	 *                       (can be null if getCount() is never called)
+	 */
+	public JdbcTodoCursor(ResultSet rs, PreparedStatement countStatement) {
+
+		this.rs = rs;
+		this.countStatement = countStatement;
+		try {
+
+			ResultSetMetaData m = rs.getMetaData();
+			columnNames = new String[m.getColumnCount()];
+			for (int i = 0; i < columnNames.length; i++) {
+
+				columnNames[i] = m.getColumnLabel(i + 1);
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public int getCount() {
+
+		if (count == -1) {
+
+			try {
+
+				ResultSet c = countStatement.executeQuery();
+				c.next();
+				count = c.getInt(1);
+				c.close();
+			} catch (SQLException e) {
+
+				throw new IllegalStateException(e);
+			}
+		}
+
+		return count;
+	}
+
+	public boolean moveToNext() {
+
+		try {
+
+			return rs.next();
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public int getColumnCount() {
+
+		return columnNames.length;
+	}
+
+	public int getColumnIndex(String columnName) {
+
+		for (int i = 0; i < columnNames.length; i++) {
+
+			if (columnNames[i].equalsIgnoreCase(columnName)) {
+
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	public boolean isNull(int columnIndex) {
+
+		try {
+
+			// unlike getObject(), getLong() does not copy a text value
+			rs.getLong(columnIndex + 1);
+
+			return rs.wasNull();
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public int getInt(int columnIndex) {
+
+		try {
+
+			return rs.getInt(columnIndex + 1);
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public long getLong(int columnIndex) {
+
+		try {
+
+			return rs.getLong(columnIndex + 1);
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public String getString(int columnIndex) {
+
+		try {
+
+			return rs.getString(columnIndex + 1);
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public byte[] getBlob(int columnIndex) {
+
+		try {
+
+			return rs.getBytes(columnIndex + 1);
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void close() {
+
+		try {
+
+			rs.getStatement().close();
+			if (countStatement != null) {
+
+				countStatement.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,1924 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class JdbcTodoStore is a TodoStore backed by SQLite through JDBC. It uses
+ * the same schema and statements as TodoDb so that the sync engine can be
+ * profiled on a plain JVM against a real SQLite database.
+ *
+ * The caller provides the JDBC driver on the class path (e.g.
+ * org.xerial:sqlite-jdbc) and every statement runs in autocommit mode just
+ * like SQLiteDatabase does outside of an explicit transaction started with
+ * beginTransaction(), which can be nested like those of SQLiteDatabase.
+ *
+ * A store created by an older version is migrated when it is opened: the
+ * fingerprint column is added and computed, and the ID sequence of the
+ * device is created, giving the new todo items that have not been sent yet
+ * IDs with the device prefix. The sync_checkpoint, outbox, pull_watermark
+ * and merge_base tables are created as well, and the rows of the sync
+ * table are moved to the temp database.
+ *
+ * The archived_todo and archive_hash tables are created as well, and the
+ * database is switched to incremental auto_vacuum, which takes a VACUUM of
+ * the whole file once, so that optimize() can shrink the file after the
+ * closed items have been archived. The todo_counter and deadline_counter
+ * tables are created along with their triggers and computed once. The
+ * todo_description table is created and the long descriptions of the todo
+ * table are moved into it.
+ *
+ * A DB of the Android TodoDb, whose user_version is its version, is
+ * rather upgraded by the same TodoSchemaUpgrade steps as in TodoDb. A
+ * store without a version has been brought to version 14 by the checks
+ * above and takes the later steps, e.g. the months of its deadlines are
+ * normalized, and then keeps its version as well.
+ *
+ * The sync table is created in the temp database, which is kept in memory
+ * like that of Android, whenever a store is opened, and since the rows of
+ * the last connection are gone, the download of an interrupted sync
+ * restarts from its first byte.
+ *
+ * @author eus
+ */
+public class JdbcTodoStore implements TodoStore {
+
+	/**
+	 * The TodoSchemaUpgrade version of the tables of a store without a
+	 * version once the checks of the constructor have brought them up to
+	 * date, as the stores of this class before version 15 had none.
+	 */
+	protected static final int UNVERSIONED_VERSION = 14;
+
+	/** The SQLite connection. */
+	protected final Connection conn;
+	/** True if the current transaction has been marked successful. */
+	protected boolean transactionSuccessful;
+	/** The number of nested transactions that have begun and not ended. */
+	protected int transactionDepth;
+	/** True if a nested transaction has ended without being marked successful. */
+	protected boolean transactionFailed;
+
+	/**
+	 * Opens a store, creating the tables if necessary.
+	 *
+	 * @param url the JDBC URL such as "jdbc:sqlite:todo.db" or "jdbc:sqlite::memory:"
+	 */
+	public JdbcTodoStore(String url) throws SQLException {
+
+		this(DriverManager.getConnection(url));
+	}
+
+	/** Constructs a store working on an open connection, creating the tables if necessary. */
+	public JdbcTodoStore(Connection conn) throws SQLException {
+
+		this.conn = conn;
+		execSQL(TodoSchema.TEMP_STORE_MEMORY);
+		if (queryLong(TodoSchema.SELECT_AUTO_VACUUM) != TodoSchema.AUTO_VACUUM_INCREMENTAL) {
+
+			execSQL(TodoSchema.SET_AUTO_VACUUM_INCREMENTAL);
+			execSQL(TodoSchema.VACUUM);
+		}
+
+		// a DB of the Android TodoDb keeps its version
+		int version = (int) queryLong(TodoSchema.SELECT_USER_VERSION);
+		boolean isDiskSyncTableCopied = false;
+		if (version > 0 && version < TodoSchemaUpgrade.LAST_VERSION) {
+
+			isDiskSyncTableCopied = upgrade(version);
+		}
+
+		if (!hasTable(TodoSchema.TODO_TABLE)) {
+
+			execSQL(TodoSchema.CREATE_TODO_TABLE);
+			execSQL(TodoSchema.CREATE_SYNC_TABLE);
+			execSQL(TodoSchema.CREATE_DELETED_TODO_TABLE);
+			execSQL(TodoSchema.CREATE_SYNC_CHECKPOINT_TABLE);
+			execSQL(TodoSchema.CREATE_OUTBOX_TABLE);
+			execSQL(TodoSchema.CREATE_PULL_WATERMARK_TABLE);
+			execSQL(TodoSchema.CREATE_MERGE_BASE_TABLE);
+			execSQL(TodoSchema.CREATE_ARCHIVED_TODO_TABLE);
+			execSQL(TodoSchema.CREATE_ARCHIVE_HASH_TABLE);
+			createCounters();
+			createDescriptions();
+			createIdSequence();
+			execSQL(TodoSchema.SET_USER_VERSION.replace("?", String.valueOf(TodoSchemaUpgrade.LAST_VERSION)));
+			return;
+		}
+		if (!hasColumn(TodoSchema.TODO_TABLE, TodoSchema.FINGERPRINT_COLUMN)) {
+
+			beginTransaction();
+			try {
+
+				execSQL(TodoSchema.ADD_FINGERPRINT_COLUMN);
+				execSQL("drop table if exists " + TodoSchema.SYNC_TABLE + ";");
+				computeFingerprints("select " + columns() + " from " + TodoSchema.TODO_TABLE);
+				setTransactionSuccessful();
+			} finally {
+
+				endTransaction();
+			}
+		}
+		if (!hasTable(TodoSchema.ID_SEQUENCE_TABLE)) {
+
+			beginTransaction();
+			try {
+
+				createIdSequence();
+				execSQL("drop table if exists " + TodoSchema.SYNC_TABLE + ";");
+				renumberLegacyNewTodos();
+				setTransactionSuccessful();
+			} finally {
+
+				endTransaction();
+			}
+		}
+		if (!hasTable(TodoSchema.SYNC_CHECKPOINT_TABLE)) {
+
+			execSQL(TodoSchema.CREATE_SYNC_CHECKPOINT_TABLE);
+		} else if (!hasColumn(TodoSchema.SYNC_CHECKPOINT_TABLE, TodoSchema.PENDING_COLUMN)) {
+
+			execSQL(TodoSchema.ADD_PENDING_COLUMN);
+		}
+		if (!hasTable(TodoSchema.OUTBOX_TABLE)) {
+
+			execSQL(TodoSchema.CREATE_OUTBOX_TABLE);
+		}
+		if (!hasTable(TodoSchema.PULL_WATERMARK_TABLE)) {
+
+			execSQL(TodoSchema.CREATE_PULL_WATERMARK_TABLE);
+		}
+		if (!hasTable(TodoSchema.MERGE_BASE_TABLE)) {
+
+			execSQL(TodoSchema.CREATE_MERGE_BASE_TABLE);
+		}
+		if (!hasTable(TodoSchema.ARCHIVED_TODO_TABLE)) {
+
+			execSQL(TodoSchema.CREATE_ARCHIVED_TODO_TABLE);
+			execSQL(TodoSchema.CREATE_ARCHIVE_HASH_TABLE);
+		}
+		if (!hasTable(TodoSchema.COUNTER_TABLE)) {
+
+			beginTransaction();
+			try {
+
+				createCounters();
+				for (String sql : TodoSchema.RECOMPUTE_COUNTERS) {
+
+					execSQL(sql);
+				}
+				setTransactionSuccessful();
+			} finally {
+
+				endTransaction();
+			}
+		}
+		if (!hasTable(TodoSchema.DESCRIPTION_TABLE)) {
+
+			beginTransaction();
+			try {
+
+				createDescriptions();
+				compressDescriptions(TodoSchema.SELECT_LONG_DESCRIPTIONS);
+				setTransactionSuccessful();
+			} finally {
+
+				endTransaction();
+			}
+		}
+		if (version == 0) {
+
+			upgrade(UNVERSIONED_VERSION);
+		}
+
+		execSQL(TodoSchema.CREATE_SYNC_TABLE);
+		if (queryLong(TodoSchema.HAS_DISK_SYNC_TABLE) != 0) {
+
+			beginTransaction();
+			try {
+
+				execSQL(TodoSchema.COPY_DISK_SYNC_TABLE);
+				execSQL(TodoSchema.DROP_DISK_SYNC_TABLE);
+				setTransactionSuccessful();
+			} finally {
+
+				endTransaction();
+			}
+		} else if (!isDiskSyncTableCopied) {
+
+			execSQL(TodoSchema.RESTART_SYNC_CHECKPOINT);
+		}
+	}
+
+	/**
+	 * Runs the TodoSchemaUpgrade steps after a version in a transaction
+	 * and stores LAST_VERSION as the version of the DB.
+	 *
+	 * @return true if the rows of the sync table on disk have been moved to the temp one
+	 */
+	protected boolean upgrade(int version) {
+
+		JdbcSchemaUpgrade upgrade = new JdbcSchemaUpgrade();
+		beginTransaction();
+		try {
+
+			upgrade.upgrade(version, TodoSchemaUpgrade.LAST_VERSION);
+			execSQL(TodoSchema.SET_USER_VERSION.replace("?", String.valueOf(TodoSchemaUpgrade.LAST_VERSION)));
+			setTransactionSuccessful();
+		} finally {
+
+			endTransaction();
+		}
+
+		return upgrade.isDiskSyncTableCopied();
+	}
+
+	/**
+	 * Class JdbcSchemaUpgrade runs the steps of TodoSchemaUpgrade on the
+	 * connection of the store.
+	 */
+	protected class JdbcSchemaUpgrade extends TodoSchemaUpgrade {
+
+		@Override
+		protected void execSQL(String sql) {
+
+			JdbcTodoStore.this.execSQL(sql);
+		}
+
+		@Override
+		protected long queryLong(String sql) {
+
+			return JdbcTodoStore.this.queryLong(sql);
+		}
+
+		@Override
+		protected void createIdSequence() {
+
+			JdbcTodoStore.this.createIdSequence();
+		}
+
+		@Override
+		protected void renumberLegacyNewTodos() {
+
+			try {
+
+				JdbcTodoStore.this.renumberLegacyNewTodos();
+			} catch (SQLException e) {
+
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		protected void computeFingerprints(String sql) {
+
+			try {
+
+				JdbcTodoStore.this.computeFingerprints(sql);
+			} catch (SQLException e) {
+
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		protected void compressDescriptions(String sql) {
+
+			JdbcTodoStore.this.compressDescriptions(sql);
+		}
+	}
+
+	/** Returns true if the database has the given table. */
+	protected boolean hasTable(String table) throws SQLException {
+
+		ResultSet rs = conn.getMetaData().getTables(null, null, table, null);
+		try {
+
+			return rs.next();
+		} finally {
+
+			rs.close();
+		}
+	}
+
+	/** Creates the counter tables and the triggers keeping them up to date. */
+	protected void createCounters() {
+
+		execSQL(TodoSchema.CREATE_COUNTER_TABLE);
+		execSQL(TodoSchema.CREATE_DEADLINE_COUNTER_TABLE);
+		execSQL(TodoSchema.CREATE_DELETED_TODO_INDEX);
+		for (String sql : TodoSchema.CREATE_COUNTER_TRIGGERS) {
+
+			execSQL(sql);
+		}
+	}
+
+	/** Creates the todo_description table and the triggers dropping its rows. */
+	protected void createDescriptions() {
+
+		execSQL(TodoSchema.CREATE_DESCRIPTION_TABLE);
+		for (String sql : TodoSchema.CREATE_DESCRIPTION_TRIGGERS) {
+
+			execSQL(sql);
+		}
+	}
+
+	/** Creates the ID sequence of this device with a random prefix. */
+	protected void createIdSequence() {
+
+		execSQL(TodoSchema.CREATE_ID_SEQUENCE_TABLE);
+		update(TodoSchema.INSERT_ID_SEQUENCE,
+		       Long.valueOf(TodoSchema.firstLastId(TodoSchema.newIdPrefix(new SecureRandom()))));
+	}
+
+	/**
+	 * Gives the new todo items created before the ID sequence IDs with the
+	 * device prefix so that they cannot collide with the server items.
+	 */
+	protected void renumberLegacyNewTodos() throws SQLException {
+
+		List<Long> ids = new ArrayList<Long>();
+		PreparedStatement select = prepare(TodoSchema.SELECT_LEGACY_NEW_TODO_IDS);
+		try {
+
+			ResultSet rs = select.executeQuery();
+			while (rs.next()) {
+
+				ids.add(Long.valueOf(rs.getLong(1)));
+			}
+		} finally {
+
+			select.close();
+		}
+		for (Long id : ids) {
+
+			update("update " + TodoSchema.TODO_TABLE + " set " + TodoSchema.ID_COLUMN + " = ?"
+			       + " where " + TodoSchema.ID_COLUMN + " = ?",
+			       Long.valueOf(nextId()), id);
+		}
+	}
+
+	/** Advances the ID sequence and returns the generated ID. */
+	protected long nextId() {
+
+		update(TodoSchema.INCREMENT_LAST_ID);
+		try {
+
+			PreparedStatement s = prepare(TodoSchema.SELECT_LAST_ID);
+			try {
+
+				ResultSet rs = s.executeQuery();
+				if (!rs.next()) {
+
+					throw new IllegalStateException("Empty " + TodoSchema.ID_SEQUENCE_TABLE + " table");
+				}
+
+				return rs.getLong(1);
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Returns true if a table has the given column. */
+	protected boolean hasColumn(String table, String column) throws SQLException {
+
+		ResultSet rs = conn.getMetaData().getColumns(null, null, table, column);
+		try {
+
+			return rs.next();
+		} finally {
+
+			rs.close();
+		}
+	}
+
+	/**
+	 * Stores the fingerprint of the todo items that a statement selects
+	 * with all their columns, e.g. those created before the fingerprint
+	 * column.
+	 */
+	protected void computeFingerprints(String sql) throws SQLException {
+
+		PreparedStatement select = prepare(sql);
+		PreparedStatement update = prepare(
+			"update " + TodoSchema.TODO_TABLE + " set " + TodoSchema.FINGERPRINT_COLUMN + " = ?"
+			+ " where " + TodoSchema.ID_COLUMN + " = ?");
+		try {
+
+			JdbcTodoCursor c = new JdbcTodoCursor(select.executeQuery(), null);
+			TodoRow row = new TodoRow(c);
+			while (c.moveToNext()) {
+
+				Todo t = row.toTodo();
+				update.setLong(1, t.computeFingerprint());
+				update.setLong(2, t.id.longValue());
+				update.addBatch();
+			}
+			update.executeBatch();
+		} finally {
+
+			select.close();
+			update.close();
+		}
+	}
+
+	/** Returns the underlying connection. */
+	public Connection getConnection() {
+
+		return conn;
+	}
+
+	/** Closes the connection. */
+	public void close() throws SQLException {
+
+		conn.close();
+	}
+
+	public long createTodo(String title, String deadline, int priority, String status, String description) {
+
+		beginTransaction();
+		try {
+
+			long id = insert(
+				"insert into " + TodoSchema.TODO_TABLE + " ("
+				+ TodoSchema.ID_COLUMN + ", "
+				+ TodoSchema.TITLE_COLUMN + ", "
+				+ TodoSchema.DEADLINE_COLUMN + ", "
+				+ TodoSchema.PRIORITY_COLUMN + ", "
+				+ TodoSchema.STATUS_COLUMN + ", "
+				+ TodoSchema.DESCRIPTION_COLUMN + ", "
+				+ TodoSchema.FINGERPRINT_COLUMN + ") values (?, ?, ?, ?, ?, ?, ?)",
+				Long.valueOf(nextId()), title, deadline, Integer.valueOf(priority), status,
+				TodoDescription.inline(description),
+				Long.valueOf(new Todo(null, title, deadline, Integer.valueOf(priority), status, description,
+						      null).computeFingerprint())
+			);
+			if (id != -1) {
+
+				compressDescription(id, description);
+				appendOutbox(id, TodoTlv.CHUNK_NEW_TODO, SyncPlan.ALL_FIELDS, null);
+				setTransactionSuccessful();
+			}
+
+			return id;
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	public int createTodos(Iterator<? extends Todo> todos) {
+
+		beginTransaction();
+		try {
+
+			long lastId = queryLong(TodoSchema.SELECT_LAST_ID);
+			int n = 0;
+			PreparedStatement s = conn.prepareStatement(TodoSchema.INSERT_NEW_TODO);
+			try {
+
+				while (todos.hasNext()) {
+
+					Todo t = todos.next();
+					s.setLong(1, ++lastId);
+					setObject(s, 2, t.title);
+					setObject(s, 3, t.deadline);
+					setObject(s, 4, t.priority);
+					setObject(s, 5, t.status);
+					setObject(s, 6, TodoDescription.inline(t.description));
+					s.setLong(7, new Todo(null, t.title, t.deadline, t.priority, t.status, t.description,
+							      null).computeFingerprint());
+					s.executeUpdate();
+					compressDescription(lastId, t.description);
+					n++;
+				}
+			} finally {
+
+				s.close();
+			}
+			update(TodoSchema.SET_LAST_ID, Long.valueOf(lastId));
+			setTransactionSuccessful();
+
+			return n;
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	public void clearTodos() {
+
+		beginTransaction();
+		try {
+
+			for (String sql : TodoSchema.CLEAR_TODOS) {
+
+				update(sql);
+			}
+			setTransactionSuccessful();
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	public int restoreTodos(Iterator<? extends Todo> todos) {
+
+		beginTransaction();
+		try {
+
+			long lastId = queryLong(TodoSchema.SELECT_LAST_ID);
+			long prefix = lastId >>> TodoSchema.ID_COUNTER_BITS;
+			int n = 0;
+			PreparedStatement s = conn.prepareStatement(TodoSchema.INSERT_RESTORED_TODO);
+			try {
+
+				while (todos.hasNext()) {
+
+					Todo t = todos.next();
+					long id = t.id.longValue();
+					s.setLong(1, id);
+					setObject(s, 2, t.title);
+					setObject(s, 3, t.deadline);
+					setObject(s, 4, t.priority);
+					setObject(s, 5, t.status);
+					setObject(s, 6, TodoDescription.inline(t.description));
+					s.setInt(7, t.revision == null ? TodoSchema.NEW_TODO_REVISION : t.revision.intValue());
+					s.setLong(8, t.getFingerprint());
+					s.executeUpdate();
+					compressDescription(id, t.description);
+					if (id >>> TodoSchema.ID_COUNTER_BITS == prefix && id > lastId) {
+
+						lastId = id;
+					}
+					n++;
+				}
+			} finally {
+
+				s.close();
+			}
+			update(TodoSchema.SET_LAST_ID, Long.valueOf(lastId));
+			setTransactionSuccessful();
+
+			return n;
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	public void restoreDeletedTodos(long[] ids) {
+
+		beginTransaction();
+		try {
+
+			PreparedStatement s = conn.prepareStatement(TodoSchema.INSERT_DELETED_TODO);
+			try {
+
+				for (long id : ids) {
+
+					s.setLong(1, id);
+					s.executeUpdate();
+				}
+			} finally {
+
+				s.close();
+			}
+			setTransactionSuccessful();
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	public int updateTodo(long id, String title, String deadline, Integer priority, String status, String description) {
+
+		StringBuilder sql = new StringBuilder("update " + TodoSchema.TODO_TABLE + " set ");
+		Object[] args = new Object[7];
+		int n = 0;
+
+		n = appendSet(sql, args, n, TodoSchema.TITLE_COLUMN, title);
+		n = appendSet(sql, args, n, TodoSchema.DEADLINE_COLUMN, deadline);
+		n = appendSet(sql, args, n, TodoSchema.PRIORITY_COLUMN, priority);
+		n = appendSet(sql, args, n, TodoSchema.STATUS_COLUMN, status);
+		n = appendSet(sql, args, n, TodoSchema.DESCRIPTION_COLUMN, description);
+		if (n == 0) {
+
+			return 0;
+		}
+		beginTransaction();
+		try {
+
+			unarchiveTodos(new long[] {id});
+
+			// the fingerprint covers the fields that are not updated as well,
+			// so they are read in the transaction that writes it
+			Todo t = getTodoItem(TodoSchema.selectWithDescription(TodoSchema.TODO_TABLE)
+					     + " where " + TodoSchema.ID_COLUMN + " = ?", Long.valueOf(id));
+			if (t == null) {
+
+				setTransactionSuccessful();
+
+				return 0;
+			}
+			Todo old = new Todo(t);
+			t.title = title != null ? title : t.title;
+			t.deadline = deadline != null ? deadline : t.deadline;
+			t.priority = priority != null ? priority : t.priority;
+			t.status = status != null ? status : t.status;
+			t.description = description != null ? description : t.description;
+			n = appendSet(sql, args, n, TodoSchema.FINGERPRINT_COLUMN, Long.valueOf(t.computeFingerprint()));
+
+			sql.append(" where " + TodoSchema.ID_COLUMN + " = ?");
+			args[n++] = Long.valueOf(id);
+
+			Object[] used = new Object[n];
+			System.arraycopy(args, 0, used, 0, n);
+
+			int count = update(sql.toString(), used);
+			compressDescription(id, description);
+			int mask = SyncPlan.fieldMask(t, old);
+			if (mask != 0) {
+
+				appendOutbox(id, TodoTlv.CHUNK_UPDATE_TODO, mask, null);
+			}
+			setTransactionSuccessful();
+
+			return count;
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	public int deleteTodo(long id) {
+
+		unarchiveTodos(new long[] {id});
+		Integer revision = queryInt(
+			"select " + TodoSchema.REVISION_COLUMN + " from " + TodoSchema.TODO_TABLE
+			+ " where " + TodoSchema.ID_COLUMN + " = ?", Long.valueOf(id));
+		if (revision == null) {
+
+			return 0;
+		}
+		beginTransaction();
+		try {
+
+			int count = 1;
+			if (revision.intValue() == TodoSchema.NEW_TODO_REVISION) {
+
+				count = update("delete from " + TodoSchema.TODO_TABLE + " where " + TodoSchema.ID_COLUMN + " = ?",
+					       Long.valueOf(id));
+				removeOutboxOf(id);
+			} else {
+
+				insert("insert into " + TodoSchema.DELETED_TODO_TABLE + " (" + TodoSchema.ID_COLUMN + ") values (?)",
+				       Long.valueOf(id));
+				appendOutbox(id, TodoTlv.CHUNK_DELETE_TODO, 0, null);
+			}
+			setTransactionSuccessful();
+
+			return count;
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	public int updateTodos(long[] ids, TodoBulkEdit edit) {
+
+		if (edit.isEmpty()) {
+
+			return 0;
+		}
+		beginTransaction();
+		try {
+
+			unarchiveTodos(ids);
+			int n = 0;
+			PreparedStatement s = conn.prepareStatement(TodoSchema.UPDATE_BULK_EDITED_TODO);
+			PreparedStatement outbox = conn.prepareStatement(TodoSchema.INSERT_OUTBOX);
+			try {
+
+				for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+					// the fingerprint covers the fields that are not edited as well
+					List<Todo> todos = getTodoItems(
+						TodoSchema.selectWithDescription(TodoSchema.TODO_TABLE) + " where " + TodoSchema.ID_COLUMN
+						+ " in " + TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)));
+					for (Todo t : todos) {
+
+						int mask = edit.apply(t);
+						if (mask == 0) {
+
+							continue;
+						}
+						setObject(s, 1, t.deadline);
+						setObject(s, 2, t.priority);
+						setObject(s, 3, t.status);
+						s.setLong(4, t.computeFingerprint());
+						s.setLong(5, t.id.longValue());
+						s.executeUpdate();
+						addOutbox(outbox, t.id.longValue(), TodoTlv.CHUNK_UPDATE_TODO, mask);
+						n++;
+					}
+				}
+			} finally {
+
+				s.close();
+				outbox.close();
+			}
+			setTransactionSuccessful();
+
+			return n;
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	public int deleteTodos(long[] ids) {
+
+		beginTransaction();
+		try {
+
+			unarchiveTodos(ids);
+			long[] newIds = new long[ids.length];
+			long[] sentIds = new long[ids.length];
+			int newCount = 0;
+			int sentCount = 0;
+			for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+				PreparedStatement s = prepare(
+					TodoSchema.SELECT_DELETABLE_TODOS_IN
+					+ TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)));
+				try {
+
+					ResultSet rs = s.executeQuery();
+					while (rs.next()) {
+
+						if (rs.getInt(2) == TodoSchema.NEW_TODO_REVISION) {
+
+							newIds[newCount++] = rs.getLong(1);
+						} else {
+
+							sentIds[sentCount++] = rs.getLong(1);
+						}
+					}
+				} finally {
+
+					s.close();
+				}
+			}
+
+			// the server has never seen the new items
+			newIds = Arrays.copyOf(newIds, newCount);
+			updateIn(TodoSchema.DELETE_TODO_IN, newIds);
+			updateIn(TodoSchema.DELETE_OUTBOX_OF_TODOS_IN, newIds);
+
+			PreparedStatement s = conn.prepareStatement(TodoSchema.INSERT_DELETED_TODO);
+			PreparedStatement outbox = conn.prepareStatement(TodoSchema.INSERT_OUTBOX);
+			try {
+
+				for (int i = 0; i < sentCount; i++) {
+
+					s.setLong(1, sentIds[i]);
+					s.executeUpdate();
+					addOutbox(outbox, sentIds[i], TodoTlv.CHUNK_DELETE_TODO, 0);
+				}
+			} finally {
+
+				s.close();
+				outbox.close();
+			}
+			setTransactionSuccessful();
+
+			return newCount + sentCount;
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	/** Appends an operation without a base revision to the outbox through a prepared INSERT_OUTBOX. */
+	protected static void addOutbox(PreparedStatement outbox, long todoId, byte type, int fieldMask)
+		throws SQLException {
+
+		outbox.setLong(1, todoId);
+		outbox.setInt(2, type);
+		outbox.setInt(3, fieldMask);
+		outbox.setNull(4, Types.NULL);
+		outbox.executeUpdate();
+	}
+
+	public Todo getTodo(long id) {
+
+		Todo t = getTodoItem(
+			TodoSchema.selectWithDescription(TodoSchema.TODO_TABLE)
+			+ " where " + TodoSchema.ID_COLUMN + " = ? and not exists (select "
+			+ TodoSchema.ID_COLUMN + " from " + TodoSchema.DELETED_TODO_TABLE
+			+ " where " + TodoSchema.ID_COLUMN + " = ?)",
+			Long.valueOf(id), Long.valueOf(id));
+
+		return t != null ? t : getTodoItem(
+			TodoSchema.selectWithDescription(TodoSchema.ARCHIVED_TODO_TABLE)
+			+ " where " + TodoSchema.ID_COLUMN + " = ?", Long.valueOf(id));
+	}
+
+	public List<Todo> getTodos(long[] ids) {
+
+		List<Todo> todos = new ArrayList<Todo>();
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			String idList = TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT));
+			todos.addAll(getTodoItems(
+				TodoSchema.selectWithDescription(TodoSchema.TODO_TABLE)
+				+ " where " + TodoSchema.ID_COLUMN + " in " + idList + " and " + TodoSchema.ID_COLUMN
+				+ " not in (select " + TodoSchema.ID_COLUMN + " from " + TodoSchema.DELETED_TODO_TABLE + ")"));
+			todos.addAll(getTodoItems(
+				TodoSchema.selectWithDescription(TodoSchema.ARCHIVED_TODO_TABLE)
+				+ " where " + TodoSchema.ID_COLUMN + " in " + idList));
+		}
+
+		return todos;
+	}
+
+	public Todo getLocalTodo(long id) {
+
+		return getTodoItem(TodoSchema.selectWithDescription(TodoSchema.TODO_TABLE)
+				   + " where " + TodoSchema.ID_COLUMN + " = ?", Long.valueOf(id));
+	}
+
+	public String getLongDescription(long id) {
+
+		try {
+
+			PreparedStatement s = prepare(TodoSchema.SELECT_DESCRIPTION, Long.valueOf(id));
+			try {
+
+				ResultSet rs = s.executeQuery();
+
+				return rs.next() ? TodoDescription.decompress(rs.getBytes(1)) : null;
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void recreateSyncTable() {
+
+		execSQL(TodoSchema.CLEAR_SYNC_TABLE);
+	}
+
+	public void dropSync() {
+
+		execSQL(TodoSchema.CLEAR_SYNC_TABLE);
+	}
+
+	public long createSyncTodo(long id, String title, String deadline,
+				   int priority, String status, String description,
+				   int revision) {
+
+		return createSyncTodo(new Todo(Long.valueOf(id), title, deadline, Integer.valueOf(priority),
+					       status, description, Integer.valueOf(revision)));
+	}
+
+	public long createSyncTodo(Todo remoteTodo) {
+
+		return insert(
+			"insert into " + TodoSchema.SYNC_TABLE + " (" + columns() + ", " + TodoSchema.FIELD_REVISIONS_COLUMN
+			+ ", " + TodoSchema.VERSION_VECTOR_COLUMN + ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+			remoteTodo.id, remoteTodo.title, remoteTodo.deadline, remoteTodo.priority,
+			remoteTodo.status, remoteTodo.description, remoteTodo.revision,
+			Long.valueOf(remoteTodo.getFingerprint()), remoteTodo.fieldRevisions, remoteTodo.versionVector
+		);
+	}
+
+	public TodoCursor getAllTodoIncludingDeletedOnes() {
+
+		return query("select " + columns() + " from " + TodoSchema.TODO_TABLE
+			     + " order by " + TodoSchema.ID_COLUMN,
+			     "select count(*) from " + TodoSchema.TODO_TABLE);
+	}
+
+	public TodoCursor getAllSyncTodo() {
+
+		return query("select " + columns() + " from " + TodoSchema.SYNC_TABLE
+			     + " order by " + TodoSchema.ID_COLUMN,
+			     "select count(*) from " + TodoSchema.SYNC_TABLE);
+	}
+
+	public TodoCursor getAllTodoFingerprints() {
+
+		return query("select " + columns(TodoSchema.FINGERPRINT_COLUMNS) + " from " + TodoSchema.TODO_TABLE
+			     + " order by " + TodoSchema.ID_COLUMN,
+			     "select count(*) from " + TodoSchema.TODO_TABLE);
+	}
+
+	public TodoCursor getAllSyncFingerprints() {
+
+		return query("select " + columns(TodoSchema.FINGERPRINT_COLUMNS) + " from " + TodoSchema.SYNC_TABLE
+			     + " order by " + TodoSchema.ID_COLUMN,
+			     "select count(*) from " + TodoSchema.SYNC_TABLE);
+	}
+
+	public TodoCursor getAllDeletedTodoIds() {
+
+		return query("select " + TodoSchema.ID_COLUMN + " from " + TodoSchema.DELETED_TODO_TABLE
+			     + " order by " + TodoSchema.ID_COLUMN, null);
+	}
+
+	public Todo getRemoteTodo(long id) {
+
+		return getTodoItem(
+			"select * from " + TodoSchema.SYNC_TABLE + " where " + TodoSchema.ID_COLUMN + " = ?",
+			Long.valueOf(id));
+	}
+
+	public List<Todo> getRemoteTodos(long[] ids) {
+
+		List<Todo> todos = new ArrayList<Todo>();
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			todos.addAll(getTodoItems(
+				"select * from " + TodoSchema.SYNC_TABLE + " where " + TodoSchema.ID_COLUMN + " in "
+				+ TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT))));
+		}
+
+		return todos;
+	}
+
+	public boolean isLocalDeleted(long id) {
+
+		return queryInt(
+			"select " + TodoSchema.ID_COLUMN + " from " + TodoSchema.DELETED_TODO_TABLE
+			+ " where " + TodoSchema.ID_COLUMN + " = ?", Long.valueOf(id)) != null;
+	}
+
+	public int updateTodoRevision(long id, int newRevision) {
+
+		return update(
+			"update " + TodoSchema.TODO_TABLE + " set " + TodoSchema.REVISION_COLUMN + " = ?"
+			+ " where " + TodoSchema.ID_COLUMN + " = ?",
+			Integer.valueOf(newRevision), Long.valueOf(id));
+	}
+
+	public int updateSync(Todo remoteTodo, Todo localTodo) {
+
+		return update(
+			"update " + TodoSchema.SYNC_TABLE + " set "
+			+ TodoSchema.TITLE_COLUMN + " = ?, "
+			+ TodoSchema.DEADLINE_COLUMN + " = ?, "
+			+ TodoSchema.PRIORITY_COLUMN + " = ?, "
+			+ TodoSchema.STATUS_COLUMN + " = ?, "
+			+ TodoSchema.DESCRIPTION_COLUMN + " = ?, "
+			+ TodoSchema.REVISION_COLUMN + " = null, "
+			+ TodoSchema.FINGERPRINT_COLUMN + " = null"
+			+ " where " + TodoSchema.ID_COLUMN + " = ?",
+			remoteTodo.title.equals(localTodo.title) ? null : localTodo.title,
+			remoteTodo.deadline.equals(localTodo.deadline) ? null : localTodo.deadline,
+			remoteTodo.priority.equals(localTodo.priority) ? null : localTodo.priority,
+			remoteTodo.status.equals(localTodo.status) ? null : localTodo.status,
+			remoteTodo.description.equals(localTodo.description) ? null : localTodo.description,
+			localTodo.id
+		);
+	}
+
+	public int replaceTodo(Todo remoteTodo) {
+
+		if (!remoteTodo.isComplete() || remoteTodo.revision == null) {
+
+			throw new IllegalArgumentException("incomplete remote todo");
+		}
+
+		update("delete from " + TodoSchema.DELETED_TODO_TABLE + " where " + TodoSchema.ID_COLUMN + " = ?",
+		       remoteTodo.id);
+
+		int count = update(
+			"update " + TodoSchema.TODO_TABLE + " set "
+			+ TodoSchema.TITLE_COLUMN + " = ?, "
+			+ TodoSchema.DEADLINE_COLUMN + " = ?, "
+			+ TodoSchema.PRIORITY_COLUMN + " = ?, "
+			+ TodoSchema.STATUS_COLUMN + " = ?, "
+			+ TodoSchema.DESCRIPTION_COLUMN + " = ?, "
+			+ TodoSchema.REVISION_COLUMN + " = ?, "
+			+ TodoSchema.FINGERPRINT_COLUMN + " = ?"
+			+ " where " + TodoSchema.ID_COLUMN + " = ?",
+			remoteTodo.title, remoteTodo.deadline, remoteTodo.priority,
+			remoteTodo.status, remoteTodo.description,
+			Integer.valueOf(remoteTodo.revision.intValue() + 1),
+			Long.valueOf(remoteTodo.getFingerprint()), remoteTodo.id
+		);
+		compressDescription(remoteTodo.id.longValue(), remoteTodo.description);
+
+		return count;
+	}
+
+	public int mergeTodo(Todo mergedTodo) {
+
+		int count = update(TodoSchema.MERGE_TODO,
+				   mergedTodo.title, mergedTodo.deadline, mergedTodo.priority,
+				   mergedTodo.status, mergedTodo.description,
+				   Long.valueOf(mergedTodo.computeFingerprint()), mergedTodo.id);
+		compressDescription(mergedTodo.id.longValue(), mergedTodo.description);
+
+		return count;
+	}
+
+	public long insertToSync(Todo localTodo) {
+
+		return insert(
+			"insert into " + TodoSchema.SYNC_TABLE + " (" + columns() + ") values (?, ?, ?, ?, ?, ?, ?, ?)",
+			localTodo.id, localTodo.title, localTodo.deadline, localTodo.priority,
+			localTodo.status, localTodo.description,
+			Integer.valueOf(TodoSchema.toSyncRevision(localTodo.revision.intValue())),
+			Long.valueOf(localTodo.getFingerprint())
+		);
+	}
+
+	public int removeSync(long id) {
+
+		return update("delete from " + TodoSchema.SYNC_TABLE + " where " + TodoSchema.ID_COLUMN + " = ?",
+			      Long.valueOf(id));
+	}
+
+	public int deleteLocal(long id) {
+
+		update("delete from " + TodoSchema.MERGE_BASE_TABLE + " where " + TodoSchema.ID_COLUMN + " = ?",
+		       Long.valueOf(id));
+
+		return update("delete from " + TodoSchema.TODO_TABLE + " where " + TodoSchema.ID_COLUMN + " = ?",
+			      Long.valueOf(id))
+			+ update("delete from " + TodoSchema.DELETED_TODO_TABLE + " where " + TodoSchema.ID_COLUMN + " = ?",
+				 Long.valueOf(id));
+	}
+
+	public int deleteSync(long id) {
+
+		return update(
+			"update " + TodoSchema.SYNC_TABLE + " set "
+			+ TodoSchema.TITLE_COLUMN + " = null, "
+			+ TodoSchema.DEADLINE_COLUMN + " = null, "
+			+ TodoSchema.PRIORITY_COLUMN + " = null, "
+			+ TodoSchema.STATUS_COLUMN + " = null, "
+			+ TodoSchema.DESCRIPTION_COLUMN + " = null, "
+			+ TodoSchema.REVISION_COLUMN + " = null, "
+			+ TodoSchema.FINGERPRINT_COLUMN + " = null"
+			+ " where " + TodoSchema.ID_COLUMN + " = ?",
+			Long.valueOf(id));
+	}
+
+	public void importNewTodos() {
+
+		execSQL(TodoSchema.IMPORT_NEW_TODOS);
+		compressDescriptions(TodoSchema.SELECT_IMPORTED_LONG_DESCRIPTIONS);
+	}
+
+	public void confirmNewTodos() {
+
+		execSQL(TodoSchema.CONFIRM_NEW_TODOS);
+		execSQL(TodoSchema.DELETE_NEW_TODOS);
+	}
+
+	public TodoCursor getAllNewSyncTodo() {
+
+		return query("select " + columns() + " from " + TodoSchema.SYNC_TABLE
+			     + " where " + TodoSchema.NEW_SYNC_TODO_SELECTION, null);
+	}
+
+	public TodoCursor getAllUpdatedSyncTodo() {
+
+		return query("select " + columns() + " from " + TodoSchema.SYNC_TABLE
+			     + " where " + TodoSchema.UPDATED_SYNC_TODO_SELECTION, null);
+	}
+
+	public TodoCursor getAllDeletedSyncTodo() {
+
+		return query("select " + TodoSchema.ID_COLUMN + " from " + TodoSchema.SYNC_TABLE
+			     + " where " + TodoSchema.DELETED_SYNC_TODO_SELECTION, null);
+	}
+
+	public void insertToSync(long[] ids) {
+
+		inlineDescriptions(ids);
+		updateIn(TodoSchema.INSERT_TO_SYNC_IN, ids);
+		compressDescriptions(ids);
+	}
+
+	public void updateSync(long[] ids) {
+
+		inlineDescriptions(ids);
+		updateIn(TodoSchema.UPDATE_SYNC_IN, ids);
+		compressDescriptions(ids);
+	}
+
+	public void replaceTodos(long[] ids) {
+
+		updateIn(TodoSchema.DELETE_DELETED_TODO_IN, ids);
+		updateIn(TodoSchema.REPLACE_TODOS_IN, ids);
+		compressDescriptions(ids);
+	}
+
+	public void removeSync(long[] ids) {
+
+		updateIn(TodoSchema.REMOVE_SYNC_IN, ids);
+	}
+
+	public void deleteLocal(long[] ids) {
+
+		updateIn(TodoSchema.DELETE_TODO_IN, ids);
+		updateIn(TodoSchema.DELETE_DELETED_TODO_IN, ids);
+		updateIn(TodoSchema.DELETE_MERGE_BASE_IN, ids);
+	}
+
+	public void deleteSync(long[] ids) {
+
+		updateIn(TodoSchema.DELETE_SYNC_IN, ids);
+	}
+
+	public void addTodoRevision(long[] ids, int delta) {
+
+		updateIn(TodoSchema.ADD_TODO_REVISION_IN, ids, Integer.valueOf(delta));
+	}
+
+	public SyncCheckpoint getSyncCheckpoint() {
+
+		try {
+
+			PreparedStatement s = prepare(TodoSchema.SELECT_SYNC_CHECKPOINT);
+			try {
+
+				ResultSet rs = s.executeQuery();
+				if (!rs.next()) {
+
+					return null;
+				}
+
+				return new SyncCheckpoint(rs.getLong(1), SyncState.valueOf(rs.getString(2)),
+							  rs.getInt(3), rs.getBytes(4), rs.getBytes(5));
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public byte[] getMergeBase(long id) {
+
+		try {
+
+			PreparedStatement s = prepare(TodoSchema.SELECT_MERGE_BASE, Long.valueOf(id));
+			try {
+
+				ResultSet rs = s.executeQuery();
+
+				return rs.next() ? rs.getBytes(1) : null;
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void saveMergeBase(long id, byte[] base) {
+
+		update(TodoSchema.SAVE_MERGE_BASE, Long.valueOf(id), base);
+	}
+
+	public Map<Long, byte[]> getMergeBases(long[] ids) {
+
+		return queryBlobsIn(TodoSchema.SELECT_MERGE_BASES_IN, ids);
+	}
+
+	public void saveMergeBases(Map<Long, byte[]> bases) {
+
+		beginTransaction();
+		try {
+
+			PreparedStatement s = conn.prepareStatement(TodoSchema.SAVE_MERGE_BASE);
+			try {
+
+				for (Map.Entry<Long, byte[]> e : bases.entrySet()) {
+
+					s.setLong(1, e.getKey().longValue());
+					s.setBytes(2, e.getValue());
+					s.executeUpdate();
+				}
+			} finally {
+
+				s.close();
+			}
+			setTransactionSuccessful();
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	public Map<Long, byte[]> getRemoteVersionVectors(long[] ids) {
+
+		return queryBlobsIn(TodoSchema.SELECT_SYNC_VERSION_VECTORS_IN, ids);
+	}
+
+	public int archiveTodos(String deadlineBefore) {
+
+		beginTransaction();
+		try {
+
+			long[] buckets = getArchiveBuckets();
+			long[] ids;
+			TodoCursor c = new JdbcTodoCursor(
+				prepare(TodoSchema.SELECT_ARCHIVABLE_TODOS, deadlineBefore).executeQuery(), null);
+			try {
+
+				ids = HashTree.addAll(buckets, c);
+			} finally {
+
+				c.close();
+			}
+			if (ids.length != 0) {
+
+				updateIn(TodoSchema.ARCHIVE_TODOS_IN, ids);
+				updateIn(TodoSchema.DELETE_TODO_IN, ids);
+				update(TodoSchema.SAVE_ARCHIVE_HASH, HashTree.pack(buckets));
+			}
+			setTransactionSuccessful();
+
+			return ids.length;
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	public void unarchiveBuckets(byte[] bucketSet) {
+
+		TodoCursor c = query(TodoSchema.SELECT_ARCHIVED_FINGERPRINTS, null);
+		unarchive(bucketSet == null ? c : HashTree.filter(c, bucketSet));
+	}
+
+	public void unarchiveTodos(long[] ids) {
+
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			unarchive(query(TodoSchema.SELECT_ARCHIVED_FINGERPRINTS + " where " + TodoSchema.ID_COLUMN + " in "
+					+ TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)),
+					null));
+		}
+	}
+
+	/**
+	 * Moves the archived items of a cursor with the FINGERPRINT_COLUMNS back
+	 * to the todo table and closes the cursor. No transaction is begun if
+	 * the cursor is empty, which it mostly is when an edit checks its item.
+	 */
+	protected void unarchive(TodoCursor c) {
+
+		long[] removed = new long[HashTree.BUCKET_COUNT];
+		long[] ids;
+		try {
+
+			ids = HashTree.addAll(removed, c);
+		} finally {
+
+			c.close();
+		}
+		if (ids.length == 0) {
+
+			return;
+		}
+
+		beginTransaction();
+		try {
+
+			long[] buckets = getArchiveBuckets();
+			HashTree.addBuckets(buckets, removed);
+			updateIn(TodoSchema.UNARCHIVE_TODOS_IN, ids);
+			updateIn(TodoSchema.DELETE_ARCHIVED_TODO_IN, ids);
+			update(TodoSchema.SAVE_ARCHIVE_HASH, HashTree.pack(buckets));
+			setTransactionSuccessful();
+		} finally {
+
+			endTransaction();
+		}
+	}
+
+	public long[] getArchiveBuckets() {
+
+		try {
+
+			PreparedStatement s = prepare(TodoSchema.SELECT_ARCHIVE_HASH);
+			try {
+
+				ResultSet rs = s.executeQuery();
+
+				return HashTree.unpack(rs.next() ? rs.getBytes(1) : null);
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public TodoCursor getAllArchivedTodo() {
+
+		return query("select " + columns() + " from " + TodoSchema.ARCHIVED_TODO_TABLE
+			     + " order by " + TodoSchema.ID_COLUMN,
+			     "select count(*) from " + TodoSchema.ARCHIVED_TODO_TABLE);
+	}
+
+	public void optimize() {
+
+		execSQL(TodoSchema.ANALYZE);
+		try {
+
+			// the pragma frees a page per step, which only sqlite3_exec() runs to the end
+			Statement s = conn.createStatement();
+			try {
+
+				s.executeUpdate(TodoSchema.INCREMENTAL_VACUUM);
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public TodoSummary getSummary(String today) {
+
+		try {
+
+			TodoSummary summary = new TodoSummary();
+			PreparedStatement s = prepare(TodoSchema.SELECT_COUNTERS);
+			try {
+
+				ResultSet rs = s.executeQuery();
+				while (rs.next()) {
+
+					summary.putCounter(rs.getString(1), rs.getInt(2));
+				}
+			} finally {
+
+				s.close();
+			}
+			summary.overdueCount = (int) queryLong(TodoSchema.SELECT_OVERDUE_COUNT, today);
+
+			return summary;
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void saveSyncCheckpoint(SyncCheckpoint checkpoint) {
+
+		update(TodoSchema.SAVE_SYNC_CHECKPOINT, Long.valueOf(checkpoint.token), checkpoint.phase.name(),
+		       Integer.valueOf(checkpoint.received), checkpoint.bucketSet, checkpoint.pending);
+	}
+
+	public void clearSyncCheckpoint() {
+
+		update(TodoSchema.DELETE_SYNC_CHECKPOINT);
+	}
+
+	public long getIdPrefix() {
+
+		return queryLong(TodoSchema.SELECT_ID_PREFIX);
+	}
+
+	public void appendOutbox(long todoId, byte type, int fieldMask, Integer baseRevision) {
+
+		update(TodoSchema.INSERT_OUTBOX, Long.valueOf(todoId), Integer.valueOf(type),
+		       Integer.valueOf(fieldMask), baseRevision);
+	}
+
+	public List<OutboxOp> getOutbox(int limit) {
+
+		try {
+
+			PreparedStatement s = prepare(TodoSchema.SELECT_OUTBOX, Integer.valueOf(limit));
+			try {
+
+				List<OutboxOp> ops = new ArrayList<OutboxOp>();
+				ResultSet rs = s.executeQuery();
+				while (rs.next()) {
+
+					int base = rs.getInt(5);
+					Integer baseRevision = rs.wasNull() ? null : Integer.valueOf(base);
+					ops.add(new OutboxOp(rs.getLong(1), rs.getLong(2), (byte) rs.getInt(3), rs.getInt(4),
+							     baseRevision));
+				}
+
+				return ops;
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public long getLastOutboxSequence() {
+
+		return queryLong(TodoSchema.SELECT_LAST_OUTBOX_SEQUENCE);
+	}
+
+	public void removeOutbox(long[] sequences) {
+
+		updateIn(TodoSchema.DELETE_OUTBOX_IN, sequences);
+	}
+
+	public void removeOutboxOf(long todoId) {
+
+		update(TodoSchema.DELETE_OUTBOX_OF_TODO, Long.valueOf(todoId));
+	}
+
+	public void clearOutbox(long lastSequence) {
+
+		update(TodoSchema.DELETE_OUTBOX_UP_TO, Long.valueOf(lastSequence));
+	}
+
+	public long getPullWatermark() {
+
+		return queryLong(TodoSchema.SELECT_PULL_WATERMARK);
+	}
+
+	public void savePullWatermark(long watermark) {
+
+		update(TodoSchema.SAVE_PULL_WATERMARK, Long.valueOf(watermark));
+	}
+
+	public void beginTransaction() {
+
+		try {
+
+			if (transactionDepth == 0) {
+
+				conn.setAutoCommit(false);
+				transactionFailed = false;
+			}
+			transactionDepth++;
+			transactionSuccessful = false;
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public void setTransactionSuccessful() {
+
+		transactionSuccessful = true;
+	}
+
+	public void endTransaction() {
+
+		if (!transactionSuccessful) {
+
+			transactionFailed = true;
+		}
+		// the enclosing transaction has to be marked successful again
+		transactionSuccessful = false;
+		if (--transactionDepth != 0) {
+
+			return;
+		}
+		try {
+
+			if (transactionFailed) {
+
+				conn.rollback();
+			} else {
+
+				conn.commit();
+			}
+			conn.setAutoCommit(true);
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Moves a description that has just been written to a todo item into
+	 * todo_description if it is long. Since the trigger has dropped the
+	 * former compressed description of an item whose description column
+	 * has been written, nothing is done for a short one. The column of a
+	 * long one is cleared before it is saved because clearing the column
+	 * fires the trigger as well.
+	 */
+	protected void compressDescription(long id, String description) {
+
+		if (TodoDescription.isLong(description)) {
+
+			update(TodoSchema.UNSET_DESCRIPTION, Long.valueOf(id));
+			update(TodoSchema.SAVE_DESCRIPTION, Long.valueOf(id), TodoDescription.compress(description));
+		}
+	}
+
+	/** Moves the long descriptions that a statement selects with the IDs of their items into todo_description. */
+	protected void compressDescriptions(String sql) {
+
+		List<Long> ids = new ArrayList<Long>();
+		List<String> descriptions = new ArrayList<String>();
+		try {
+
+			PreparedStatement s = prepare(sql);
+			try {
+
+				ResultSet rs = s.executeQuery();
+				while (rs.next()) {
+
+					ids.add(Long.valueOf(rs.getLong(1)));
+					descriptions.add(rs.getString(2));
+				}
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+		for (int i = 0; i < ids.size(); i++) {
+
+			compressDescription(ids.get(i).longValue(), descriptions.get(i));
+		}
+	}
+
+	/** Moves the long descriptions of the todo items that a *_IN statement has written into todo_description. */
+	protected void compressDescriptions(long[] ids) {
+
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			compressDescriptions(TodoSchema.SELECT_LONG_DESCRIPTIONS_IN
+					     + TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)));
+		}
+	}
+
+	/**
+	 * Writes the compressed descriptions of todo items back to their
+	 * description columns for a *_IN statement copying the descriptions
+	 * in SQL, after which compressDescriptions() moves them out again.
+	 */
+	protected void inlineDescriptions(long[] ids) {
+
+		List<Long> inlined = new ArrayList<Long>();
+		List<String> descriptions = new ArrayList<String>();
+		try {
+
+			for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+				PreparedStatement s = prepare(
+					TodoSchema.SELECT_COMPRESSED_DESCRIPTIONS_IN
+					+ TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)));
+				try {
+
+					ResultSet rs = s.executeQuery();
+					while (rs.next()) {
+
+						inlined.add(Long.valueOf(rs.getLong(1)));
+						descriptions.add(TodoDescription.decompress(rs.getBytes(2)));
+					}
+				} finally {
+
+					s.close();
+				}
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+		for (int i = 0; i < inlined.size(); i++) {
+
+			update(TodoSchema.INLINE_DESCRIPTION, descriptions.get(i), inlined.get(i));
+		}
+	}
+
+	/** Returns the comma-separated list of all columns. */
+	protected static String columns() {
+
+		return columns(TodoSchema.ALL_COLUMNS);
+	}
+
+	/** Returns the comma-separated list of the given columns. */
+	protected static String columns(String[] names) {
+
+		StringBuilder b = new StringBuilder();
+		for (String c : names) {
+
+			if (b.length() != 0) {
+
+				b.append(", ");
+			}
+			b.append(c);
+		}
+
+		return b.toString();
+	}
+
+	/** Appends "column = ?" to an update statement if the value is not null. */
+	protected static int appendSet(StringBuilder sql, Object[] args, int n, String column, Object value) {
+
+		if (value == null) {
+
+			return n;
+		}
+		if (n != 0) {
+
+			sql.append(", ");
+		}
+		sql.append(column).append(" = ?");
+		args[n] = value;
+
+		return n + 1;
+	}
+
+	protected void execSQL(String sql) {
+
+		try {
+
+			Statement s = conn.createStatement();
+			try {
+
+				s.execute(sql);
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected PreparedStatement prepare(String sql, Object... args) throws SQLException {
+
+		PreparedStatement s = conn.prepareStatement(sql);
+		for (int i = 0; i < args.length; i++) {
+
+			setObject(s, i + 1, args[i]);
+		}
+
+		return s;
+	}
+
+	/** Binds a parameter, which may be null. */
+	protected static void setObject(PreparedStatement s, int i, Object arg) throws SQLException {
+
+		if (arg == null) {
+
+			s.setNull(i, Types.NULL);
+		} else {
+
+			s.setObject(i, arg);
+		}
+	}
+
+	/** Executes an insert and returns the row ID or -1 if an error occurred. */
+	protected long insert(String sql, Object... args) {
+
+		try {
+
+			PreparedStatement s = prepare(sql, args);
+			try {
+
+				s.executeUpdate();
+			} finally {
+
+				s.close();
+			}
+
+			s = conn.prepareStatement("select last_insert_rowid()");
+			try {
+
+				ResultSet rs = s.executeQuery();
+
+				return rs.next() ? rs.getLong(1) : -1;
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			return -1;
+		}
+	}
+
+	/** Executes an update or a delete and returns the number of affected rows. */
+	protected int update(String sql, Object... args) {
+
+		try {
+
+			PreparedStatement s = prepare(sql, args);
+			try {
+
+				return s.executeUpdate();
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Executes one of the *_IN statements of TodoSchema for every chunk of the IDs. */
+	protected void updateIn(String sql, long[] ids, Object... args) {
+
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			update(sql + TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)),
+			       args);
+		}
+	}
+
+	/**
+	 * Executes a *_IN statement selecting an ID and a blob for every chunk
+	 * of the IDs and returns the blobs by ID.
+	 */
+	protected Map<Long, byte[]> queryBlobsIn(String sql, long[] ids) {
+
+		Map<Long, byte[]> blobs = new HashMap<Long, byte[]>();
+		try {
+
+			for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+				PreparedStatement s = prepare(
+					sql + TodoSchema.idList(ids, i, Math.min(ids.length, i + TodoSchema.MAX_IDS_PER_STATEMENT)));
+				try {
+
+					ResultSet rs = s.executeQuery();
+					while (rs.next()) {
+
+						blobs.put(Long.valueOf(rs.getLong(1)), rs.getBytes(2));
+					}
+				} finally {
+
+					s.close();
+				}
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+
+		return blobs;
+	}
+
+	/** Returns the integer in the first column of the first row or null. */
+	protected Integer queryInt(String sql, Object... args) {
+
+		try {
+
+			PreparedStatement s = prepare(sql, args);
+			try {
+
+				ResultSet rs = s.executeQuery();
+
+				return rs.next() ? Integer.valueOf(rs.getInt(1)) : null;
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Returns the long in the first column of the first row or 0. */
+	protected long queryLong(String sql, Object... args) {
+
+		try {
+
+			PreparedStatement s = prepare(sql, args);
+			try {
+
+				ResultSet rs = s.executeQuery();
+
+				return rs.next() ? rs.getLong(1) : 0;
+			} finally {
+
+				s.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected TodoCursor query(String sql, String countSql) {
+
+		try {
+
+			return new JdbcTodoCursor(prepare(sql).executeQuery(),
+						  countSql == null ? null : prepare(countSql));
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Returns all items that a query selects. */
+	protected List<Todo> getTodoItems(String sql, Object... args) {
+
+		try {
+
+			PreparedStatement s = prepare(sql, args);
+			JdbcTodoCursor c = new JdbcTodoCursor(s.executeQuery(), null);
+			try {
+
+				List<Todo> todos = new ArrayList<Todo>();
+				TodoRow row = new TodoRow(c);
+				while (row.moveToNext()) {
+
+					todos.add(row.toTodo());
+				}
+
+				return todos;
+			} finally {
+
+				c.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected Todo getTodoItem(String sql, Object... args) {
+
+		try {
+
+			PreparedStatement s = prepare(sql, args);
+			JdbcTodoCursor c = new JdbcTodoCursor(s.executeQuery(), null);
+			try {
+
+				return c.moveToNext() ? SyncEngine.readTodo(c) : null;
+			} finally {
+
+				c.close();
+			}
+		} catch (SQLException e) {
+
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,913 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Class MemoryTodoStore is a TodoStore that keeps its tables in memory. It
+ * reproduces the behavior of the SQLite tables of TodoDb, including the
+ * prefixed ID sequence of the device and the failing insertion of a
+ * duplicated ID, so that the SyncEngine behaves the same as on a device.
+ *
+ * @author eus
+ */
+public class MemoryTodoStore implements TodoStore {
+
+	/** The todo table keyed by ID. */
+	protected final TreeMap<Long, Todo> todos = new TreeMap<Long, Todo>();
+	/** The deleted_todo table. */
+	protected final TreeSet<Long> deletedTodos = new TreeSet<Long>();
+	/** The sync table keyed by ID or null if it has been dropped. */
+	protected TreeMap<Long, Todo> syncTodos = new TreeMap<Long, Todo>();
+	/** The last ID generated by createTodo() like the id_sequence table. */
+	protected long lastId;
+	/** The sync_checkpoint table or null if it is empty. */
+	protected SyncCheckpoint checkpoint;
+	/** The outbox table keyed by sequence number. */
+	protected final TreeMap<Long, OutboxOp> outbox = new TreeMap<Long, OutboxOp>();
+	/** The last sequence number given to an outbox operation like AUTOINCREMENT. */
+	protected long lastSequence;
+	/** The pull_watermark table or 0 if it is empty. */
+	protected long pullWatermark;
+	/** The merge_base table keyed by ID. */
+	protected final Map<Long, byte[]> mergeBases = new HashMap<Long, byte[]>();
+	/** The archived_todo table keyed by ID. */
+	protected final TreeMap<Long, Todo> archivedTodos = new TreeMap<Long, Todo>();
+	/** The archive_hash table. */
+	protected long[] archiveBuckets = new long[HashTree.BUCKET_COUNT];
+
+	/** Constructs a store with a random ID prefix. */
+	public MemoryTodoStore() {
+
+		this(TodoSchema.newIdPrefix(new SecureRandom()));
+	}
+
+	/** Constructs a store whose new todo items get IDs with the given prefix. */
+	public MemoryTodoStore(long idPrefix) {
+
+		lastId = TodoSchema.firstLastId(idPrefix);
+	}
+
+	/** Returns the IDs of the todo table including the deleted ones. */
+	public NavigableSet<Long> getTodoIds() {
+
+		return Collections.unmodifiableNavigableSet(todos.navigableKeySet());
+	}
+
+	/** Returns the number of todo items that are not deleted. */
+	public int size() {
+
+		return todos.size() - deletedTodos.size();
+	}
+
+	/** Inserts a row into the todo table and returns its ID or -1 if the ID exists. */
+	protected long insertTodo(Todo t) {
+
+		if (t.id == null) {
+
+			t.id = Long.valueOf(++lastId);
+		} else if (todos.containsKey(t.id)) {
+
+			return -1;
+		}
+		todos.put(t.id, t);
+
+		return t.id.longValue();
+	}
+
+	/** Inserts a row into the sync table and returns its ID or -1 if the ID exists. */
+	protected long insertSync(Todo t) {
+
+		if (syncTodos.containsKey(t.id)) {
+
+			return -1;
+		}
+		syncTodos.put(t.id, t);
+
+		return t.id.longValue();
+	}
+
+	public long createTodo(String title, String deadline, int priority, String status, String description) {
+
+		Todo t = new Todo(null, title, deadline, Integer.valueOf(priority), status, description,
+				  Integer.valueOf(TodoSchema.NEW_TODO_REVISION));
+		t.fingerprint = Long.valueOf(t.computeFingerprint());
+
+		long id = insertTodo(t);
+		if (id != -1) {
+
+			appendOutbox(id, TodoTlv.CHUNK_NEW_TODO, SyncPlan.ALL_FIELDS, null);
+		}
+
+		return id;
+	}
+
+	/** Reads all items before inserting any so that nothing is created if the iterator throws. */
+	public int createTodos(Iterator<? extends Todo> todos) {
+
+		List<Todo> created = new ArrayList<Todo>();
+		while (todos.hasNext()) {
+
+			Todo t = todos.next();
+			Todo c = new Todo(null, t.title, t.deadline, t.priority, t.status, t.description,
+					  Integer.valueOf(TodoSchema.NEW_TODO_REVISION));
+			c.fingerprint = Long.valueOf(c.computeFingerprint());
+			created.add(c);
+		}
+		for (Todo c : created) {
+
+			insertTodo(c);
+		}
+
+		return created.size();
+	}
+
+	public void clearTodos() {
+
+		todos.clear();
+		deletedTodos.clear();
+		archivedTodos.clear();
+		archiveBuckets = new long[HashTree.BUCKET_COUNT];
+		mergeBases.clear();
+		outbox.clear();
+		pullWatermark = 0;
+		checkpoint = null;
+	}
+
+	/** Reads all items before inserting any so that nothing is restored if the iterator throws. */
+	public int restoreTodos(Iterator<? extends Todo> todos) {
+
+		List<Todo> restored = new ArrayList<Todo>();
+		while (todos.hasNext()) {
+
+			Todo t = todos.next();
+			Todo r = new Todo(t.id, t.title, t.deadline, t.priority, t.status, t.description,
+					  t.revision == null ? Integer.valueOf(TodoSchema.NEW_TODO_REVISION) : t.revision);
+			r.fingerprint = Long.valueOf(t.getFingerprint());
+			if (this.todos.containsKey(r.id)) {
+
+				throw new IllegalStateException("Duplicate todo " + r.id);
+			}
+			restored.add(r);
+		}
+
+		long prefix = getIdPrefix();
+		for (Todo r : restored) {
+
+			long id = r.id.longValue();
+			insertTodo(r);
+			if (id >>> TodoSchema.ID_COUNTER_BITS == prefix && id > lastId) {
+
+				lastId = id;
+			}
+		}
+
+		return restored.size();
+	}
+
+	public void restoreDeletedTodos(long[] ids) {
+
+		for (long id : ids) {
+
+			deletedTodos.add(Long.valueOf(id));
+		}
+	}
+
+	public int updateTodo(long id, String title, String deadline, Integer priority, String status, String description) {
+
+		unarchiveTodos(new long[] {id});
+		Todo t = todos.get(Long.valueOf(id));
+		if (t == null) {
+
+			return 0;
+		}
+		Todo old = new Todo(t);
+		if (title != null) {
+
+			t.title = title;
+		}
+		if (deadline != null) {
+
+			t.deadline = deadline;
+		}
+		if (priority != null) {
+
+			t.priority = priority;
+		}
+		if (status != null) {
+
+			t.status = status;
+		}
+		if (description != null) {
+
+			t.description = description;
+		}
+		t.fingerprint = Long.valueOf(t.computeFingerprint());
+
+		int mask = SyncPlan.fieldMask(t, old);
+		if (mask != 0) {
+
+			appendOutbox(id, TodoTlv.CHUNK_UPDATE_TODO, mask, null);
+		}
+
+		return 1;
+	}
+
+	public int deleteTodo(long id) {
+
+		unarchiveTodos(new long[] {id});
+		Todo t = todos.get(Long.valueOf(id));
+		if (t == null) {
+
+			return 0;
+		}
+		if (t.revision.intValue() == TodoSchema.NEW_TODO_REVISION) {
+
+			todos.remove(t.id);
+			removeOutboxOf(id);
+		} else {
+
+			deletedTodos.add(t.id);
+			appendOutbox(id, TodoTlv.CHUNK_DELETE_TODO, 0, null);
+		}
+
+		return 1;
+	}
+
+	public int updateTodos(long[] ids, TodoBulkEdit edit) {
+
+		if (edit.isEmpty()) {
+
+			return 0;
+		}
+		unarchiveTodos(ids);
+		int n = 0;
+		for (long id : ids) {
+
+			Todo t = todos.get(Long.valueOf(id));
+			if (t == null) {
+
+				continue;
+			}
+			int mask = edit.apply(t);
+			if (mask != 0) {
+
+				t.fingerprint = Long.valueOf(t.computeFingerprint());
+				appendOutbox(id, TodoTlv.CHUNK_UPDATE_TODO, mask, null);
+				n++;
+			}
+		}
+
+		return n;
+	}
+
+	public int deleteTodos(long[] ids) {
+
+		unarchiveTodos(ids);
+		int n = 0;
+		for (long id : ids) {
+
+			if (!deletedTodos.contains(Long.valueOf(id))) {
+
+				n += deleteTodo(id);
+			}
+		}
+
+		return n;
+	}
+
+	public Todo getTodo(long id) {
+
+		Todo t = todos.get(Long.valueOf(id));
+		if (t == null) {
+
+			t = archivedTodos.get(Long.valueOf(id));
+		}
+
+		return t == null || deletedTodos.contains(t.id) ? null : new Todo(t);
+	}
+
+	public List<Todo> getTodos(long[] ids) {
+
+		List<Todo> found = new ArrayList<Todo>();
+		for (long id : ids) {
+
+			Todo t = getTodo(id);
+			if (t != null) {
+
+				found.add(t);
+			}
+		}
+
+		return found;
+	}
+
+	public Todo getLocalTodo(long id) {
+
+		Todo t = todos.get(Long.valueOf(id));
+
+		return t == null ? null : new Todo(t);
+	}
+
+	/** Returns null since the descriptions are always kept in the items. */
+	public String getLongDescription(long id) {
+
+		return null;
+	}
+
+	public void recreateSyncTable() {
+
+		syncTodos = new TreeMap<Long, Todo>();
+	}
+
+	public void dropSync() {
+
+		syncTodos = null;
+	}
+
+	public long createSyncTodo(long id, String title, String deadline,
+				   int priority, String status, String description,
+				   int revision) {
+
+		return createSyncTodo(new Todo(Long.valueOf(id), title, deadline, Integer.valueOf(priority),
+					       status, description, Integer.valueOf(revision)));
+	}
+
+	public long createSyncTodo(Todo remoteTodo) {
+
+		Todo t = new Todo(remoteTodo);
+		t.fingerprint = Long.valueOf(remoteTodo.getFingerprint());
+
+		return insertSync(t);
+	}
+
+	public TodoCursor getAllTodoIncludingDeletedOnes() {
+
+		List<Todo> rows = new ArrayList<Todo>(todos.size());
+		for (Todo t : todos.values()) {
+
+			rows.add(new Todo(t));
+		}
+
+		return new TodoListCursor(rows);
+	}
+
+	public TodoCursor getAllSyncTodo() {
+
+		List<Todo> rows = new ArrayList<Todo>(syncTodos.size());
+		for (Todo t : syncTodos.values()) {
+
+			rows.add(new Todo(t));
+		}
+
+		return new TodoListCursor(rows);
+	}
+
+	/** Returns all rows like getAllTodoIncludingDeletedOnes() because the snapshot has every column. */
+	public TodoCursor getAllTodoFingerprints() {
+
+		return getAllTodoIncludingDeletedOnes();
+	}
+
+	/** Returns all rows like getAllSyncTodo() because the snapshot has every column. */
+	public TodoCursor getAllSyncFingerprints() {
+
+		return getAllSyncTodo();
+	}
+
+	public TodoCursor getAllDeletedTodoIds() {
+
+		List<Todo> rows = new ArrayList<Todo>(deletedTodos.size());
+		for (Long id : deletedTodos) {
+
+			rows.add(new Todo(id, null, null, null, null, null, null));
+		}
+
+		return new TodoListCursor(rows);
+	}
+
+	public Todo getRemoteTodo(long id) {
+
+		Todo t = syncTodos.get(Long.valueOf(id));
+
+		return t == null ? null : new Todo(t);
+	}
+
+	public List<Todo> getRemoteTodos(long[] ids) {
+
+		List<Todo> found = new ArrayList<Todo>();
+		for (long id : ids) {
+
+			Todo t = syncTodos.get(Long.valueOf(id));
+			if (t != null) {
+
+				found.add(new Todo(t));
+			}
+		}
+
+		return found;
+	}
+
+	public boolean isLocalDeleted(long id) {
+
+		return deletedTodos.contains(Long.valueOf(id));
+	}
+
+	public int updateTodoRevision(long id, int newRevision) {
+
+		Todo t = todos.get(Long.valueOf(id));
+		if (t == null) {
+
+			return 0;
+		}
+		t.revision = Integer.valueOf(newRevision);
+
+		return 1;
+	}
+
+	public int updateSync(Todo remoteTodo, Todo localTodo) {
+
+		Todo t = syncTodos.get(localTodo.id);
+		if (t == null) {
+
+			return 0;
+		}
+		t.title = remoteTodo.title.equals(localTodo.title) ? null : localTodo.title;
+		t.deadline = remoteTodo.deadline.equals(localTodo.deadline) ? null : localTodo.deadline;
+		t.priority = remoteTodo.priority.equals(localTodo.priority) ? null : localTodo.priority;
+		t.status = remoteTodo.status.equals(localTodo.status) ? null : localTodo.status;
+		t.description = remoteTodo.description.equals(localTodo.description) ? null : localTodo.description;
+		t.revision = null;
+		t.fingerprint = null;
+
+		return 1;
+	}
+
+	public int replaceTodo(Todo remoteTodo) {
+
+		if (!remoteTodo.isComplete() || remoteTodo.revision == null) {
+
+			throw new IllegalArgumentException("incomplete remote todo");
+		}
+
+		deletedTodos.remove(remoteTodo.id);
+
+		Todo t = todos.get(remoteTodo.id);
+		if (t == null) {
+
+			return 0;
+		}
+		t.title = remoteTodo.title;
+		t.deadline = remoteTodo.deadline;
+		t.priority = remoteTodo.priority;
+		t.status = remoteTodo.status;
+		t.description = remoteTodo.description;
+		t.revision = Integer.valueOf(remoteTodo.revision.intValue() + 1);
+		t.fingerprint = Long.valueOf(remoteTodo.getFingerprint());
+
+		return 1;
+	}
+
+	public int mergeTodo(Todo mergedTodo) {
+
+		Todo t = todos.get(mergedTodo.id);
+		if (t == null) {
+
+			return 0;
+		}
+		t.title = mergedTodo.title;
+		t.deadline = mergedTodo.deadline;
+		t.priority = mergedTodo.priority;
+		t.status = mergedTodo.status;
+		t.description = mergedTodo.description;
+		t.fingerprint = Long.valueOf(mergedTodo.computeFingerprint());
+
+		return 1;
+	}
+
+	public long insertToSync(Todo localTodo) {
+
+		Todo t = new Todo(localTodo);
+		t.revision = Integer.valueOf(TodoSchema.toSyncRevision(localTodo.revision.intValue()));
+
+		return insertSync(t);
+	}
+
+	public int removeSync(long id) {
+
+		return syncTodos.remove(Long.valueOf(id)) == null ? 0 : 1;
+	}
+
+	public int deleteLocal(long id) {
+
+		Long key = Long.valueOf(id);
+
+		mergeBases.remove(key);
+
+		return (todos.remove(key) == null ? 0 : 1) + (deletedTodos.remove(key) ? 1 : 0);
+	}
+
+	public int deleteSync(long id) {
+
+		Todo t = syncTodos.get(Long.valueOf(id));
+		if (t == null) {
+
+			return 0;
+		}
+		syncTodos.put(t.id, new Todo(t.id, null, null, null, null, null, null));
+
+		return 1;
+	}
+
+	public void importNewTodos() {
+
+		for (Todo t : syncTodos.values()) {
+
+			if (!todos.containsKey(t.id) && t.isComplete() && t.revision != null) {
+
+				Todo n = new Todo(t);
+				n.revision = Integer.valueOf(t.revision.intValue() + 1);
+				n.fieldRevisions = null;
+				n.versionVector = null;
+				insertTodo(n);
+			}
+		}
+	}
+
+	public void confirmNewTodos() {
+
+		for (Iterator<Todo> i = todos.values().iterator(); i.hasNext(); ) {
+
+			Todo t = i.next();
+			if (t.revision.intValue() != TodoSchema.NEW_TODO_REVISION) {
+
+				continue;
+			}
+			Todo s = syncTodos.get(t.id);
+			if (s != null && s.revision != null && s.revision.intValue() == TodoSchema.NEW_TODO_REVISION) {
+
+				t.revision = Integer.valueOf(1);
+			} else {
+
+				i.remove();
+			}
+		}
+	}
+
+	public TodoCursor getAllNewSyncTodo() {
+
+		List<Todo> rows = new ArrayList<Todo>();
+		for (Todo t : syncTodos.values()) {
+
+			if (t.revision != null && t.revision.intValue() < 0) {
+
+				rows.add(new Todo(t));
+			}
+		}
+
+		return new TodoListCursor(rows);
+	}
+
+	public TodoCursor getAllUpdatedSyncTodo() {
+
+		List<Todo> rows = new ArrayList<Todo>();
+		for (Todo t : syncTodos.values()) {
+
+			if (t.revision == null && !isAllNull(t)) {
+
+				rows.add(new Todo(t));
+			}
+		}
+
+		return new TodoListCursor(rows);
+	}
+
+	public TodoCursor getAllDeletedSyncTodo() {
+
+		List<Todo> rows = new ArrayList<Todo>();
+		for (Todo t : syncTodos.values()) {
+
+			if (t.revision == null && isAllNull(t)) {
+
+				rows.add(new Todo(t));
+			}
+		}
+
+		return new TodoListCursor(rows);
+	}
+
+	public void insertToSync(long[] ids) {
+
+		for (long id : ids) {
+
+			insertToSync(todos.get(Long.valueOf(id)));
+		}
+	}
+
+	public void updateSync(long[] ids) {
+
+		for (long id : ids) {
+
+			Long key = Long.valueOf(id);
+			updateSync(syncTodos.get(key), todos.get(key));
+		}
+	}
+
+	public void replaceTodos(long[] ids) {
+
+		for (long id : ids) {
+
+			replaceTodo(syncTodos.get(Long.valueOf(id)));
+		}
+	}
+
+	public void removeSync(long[] ids) {
+
+		for (long id : ids) {
+
+			removeSync(id);
+		}
+	}
+
+	public void deleteLocal(long[] ids) {
+
+		for (long id : ids) {
+
+			deleteLocal(id);
+		}
+	}
+
+	public void deleteSync(long[] ids) {
+
+		for (long id : ids) {
+
+			deleteSync(id);
+		}
+	}
+
+	public void addTodoRevision(long[] ids, int delta) {
+
+		for (long id : ids) {
+
+			Todo t = todos.get(Long.valueOf(id));
+			if (t != null) {
+
+				t.revision = Integer.valueOf(t.revision.intValue() + delta);
+			}
+		}
+	}
+
+	public SyncCheckpoint getSyncCheckpoint() {
+
+		return checkpoint == null ? null : new SyncCheckpoint(checkpoint);
+	}
+
+	public void saveSyncCheckpoint(SyncCheckpoint checkpoint) {
+
+		this.checkpoint = new SyncCheckpoint(checkpoint);
+	}
+
+	public void clearSyncCheckpoint() {
+
+		checkpoint = null;
+	}
+
+	public long getIdPrefix() {
+
+		return lastId >>> TodoSchema.ID_COUNTER_BITS;
+	}
+
+	public void appendOutbox(long todoId, byte type, int fieldMask, Integer baseRevision) {
+
+		lastSequence++;
+		outbox.put(Long.valueOf(lastSequence), new OutboxOp(lastSequence, todoId, type, fieldMask, baseRevision));
+	}
+
+	public List<OutboxOp> getOutbox(int limit) {
+
+		List<OutboxOp> ops = new ArrayList<OutboxOp>(Math.min(limit, outbox.size()));
+		for (OutboxOp op : outbox.values()) {
+
+			if (ops.size() == limit) {
+
+				break;
+			}
+			ops.add(op);
+		}
+
+		return ops;
+	}
+
+	public long getLastOutboxSequence() {
+
+		return outbox.isEmpty() ? 0 : outbox.lastKey().longValue();
+	}
+
+	public void removeOutbox(long[] sequences) {
+
+		for (long sequence : sequences) {
+
+			outbox.remove(Long.valueOf(sequence));
+		}
+	}
+
+	public void removeOutboxOf(long todoId) {
+
+		for (Iterator<OutboxOp> i = outbox.values().iterator(); i.hasNext(); ) {
+
+			if (i.next().todoId == todoId) {
+
+				i.remove();
+			}
+		}
+	}
+
+	public void clearOutbox(long lastSequence) {
+
+		outbox.headMap(Long.valueOf(lastSequence), true).clear();
+	}
+
+	public long getPullWatermark() {
+
+		return pullWatermark;
+	}
+
+	public void savePullWatermark(long watermark) {
+
+		pullWatermark = watermark;
+	}
+
+	public byte[] getMergeBase(long id) {
+
+		byte[] base = mergeBases.get(Long.valueOf(id));
+
+		return base == null ? null : base.clone();
+	}
+
+	public void saveMergeBase(long id, byte[] base) {
+
+		mergeBases.put(Long.valueOf(id), base.clone());
+	}
+
+	public Map<Long, byte[]> getMergeBases(long[] ids) {
+
+		Map<Long, byte[]> bases = new HashMap<Long, byte[]>();
+		for (long id : ids) {
+
+			byte[] base = mergeBases.get(Long.valueOf(id));
+			if (base != null) {
+
+				bases.put(Long.valueOf(id), base.clone());
+			}
+		}
+
+		return bases;
+	}
+
+	public void saveMergeBases(Map<Long, byte[]> bases) {
+
+		for (Map.Entry<Long, byte[]> e : bases.entrySet()) {
+
+			mergeBases.put(e.getKey(), e.getValue().clone());
+		}
+	}
+
+	public Map<Long, byte[]> getRemoteVersionVectors(long[] ids) {
+
+		Map<Long, byte[]> vectors = new HashMap<Long, byte[]>();
+		for (long id : ids) {
+
+			Todo t = syncTodos.get(Long.valueOf(id));
+			if (t != null && t.versionVector != null) {
+
+				vectors.put(Long.valueOf(id), t.versionVector.clone());
+			}
+		}
+
+		return vectors;
+	}
+
+	public int archiveTodos(String deadlineBefore) {
+
+		TreeSet<Long> pending = new TreeSet<Long>();
+		for (OutboxOp op : outbox.values()) {
+
+			pending.add(Long.valueOf(op.todoId));
+		}
+
+		int count = 0;
+		Iterator<Todo> i = todos.values().iterator();
+		while (i.hasNext()) {
+
+			Todo t = i.next();
+			if (TodoSchema.CLOSED_STATUS.equals(t.status) && t.deadline != null
+			    && t.deadline.compareTo(deadlineBefore) < 0
+			    && t.revision.intValue() != TodoSchema.NEW_TODO_REVISION && t.fingerprint != null
+			    && !deletedTodos.contains(t.id) && !pending.contains(t.id)) {
+
+				i.remove();
+				archivedTodos.put(t.id, t);
+				archiveBuckets[HashTree.bucketOf(t.id.longValue())]
+					^= HashTree.leaf(t.id.longValue(), t.revision.intValue() - 1, t.fingerprint.longValue());
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	public void unarchiveBuckets(byte[] bucketSet) {
+
+		List<Long> ids = new ArrayList<Long>();
+		for (Long id : archivedTodos.keySet()) {
+
+			if (bucketSet == null || HashTree.hasId(bucketSet, id.longValue())) {
+
+				ids.add(id);
+			}
+		}
+		for (Long id : ids) {
+
+			unarchive(id);
+		}
+	}
+
+	public void unarchiveTodos(long[] ids) {
+
+		for (long id : ids) {
+
+			unarchive(Long.valueOf(id));
+		}
+	}
+
+	/** Moves an item back from the archived_todo table if it is there. */
+	protected void unarchive(Long id) {
+
+		Todo t = archivedTodos.remove(id);
+		if (t != null) {
+
+			todos.put(id, t);
+			archiveBuckets[HashTree.bucketOf(id.longValue())]
+				^= HashTree.leaf(id.longValue(), t.revision.intValue() - 1, t.fingerprint.longValue());
+		}
+	}
+
+	public long[] getArchiveBuckets() {
+
+		return archiveBuckets.clone();
+	}
+
+	public TodoCursor getAllArchivedTodo() {
+
+		List<Todo> rows = new ArrayList<Todo>(archivedTodos.size());
+		for (Todo t : archivedTodos.values()) {
+
+			rows.add(new Todo(t));
+		}
+
+		return new TodoListCursor(rows);
+	}
+
+	/** Does nothing because there is no file to shrink. */
+	public void optimize() {
+	}
+
+	/** Computes the summary from all items since nothing is counted in advance. */
+	public TodoSummary getSummary(String today) {
+
+		return TodoSummary.compute(getAllTodoIncludingDeletedOnes(), deletedTodos, today);
+	}
+
+	/** Returns the number of operations in the outbox. */
+	public int getOutboxSize() {
+
+		return outbox.size();
+	}
+
+	/** Does nothing because every change is applied immediately. */
+	public void beginTransaction() {
+	}
+
+	/** Does nothing because every change is applied immediately. */
+	public void setTransactionSuccessful() {
+	}
+
+	/** Does nothing because every change is applied immediately. */
+	public void endTransaction() {
+	}
+
+	/** Returns true if all data fields of a sync record are NULL. */
+	protected static boolean isAllNull(Todo t) {
+
+		return t.title == null && t.deadline == null && t.priority == null
+			&& t.status == null && t.description == null;
+	}
+}
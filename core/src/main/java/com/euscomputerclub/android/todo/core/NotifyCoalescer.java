@@ -0,0 +1,119 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Class NotifyCoalescer decides when to pull after notify packets so that
+ * a burst of remote changes is fetched by a single pull. The first notify
+ * of a watermark that the store does not have makes a pull due after a
+ * delay, and the notifies that come until the pull starts only raise the
+ * watermark to be reached. A notify that comes during the pull makes
+ * another pull due once it finishes unless the pull has reached that
+ * watermark anyway.
+ *
+ * All times are in milliseconds of any monotonic clock given by the caller.
+ *
+ * @author eus
+ */
+public class NotifyCoalescer {
+
+	/** No pull is due. */
+	public static final long NEVER = -1;
+
+	/** The time between the first notify and the pull. */
+	protected final long delay;
+	/** The watermark that the store has. */
+	protected long known;
+	/** The highest notified watermark. */
+	protected long target;
+	/** The time at which the next pull is due or NEVER. */
+	protected long dueTime = NEVER;
+	/** Whether a pull is running. */
+	protected boolean isPulling;
+	/** The number of notifies received so far. */
+	protected int notifies;
+	/** The number of pulls started so far. */
+	protected int pulls;
+
+	public NotifyCoalescer(long delay) {
+
+		this.delay = delay;
+	}
+
+	/** Sets the watermark that the store has, e.g. after a sync. */
+	public void setKnown(long watermark) {
+
+		known = Math.max(known, watermark);
+	}
+
+	/**
+	 * Records a notify.
+	 *
+	 * @return true if a pull has become due at getDueTime().
+	 */
+	public boolean noteNotify(long now, long watermark) {
+
+		notifies++;
+		if (watermark <= known || watermark <= target) {
+
+			return false;
+		}
+		target = watermark;
+		if (isPulling || dueTime != NEVER) {
+
+			return false;
+		}
+		dueTime = now + delay;
+
+		return true;
+	}
+
+	/** Returns the time at which a pull should start or NEVER if none is due. */
+	public long getDueTime() {
+
+		return dueTime;
+	}
+
+	/** Records the start of a pull, which covers all notifies so far. */
+	public void pullStarted() {
+
+		isPulling = true;
+		dueTime = NEVER;
+		pulls++;
+	}
+
+	/**
+	 * Records the end of the running pull. After a failed pull, the
+	 * notified watermarks are left to the sync that the caller starts.
+	 *
+	 * @param watermark the watermark that the store has after the pull
+	 *
+	 * @return true if another pull has become due at getDueTime().
+	 */
+	public boolean pullFinished(long now, boolean isSuccessful, long watermark) {
+
+		isPulling = false;
+		setKnown(watermark);
+		if (!isSuccessful) {
+
+			target = known;
+		}
+		if (target <= known) {
+
+			return false;
+		}
+		dueTime = now + delay;
+
+		return true;
+	}
+
+	/** Returns the number of notifies received so far. */
+	public int getNotifies() {
+
+		return notifies;
+	}
+
+	/** Returns the number of pulls started so far. */
+	public int getPulls() {
+
+		return pulls;
+	}
+}
@@ -0,0 +1,42 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Class OutboxOp is a row of the outbox table: a local edit of a todo item
+ * waiting to be pushed to the sync server. An operation only records which
+ * fields have changed; their values are read from the todo table when the
+ * operation is pushed.
+ *
+ * @author eus
+ */
+public class OutboxOp {
+
+	/** The sequence number, which increases with every appended operation of the device. */
+	public final long sequence;
+	/** The ID of the edited todo item. */
+	public final long todoId;
+	/** TodoTlv.CHUNK_NEW_TODO, CHUNK_UPDATE_TODO or CHUNK_DELETE_TODO. */
+	public final byte type;
+	/** The SyncPlan field mask of the updated fields. */
+	public final int fieldMask;
+	/**
+	 * The server revision the operation applies to or null to derive it
+	 * from the local revision when the operation is pushed.
+	 */
+	public final Integer baseRevision;
+
+	public OutboxOp(long sequence, long todoId, byte type, int fieldMask, Integer baseRevision) {
+
+		this.sequence = sequence;
+		this.todoId = todoId;
+		this.type = type;
+		this.fieldMask = fieldMask;
+		this.baseRevision = baseRevision;
+	}
+
+	@Override
+	public String toString() {
+
+		return "OutboxOp[" + sequence + ", id=" + todoId + ", type=" + type
+			+ ", mask=" + Integer.toBinaryString(fieldMask) + ", base=" + baseRevision + "]";
+	}
+}
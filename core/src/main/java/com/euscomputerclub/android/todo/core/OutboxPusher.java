@@ -0,0 +1,278 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class OutboxPusher sends the operations in the outbox of a TodoStore to the
+ * sync server in batches of at most MAX_PUSH_LEN bytes without a sync so that
+ * the local edits reach the server soon after they are made.
+ *
+ * An update or a delete carries the server revision it applies to, i.e. the
+ * local revision minus one, and the server rejects it if the item has changed
+ * since. The remaining operations of a rejected item are dropped and the item
+ * is left to the next sync, which resolves the conflict. An applied operation
+ * updates the local revision the way a sync does so that the next sync finds
+ * both sides equal, and the ThreeWayMerge base of the item.
+ *
+ * A new item or an update of an item whose base has a VersionVector
+ * carries the vector of the base counting one more change of this device,
+ * which becomes the vector of the base once the server has applied it.
+ *
+ * Pushes and syncs of the same store are serialized on the store.
+ *
+ * @author eus
+ */
+public class OutboxPusher {
+
+	/** The maximum number of operations read for a batch. */
+	public static final int MAX_BATCH_OPS = 64;
+
+	/** The store whose outbox is pushed. */
+	protected final TodoStore db;
+	/** The number of operations that the server has applied. */
+	public volatile int appliedOps;
+	/** The number of operations that the server has rejected. */
+	public volatile int rejectedOps;
+	/** The number of batches that have been acknowledged. */
+	public volatile int batches;
+
+	public OutboxPusher(TodoStore db) {
+
+		this.db = db;
+	}
+
+	/**
+	 * Pushes the whole outbox. Nothing is pushed while an interrupted sync
+	 * has a checkpoint because the sync has to be completed first.
+	 *
+	 * @return false if the server is busy or does not respond, in which case
+	 *         the operations that have not been acknowledged stay in the
+	 *         outbox.
+	 */
+	public boolean push(TodoSyncCommunication comm, int userId) throws IOException {
+
+		synchronized (db) {
+
+			if (db.getSyncCheckpoint() != null) {
+
+				return false;
+			}
+
+			long deviceId = db.getIdPrefix();
+			for (List<OutboxOp> ops = db.getOutbox(MAX_BATCH_OPS); !ops.isEmpty(); ops = db.getOutbox(MAX_BATCH_OPS)) {
+
+				if (!pushBatch(comm, userId, deviceId, ops)) {
+
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Pushes as many of the given operations as fit in a batch and applies
+	 * the results. The operations that cannot be pushed anymore, e.g. an
+	 * update of an item that has been deleted since, are removed as well.
+	 */
+	protected boolean pushBatch(TodoSyncCommunication comm, int userId, long deviceId, List<OutboxOp> ops) throws IOException {
+
+		// the server revision of every item once the preceding operations
+		// of the batch are applied, null once the item is deleted
+		Map<Long, Integer> revisions = new HashMap<Long, Integer>();
+		// the version vectors after the preceding operations of the batch
+		Map<Long, byte[]> versionVectors = new HashMap<Long, byte[]>();
+		List<OutboxOp> sent = new ArrayList<OutboxOp>();
+		List<Todo> sentChunks = new ArrayList<Todo>();
+		List<OutboxOp> dropped = new ArrayList<OutboxOp>();
+		ByteBuffer chunks = ByteBuffer.allocate(TodoSyncCommunication.MAX_DATAGRAM_LEN);
+		int len = TodoSyncCommunication.PUSH_HEADER_LEN;
+
+		for (OutboxOp op : ops) {
+
+			Todo t = toChunk(op, revisions);
+			if (t == null) {
+
+				dropped.add(op);
+				continue;
+			}
+			if (op.type != TodoTlv.CHUNK_DELETE_TODO) {
+
+				t.versionVector = versionVectorOf(op, versionVectors, deviceId);
+			}
+			int size = Long.SIZE / Byte.SIZE + TodoTlv.sizeOf(t);
+			if (!sent.isEmpty() && len + size > TodoSyncCommunication.MAX_PUSH_LEN) {
+
+				break;
+			}
+			len += size;
+			sent.add(op);
+			sentChunks.add(t);
+			TodoTlv.put(chunks, op.type, t);
+			revisions.put(t.id, op.type == TodoTlv.CHUNK_DELETE_TODO
+				      ? null
+				      : Integer.valueOf(op.type == TodoTlv.CHUNK_NEW_TODO ? 0 : t.revision.intValue() + 1));
+			versionVectors.put(t.id, t.versionVector);
+		}
+
+		long[] sequences = new long[sent.size()];
+		for (int i = 0; i < sequences.length; i++) {
+
+			sequences[i] = sent.get(i).sequence;
+		}
+		byte[] results = null;
+		if (sequences.length != 0) {
+
+			byte[] data = new byte[chunks.position()];
+			System.arraycopy(chunks.array(), 0, data, 0, data.length);
+			results = comm.push(userId, deviceId, sequences, data);
+			if (results == null) {
+
+				return false;
+			}
+			batches++;
+		}
+
+		db.beginTransaction();
+		try {
+
+			for (int i = 0; i < sequences.length; i++) {
+
+				apply(sent.get(i), sentChunks.get(i), results[i]);
+			}
+			long[] removed = new long[sequences.length + dropped.size()];
+			System.arraycopy(sequences, 0, removed, 0, sequences.length);
+			for (int i = 0; i < dropped.size(); i++) {
+
+				removed[sequences.length + i] = dropped.get(i).sequence;
+			}
+			db.removeOutbox(removed);
+			db.setTransactionSuccessful();
+		} finally {
+
+			db.endTransaction();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the chunk of an operation carrying the fields of the local
+	 * item and the server revision that the operation applies to or null
+	 * if the operation cannot be pushed.
+	 *
+	 * @param revisions the server revisions after the preceding operations of the batch
+	 */
+	protected Todo toChunk(OutboxOp op, Map<Long, Integer> revisions) {
+
+		Long id = Long.valueOf(op.todoId);
+		Todo local = db.getLocalTodo(op.todoId);
+
+		Integer base = op.baseRevision;
+		if (revisions.containsKey(id)) {
+
+			base = revisions.get(id);
+		} else if (base == null && local != null && local.revision.intValue() != TodoSchema.NEW_TODO_REVISION) {
+
+			base = Integer.valueOf(local.revision.intValue() - 1);
+		}
+
+		switch (op.type) {
+		case TodoTlv.CHUNK_NEW_TODO:
+			if (local == null || local.revision.intValue() != TodoSchema.NEW_TODO_REVISION) {
+
+				return null;
+			}
+			local.revision = null;
+			local.fingerprint = null;
+
+			return local;
+		case TodoTlv.CHUNK_UPDATE_TODO:
+			// a deleted item gets deleted by its delete operation
+			if (local == null || base == null || db.isLocalDeleted(op.todoId)) {
+
+				return null;
+			}
+
+			return new Todo(id,
+					(op.fieldMask & SyncPlan.TITLE_FIELD) != 0 ? local.title : null,
+					(op.fieldMask & SyncPlan.DEADLINE_FIELD) != 0 ? local.deadline : null,
+					(op.fieldMask & SyncPlan.PRIORITY_FIELD) != 0 ? local.priority : null,
+					(op.fieldMask & SyncPlan.STATUS_FIELD) != 0 ? local.status : null,
+					(op.fieldMask & SyncPlan.DESCRIPTION_FIELD) != 0 ? local.description : null,
+					base);
+		case TodoTlv.CHUNK_DELETE_TODO:
+			if (base == null) {
+
+				return null;
+			}
+
+			return new Todo(id, null, null, null, null, null, base);
+		default:
+			throw new IllegalStateException("Invalid outbox operation " + op);
+		}
+	}
+
+	/**
+	 * Returns the version vector of the chunk of a new item or an update or
+	 * null if the update follows a version whose vector is unknown.
+	 *
+	 * @param versionVectors the version vectors after the preceding operations of the batch
+	 */
+	protected byte[] versionVectorOf(OutboxOp op, Map<Long, byte[]> versionVectors, long deviceId) {
+
+		Long id = Long.valueOf(op.todoId);
+		byte[] v = (versionVectors.containsKey(id)
+			    ? versionVectors.get(id)
+			    : ThreeWayMerge.versionVectorOf(db.getMergeBase(op.todoId)));
+
+		return v == null && op.type != TodoTlv.CHUNK_NEW_TODO ? null : VersionVector.increment(v, deviceId);
+	}
+
+	/**
+	 * Updates the local item according to the result of its pushed operation.
+	 *
+	 * @param chunk the pushed fields, which the server has once it has applied them
+	 */
+	protected void apply(OutboxOp op, Todo chunk, byte result) {
+
+		if (result != TodoSyncCommunication.PUSH_APPLIED) {
+
+			rejectedOps++;
+			db.removeOutboxOf(op.todoId);
+			return;
+		}
+
+		appliedOps++;
+		switch (op.type) {
+		case TodoTlv.CHUNK_NEW_TODO:
+			if (db.updateTodoRevision(op.todoId, 1) == 0) {
+
+				// the item has been deleted while its creation was being pushed
+				db.appendOutbox(op.todoId, TodoTlv.CHUNK_DELETE_TODO, 0, Integer.valueOf(0));
+			} else {
+
+				db.saveMergeBase(op.todoId, ThreeWayMerge.baseOf(chunk));
+			}
+			break;
+		case TodoTlv.CHUNK_UPDATE_TODO:
+			db.addTodoRevision(new long[] {op.todoId}, 1);
+
+			byte[] base = db.getMergeBase(op.todoId);
+			if (ThreeWayMerge.isBase(base)) {
+
+				db.saveMergeBase(op.todoId, ThreeWayMerge.update(base, chunk, op.fieldMask));
+			}
+			break;
+		default:
+			db.deleteLocal(op.todoId);
+			break;
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Enum SyncAction lists what the reconciliation does to a todo item. The
+ * comment of every action names the rules of doc/assignment6_solution.txt
+ * that produce it.
+ *
+ * @author eus
+ */
+public enum SyncAction {
+	/** Send a new or resurrected local item to the server ([A1]). */
+	PUSH_NEW,
+	/** Nothing to send because both sides are equal ([A2]). */
+	DROP_REMOTE,
+	/** Send the locally changed fields to the server ([A3]). */
+	PUSH_UPDATE,
+	/** Replace the local item with the remote one ([A4]/[A6]/[A10]/[A12]). */
+	REPLACE_LOCAL,
+	/** Send the locally changed fields of a conflicting item ([A5]). */
+	OVERRIDE_REMOTE,
+	/**
+	 * Take the remotely changed fields of a conflicting item that changed
+	 * different fields on both sides and send the locally changed ones
+	 * ([A5] once ThreeWayMerge has merged it).
+	 */
+	MERGE,
+	/** Delete the local item only ([A7]/[A9]). */
+	DELETE_LOCAL,
+	/** Send a locally kept item again that the server has deleted ([A8]). */
+	RESURRECT_REMOTE,
+	/** Delete the item locally and in the server ([A11]/[A13]/[A14]). */
+	DELETE_BOTH,
+	/** Keep the equal item and bump its local revision ([A15]). */
+	CONFIRM,
+	/** Import a remote item that does not exist locally ([A16]). */
+	IMPORT,
+	/** Both sides changed the item: [A5] or [A6] once resolved. */
+	CONFLICT,
+	/** The server deleted a locally kept item: [A7] or [A8] once resolved. */
+	REMOTE_DELETION_CONFLICT,
+	/** The user deleted a remotely changed item: [A12] or [A13] once resolved. */
+	LOCAL_DELETION_CONFLICT
+}
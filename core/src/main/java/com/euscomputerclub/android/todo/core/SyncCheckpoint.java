@@ -0,0 +1,64 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Class SyncCheckpoint records how far a sync has come so that a sync that
+ * is interrupted can be resumed in the session identified by the token of
+ * the sync server instead of being started from scratch. The SyncEngine
+ * saves a checkpoint in the same transaction as the changes it covers.
+ *
+ * The sync table only lives as long as the connection of the store, so a
+ * CLIENT_SERVER checkpoint carries the data to send itself and the stores
+ * restart the download of a SERVER_CLIENT checkpoint when they are opened.
+ *
+ * @author eus
+ */
+public class SyncCheckpoint {
+
+	/** The session token given by the sync server. */
+	public long token;
+	/**
+	 * SERVER_CLIENT while the todo items of the server are being stored in
+	 * the sync table or CLIENT_SERVER once the sync table has been
+	 * reconciled and only has to be sent.
+	 */
+	public SyncState phase;
+	/** The number of bytes of the server-to-client data stored in the sync table. */
+	public int received;
+	/** The HashTree bucket set being reconciled or null for all todo items. */
+	public byte[] bucketSet;
+	/**
+	 * The client-server data encoded from the reconciled sync table without
+	 * the packet type, which is never modified in place, or null if it has
+	 * to be encoded from the sync table.
+	 */
+	public byte[] pending;
+
+	public SyncCheckpoint(long token, SyncState phase, int received, byte[] bucketSet) {
+
+		this(token, phase, received, bucketSet, null);
+	}
+
+	public SyncCheckpoint(long token, SyncState phase, int received, byte[] bucketSet, byte[] pending) {
+
+		this.token = token;
+		this.phase = phase;
+		this.received = received;
+		this.bucketSet = bucketSet;
+		this.pending = pending;
+	}
+
+	/** Constructs a copy of another checkpoint. */
+	public SyncCheckpoint(SyncCheckpoint c) {
+
+		this(c.token, c.phase, c.received, c.bucketSet == null ? null : c.bucketSet.clone(), c.pending);
+	}
+
+	@Override
+	public String toString() {
+
+		return "SyncCheckpoint[token=" + Long.toHexString(token) + ", phase=" + phase
+			+ ", received=" + received + ", buckets="
+			+ (bucketSet == null ? "all" : String.valueOf(HashTree.countBuckets(bucketSet)))
+			+ (pending == null ? "" : ", pending=" + pending.length) + "]";
+	}
+}
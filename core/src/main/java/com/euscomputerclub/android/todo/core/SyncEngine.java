@@ -0,0 +1,692 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class SyncEngine reconciles a TodoStore with the sync server following the
+ * [A1]-[A16] rules of doc/assignment6_solution.txt. It has no dependency on
+ * Android so that it can be run on a plain JVM.
+ *
+ * The rules are decided by SyncPlanner before SyncPlanExecutor applies them
+ * so that preview() can report what a sync would do without changing
+ * anything.
+ *
+ * Unless it is disabled, synchronize() first compares the HashTree of the
+ * store with that of the server and only downloads and reconciles the
+ * buckets that differ, which are none when nothing has changed on either
+ * side since the last sync. The archived items of those buckets, or of all
+ * buckets without the HashTree, are moved back to the todo table before
+ * they are reconciled.
+ *
+ * When the server gives a session token, the todo items are downloaded in
+ * fragments and a SyncCheckpoint is saved along with every fragment stored
+ * in the sync table and along with the reconciliation. A sync that has been
+ * interrupted then resumes the session from its checkpoint, and once the
+ * sync table has been reconciled, the data are sent again even if the server
+ * has dropped the session rather than being reconciled twice. Since the
+ * sync table is a staging table that does not outlive the store, the data
+ * to send are encoded in the reconciliation and saved in its checkpoint.
+ *
+ * A sync sends all local edits, so it clears the outbox operations that
+ * OutboxPusher has not pushed yet. Syncs and pushes of the same store are
+ * serialized on the store.
+ *
+ * The watermark of the server changes given at the end of a sync is saved
+ * for ChangePuller.
+ *
+ * The sent items carry the VersionVector that SyncPlanExecutor has saved in
+ * their ThreeWayMerge bases.
+ *
+ * @author Tadeus Prastowo
+ */
+public class SyncEngine
+{
+	/** The logger of the reconciliation rules. */
+	protected static final Logger log = Logger.getLogger("TodoSync");
+
+	/** The todo DB. */
+	protected final TodoStore db;
+	/** The decision maker for conflicts. */
+	protected final ConflictResolver resolver;
+	/** The executor of the reconciliation plans. */
+	protected final SyncPlanExecutor executor;
+	/** The progress of the synchronization. */
+	public volatile SyncState syncState = SyncState.START;
+	/** The total bytes of received todos that need to be parsed. */
+	public volatile int processTodosTotalBytes;
+	/** The number of bytes of received todos that has been parsed. */
+	public volatile int processTodosCurrBytes;
+	/** The total records of todos that need to be synchronized. */
+	public volatile int syncTotalRecords;
+	/** The number of records of todos that has been synchronized. */
+	public volatile int syncCurrRecords;
+	/** The total bytes of synchronized todos that need to be created. */
+	public volatile int createDataTotalBytes;
+	/** The number of bytes of synchronized todos that has been created. */
+	public volatile int createDataCurrBytes;
+	/** The number of hash tree buckets reconciled by the last sync or -1 for all. */
+	public volatile int syncBuckets;
+	/** Whether synchronize() compares the hash trees before downloading. */
+	protected boolean isHashTreeEnabled = true;
+	/** Whether synchronize() saves checkpoints and resumes from them. */
+	protected boolean isResumeEnabled = true;
+
+	/**
+	 * Constructs an engine synchronizing the given store.
+	 *
+	 * @param db the store to synchronize
+	 * @param resolver the decision maker for conflicts
+	 */
+	public SyncEngine(TodoStore db, ConflictResolver resolver) {
+
+		this.db = db;
+		this.resolver = resolver;
+		executor = new SyncPlanExecutor(db, resolver);
+	}
+
+	/** Sets whether synchronize() compares the hash trees before downloading. */
+	public void setHashTreeEnabled(boolean isHashTreeEnabled) {
+
+		this.isHashTreeEnabled = isHashTreeEnabled;
+	}
+
+	/** Sets whether synchronize() saves checkpoints and resumes from them. */
+	public void setResumeEnabled(boolean isResumeEnabled) {
+
+		this.isResumeEnabled = isResumeEnabled;
+	}
+
+	/**
+	 * Runs the four protocol phases with the sync server. When the hash
+	 * trees are compared, the phases after the registration are skipped if
+	 * no bucket differs. When the last sync has been interrupted, the phases
+	 * that it has completed are skipped if the server resumes its session.
+	 *
+	 * @param comm the connection to the sync server
+	 * @param userId the user for which the sync will be made
+	 *
+	 * @return false if the server refuses the registration.
+	 */
+	public boolean synchronize(TodoSyncCommunication comm, int userId) throws IOException {
+
+		synchronized (db) {
+
+			return synchronize(comm, userId, db.getLastOutboxSequence());
+		}
+	}
+
+	/**
+	 * Runs synchronize() and then clears the outbox operations up to the
+	 * given sequence number because the sync has sent their edits.
+	 */
+	protected boolean synchronize(TodoSyncCommunication comm, int userId, long outboxMark) throws IOException {
+
+		SyncCheckpoint checkpoint = isResumeEnabled ? db.getSyncCheckpoint() : null;
+
+		syncState = SyncState.REGISTER;
+		if (!comm.register(userId, checkpoint == null ? 0 : checkpoint.token)) {
+
+			return false;
+		}
+		if (checkpoint != null && !comm.isResumed()) {
+
+			// the pending data are sent in the new session
+			// because the todo table already reflects them
+			if (checkpoint.phase == SyncState.CLIENT_SERVER) {
+
+				checkpoint.token = comm.getSessionToken();
+				saveCheckpoint(checkpoint);
+			} else {
+
+				checkpoint = null;
+			}
+		}
+		if (checkpoint != null) {
+
+			trace("Resuming " + checkpoint);
+		}
+
+		if (checkpoint == null) {
+
+			byte[] bucketSet = null;
+			if (isHashTreeEnabled) {
+
+				syncState = SyncState.COMPARE;
+				bucketSet = compareHashTree(comm);
+				if (HashTree.countBuckets(bucketSet) == 0) {
+
+					syncBuckets = 0;
+					processTodosTotalBytes = 0;
+					createDataTotalBytes = 0;
+					db.beginTransaction();
+					try {
+
+						db.clearSyncCheckpoint();
+						db.clearOutbox(outboxMark);
+						db.setTransactionSuccessful();
+					} finally {
+
+						db.endTransaction();
+					}
+					syncState = SyncState.RESET;
+					comm.close();
+					saveWatermark(comm);
+
+					return true;
+				}
+			}
+
+			checkpoint = new SyncCheckpoint(comm.getSessionToken(), SyncState.SERVER_CLIENT, 0, bucketSet);
+			db.beginTransaction();
+			try {
+
+				db.recreateSyncTable();
+				db.clearSyncCheckpoint();
+				// the archived items of the compared buckets must be seen by the sync
+				db.unarchiveBuckets(bucketSet);
+				saveCheckpoint(checkpoint);
+				db.setTransactionSuccessful();
+			} finally {
+
+				db.endTransaction();
+			}
+		}
+		syncBuckets = checkpoint.bucketSet == null ? -1 : HashTree.countBuckets(checkpoint.bucketSet);
+
+		if (checkpoint.phase == SyncState.SERVER_CLIENT) {
+
+			download(comm, checkpoint);
+			checkpoint.phase = SyncState.CLIENT_SERVER;
+			checkpoint.received = 0;
+			sync(plan(db.getAllSyncTodo(), checkpoint.bucketSet), checkpoint);
+		}
+
+		comm.clientServerSync(createSyncData(checkpoint));
+
+		db.beginTransaction();
+		try {
+
+			db.clearSyncCheckpoint();
+			db.clearOutbox(outboxMark);
+			db.dropSync();
+			db.setTransactionSuccessful();
+		} finally {
+
+			db.endTransaction();
+		}
+
+		syncState = SyncState.RESET;
+		comm.close();
+		saveWatermark(comm);
+
+		return true;
+	}
+
+	/**
+	 * Saves the watermark that the server has given at the end of the sync
+	 * because the todo table now has all changes up to it: no other device
+	 * can change the items of the user during the session.
+	 */
+	protected void saveWatermark(TodoSyncCommunication comm) {
+
+		if (comm.getWatermark() != 0) {
+
+			db.savePullWatermark(comm.getWatermark());
+		}
+	}
+
+	/**
+	 * Stores the todo items of the server in the sync table starting from
+	 * the number of bytes received according to a checkpoint, which is
+	 * saved along with every fragment. A server that gives no session token
+	 * sends all todo items at once.
+	 */
+	protected void download(TodoSyncCommunication comm, SyncCheckpoint checkpoint) throws IOException {
+
+		if (comm.getSessionToken() == 0) {
+
+			processTodos(checkpoint.bucketSet == null
+				     ? comm.serverClientSync()
+				     : comm.serverClientSync(checkpoint.bucketSet));
+			return;
+		}
+
+		processTodosTotalBytes = comm.requestServerClientData(checkpoint.bucketSet);
+		processTodosCurrBytes = checkpoint.received;
+		syncState = SyncState.SERVER_CLIENT;
+
+		while (checkpoint.received < processTodosTotalBytes) {
+
+			ByteBuffer chunks = comm.fetchServerClientData(checkpoint.received);
+			db.beginTransaction();
+			try {
+
+				storeTodos(chunks);
+				checkpoint.received += chunks.limit();
+				saveCheckpoint(checkpoint);
+				db.setTransactionSuccessful();
+			} finally {
+
+				db.endTransaction();
+			}
+			processTodosCurrBytes = checkpoint.received;
+		}
+	}
+
+	/** Saves a checkpoint unless resuming is disabled. */
+	protected void saveCheckpoint(SyncCheckpoint checkpoint) {
+
+		if (isResumeEnabled) {
+
+			db.saveSyncCheckpoint(checkpoint);
+		}
+	}
+
+	/** Returns the buckets in which the store and the sync server differ. */
+	protected byte[] compareHashTree(TodoSyncCommunication comm) throws IOException {
+
+		HashTree tree = HashTree.readLocal(db);
+		long[] remoteBuckets = comm.compareHashTree(tree.getRoot());
+		byte[] bucketSet = tree.getChangedBuckets(remoteBuckets);
+		trace("Hash tree: " + HashTree.countBuckets(bucketSet) + " of "
+		      + HashTree.BUCKET_COUNT + " buckets differ");
+
+		return bucketSet;
+	}
+
+	/** Stores the received CHUNK_TODO chunks in the sync table. */
+	public void processTodos(final ByteBuffer chunks) {
+
+		processTodosTotalBytes = chunks.limit();
+		processTodosCurrBytes = 0;
+		syncState = SyncState.SERVER_CLIENT;
+
+		TodoTlv.read(chunks, new TodoTlv.Visitor() {
+
+			public void visit(byte chunkType, Todo t) {
+
+				checkRemoteTodo(chunkType, t);
+				db.createSyncTodo(t);
+				processTodosCurrBytes = chunks.position();
+			}
+		});
+	}
+
+	/** Stores the CHUNK_TODO chunks of a fragment in the sync table. */
+	protected void storeTodos(ByteBuffer chunks) {
+
+		TodoTlv.read(chunks, new TodoTlv.Visitor() {
+
+			public void visit(byte chunkType, Todo t) {
+
+				checkRemoteTodo(chunkType, t);
+				db.createSyncTodo(t);
+			}
+		});
+	}
+
+	/**
+	 * Applies the [A1]-[A16] rules to every local todo item by planning
+	 * the actions, resolving the conflicts and executing the plan.
+	 *
+	 * @return the executed plan.
+	 */
+	public SyncPlan sync() {
+
+		return sync(plan());
+	}
+
+	/**
+	 * Resolves the conflicts of a plan of the sync table, e.g. one computed
+	 * by ColumnarDiff, and executes it.
+	 *
+	 * @return the executed plan.
+	 */
+	public SyncPlan sync(SyncPlan plan) {
+
+		return sync(plan, null);
+	}
+
+	/**
+	 * Like sync(SyncPlan) but saves a checkpoint in the transaction that
+	 * executes the plan.
+	 *
+	 * @param checkpoint the checkpoint or null for none
+	 */
+	protected SyncPlan sync(SyncPlan plan, SyncCheckpoint checkpoint) {
+
+		syncTotalRecords = plan.size();
+		syncCurrRecords = 0;
+		syncState = SyncState.SYNC;
+
+		executor.resolveConflicts(plan);
+		db.beginTransaction();
+		try {
+
+			executor.apply(plan);
+			if (checkpoint != null) {
+
+				if (isResumeEnabled) {
+
+					ByteBuffer b = createSyncData().buffer;
+					checkpoint.pending = Arrays.copyOfRange(b.array(), 1, b.capacity());
+				}
+				saveCheckpoint(checkpoint);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+
+			db.endTransaction();
+		}
+		syncCurrRecords = syncTotalRecords;
+		trace(plan.toString());
+
+		return plan;
+	}
+
+	/** Plans the reconciliation of the todo table with the sync table. */
+	public SyncPlan plan() {
+
+		return plan(db.getAllSyncTodo());
+	}
+
+	/**
+	 * Registers and downloads the todos of the user like synchronize() but
+	 * only reports what a sync would do without touching the store or the
+	 * server data.
+	 *
+	 * @return the plan whose conflicts are unresolved or null if the server
+	 *         refuses the registration.
+	 */
+	public SyncPlan preview(TodoSyncCommunication comm, int userId) throws IOException {
+
+		syncState = SyncState.REGISTER;
+		if (!comm.register(userId)) {
+
+			return null;
+		}
+
+		SyncPlan plan = preview(comm.serverClientSync());
+
+		syncState = SyncState.RESET;
+		comm.close();
+
+		return plan;
+	}
+
+	/** Plans the reconciliation with the received CHUNK_TODO chunks without storing them. */
+	public SyncPlan preview(ByteBuffer chunks) {
+
+		final List<Todo> remoteTodos = new ArrayList<Todo>();
+
+		TodoTlv.read(chunks, new TodoTlv.Visitor() {
+
+			public void visit(byte chunkType, Todo t) {
+
+				checkRemoteTodo(chunkType, t);
+				remoteTodos.add(t);
+			}
+		});
+		Collections.sort(remoteTodos, new Comparator<Todo>() {
+
+			public int compare(Todo a, Todo b) {
+
+				return a.id.compareTo(b.id);
+			}
+		});
+
+		return plan(new TodoListCursor(remoteTodos));
+	}
+
+	/** Plans the reconciliation of the todo table with the given remote todos. */
+	protected SyncPlan plan(TodoCursor remote) {
+
+		return plan(remote, null);
+	}
+
+	/**
+	 * Plans the reconciliation of the todo items whose IDs are in a bucket
+	 * set of HashTree with the remote todos of the same buckets.
+	 *
+	 * @param bucketSet the bucket set or null for all todo items
+	 */
+	protected SyncPlan plan(TodoCursor remote, byte[] bucketSet) {
+
+		TodoCursor local = db.getAllTodoIncludingDeletedOnes();
+		TodoCursor deleted = db.getAllDeletedTodoIds();
+		if (bucketSet != null) {
+
+			local = HashTree.filter(local, bucketSet);
+			deleted = HashTree.filter(deleted, bucketSet);
+		}
+		try {
+
+			return SyncPlanner.plan(local, remote, deleted, db);
+		} finally {
+
+			local.close();
+			remote.close();
+			deleted.close();
+		}
+	}
+
+	/**
+	 * Returns the pending data of a CLIENT_SERVER checkpoint or encodes the
+	 * sync table if the checkpoint has none.
+	 */
+	protected TodoSyncCommunication.ClientServerSyncData createSyncData(SyncCheckpoint checkpoint) {
+
+		if (checkpoint.pending == null) {
+
+			return createSyncData();
+		}
+
+		createDataTotalBytes = checkpoint.pending.length;
+		createDataCurrBytes = createDataTotalBytes;
+		syncState = SyncState.CLIENT_SERVER;
+
+		return new TodoSyncCommunication.ClientServerSyncData(checkpoint.pending);
+	}
+
+	/** Encodes the remaining records of the sync table for the server. */
+	public TodoSyncCommunication.ClientServerSyncData createSyncData() {
+
+		/* calculate client_server_data_len */
+		createDataTotalBytes = 0;
+		byte[] newVector = VersionVector.increment(null, db.getIdPrefix());
+		// both passes take the vectors from bases read in *_IN chunks
+		Map<Long, byte[]> bases = db.getMergeBases(readIds(db.getAllNewSyncTodo()));
+		bases.putAll(db.getMergeBases(readIds(db.getAllUpdatedSyncTodo())));
+
+		// new todo length calculation
+		TodoCursor c = db.getAllNewSyncTodo();
+		TodoRow row = new TodoRow(c);
+		while (c.moveToNext()) {
+
+			createDataTotalBytes += TodoTlv.sizeOf(withVersionVector(readNewSyncTodo(row), newVector, bases));
+		}
+		c.close();
+
+		// deleted todo length calculation
+		c = db.getAllDeletedSyncTodo();
+		while (c.moveToNext()) {
+
+			createDataTotalBytes += TodoTlv.sizeOfDelete(c.getLong(0));
+		}
+		c.close();
+
+		// updated todo length calculation
+		c = db.getAllUpdatedSyncTodo();
+		row = new TodoRow(c);
+		while (c.moveToNext()) {
+
+			createDataTotalBytes += TodoTlv.sizeOf(withVersionVector(row.toSyncTodo(), null, bases));
+		}
+		c.close();
+
+		createDataCurrBytes = 0;
+		syncState = SyncState.CLIENT_SERVER;
+		TodoSyncCommunication.ClientServerSyncData data
+			= new TodoSyncCommunication.ClientServerSyncData(createDataTotalBytes);
+		ByteBuffer b = data.buffer;
+
+		// fill in new todos
+		c = db.getAllNewSyncTodo();
+		row = new TodoRow(c);
+		while (c.moveToNext()) {
+
+			TodoTlv.put(b, TodoTlv.CHUNK_NEW_TODO, withVersionVector(readNewSyncTodo(row), newVector, bases));
+			createDataCurrBytes = b.position();
+		}
+		c.close();
+
+		// fill in deleted todo
+		c = db.getAllDeletedSyncTodo();
+		while (c.moveToNext()) {
+
+			TodoTlv.putDelete(b, c.getLong(0));
+			createDataCurrBytes = b.position();
+		}
+		c.close();
+
+		// fill in updated todo
+		c = db.getAllUpdatedSyncTodo();
+		row = new TodoRow(c);
+		while (c.moveToNext()) {
+
+			TodoTlv.put(b, TodoTlv.CHUNK_UPDATE_TODO, withVersionVector(row.toSyncTodo(), null, bases));
+			createDataCurrBytes = b.position();
+		}
+		c.close();
+
+		return data;
+	}
+
+	/**
+	 * Gives a record of the sync table to be sent the version vector that
+	 * the reconciliation has saved in the base of its item.
+	 *
+	 * @param newVector the vector of a new item, which carries no revision,
+	 *                  or null if the record is not a CHUNK_NEW_TODO
+	 * @param bases the bases of the records to be sent by ID
+	 */
+	protected static Todo withVersionVector(Todo t, byte[] newVector, Map<Long, byte[]> bases) {
+
+		t.versionVector = (newVector != null && t.revision == null
+				   ? newVector
+				   : ThreeWayMerge.versionVectorOf(bases.get(t.id)));
+
+		return t;
+	}
+
+	/** Returns the IDs of the rows of a cursor and closes it. */
+	protected static long[] readIds(TodoCursor c) {
+
+		try {
+
+			int idIndex = c.getColumnIndex(TodoSchema.ID_COLUMN);
+			long[] ids = new long[16];
+			int n = 0;
+			while (c.moveToNext()) {
+
+				if (n == ids.length) {
+
+					ids = Arrays.copyOf(ids, 2 * n);
+				}
+				ids[n++] = c.getLong(idIndex);
+			}
+
+			return Arrays.copyOf(ids, n);
+		} finally {
+
+			c.close();
+		}
+	}
+
+	/** Rejects a received chunk that is not a complete CHUNK_TODO. */
+	protected static void checkRemoteTodo(byte chunkType, Todo t) {
+
+		if (chunkType != TodoTlv.CHUNK_TODO) {
+
+			throw new IllegalStateException("Invalid chunk data: Expected CHUNK_TODO");
+		}
+		if (!t.isComplete() || t.revision == null) {
+
+			throw new IllegalStateException(
+				"Incomplete remote todo"
+			);
+		}
+	}
+
+	/**
+	 * Returns the todo item at the current row of a todo cursor. A loop
+	 * over many rows should read them through a single TodoRow instead.
+	 */
+	public static Todo readTodo(TodoCursor c) {
+
+		return new TodoRow(c).toTodo();
+	}
+
+	/** Returns the version vector column of the current row or null if it is absent or NULL. */
+	public static byte[] readVersionVector(TodoCursor c) {
+
+		int i = c.getColumnIndex(TodoSchema.VERSION_VECTOR_COLUMN);
+
+		return i == -1 || c.isNull(i) ? null : c.getBlob(i);
+	}
+
+	/** Returns the field revisions column of the current row or null if it is absent or NULL. */
+	public static Integer readFieldRevisions(TodoCursor c) {
+
+		int i = c.getColumnIndex(TodoSchema.FIELD_REVISIONS_COLUMN);
+
+		return i == -1 || c.isNull(i) ? null : Integer.valueOf(c.getInt(i));
+	}
+
+	/** Returns the fingerprint column of the current row or null if it is absent or NULL. */
+	public static Long readFingerprint(TodoCursor c) {
+
+		int i = c.getColumnIndex(TodoSchema.FINGERPRINT_COLUMN);
+
+		return i == -1 || c.isNull(i) ? null : Long.valueOf(c.getLong(i));
+	}
+
+	/** Returns the record at the current row of a sync cursor keeping NULL fields absent. */
+	protected static Todo readSyncTodo(TodoCursor c) {
+
+		return new TodoRow(c).toSyncTodo();
+	}
+
+	/**
+	 * Returns a new sync record as a CHUNK_NEW_TODO. A new todo item carries
+	 * no revision while a resurrected one carries its original revision,
+	 * which insertToSync() has stored as TodoSchema.toSyncRevision() gives.
+	 * The fingerprint is left out because the server computes its own.
+	 */
+	protected static Todo readNewSyncTodo(TodoRow row) {
+
+		Todo t = row.toSyncTodo();
+
+		t.fingerprint = null;
+		t.revision = TodoSchema.fromSyncRevision(t.revision.intValue());
+
+		return t;
+	}
+
+	protected void trace(String message) {
+
+		if (log.isLoggable(Level.FINE)) {
+
+			log.fine(message);
+		}
+	}
+}
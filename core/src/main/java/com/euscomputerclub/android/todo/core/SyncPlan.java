@@ -0,0 +1,314 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class SyncPlan is the list of actions that a reconciliation performs as
+ * computed by SyncPlanner. Every entry is an ID, a SyncAction, the rule that
+ * produced it and, for the actions that send an update, the mask of the
+ * fields that differ. The entries are kept in parallel arrays so that a plan
+ * of a large DB stays small; only the two sides of a conflict are kept as
+ * todo items for the ConflictResolver.
+ *
+ * @author eus
+ */
+public class SyncPlan {
+
+	/** The field mask bit of the title. */
+	public static final int TITLE_FIELD = 1;
+	/** The field mask bit of the deadline. */
+	public static final int DEADLINE_FIELD = 1 << 1;
+	/** The field mask bit of the priority. */
+	public static final int PRIORITY_FIELD = 1 << 2;
+	/** The field mask bit of the status. */
+	public static final int STATUS_FIELD = 1 << 3;
+	/** The field mask bit of the description. */
+	public static final int DESCRIPTION_FIELD = 1 << 4;
+	/** The field mask of all fields. */
+	public static final int ALL_FIELDS = TITLE_FIELD | DEADLINE_FIELD | PRIORITY_FIELD | STATUS_FIELD | DESCRIPTION_FIELD;
+	/** The rule of an entry that is not decided yet. */
+	public static final int NO_RULE = 0;
+	/** The number of [A#] rules. */
+	public static final int RULE_COUNT = 16;
+
+	/** All actions by ordinal. */
+	protected static final SyncAction[] ACTIONS = SyncAction.values();
+
+	/** The ID of every entry. */
+	protected long[] ids = new long[16];
+	/** The SyncAction ordinal of every entry. */
+	protected byte[] actions = new byte[16];
+	/** The rule number of every entry or NO_RULE. */
+	protected byte[] rules = new byte[16];
+	/** The field mask of every entry. */
+	protected byte[] masks = new byte[16];
+	/** The number of entries. */
+	protected int size;
+	/** The local sides of the conflicts keyed by entry. */
+	protected final Map<Integer, Todo> localTodos = new HashMap<Integer, Todo>();
+	/** The remote sides of the conflicts keyed by entry. */
+	protected final Map<Integer, Todo> remoteTodos = new HashMap<Integer, Todo>();
+	/** The number of entries per action. */
+	protected final int[] actionCounts = new int[ACTIONS.length];
+	/** The number of entries per rule. */
+	protected final int[] ruleCounts = new int[RULE_COUNT + 1];
+
+	/** Returns the mask of the fields in which two complete todo items differ. */
+	public static int fieldMask(Todo a, Todo b) {
+
+		int mask = 0;
+
+		if (!a.title.equals(b.title)) {
+
+			mask |= TITLE_FIELD;
+		}
+		if (!a.deadline.equals(b.deadline)) {
+
+			mask |= DEADLINE_FIELD;
+		}
+		if (a.priority == null ? b.priority != null : !a.priority.equals(b.priority)) {
+
+			mask |= PRIORITY_FIELD;
+		}
+		if (!a.status.equals(b.status)) {
+
+			mask |= STATUS_FIELD;
+		}
+		if (!a.description.equals(b.description)) {
+
+			mask |= DESCRIPTION_FIELD;
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Appends an entry.
+	 *
+	 * @return the index of the entry.
+	 */
+	public int add(long id, SyncAction action, int rule, int fieldMask) {
+
+		ensureCapacity(size + 1);
+		ids[size] = id;
+		actions[size] = (byte) action.ordinal();
+		rules[size] = (byte) rule;
+		masks[size] = (byte) fieldMask;
+		actionCounts[action.ordinal()]++;
+		ruleCounts[rule]++;
+
+		return size++;
+	}
+
+	/** Grows the arrays to hold at least the given number of entries. */
+	protected void ensureCapacity(int capacity) {
+
+		if (capacity <= ids.length) {
+
+			return;
+		}
+		capacity = Math.max(capacity, ids.length * 2);
+
+		long[] newIds = new long[capacity];
+		byte[] newActions = new byte[capacity];
+		byte[] newRules = new byte[capacity];
+		byte[] newMasks = new byte[capacity];
+		System.arraycopy(ids, 0, newIds, 0, size);
+		System.arraycopy(actions, 0, newActions, 0, size);
+		System.arraycopy(rules, 0, newRules, 0, size);
+		System.arraycopy(masks, 0, newMasks, 0, size);
+		ids = newIds;
+		actions = newActions;
+		rules = newRules;
+		masks = newMasks;
+	}
+
+	/** Appends a conflict entry keeping both sides for the ConflictResolver. */
+	public int addConflict(long id, SyncAction action, Todo localTodo, Todo remoteTodo) {
+
+		int i = add(id, action, NO_RULE, 0);
+
+		setConflictTodos(i, localTodo, remoteTodo);
+
+		return i;
+	}
+
+	/**
+	 * Attaches the sides of a conflict to its entry. The field mask is
+	 * computed when both sides are present.
+	 */
+	public void setConflictTodos(int i, Todo localTodo, Todo remoteTodo) {
+
+		Integer key = Integer.valueOf(i);
+
+		if (localTodo != null) {
+
+			localTodos.put(key, localTodo);
+		}
+		if (remoteTodo != null) {
+
+			remoteTodos.put(key, remoteTodo);
+		}
+		if (localTodo != null && remoteTodo != null) {
+
+			masks[i] = (byte) fieldMask(localTodo, remoteTodo);
+		}
+	}
+
+	/** Appends all entries of another plan. */
+	public void addAll(SyncPlan other) {
+
+		int offset = size;
+
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.ids, 0, ids, size, other.size);
+		System.arraycopy(other.actions, 0, actions, size, other.size);
+		System.arraycopy(other.rules, 0, rules, size, other.size);
+		System.arraycopy(other.masks, 0, masks, size, other.size);
+		size += other.size;
+
+		for (Map.Entry<Integer, Todo> e : other.localTodos.entrySet()) {
+
+			localTodos.put(Integer.valueOf(e.getKey().intValue() + offset), e.getValue());
+		}
+		for (Map.Entry<Integer, Todo> e : other.remoteTodos.entrySet()) {
+
+			remoteTodos.put(Integer.valueOf(e.getKey().intValue() + offset), e.getValue());
+		}
+		for (int a = 0; a < actionCounts.length; a++) {
+
+			actionCounts[a] += other.actionCounts[a];
+		}
+		for (int r = 0; r < ruleCounts.length; r++) {
+
+			ruleCounts[r] += other.ruleCounts[r];
+		}
+	}
+
+	/** Replaces the action of an entry once its conflict has been resolved. */
+	public void resolve(int i, SyncAction action, int rule) {
+
+		actionCounts[actions[i]]--;
+		ruleCounts[rules[i]]--;
+		actions[i] = (byte) action.ordinal();
+		rules[i] = (byte) rule;
+		actionCounts[action.ordinal()]++;
+		ruleCounts[rule]++;
+	}
+
+	/** Returns the number of entries. */
+	public int size() {
+
+		return size;
+	}
+
+	public long getId(int i) {
+
+		return ids[i];
+	}
+
+	public SyncAction getAction(int i) {
+
+		return ACTIONS[actions[i]];
+	}
+
+	/** Returns the [A#] rule number of an entry or NO_RULE for an unresolved conflict. */
+	public int getRule(int i) {
+
+		return rules[i];
+	}
+
+	/**
+	 * Returns the *_FIELD bits of the fields that differ between both
+	 * sides. It is 0 if the plan has been computed from fingerprints only,
+	 * except for conflicts whose sides have been attached.
+	 */
+	public int getFieldMask(int i) {
+
+		return masks[i];
+	}
+
+	/** Returns the local side of a conflict or null. */
+	public Todo getLocalTodo(int i) {
+
+		return localTodos.get(Integer.valueOf(i));
+	}
+
+	/** Returns the remote side of a conflict or null. */
+	public Todo getRemoteTodo(int i) {
+
+		return remoteTodos.get(Integer.valueOf(i));
+	}
+
+	/** Returns the number of entries having the given action. */
+	public int getCount(SyncAction action) {
+
+		return actionCounts[action.ordinal()];
+	}
+
+	/** Returns the number of entries produced by the given [A#] rule. */
+	public int getRuleCount(int rule) {
+
+		return ruleCounts[rule];
+	}
+
+	/** Returns the number of conflicts that are not resolved yet. */
+	public int getConflictCount() {
+
+		return getCount(SyncAction.CONFLICT)
+			+ getCount(SyncAction.REMOTE_DELETION_CONFLICT)
+			+ getCount(SyncAction.LOCAL_DELETION_CONFLICT);
+	}
+
+	/** Returns the IDs of all entries having one of the given actions in plan order. */
+	public long[] getIds(SyncAction... wanted) {
+
+		boolean[] selected = new boolean[ACTIONS.length];
+		int count = 0;
+		for (SyncAction a : wanted) {
+
+			if (!selected[a.ordinal()]) {
+
+				selected[a.ordinal()] = true;
+				count += actionCounts[a.ordinal()];
+			}
+		}
+
+		long[] result = new long[count];
+		for (int i = 0, n = 0; n < count; i++) {
+
+			if (selected[actions[i]]) {
+
+				result[n++] = ids[i];
+			}
+		}
+
+		return result;
+	}
+
+	/** Returns the statistics of the plan as "ACTION=count ... [A#]=count ...". */
+	@Override
+	public String toString() {
+
+		StringBuilder b = new StringBuilder();
+
+		b.append(size).append(" actions:");
+		for (SyncAction a : ACTIONS) {
+
+			if (actionCounts[a.ordinal()] != 0) {
+
+				b.append(' ').append(a).append('=').append(actionCounts[a.ordinal()]);
+			}
+		}
+		for (int r = 1; r <= RULE_COUNT; r++) {
+
+			if (ruleCounts[r] != 0) {
+
+				b.append(" [A").append(r).append("]=").append(ruleCounts[r]);
+			}
+		}
+
+		return b.toString();
+	}
+}
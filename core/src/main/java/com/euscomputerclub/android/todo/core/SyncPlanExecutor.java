@@ -0,0 +1,341 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class SyncPlanExecutor applies a SyncPlan to a TodoStore. The conflicts
+ * are resolved first so that the user is never asked while a transaction is
+ * open. Then every kind of change is applied to all of its IDs at once in a
+ * single transaction, in an order that gives the same result as applying the
+ * rules item by item.
+ *
+ * A conflict whose sides have changed different fields since their
+ * ThreeWayMerge base is merged without asking the user, and so is the
+ * remote deletion of an item that has not changed locally since its base.
+ * The transaction saves the new base of every item that both sides agree on
+ * afterwards.
+ *
+ * Where both sides have a VersionVector, the vectors decide which side
+ * follows the other exactly: a conflict in which one side has seen every
+ * change of the other takes the later side, and an [A4] replacement of a
+ * local item that has changes that the remote side has not seen is a
+ * conflict rather than a lost update, which happens when the remote item
+ * has changed more than once since the last sync. The base of every item
+ * that the transaction sends gets the merged vectors of both sides counting
+ * one more change of this device, which the sync data carry.
+ *
+ * @author eus
+ */
+public class SyncPlanExecutor {
+
+	/** The todo DB. */
+	protected final TodoStore db;
+	/** The decision maker for conflicts. */
+	protected final ConflictResolver resolver;
+
+	public SyncPlanExecutor(TodoStore db, ConflictResolver resolver) {
+
+		this.db = db;
+		this.resolver = resolver;
+	}
+
+	/**
+	 * Resolves the conflicts of the plan that ThreeWayMerge can resolve
+	 * without the user. A merged item replaces the local side of its
+	 * MERGE entry.
+	 */
+	public void autoResolve(SyncPlan plan) {
+
+		long device = db.getIdPrefix();
+		for (int i = 0; i < plan.size(); i++) {
+
+			switch (plan.getAction(i)) {
+
+			case REPLACE_LOCAL:
+				if (plan.getRule(i) == 4) {
+
+					detectLostUpdate(plan, i, device);
+				}
+				break;
+			case CONFLICT:
+				resolveConflict(plan, i, device);
+				break;
+			case REMOTE_DELETION_CONFLICT:
+				byte[] base = db.getMergeBase(plan.getId(i));
+				if (ThreeWayMerge.isBase(base)
+				    && ThreeWayMerge.changedFields(base, plan.getLocalTodo(i)) == 0) { // [A7]
+
+					plan.resolve(i, SyncAction.DELETE_LOCAL, 7);
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Turns an [A4] entry into a conflict, which is resolved like the
+	 * others, if the local item has changes that the remote one has not
+	 * seen according to their version vectors.
+	 */
+	protected void detectLostUpdate(SyncPlan plan, int i, long device) {
+
+		long id = plan.getId(i);
+		byte[] base = db.getMergeBase(id);
+		if (ThreeWayMerge.versionVectorOf(base) == null) {
+
+			return;
+		}
+		Todo remoteTodo = db.getRemoteTodo(id);
+		if (remoteTodo == null || remoteTodo.versionVector == null) {
+
+			return;
+		}
+		Todo localTodo = db.getTodo(id);
+		if (localTodo == null
+		    || VersionVector.compare(ThreeWayMerge.localVersionVector(base, localTodo, device),
+					     remoteTodo.versionVector) != VersionVector.CONCURRENT) {
+
+			return;
+		}
+
+		plan.setConflictTodos(i, localTodo, remoteTodo);
+		plan.resolve(i, SyncAction.CONFLICT, SyncPlan.NO_RULE);
+		resolveConflict(plan, i, device);
+	}
+
+	/**
+	 * Resolves a conflict by the version vectors of both sides if one
+	 * follows the other and by ThreeWayMerge otherwise.
+	 */
+	protected void resolveConflict(SyncPlan plan, int i, long device) {
+
+		Todo localTodo = plan.getLocalTodo(i);
+		Todo remoteTodo = plan.getRemoteTodo(i);
+		byte[] base = db.getMergeBase(plan.getId(i));
+
+		byte[] localVector = ThreeWayMerge.localVersionVector(base, localTodo, device);
+		byte[] remoteVector = remoteTodo.versionVector;
+		if (localVector != null && remoteVector == null) {
+
+			// a conflict found by SyncPlanner carries no vector
+			Todo t = db.getRemoteTodo(plan.getId(i));
+			remoteVector = t == null ? null : t.versionVector;
+		}
+		if (localVector != null && remoteVector != null) {
+
+			switch (VersionVector.compare(localVector, remoteVector)) {
+			case VersionVector.BEFORE: // [A6] as the local side has no changes of its own
+				plan.resolve(i, SyncAction.REPLACE_LOCAL, 6);
+				return;
+			case VersionVector.AFTER: // [A5] as the local side has all remote changes
+				plan.resolve(i, SyncAction.OVERRIDE_REMOTE, 5);
+				return;
+			}
+		}
+
+		Todo merged = ThreeWayMerge.merge(localTodo, remoteTodo, base);
+		if (merged == null) {
+
+			return;
+		}
+		if (merged.equals(remoteTodo)) { // [A6] as only the remote side has changed
+
+			plan.resolve(i, SyncAction.REPLACE_LOCAL, 6);
+		} else if (merged.equals(localTodo)) { // [A5] as only the local side has changed
+
+			plan.resolve(i, SyncAction.OVERRIDE_REMOTE, 5);
+		} else { // [A5] with the remote changes taken first
+
+			plan.setConflictTodos(i, merged, null);
+			plan.resolve(i, SyncAction.MERGE, 5);
+		}
+	}
+
+	/**
+	 * Asks the resolver to decide every conflict of the plan that
+	 * autoResolve() cannot resolve. A conflict that stays UNDECIDED_YET is
+	 * left in the plan and skipped by apply().
+	 */
+	public void resolveConflicts(SyncPlan plan) {
+
+		autoResolve(plan);
+		for (int i = 0; i < plan.size(); i++) {
+
+			switch (plan.getAction(i)) {
+
+			case CONFLICT:
+				switch (resolver.resolveTwoItemsConflict(plan.getLocalTodo(i), plan.getRemoteTodo(i))) {
+
+				case PICK_LOCAL: // [A5]
+					plan.resolve(i, SyncAction.OVERRIDE_REMOTE, 5);
+					break;
+				case PICK_REMOTE: // [A6]
+					plan.resolve(i, SyncAction.REPLACE_LOCAL, 6);
+					break;
+				}
+				break;
+			case REMOTE_DELETION_CONFLICT:
+				switch (resolver.resolveRemoteDeletion(plan.getLocalTodo(i))) {
+
+				case PICK_LOCAL: // [A8]
+					plan.resolve(i, SyncAction.RESURRECT_REMOTE, 8);
+					break;
+				case PICK_REMOTE: // [A7]
+					plan.resolve(i, SyncAction.DELETE_LOCAL, 7);
+					break;
+				}
+				break;
+			case LOCAL_DELETION_CONFLICT:
+				switch (resolver.resolveLocalDeletion(plan.getRemoteTodo(i))) {
+
+				case PICK_LOCAL: // [A13]
+					plan.resolve(i, SyncAction.DELETE_BOTH, 13);
+					break;
+				case PICK_REMOTE: // [A12]
+					plan.resolve(i, SyncAction.REPLACE_LOCAL, 12);
+					break;
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Applies the resolved actions of a plan in one transaction and
+	 * finishes with the confirmation of the new items and [A16].
+	 */
+	public void apply(SyncPlan plan) {
+
+		db.beginTransaction();
+		try {
+
+			// the vectors are read before the remote items are removed
+			Map<Long, byte[]> versionVectors = new HashMap<Long, byte[]>();
+			readVersionVectors(plan.getIds(SyncAction.DROP_REMOTE, SyncAction.REPLACE_LOCAL, SyncAction.CONFIRM),
+					   false, versionVectors);
+			readVersionVectors(plan.getIds(SyncAction.PUSH_UPDATE, SyncAction.OVERRIDE_REMOTE,
+						       SyncAction.MERGE, SyncAction.RESURRECT_REMOTE), true, versionVectors);
+			// a new item has neither a base nor a remote side
+			byte[] newVector = VersionVector.increment(null, db.getIdPrefix());
+			for (long id : plan.getIds(SyncAction.PUSH_NEW)) {
+
+				versionVectors.put(Long.valueOf(id), newVector);
+			}
+			for (int i = 0; i < plan.size(); i++) {
+
+				SyncAction action = plan.getAction(i);
+				if (action == SyncAction.MERGE) {
+
+					db.mergeTodo(plan.getLocalTodo(i));
+				}
+				if (action == SyncAction.MERGE || action == SyncAction.OVERRIDE_REMOTE) {
+
+					// an [A4] entry that has become a conflict has an
+					// older revision than the remote side
+					Todo localTodo = plan.getLocalTodo(i);
+					Todo remoteTodo = plan.getRemoteTodo(i);
+					if (localTodo != null && remoteTodo != null && !localTodo.revision.equals(remoteTodo.revision)) {
+
+						db.updateTodoRevision(plan.getId(i), remoteTodo.revision.intValue());
+					}
+				}
+			}
+			// the sync table is read by insertToSync() and updateSync()
+			// before any revision changes and by replaceTodos() before
+			// the remote items are removed
+			db.insertToSync(plan.getIds(SyncAction.PUSH_NEW, SyncAction.RESURRECT_REMOTE));
+			db.updateSync(plan.getIds(SyncAction.PUSH_UPDATE, SyncAction.OVERRIDE_REMOTE, SyncAction.MERGE));
+			db.replaceTodos(plan.getIds(SyncAction.REPLACE_LOCAL));
+			db.removeSync(plan.getIds(SyncAction.DROP_REMOTE, SyncAction.REPLACE_LOCAL, SyncAction.CONFIRM));
+			db.deleteLocal(plan.getIds(SyncAction.DELETE_LOCAL, SyncAction.DELETE_BOTH));
+			db.deleteSync(plan.getIds(SyncAction.DELETE_BOTH));
+			db.addTodoRevision(plan.getIds(SyncAction.PUSH_UPDATE, SyncAction.RESURRECT_REMOTE,
+						       SyncAction.CONFIRM), 1);
+			db.addTodoRevision(plan.getIds(SyncAction.OVERRIDE_REMOTE, SyncAction.MERGE), 2);
+
+			db.confirmNewTodos();
+			db.importNewTodos(); // [A16]
+			saveMergeBases(plan.getIds(SyncAction.PUSH_NEW, SyncAction.DROP_REMOTE, SyncAction.PUSH_UPDATE,
+						   SyncAction.REPLACE_LOCAL, SyncAction.OVERRIDE_REMOTE, SyncAction.MERGE,
+						   SyncAction.RESURRECT_REMOTE, SyncAction.CONFIRM),
+				       versionVectors);
+			saveImportedMergeBases(plan.getIds(SyncAction.IMPORT));
+
+			db.setTransactionSuccessful();
+		} finally {
+
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Reads the version vectors that the listed items have once both sides
+	 * agree on them, i.e. the vectors of their bases merged with those of
+	 * the remote items, which must still be in the sync table. The bases
+	 * and the remote vectors are read in *_IN chunks like the statements
+	 * of apply().
+	 *
+	 * @param isSent true if the local items are sent, which counts as a change of this device
+	 * @param versionVectors the map to put the vectors in keyed by ID
+	 */
+	protected void readVersionVectors(long[] ids, boolean isSent, Map<Long, byte[]> versionVectors) {
+
+		long device = isSent ? db.getIdPrefix() : VersionVector.LEGACY_DEVICE;
+		Map<Long, byte[]> bases = db.getMergeBases(ids);
+		Map<Long, byte[]> remoteVectors = db.getRemoteVersionVectors(ids);
+		for (long id : ids) {
+
+			Long key = Long.valueOf(id);
+			byte[] v = VersionVector.merge(ThreeWayMerge.versionVectorOf(bases.get(key)), remoteVectors.get(key));
+			versionVectors.put(key, isSent ? VersionVector.increment(v, device) : v);
+		}
+	}
+
+	/**
+	 * Saves the current local items as the bases of the listed items that
+	 * both sides agree on. Every chunk of MAX_IDS_PER_STATEMENT IDs is read
+	 * by one statement and its bases are saved in one batch.
+	 *
+	 * @param versionVectors the vectors of readVersionVectors() keyed by ID
+	 */
+	protected void saveMergeBases(long[] ids, Map<Long, byte[]> versionVectors) {
+
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			// a new item whose ID the server has taken no longer exists
+			Map<Long, byte[]> bases = new HashMap<Long, byte[]>();
+			for (Todo t : db.getTodos(chunk(ids, i))) {
+
+				t.versionVector = versionVectors.get(t.id);
+				bases.put(t.id, ThreeWayMerge.baseOf(t));
+			}
+			db.saveMergeBases(bases);
+		}
+	}
+
+	/**
+	 * Saves the remote items as the bases of the listed items that have
+	 * been imported, which are still in the sync table, like
+	 * saveMergeBases().
+	 */
+	protected void saveImportedMergeBases(long[] ids) {
+
+		for (int i = 0; i < ids.length; i += TodoSchema.MAX_IDS_PER_STATEMENT) {
+
+			Map<Long, byte[]> bases = new HashMap<Long, byte[]>();
+			for (Todo t : db.getRemoteTodos(chunk(ids, i))) {
+
+				bases.put(t.id, ThreeWayMerge.baseOf(t));
+			}
+			db.saveMergeBases(bases);
+		}
+	}
+
+	/** Returns the chunk of at most MAX_IDS_PER_STATEMENT IDs starting at an index. */
+	protected static long[] chunk(long[] ids, int from) {
+
+		return Arrays.copyOfRange(ids, from, Math.min(ids.length, from + TodoSchema.MAX_IDS_PER_STATEMENT));
+	}
+}
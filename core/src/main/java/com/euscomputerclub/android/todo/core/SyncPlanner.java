@@ -0,0 +1,195 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Class SyncPlanner decides the [A1]-[A16] rules of
+ * doc/assignment6_solution.txt for every todo item without writing anything.
+ * It merges three cursors sorted by ID: the todo table including the deleted
+ * items, the sync table and the deleted_todo table. Conflicts are emitted as
+ * CONFLICT, REMOTE_DELETION_CONFLICT or LOCAL_DELETION_CONFLICT entries to be
+ * resolved before the plan is executed.
+ *
+ * @author eus
+ */
+public final class SyncPlanner {
+
+	private SyncPlanner() {
+	}
+
+	/**
+	 * Computes the plan of a sync.
+	 *
+	 * @param local the todo table sorted by ID
+	 * @param remote the sync table sorted by ID
+	 * @param deleted the IDs of the deleted_todo table sorted by ID
+	 */
+	public static SyncPlan plan(TodoCursor local, TodoCursor remote, TodoCursor deleted) {
+
+		return plan(local, remote, deleted, null);
+	}
+
+	/**
+	 * Computes the plan of a sync, loading the long descriptions kept out
+	 * of line from a store for the local items that differ.
+	 *
+	 * @param local the todo table sorted by ID
+	 * @param remote the sync table sorted by ID
+	 * @param deleted the IDs of the deleted_todo table sorted by ID
+	 * @param descriptions the store of the local items or null
+	 */
+	public static SyncPlan plan(TodoCursor local, TodoCursor remote, TodoCursor deleted, TodoStore descriptions) {
+
+		SyncPlan plan = new SyncPlan();
+		TodoRow localRow = new TodoRow(local, descriptions);
+		TodoRow remoteRow = new TodoRow(remote);
+		long remoteId = nextRemote(remoteRow);
+		long deletedId = nextDeleted(deleted);
+
+		while (localRow.moveToNext()) {
+
+			long localId = localRow.getId();
+			int localRev = localRow.getRevision();
+
+			while (remoteId < localId) {
+
+				planImport(plan, remoteId);
+				remoteId = nextRemote(remoteRow);
+			}
+			while (deletedId < localId) {
+
+				deletedId = nextDeleted(deleted);
+			}
+
+			boolean hasRemote = remoteId == localId;
+			boolean isLocalDeleted = deletedId == localId;
+			Todo localTodo = null;
+			Todo remoteTodo = null;
+			int mask = 0;
+			if (hasRemote && localRev != TodoSchema.NEW_TODO_REVISION && !localRow.hasSameData(remoteRow)) {
+
+				localTodo = localRow.toTodo();
+				remoteTodo = remoteRow.toSyncTodo();
+				mask = SyncPlan.fieldMask(localTodo, remoteTodo);
+			} else if (!hasRemote && !isLocalDeleted && localRev != TodoSchema.NEW_TODO_REVISION) {
+
+				// only the [A7]/[A8] conflict needs the item
+				localTodo = localRow.toTodo();
+			}
+
+			decide(plan, localId, localRev, isLocalDeleted,
+			       hasRemote, hasRemote ? remoteRow.getRevision() : 0,
+			       mask == 0, mask, localTodo, remoteTodo);
+			if (hasRemote) {
+
+				remoteId = nextRemote(remoteRow);
+			}
+		}
+
+		while (remoteId != Long.MAX_VALUE) {
+
+			planImport(plan, remoteId);
+			remoteId = nextRemote(remoteRow);
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Adds the entries of a local todo item.
+	 *
+	 * @param isEqual true if both sides have equal data
+	 * @param mask the fields that differ or 0 if unknown
+	 * @param localTodo the local side of a conflict or null if it will be attached later
+	 * @param remoteTodo the remote side of a conflict or null if it will be attached later
+	 */
+	static void decide(SyncPlan plan, long id, int localRev, boolean isLocalDeleted,
+			   boolean hasRemote, int remoteRev, boolean isEqual, int mask,
+			   Todo localTodo, Todo remoteTodo) {
+
+		if (localRev == TodoSchema.NEW_TODO_REVISION) { // [A1]
+
+			plan.add(id, SyncAction.PUSH_NEW, 1, 0);
+			if (hasRemote) {
+
+				// The server has taken the ID so that the new item
+				// cannot be sent and the remote one gets imported.
+				planImport(plan, id);
+			}
+		} else if (hasRemote) {
+
+			if (isLocalDeleted) {
+
+				if (remoteRev > localRev) { // [A10]
+
+					plan.add(id, SyncAction.REPLACE_LOCAL, 10, mask);
+				} else if (remoteRev < localRev) { // [A14]
+
+					plan.add(id, SyncAction.DELETE_BOTH, 14, mask);
+				} else if (isEqual) { // [A11]
+
+					plan.add(id, SyncAction.DELETE_BOTH, 11, mask);
+				} else { // [A12]/[A13]
+
+					plan.addConflict(id, SyncAction.LOCAL_DELETION_CONFLICT, null, remoteTodo);
+				}
+			} else {
+
+				if (localRev > remoteRev) {
+
+					if (isEqual) { // [A2]
+
+						plan.add(id, SyncAction.DROP_REMOTE, 2, mask);
+					} else { // [A3]
+
+						plan.add(id, SyncAction.PUSH_UPDATE, 3, mask);
+					}
+				} else if (localRev < remoteRev) { // [A4]
+
+					plan.add(id, SyncAction.REPLACE_LOCAL, 4, mask);
+				} else if (isEqual) { // [A15]
+
+					plan.add(id, SyncAction.CONFIRM, 15, mask);
+				} else { // [A5]/[A6]
+
+					plan.addConflict(id, SyncAction.CONFLICT, localTodo, remoteTodo);
+				}
+			}
+		} else if (isLocalDeleted) { // [A9]
+
+			plan.add(id, SyncAction.DELETE_LOCAL, 9, 0);
+		} else { // [A7]/[A8]
+
+			plan.addConflict(id, SyncAction.REMOTE_DELETION_CONFLICT, localTodo, null);
+		}
+	}
+
+	/** Adds the [A16] entry of a remote item that does not exist locally. */
+	static void planImport(SyncPlan plan, long id) {
+
+		plan.add(id, SyncAction.IMPORT, 16, 0);
+	}
+
+	/**
+	 * Moves to the next remote item, which must be complete like every
+	 * received CHUNK_TODO, and returns its ID or Long.MAX_VALUE if there is
+	 * none.
+	 */
+	private static long nextRemote(TodoRow remote) {
+
+		if (!remote.moveToNext()) {
+
+			return Long.MAX_VALUE;
+		}
+
+		if (!remote.isComplete() || !remote.hasRevision()) {
+
+			throw new IllegalStateException("Incomplete remote todo " + remote.getId());
+		}
+
+		return remote.getId();
+	}
+
+	private static long nextDeleted(TodoCursor deleted) {
+
+		return deleted.moveToNext() ? deleted.getLong(0) : Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,148 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.util.Random;
+
+/**
+ * Class SyncSchedule decides when a background sync is due. An edit makes
+ * a sync due once no further edit has come for the quiet period so that a
+ * burst of edits is sent in one sync, but no later than the maximum delay
+ * after the first edit of the burst so that a sync stays small even if the
+ * user keeps editing. A failed sync is retried after a backoff that doubles
+ * with every consecutive failure up to a limit, and the edits made in the
+ * meantime do not bring the retry forward.
+ *
+ * All times are in milliseconds of any monotonic clock given by the caller.
+ *
+ * @author eus
+ */
+public class SyncSchedule {
+
+	/** No sync is due. */
+	public static final long NEVER = -1;
+
+	/** The time without edits after which a sync is due. */
+	protected final long quietPeriod;
+	/** The longest time an edit waits for a sync. */
+	protected final long maxDelay;
+	/** The backoff after the first failure. */
+	protected final long minBackoff;
+	/** The longest backoff. */
+	protected final long maxBackoff;
+	/** The source of the jitter that spreads the retries of many devices. */
+	protected final Random random;
+
+	/** The time of the first edit not yet synchronized or NEVER. */
+	protected long firstEdit = NEVER;
+	/** The time of the last edit not yet synchronized or NEVER. */
+	protected long lastEdit = NEVER;
+	/** The time before which no sync may start. */
+	protected long notBefore;
+	/** The number of consecutive failures. */
+	protected int failures;
+	/** The firstEdit of the edits covered by the running sync or NEVER if none is running. */
+	protected long syncingSince = NEVER;
+
+	public SyncSchedule(long quietPeriod, long maxDelay, long minBackoff, long maxBackoff, Random random) {
+
+		this.quietPeriod = quietPeriod;
+		this.maxDelay = maxDelay;
+		this.minBackoff = minBackoff;
+		this.maxBackoff = maxBackoff;
+		this.random = random;
+	}
+
+	/** Records an edit that has to be synchronized. */
+	public void noteEdit(long now) {
+
+		if (firstEdit == NEVER) {
+
+			firstEdit = now;
+		}
+		lastEdit = now;
+	}
+
+	/** Returns true if there are edits that no sync has covered yet. */
+	public boolean hasPendingEdits() {
+
+		return firstEdit != NEVER;
+	}
+
+	/** Returns true between syncStarted() and syncFinished(). */
+	public boolean isSyncing() {
+
+		return syncingSince != NEVER;
+	}
+
+	/** Returns the number of consecutive failed syncs. */
+	public int getFailures() {
+
+		return failures;
+	}
+
+	/**
+	 * Returns the time at which the next sync should start or NEVER if no
+	 * sync is due. The time can be in the past.
+	 */
+	public long getDueTime() {
+
+		if (firstEdit == NEVER || isSyncing()) {
+
+			return NEVER;
+		}
+
+		return Math.max(notBefore, Math.min(lastEdit + quietPeriod, firstEdit + maxDelay));
+	}
+
+	/** Delays the next sync, e.g. because there is no network, without counting a failure. */
+	public void postpone(long now, long delay) {
+
+		notBefore = Math.max(notBefore, now + delay);
+	}
+
+	/**
+	 * Records the start of a sync, which covers all edits made so far.
+	 * Edits made during the sync are noted for the next one.
+	 */
+	public void syncStarted(long now) {
+
+		syncingSince = firstEdit == NEVER ? now : firstEdit;
+		firstEdit = NEVER;
+		lastEdit = NEVER;
+	}
+
+	/**
+	 * Records the end of the running sync. The edits that a failed sync
+	 * covered are pending again and wait for the backoff.
+	 */
+	public void syncFinished(long now, boolean isSuccessful) {
+
+		if (isSuccessful) {
+
+			failures = 0;
+			notBefore = now;
+		} else {
+
+			failures++;
+			notBefore = now + backoff(failures);
+			if (firstEdit == NEVER) {
+
+				lastEdit = now;
+			}
+			firstEdit = firstEdit == NEVER ? syncingSince : Math.min(firstEdit, syncingSince);
+		}
+		syncingSince = NEVER;
+	}
+
+	/** Returns the randomized backoff after a number of consecutive failures. */
+	protected long backoff(int failures) {
+
+		long backoff = minBackoff;
+		for (int i = 1; i < failures && backoff < maxBackoff; i++) {
+
+			backoff *= 2;
+		}
+		backoff = Math.min(backoff, maxBackoff);
+
+		return backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+	}
+}
@@ -0,0 +1,16 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Enum SyncState lists the kinds of progress that a synchronization has.
+ *
+ * @author Tadeus Prastowo
+ */
+public enum SyncState {
+	START,
+	REGISTER,
+	COMPARE,
+	SERVER_CLIENT,
+	SYNC,
+	CLIENT_SERVER,
+	RESET
+}
@@ -0,0 +1,176 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class ThreeWayMerge resolves the [A5]/[A6] conflicts in which both sides
+ * have changed different fields of a todo item. It compares either side
+ * with the base, i.e. the last version of the item that both sides have
+ * agreed on, and takes every field from the side that has changed it. Only
+ * a field that both sides have changed to different values is a conflict
+ * for the user.
+ *
+ * The base is not stored as a todo item but as a 32-bit hash of every field
+ * in BASE_LEN bytes, which is enough to tell whether a side has changed a
+ * field. The fields that the remote side has changed are rather taken from
+ * its FieldRevisions if the server has given them.
+ *
+ * The hashes of a base are followed by the VersionVector of the agreed
+ * version if it is known. The vector of the local item is that of its base
+ * counting one more change of this device if the item has changed since.
+ *
+ * @author eus
+ */
+public class ThreeWayMerge {
+
+	/** The data fields in the order of their hashes in a base. */
+	protected static final int[] FIELDS = {
+		SyncPlan.TITLE_FIELD,
+		SyncPlan.DEADLINE_FIELD,
+		SyncPlan.PRIORITY_FIELD,
+		SyncPlan.STATUS_FIELD,
+		SyncPlan.DESCRIPTION_FIELD
+	};
+
+	/** The size of the field hashes of a base. */
+	public static final int BASE_LEN = FIELDS.length * Integer.SIZE / Byte.SIZE;
+
+	private ThreeWayMerge() {
+	}
+
+	/** Returns the base of a complete todo item having the version vector of the item. */
+	public static byte[] baseOf(Todo t) {
+
+		return update(new byte[BASE_LEN], t, SyncPlan.ALL_FIELDS);
+	}
+
+	/**
+	 * Returns a copy of a base in which the hashes of the given fields are
+	 * those of a todo item, e.g. after only these fields have been pushed,
+	 * and whose version vector is that of the item.
+	 */
+	public static byte[] update(byte[] base, Todo t, int fieldMask) {
+
+		ByteBuffer b = ByteBuffer.allocate(BASE_LEN + (t.versionVector == null ? 0 : t.versionVector.length));
+		b.put(base, 0, BASE_LEN);
+		if (t.versionVector != null) {
+
+			b.put(t.versionVector);
+		}
+		for (int i = 0; i < FIELDS.length; i++) {
+
+			if ((fieldMask & FIELDS[i]) != 0) {
+
+				b.putInt(i * 4, t.computeFieldHash(FIELDS[i]));
+			}
+		}
+
+		return b.array();
+	}
+
+	/** Returns true if a base has the hashes of all fields. */
+	public static boolean isBase(byte[] base) {
+
+		return base != null && base.length >= BASE_LEN;
+	}
+
+	/** Returns the version vector of a base or null if it is unknown. */
+	public static byte[] versionVectorOf(byte[] base) {
+
+		if (base == null || base.length <= BASE_LEN) {
+
+			return null;
+		}
+
+		byte[] v = new byte[base.length - BASE_LEN];
+		System.arraycopy(base, BASE_LEN, v, 0, v.length);
+
+		return v;
+	}
+
+	/**
+	 * Returns the version vector of a complete local todo item, which counts
+	 * a change of the given device if the item differs from its base, or
+	 * null if it is unknown.
+	 */
+	public static byte[] localVersionVector(byte[] base, Todo localTodo, long device) {
+
+		byte[] v = versionVectorOf(base);
+		if (v == null || changedFields(base, localTodo) == 0) {
+
+			return v;
+		}
+
+		return VersionVector.increment(v, device);
+	}
+
+	/** Returns the mask of the fields of a complete todo item that differ from a base. */
+	public static int changedFields(byte[] base, Todo t) {
+
+		ByteBuffer b = ByteBuffer.wrap(base);
+		int mask = 0;
+		for (int i = 0; i < FIELDS.length; i++) {
+
+			if (b.getInt(i * 4) != t.computeFieldHash(FIELDS[i])) {
+
+				mask |= FIELDS[i];
+			}
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Merges both sides of a conflict.
+	 *
+	 * @param base the base of the item or null if it is unknown
+	 *
+	 * @return the local item with the fields that only the remote side has
+	 *         changed taken from the remote one or null if the conflict
+	 *         has to be resolved by the user.
+	 */
+	public static Todo merge(Todo localTodo, Todo remoteTodo, byte[] base) {
+
+		if (!isBase(base)) {
+
+			return null;
+		}
+
+		int remoteChanged = (remoteTodo.fieldRevisions != null && localTodo.revision != null
+				     && localTodo.revision.intValue() != TodoSchema.NEW_TODO_REVISION
+				     // the local revision is one more than the agreed remote one
+				     ? FieldRevisions.changedAfter(remoteTodo.fieldRevisions.intValue(),
+								   remoteTodo.revision.intValue(),
+								   localTodo.revision.intValue() - 1)
+				     : changedFields(base, remoteTodo));
+		if ((changedFields(base, localTodo) & remoteChanged & SyncPlan.fieldMask(localTodo, remoteTodo)) != 0) {
+
+			return null;
+		}
+
+		Todo merged = new Todo(localTodo);
+		if ((remoteChanged & SyncPlan.TITLE_FIELD) != 0) {
+
+			merged.title = remoteTodo.title;
+		}
+		if ((remoteChanged & SyncPlan.DEADLINE_FIELD) != 0) {
+
+			merged.deadline = remoteTodo.deadline;
+		}
+		if ((remoteChanged & SyncPlan.PRIORITY_FIELD) != 0) {
+
+			merged.priority = remoteTodo.priority;
+		}
+		if ((remoteChanged & SyncPlan.STATUS_FIELD) != 0) {
+
+			merged.status = remoteTodo.status;
+		}
+		if ((remoteChanged & SyncPlan.DESCRIPTION_FIELD) != 0) {
+
+			merged.description = remoteTodo.description;
+		}
+		merged.fingerprint = Long.valueOf(merged.computeFingerprint());
+
+		return merged;
+	}
+}
@@ -0,0 +1,186 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Class Todo represents a single todo item independently of the platform.
+ *
+ * A null field means that the field is absent, which is how a remote update
+ * carries only the changed fields.
+ *
+ * The fingerprint is the stored computeFingerprint() of the data fields or
+ * null if it is unknown. Whoever changes a data field of an item having a
+ * fingerprint has to update or clear it.
+ *
+ * The fieldRevisions are the FieldRevisions vector that the server gives
+ * with a remote item or null if it is unknown. A local item has none.
+ *
+ * The versionVector is the VersionVector of a remote item or of a pushed
+ * one or null if it is unknown. A local item has none either: the vector
+ * of the version that both sides have agreed on is kept in its
+ * ThreeWayMerge base.
+ *
+ * @author Tadeus Prastowo
+ */
+public class Todo
+{
+	public Long id;
+	public String title;
+	public String deadline;
+	public Integer priority;
+	public String status;
+	public String description;
+	public Integer revision;
+	public Long fingerprint;
+	public Integer fieldRevisions;
+	public byte[] versionVector;
+
+	/** The offset basis of the 64-bit FNV-1a hash. */
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	/** The prime of the 64-bit FNV-1a hash. */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	public Todo(Long id, String title, String deadline, Integer priority,
+		String status, String description, Integer revision) {
+
+		this.id = id;
+		this.title = title;
+		this.deadline = deadline;
+		this.priority = priority;
+		this.status = status;
+		this.description = description;
+		this.revision = revision;
+	}
+
+	/** Constructs a copy of the given todo item. */
+	public Todo(Todo t) {
+
+		this(t.id, t.title, t.deadline, t.priority, t.status, t.description, t.revision);
+		fingerprint = t.fingerprint;
+		fieldRevisions = t.fieldRevisions;
+		versionVector = t.versionVector;
+	}
+
+	/** Returns true if all data fields but the ID and the revision are present. */
+	public boolean isComplete() {
+
+		return title != null && deadline != null && priority != null
+			&& status != null && description != null;
+	}
+
+	/**
+	 * Returns a 64-bit FNV-1a hash of the data fields but the ID and the
+	 * revision. The hash only depends on the field values so that it is the
+	 * same on every device and two todo items having equal data have the
+	 * same fingerprint.
+	 */
+	public long computeFingerprint() {
+
+		long h = FNV_OFFSET_BASIS;
+
+		h = fnv(h, title);
+		h = fnv(h, deadline);
+		h = fnv(h, priority == null ? -1 : priority.intValue());
+		h = fnv(h, status);
+		h = fnv(h, description);
+
+		return h;
+	}
+
+	/**
+	 * Returns a 32-bit hash of a single data field, which ThreeWayMerge
+	 * keeps of the last version both sides have agreed on.
+	 *
+	 * @param field the SyncPlan *_FIELD bit of the field
+	 */
+	public int computeFieldHash(int field) {
+
+		long h;
+		switch (field) {
+		case SyncPlan.TITLE_FIELD:
+			h = fnv(FNV_OFFSET_BASIS, title);
+			break;
+		case SyncPlan.DEADLINE_FIELD:
+			h = fnv(FNV_OFFSET_BASIS, deadline);
+			break;
+		case SyncPlan.PRIORITY_FIELD:
+			h = fnv(FNV_OFFSET_BASIS, priority == null ? -1 : priority.intValue());
+			break;
+		case SyncPlan.STATUS_FIELD:
+			h = fnv(FNV_OFFSET_BASIS, status);
+			break;
+		case SyncPlan.DESCRIPTION_FIELD:
+			h = fnv(FNV_OFFSET_BASIS, description);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown field " + field);
+		}
+
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/** Returns the stored fingerprint or computes it if it is unknown. */
+	public long getFingerprint() {
+
+		return fingerprint != null ? fingerprint.longValue() : computeFingerprint();
+	}
+
+	/** Hashes a string as its length followed by its UTF-16 code units. */
+	private static long fnv(long h, String s) {
+
+		if (s == null) {
+
+			return fnv(h, -1);
+		}
+		h = fnv(h, s.length());
+		for (int i = 0; i < s.length(); i++) {
+
+			char c = s.charAt(i);
+			h = (h ^ (c & 0xff)) * FNV_PRIME;
+			h = (h ^ (c >>> 8)) * FNV_PRIME;
+		}
+
+		return h;
+	}
+
+	/** Hashes the four bytes of an integer. */
+	private static long fnv(long h, int v) {
+
+		for (int i = 0; i < 4; i++) {
+
+			h = (h ^ ((v >>> (i * 8)) & 0xff)) * FNV_PRIME;
+		}
+
+		return h;
+	}
+
+	/**
+	 * Returns true if both items have the same data fields but the ID and
+	 * the revision. Two stored fingerprints are compared instead of the
+	 * fields.
+	 */
+	public boolean equals(Object o) {
+
+		if (o instanceof Todo) {
+
+			Todo i = (Todo) o;
+			if (fingerprint != null && i.fingerprint != null) {
+
+				return fingerprint.longValue() == i.fingerprint.longValue();
+			}
+			return title.equals(i.title)
+				&& deadline.equals(i.deadline)
+				&& (priority == null ? i.priority == null : priority.equals(i.priority))
+				&& status.equals(i.status)
+				&& description.equals(i.description);
+		}
+
+		return false;
+	}
+
+	/** Returns a hash code that is consistent with equals(). */
+	public int hashCode() {
+
+		long h = getFingerprint();
+
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,72 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Class TodoArchiver is the idle-time maintenance of a TodoStore: it moves
+ * the closed todo items whose deadlines are older than maxAgeDays to the
+ * archived_todo table with archiveTodos() and then lets the store refresh
+ * its query planner statistics and shrink its file with optimize().
+ *
+ * Only items that the server has and that have no local change to be sent
+ * are archived, and nothing is archived while an interrupted sync has a
+ * checkpoint, so the HashTree of the store stays the same. Maintenance and
+ * syncs of the same store are serialized on the store.
+ *
+ * @author eus
+ */
+public class TodoArchiver {
+
+	/** The default age in days of the deadline of a closed item that is archived. */
+	public static final int DEFAULT_MAX_AGE_DAYS = 30;
+	/** The milliseconds in a day. */
+	protected static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+	/** The store that is maintained. */
+	protected final TodoStore db;
+	/** The age in days of the deadline of a closed item that is archived. */
+	protected final int maxAgeDays;
+	/** The number of items that the last maintenance has archived. */
+	public volatile int archivedItems;
+
+	public TodoArchiver(TodoStore db) {
+
+		this(db, DEFAULT_MAX_AGE_DAYS);
+	}
+
+	public TodoArchiver(TodoStore db, int maxAgeDays) {
+
+		if (maxAgeDays < 0) {
+
+			throw new IllegalArgumentException("Negative age: " + maxAgeDays);
+		}
+		this.db = db;
+		this.maxAgeDays = maxAgeDays;
+	}
+
+	/**
+	 * Archives the closed items whose deadlines are more than maxAgeDays
+	 * before a time and optimizes the store.
+	 *
+	 * @param now the time in milliseconds since the epoch
+	 *
+	 * @return the number of archived items
+	 */
+	public int maintain(long now) {
+
+		String cutoff = new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(new Date(now - maxAgeDays * DAY_MILLIS));
+		synchronized (db) {
+
+			archivedItems = 0;
+			if (db.getSyncCheckpoint() == null) {
+
+				archivedItems = db.archiveTodos(cutoff);
+			}
+			db.optimize();
+		}
+
+		return archivedItems;
+	}
+}
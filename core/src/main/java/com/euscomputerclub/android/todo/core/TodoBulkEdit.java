@@ -0,0 +1,94 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Class TodoBulkEdit is an edit that TodoStore.updateTodos() applies to
+ * many todo items at once: a new status, a new priority and a number of
+ * days by which the deadlines are shifted, any of which may be left out.
+ *
+ * @author eus
+ */
+public class TodoBulkEdit {
+
+	/** The new status or null to leave it unchanged. */
+	public final String status;
+	/** The new priority or null to leave it unchanged. */
+	public final Integer priority;
+	/** The number of days added to the deadlines, which may be negative. */
+	public final int deadlineShiftDays;
+
+	public TodoBulkEdit(String status, Integer priority, int deadlineShiftDays) {
+
+		this.status = status;
+		this.priority = priority;
+		this.deadlineShiftDays = deadlineShiftDays;
+	}
+
+	/** Returns true if the edit changes no item. */
+	public boolean isEmpty() {
+
+		return status == null && priority == null && deadlineShiftDays == 0;
+	}
+
+	/**
+	 * Applies the edit to an item.
+	 *
+	 * @return the SyncPlan field mask of the fields that have changed
+	 */
+	public int apply(Todo t) {
+
+		int mask = 0;
+
+		if (status != null && !status.equals(t.status)) {
+
+			t.status = status;
+			mask |= SyncPlan.STATUS_FIELD;
+		}
+		if (priority != null && !priority.equals(t.priority)) {
+
+			t.priority = priority;
+			mask |= SyncPlan.PRIORITY_FIELD;
+		}
+		if (deadlineShiftDays != 0 && t.deadline != null) {
+
+			String deadline = shiftDeadline(t.deadline, deadlineShiftDays);
+			if (!deadline.equals(t.deadline)) {
+
+				t.deadline = deadline;
+				mask |= SyncPlan.DEADLINE_FIELD;
+			}
+		}
+
+		return mask;
+	}
+
+	/** Returns a YYYY-MM-DD deadline shifted by a number of days or the deadline itself if it is malformed. */
+	public static String shiftDeadline(String deadline, int days) {
+
+		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+		fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+		fmt.setLenient(false);
+		try {
+
+			Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.US);
+			c.setTime(fmt.parse(deadline));
+			c.add(Calendar.DAY_OF_MONTH, days);
+
+			return fmt.format(c.getTime());
+		} catch (ParseException e) {
+
+			return deadline;
+		}
+	}
+
+	@Override
+	public String toString() {
+
+		return "TodoBulkEdit[status=" + status + ", priority=" + priority + ", shift=" + deadlineShiftDays + "]";
+	}
+}
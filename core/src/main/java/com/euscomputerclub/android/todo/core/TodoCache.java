@@ -0,0 +1,179 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class TodoCache keeps the least recently read todo items up to an
+ * estimated number of bytes so that a store need not query an item that it
+ * has just returned. The store invalidates an item once a write of it has
+ * been committed and clears the cache after a transaction that may have
+ * written any item.
+ *
+ * A read that has started before an invalidation may have seen the old
+ * row, so put() takes the generation that getGeneration() has returned
+ * before the read and drops the item if the cache has been invalidated
+ * since. The methods are synchronized because the items are read and
+ * written by different threads.
+ *
+ * @author eus
+ */
+public class TodoCache {
+
+	/** The estimated size of an entry without its strings and version vector. */
+	public static final int ENTRY_OVERHEAD = 128;
+
+	/** The estimated number of bytes above which the least recently read items are evicted. */
+	protected final int maxBytes;
+	/** The items from the least to the most recently read. */
+	protected final LinkedHashMap<Long, Todo> items = new LinkedHashMap<Long, Todo>(16, 0.75f, true);
+	/** The estimated number of bytes of the items. */
+	protected int bytes;
+	/** The number of invalidations so far. */
+	protected long generation;
+	/** The number of reads that have found their item. */
+	protected long hits;
+	/** The number of reads that have not found their item. */
+	protected long misses;
+	/** The number of items evicted to stay within maxBytes. */
+	protected long evictions;
+
+	public TodoCache(int maxBytes) {
+
+		this.maxBytes = maxBytes;
+	}
+
+	/** Returns the cached item, which must not be modified, or null if it is not cached. */
+	public synchronized Todo get(long id) {
+
+		Todo t = items.get(Long.valueOf(id));
+		if (t == null) {
+
+			misses++;
+		} else {
+
+			hits++;
+		}
+
+		return t;
+	}
+
+	/** Returns the generation to be given to put() for an item read from now on. */
+	public synchronized long getGeneration() {
+
+		return generation;
+	}
+
+	/**
+	 * Caches an item unless the cache has been invalidated after the
+	 * generation, evicting the least recently read items if needed.
+	 *
+	 * @param t the item, which must not be modified afterwards
+	 * @param readGeneration the generation before the item was read
+	 */
+	public synchronized void put(Todo t, long readGeneration) {
+
+		int size = sizeOf(t);
+		if (readGeneration != generation || size > maxBytes) {
+
+			return;
+		}
+		remove(t.id);
+		items.put(t.id, t);
+		bytes += size;
+
+		Iterator<Map.Entry<Long, Todo>> i = items.entrySet().iterator();
+		while (bytes > maxBytes) {
+
+			bytes -= sizeOf(i.next().getValue());
+			i.remove();
+			evictions++;
+		}
+	}
+
+	/** Drops an item that has been written. */
+	public synchronized void invalidate(long id) {
+
+		generation++;
+		remove(Long.valueOf(id));
+	}
+
+	/** Drops the items that have been written. */
+	public synchronized void invalidate(long[] ids) {
+
+		generation++;
+		for (int i = 0; i < ids.length; i++) {
+
+			remove(Long.valueOf(ids[i]));
+		}
+	}
+
+	/** Drops all items. */
+	public synchronized void clear() {
+
+		generation++;
+		items.clear();
+		bytes = 0;
+	}
+
+	protected void remove(Long id) {
+
+		Todo t = items.remove(id);
+		if (t != null) {
+
+			bytes -= sizeOf(t);
+		}
+	}
+
+	/** Returns the estimated number of bytes that an item takes. */
+	public static int sizeOf(Todo t) {
+
+		return ENTRY_OVERHEAD + 2 * (length(t.title) + length(t.deadline) + length(t.status)
+					     + length(t.description))
+			+ (t.versionVector == null ? 0 : t.versionVector.length);
+	}
+
+	private static int length(String s) {
+
+		return s == null ? 0 : s.length();
+	}
+
+	public synchronized int size() {
+
+		return items.size();
+	}
+
+	public synchronized int getBytes() {
+
+		return bytes;
+	}
+
+	public synchronized long getHitCount() {
+
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+
+		return evictions;
+	}
+
+	/** Returns the fraction of the reads that have found their item or 0 if there has been none. */
+	public synchronized double getHitRate() {
+
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	@Override
+	public synchronized String toString() {
+
+		return "TodoCache[items=" + items.size() + ", bytes=" + bytes + "/" + maxBytes + ", hits=" + hits
+			+ ", misses=" + misses + ", evictions=" + evictions + "]";
+	}
+}
@@ -0,0 +1,36 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Interface TodoCursor is the subset of android.database.Cursor that the sync
+ * engine needs to iterate over the rows returned by a TodoStore.
+ *
+ * @author eus
+ */
+public interface TodoCursor {
+
+	/** Returns the number of rows. */
+	int getCount();
+
+	/** Moves to the next row and returns false if there is none. */
+	boolean moveToNext();
+
+	/** Returns the number of columns. */
+	int getColumnCount();
+
+	/** Returns the zero-based index of a column or -1 if it does not exist. */
+	int getColumnIndex(String columnName);
+
+	/** Returns true if the value of the column is NULL. */
+	boolean isNull(int columnIndex);
+
+	int getInt(int columnIndex);
+
+	long getLong(int columnIndex);
+
+	String getString(int columnIndex);
+
+	byte[] getBlob(int columnIndex);
+
+	/** Releases the resources held by the cursor. */
+	void close();
+}
@@ -0,0 +1,95 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Class TodoDescription decides which descriptions are too long to be kept
+ * in the todo table and compresses them for the todo_description table,
+ * where the stores keep them so that the scans of the todo table only read
+ * small rows. A description kept there leaves its description column NULL.
+ *
+ * @author eus
+ */
+public final class TodoDescription {
+
+	/** The length in characters above which a description is kept compressed out of line. */
+	public static final int MAX_INLINE_LENGTH = 512;
+
+	private TodoDescription() {
+	}
+
+	/** Returns true if a description is to be kept out of line. */
+	public static boolean isLong(String description) {
+
+		return description != null && description.length() > MAX_INLINE_LENGTH;
+	}
+
+	/** Returns the value of the description column, which is NULL for a long description. */
+	public static String inline(String description) {
+
+		return isLong(description) ? null : description;
+	}
+
+	/** Returns the DEFLATE compressed UTF-8 bytes of a description. */
+	public static byte[] compress(String description) {
+
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+
+			deflater.setInput(description.getBytes("UTF-8"));
+			deflater.finish();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(description.length() / 2);
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished()) {
+
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+
+			return out.toByteArray();
+		} catch (UnsupportedEncodingException e) {
+
+			throw new IllegalStateException(e);
+		} finally {
+
+			deflater.end();
+		}
+	}
+
+	/** Returns the description that compress() has given the bytes of. */
+	public static String decompress(byte[] data) {
+
+		Inflater inflater = new Inflater();
+		try {
+
+			inflater.setInput(data);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+			byte[] buffer = new byte[4096];
+			while (!inflater.finished()) {
+
+				int n = inflater.inflate(buffer);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+
+					throw new IllegalStateException("Truncated description");
+				}
+				out.write(buffer, 0, n);
+			}
+
+			return out.toString("UTF-8");
+		} catch (DataFormatException e) {
+
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+
+			throw new IllegalStateException(e);
+		} finally {
+
+			inflater.end();
+		}
+	}
+}
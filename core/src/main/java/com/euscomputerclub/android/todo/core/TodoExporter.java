@@ -0,0 +1,572 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Class TodoExporter writes a snapshot of a TodoStore to a file and
+ * restores a store from such a file, e.g. to back up the todo list without
+ * copying the SQLite file. A snapshot is a HEADER_LEN header followed by a
+ * CHUNK_TODO per todo item, including the deleted ones, in ID order, then
+ * a CHUNK_TODO per archived item in ID order and a CHUNK_DELETE_TODO per
+ * tombstone, all encoded by TodoTlv like the sync data. The archived items
+ * are restored to the todo table, to be archived again by TodoArchiver.
+ *
+ * Both directions stream the items: an export writes them through a
+ * BUFFER_LEN buffer, and a restore decodes them in place from windows of
+ * at most MAP_LEN bytes of the file mapped into memory and inserts them
+ * with restoreTodos(). The memory used therefore does not depend on the
+ * number of items.
+ *
+ * The header, which is written last, gives the number of items and of
+ * tombstones, so that a snapshot cut short is rejected instead of being
+ * partially restored. Exports, restores and syncs of the same store are
+ * serialized on the store.
+ *
+ * The todo items that are not deleted and the archived ones can also be
+ * exported to a CSV or a JSON-lines file in the formats that TodoImporter
+ * reads, e.g. to move them to another todo list. A NULL field is written
+ * as an empty CSV field or a JSON null, which TodoImporter takes as
+ * missing.
+ *
+ * @author eus
+ */
+public class TodoExporter {
+
+	/** The first four bytes of a snapshot: "TODO". */
+	public static final int MAGIC = 0x544f444f;
+	/** The version of the snapshot format. */
+	public static final int FORMAT_VERSION = 1;
+	/** The size of the header: the magic, the version, the item count and the tombstone count. */
+	public static final int HEADER_LEN = 4 * (Integer.SIZE / Byte.SIZE);
+	/** The size of the export buffer, which holds the largest chunk. */
+	public static final int BUFFER_LEN = 64 * 1024;
+	/** The largest part of a snapshot mapped into memory at once by a restore. */
+	public static final int MAP_LEN = 4 * 1024 * 1024;
+	/** The number of tombstones restored at once. */
+	public static final int DELETED_BATCH_LEN = 1024;
+	/** The exported columns in the order of the CSV header and of the JSON keys. */
+	public static final String[] TEXT_COLUMNS = {
+		TodoSchema.TITLE_COLUMN, TodoSchema.DEADLINE_COLUMN, TodoSchema.PRIORITY_COLUMN,
+		TodoSchema.STATUS_COLUMN, TodoSchema.DESCRIPTION_COLUMN
+	};
+
+	/** The store that is exported or restored. */
+	protected final TodoStore db;
+	/** The number of items that the running export or restore has processed. */
+	public volatile int processedItems;
+
+	public TodoExporter(TodoStore db) {
+
+		this.db = db;
+	}
+
+	/**
+	 * Writes a snapshot of the store at the position of a channel, which is
+	 * left after the snapshot.
+	 *
+	 * @return the number of exported items
+	 *
+	 * @throws IllegalStateException if an item is too large for a chunk
+	 */
+	public int export(FileChannel out) throws IOException {
+
+		long start = out.position();
+		ByteBuffer b = ByteBuffer.allocateDirect(BUFFER_LEN);
+		int items = 0;
+		int deleted = 0;
+
+		processedItems = 0;
+		b.position(HEADER_LEN);
+		synchronized (db) {
+
+			db.beginTransaction();
+			try {
+
+				items = putTodos(out, b, db.getAllTodoIncludingDeletedOnes(), items);
+				items = putTodos(out, b, db.getAllArchivedTodo(), items);
+
+				TodoCursor c = db.getAllDeletedTodoIds();
+				try {
+
+					while (c.moveToNext()) {
+
+						long id = c.getLong(0);
+						if (b.remaining() < TodoTlv.sizeOfDelete(id)) {
+
+							flush(out, b);
+						}
+						TodoTlv.putDelete(b, id);
+						deleted++;
+					}
+				} finally {
+
+					c.close();
+				}
+				db.setTransactionSuccessful();
+			} finally {
+
+				db.endTransaction();
+			}
+		}
+		flush(out, b);
+
+		b.putInt(MAGIC);
+		b.putInt(FORMAT_VERSION);
+		b.putInt(items);
+		b.putInt(deleted);
+		b.flip();
+		while (b.hasRemaining()) {
+
+			out.write(b, start + b.position());
+		}
+
+		return items;
+	}
+
+	/**
+	 * Writes the items of a cursor as CHUNK_TODO through a buffer and
+	 * closes the cursor.
+	 *
+	 * @return the number of items exported so far
+	 */
+	protected int putTodos(FileChannel out, ByteBuffer b, TodoCursor c, int items) throws IOException {
+
+		try {
+
+			TodoRow row = new TodoRow(c, db);
+			while (c.moveToNext()) {
+
+				Todo t = row.toSyncTodo();
+				int size = TodoTlv.sizeOf(t);
+				if (size - TodoTlv.SIZE_OF_CHUNK > Short.MAX_VALUE) {
+
+					throw new IllegalStateException("Todo " + t.id + " is too large to be exported");
+				}
+				if (b.remaining() < size) {
+
+					flush(out, b);
+				}
+				TodoTlv.put(b, TodoTlv.CHUNK_TODO, t);
+				items++;
+				processedItems = items;
+			}
+		} finally {
+
+			c.close();
+		}
+
+		return items;
+	}
+
+	/**
+	 * Writes the todo items that are not deleted and then the archived ones
+	 * to a CSV file that TodoImporter.importCsv() reads back.
+	 *
+	 * @return the number of exported items
+	 */
+	public int exportCsv(Writer out) throws IOException {
+
+		return exportText(out, false);
+	}
+
+	/**
+	 * Writes the todo items that are not deleted and then the archived ones
+	 * to a JSON-lines file that TodoImporter.importJsonLines() reads back.
+	 *
+	 * @return the number of exported items
+	 */
+	public int exportJsonLines(Writer out) throws IOException {
+
+		return exportText(out, true);
+	}
+
+	/** Writes the items of exportCsv() or exportJsonLines() in a single transaction. */
+	protected int exportText(Writer out, boolean isJsonLines) throws IOException {
+
+		int items = 0;
+
+		processedItems = 0;
+		if (!isJsonLines) {
+
+			for (int i = 0; i < TEXT_COLUMNS.length; i++) {
+
+				if (i > 0) {
+
+					out.write(',');
+				}
+				out.write(TEXT_COLUMNS[i]);
+			}
+			out.write('\n');
+		}
+		synchronized (db) {
+
+			db.beginTransaction();
+			try {
+
+				items = writeTodos(out, isJsonLines, db.getAllTodoIncludingDeletedOnes(),
+						   db.getAllDeletedTodoIds(), items);
+				items = writeTodos(out, isJsonLines, db.getAllArchivedTodo(), null, items);
+				db.setTransactionSuccessful();
+			} finally {
+
+				db.endTransaction();
+			}
+		}
+		out.flush();
+
+		return items;
+	}
+
+	/**
+	 * Writes the items of a cursor as CSV records or JSON lines skipping
+	 * those whose IDs a cursor of deleted IDs gives, both sorted by ID, and
+	 * closes the cursors.
+	 *
+	 * @param deleted the cursor of the deleted IDs or null
+	 *
+	 * @return the number of items exported so far
+	 */
+	protected int writeTodos(Writer out, boolean isJsonLines, TodoCursor c, TodoCursor deleted, int items)
+		throws IOException {
+
+		try {
+
+			TodoRow row = new TodoRow(c, db);
+			long deletedId = deleted != null && deleted.moveToNext() ? deleted.getLong(0) : Long.MAX_VALUE;
+			while (row.moveToNext()) {
+
+				long id = row.getId();
+				while (deletedId < id) {
+
+					deletedId = deleted.moveToNext() ? deleted.getLong(0) : Long.MAX_VALUE;
+				}
+				if (deletedId == id) {
+
+					continue;
+				}
+
+				// keeps a NULL priority absent
+				Todo t = row.toSyncTodo();
+				String[] values = {
+					t.title, t.deadline, t.priority == null ? null : t.priority.toString(), t.status, t.description
+				};
+				if (isJsonLines) {
+
+					writeJsonLine(out, values);
+				} else {
+
+					writeCsvRecord(out, values);
+				}
+				items++;
+				processedItems = items;
+			}
+		} finally {
+
+			c.close();
+			if (deleted != null) {
+
+				deleted.close();
+			}
+		}
+
+		return items;
+	}
+
+	/** Writes the values of the TEXT_COLUMNS as a CSV record, quoting those that need it. */
+	protected static void writeCsvRecord(Writer out, String[] values) throws IOException {
+
+		for (int i = 0; i < values.length; i++) {
+
+			if (i > 0) {
+
+				out.write(',');
+			}
+			String v = values[i];
+			if (v == null) {
+
+				continue;
+			}
+			if (v.indexOf(',') == -1 && v.indexOf('"') == -1 && v.indexOf('\n') == -1 && v.indexOf('\r') == -1) {
+
+				out.write(v);
+			} else {
+
+				out.write('"');
+				out.write(v.replace("\"", "\"\""));
+				out.write('"');
+			}
+		}
+		out.write('\n');
+	}
+
+	/** Writes the values of the TEXT_COLUMNS as a JSON object on a line, the priority as a number. */
+	protected static void writeJsonLine(Writer out, String[] values) throws IOException {
+
+		out.write('{');
+		for (int i = 0; i < values.length; i++) {
+
+			if (i > 0) {
+
+				out.write(',');
+			}
+			writeJsonString(out, TEXT_COLUMNS[i]);
+			out.write(':');
+			if (values[i] == null) {
+
+				out.write("null");
+			} else if (TEXT_COLUMNS[i].equals(TodoSchema.PRIORITY_COLUMN)) {
+
+				out.write(values[i]);
+			} else {
+
+				writeJsonString(out, values[i]);
+			}
+		}
+		out.write("}\n");
+	}
+
+	/** Writes a JSON string escaping the quotes, the backslashes and the control characters. */
+	protected static void writeJsonString(Writer out, String s) throws IOException {
+
+		out.write('"');
+		for (int i = 0; i < s.length(); i++) {
+
+			char c = s.charAt(i);
+			switch (c) {
+
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+
+					out.write(String.format("\\u%04x", Integer.valueOf(c)));
+				} else {
+
+					out.write(c);
+				}
+			}
+		}
+		out.write('"');
+	}
+
+	/** Writes the content of a buffer to a channel and empties the buffer. */
+	protected static void flush(FileChannel out, ByteBuffer b) throws IOException {
+
+		b.flip();
+		while (b.hasRemaining()) {
+
+			out.write(b);
+		}
+		b.clear();
+	}
+
+	/**
+	 * Replaces the todo items of the store with those of the snapshot at
+	 * the position of a channel in a single transaction, which is rolled
+	 * back if the snapshot is invalid.
+	 *
+	 * @return the number of restored items
+	 *
+	 * @throws IOException if the snapshot cannot be read or is invalid
+	 */
+	public int restore(FileChannel in) throws IOException {
+
+		long start = in.position();
+		ByteBuffer h = ByteBuffer.allocate(HEADER_LEN);
+		while (h.hasRemaining()) {
+
+			if (in.read(h, start + h.position()) == -1) {
+
+				throw new IOException("Invalid snapshot: Truncated header");
+			}
+		}
+		h.flip();
+		if (h.getInt() != MAGIC) {
+
+			throw new IOException("Invalid snapshot: Unknown magic");
+		}
+		int version = h.getInt();
+		if (version != FORMAT_VERSION) {
+
+			throw new IOException("Invalid snapshot: Unsupported version " + version);
+		}
+		int items = h.getInt();
+		int deleted = h.getInt();
+
+		final ChunkReader r = new ChunkReader(in, start + HEADER_LEN);
+		processedItems = 0;
+		synchronized (db) {
+
+			db.beginTransaction();
+			try {
+
+				db.clearTodos();
+				int n = db.restoreTodos(new Iterator<Todo>() {
+
+					public boolean hasNext() {
+
+						try {
+
+							return r.fill() && r.chunkType == TodoTlv.CHUNK_TODO;
+						} catch (IOException e) {
+
+							throw new IllegalStateException(e);
+						}
+					}
+
+					public Todo next() {
+
+						if (!hasNext()) {
+
+							throw new NoSuchElementException();
+						}
+						processedItems++;
+
+						return r.take();
+					}
+
+					public void remove() {
+
+						throw new UnsupportedOperationException();
+					}
+				});
+
+				long[] ids = new long[DELETED_BATCH_LEN];
+				int k = 0;
+				int d = 0;
+				while (r.fill()) {
+
+					if (r.chunkType != TodoTlv.CHUNK_DELETE_TODO) {
+
+						throw new IOException("Invalid snapshot: Unexpected chunk " + r.chunkType);
+					}
+					ids[k++] = r.take().id.longValue();
+					d++;
+					if (k == ids.length) {
+
+						db.restoreDeletedTodos(ids);
+						k = 0;
+					}
+				}
+				if (k > 0) {
+
+					db.restoreDeletedTodos(Arrays.copyOf(ids, k));
+				}
+
+				if (n != items || d != deleted) {
+
+					throw new IOException("Invalid snapshot: " + n + " of " + items + " items and "
+							      + d + " of " + deleted + " tombstones");
+				}
+				db.setTransactionSuccessful();
+
+				return n;
+			} catch (IllegalStateException e) {
+
+				if (e.getCause() instanceof IOException) {
+
+					throw (IOException) e.getCause();
+				}
+				throw e;
+			} finally {
+
+				db.endTransaction();
+			}
+		}
+	}
+
+	/**
+	 * Class ChunkReader decodes the chunks of a file from the windows of the
+	 * file mapped into memory one after another.
+	 */
+	protected static class ChunkReader implements TodoTlv.Visitor {
+
+		protected final FileChannel in;
+		/** The size of the file. */
+		protected final long end;
+		/** The mapped window or null before the first chunk is read. */
+		protected ByteBuffer window;
+		/** The position of the window in the file. */
+		protected long windowStart;
+		/** The type of the chunk read ahead. */
+		protected byte chunkType;
+		/** The item of the chunk read ahead or null. */
+		protected Todo todo;
+
+		protected ChunkReader(FileChannel in, long start) throws IOException {
+
+			this.in = in;
+			end = in.size();
+			windowStart = start;
+		}
+
+		/**
+		 * Reads the next chunk ahead unless it has been read.
+		 *
+		 * @return false at the end of the file
+		 */
+		protected boolean fill() throws IOException {
+
+			if (todo != null) {
+
+				return true;
+			}
+
+			if (window == null || window.remaining() < TodoTlv.SIZE_OF_CHUNK
+			    || window.remaining() < TodoTlv.chunkSize(window, window.position())) {
+
+				if (window != null) {
+
+					windowStart += window.position();
+				}
+				if (windowStart >= end) {
+
+					return false;
+				}
+				long len = Math.min(MAP_LEN, end - windowStart);
+				window = in.map(FileChannel.MapMode.READ_ONLY, windowStart, len);
+				if (len < TodoTlv.SIZE_OF_CHUNK || len < TodoTlv.chunkSize(window, 0)) {
+
+					throw new IOException("Invalid snapshot: Truncated chunk");
+				}
+			}
+			TodoTlv.readChunk(window, this);
+
+			return true;
+		}
+
+		/** Returns the item read ahead and consumes it. */
+		protected Todo take() {
+
+			Todo t = todo;
+			todo = null;
+
+			return t;
+		}
+
+		public void visit(byte chunkType, Todo todo) {
+
+			this.chunkType = chunkType;
+			this.todo = todo;
+		}
+	}
+}
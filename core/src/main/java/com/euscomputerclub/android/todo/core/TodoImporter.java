@@ -0,0 +1,539 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Class TodoImporter loads many todo items into a TodoStore at once, e.g.
+ * to seed a device or to restore a backup, through createTodos(), which
+ * inserts them with a single compiled statement in a single transaction.
+ * The items come from an iterator, a CSV file or a JSON-lines file, which
+ * are read while they are inserted.
+ *
+ * A CSV file starts with a header naming its columns. The title, deadline,
+ * priority, status and description columns are imported and the others
+ * are ignored. A field may be enclosed in double quotes to contain commas,
+ * line breaks and doubled double quotes, and an empty field is missing.
+ * Lines may end with CRLF and blank lines are skipped.
+ *
+ * A JSON-lines file has a flat object per line with the same keys, whose
+ * values are strings, numbers or null, which is missing. Blank lines are
+ * skipped.
+ *
+ * An item must have a title, a deadline, a priority from MIN_PRIORITY to
+ * MAX_PRIORITY and a status, as the app and the sync require them. A
+ * missing description is imported as an empty one.
+ *
+ * A malformed line or item fails the whole import with an IllegalArgumentException
+ * giving its number. Imports and syncs of the same store are serialized on
+ * the store.
+ *
+ * @author eus
+ */
+public class TodoImporter {
+
+	/** The store that the items are created in. */
+	protected final TodoStore db;
+	/** The number of items that have been read by the running import. */
+	public volatile int importedItems;
+
+	public TodoImporter(TodoStore db) {
+
+		this.db = db;
+	}
+
+	/**
+	 * Creates the items given by an iterator.
+	 *
+	 * @return the number of created items
+	 */
+	public int importTodos(final Iterator<? extends Todo> todos) {
+
+		importedItems = 0;
+		synchronized (db) {
+
+			return db.createTodos(new Iterator<Todo>() {
+
+				public boolean hasNext() {
+
+					return todos.hasNext();
+				}
+
+				public Todo next() {
+
+					Todo t = todos.next();
+					importedItems++;
+
+					return t;
+				}
+
+				public void remove() {
+
+					throw new UnsupportedOperationException();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Creates the items of a CSV file.
+	 *
+	 * @return the number of created items
+	 */
+	public int importCsv(Reader in) throws IOException {
+
+		return importFile(new CsvReader(in));
+	}
+
+	/**
+	 * Creates the items of a JSON-lines file.
+	 *
+	 * @return the number of created items
+	 */
+	public int importJsonLines(Reader in) throws IOException {
+
+		return importFile(new JsonLinesReader(in));
+	}
+
+	/** Runs importTodos() on the items of a file, rethrowing the IOException of the file. */
+	protected int importFile(ItemReader r) throws IOException {
+
+		try {
+
+			return importTodos(r);
+		} catch (IllegalStateException e) {
+
+			if (e.getCause() instanceof IOException) {
+
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/** Sets the field of an item that a CSV column or a JSON key names. */
+	protected static void setField(Todo t, String name, String value, int line) {
+
+		if (name.equals(TodoSchema.TITLE_COLUMN)) {
+
+			t.title = value;
+		} else if (name.equals(TodoSchema.DEADLINE_COLUMN)) {
+
+			t.deadline = value;
+		} else if (name.equals(TodoSchema.PRIORITY_COLUMN)) {
+
+			try {
+
+				t.priority = value == null ? null : Integer.valueOf(value.trim());
+			} catch (NumberFormatException e) {
+
+				throw new IllegalArgumentException("Line " + line + ": invalid priority " + value);
+			}
+			if (t.priority != null
+			    && (t.priority.intValue() < TodoSchema.MIN_PRIORITY || t.priority.intValue() > TodoSchema.MAX_PRIORITY)) {
+
+				throw new IllegalArgumentException("Line " + line + ": invalid priority " + value);
+			}
+		} else if (name.equals(TodoSchema.STATUS_COLUMN)) {
+
+			t.status = value;
+		} else if (name.equals(TodoSchema.DESCRIPTION_COLUMN)) {
+
+			t.description = value;
+		}
+	}
+
+	/** Checks that an item has the required fields and gives a missing description an empty one. */
+	protected static Todo checkFields(Todo t, int line) {
+
+		if (t.title == null) {
+
+			throw new IllegalArgumentException("Line " + line + ": missing " + TodoSchema.TITLE_COLUMN);
+		}
+		if (t.deadline == null) {
+
+			throw new IllegalArgumentException("Line " + line + ": missing " + TodoSchema.DEADLINE_COLUMN);
+		}
+		if (t.priority == null) {
+
+			throw new IllegalArgumentException("Line " + line + ": missing " + TodoSchema.PRIORITY_COLUMN);
+		}
+		if (t.status == null) {
+
+			throw new IllegalArgumentException("Line " + line + ": missing " + TodoSchema.STATUS_COLUMN);
+		}
+		if (t.description == null) {
+
+			t.description = "";
+		}
+
+		return t;
+	}
+
+	/**
+	 * Class ItemReader iterates over the items of a file, wrapping an
+	 * IOException in an IllegalStateException.
+	 */
+	protected abstract static class ItemReader implements Iterator<Todo> {
+
+		protected final BufferedReader in;
+		/** The number of the line being read. */
+		protected int line = 1;
+		/** The item read ahead by hasNext() or null. */
+		protected Todo next;
+
+		protected ItemReader(Reader in) {
+
+			this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		}
+
+		/** Reads the next item or returns null at the end of the file. */
+		protected abstract Todo read() throws IOException;
+
+		public boolean hasNext() {
+
+			if (next == null) {
+
+				try {
+
+					next = read();
+				} catch (IOException e) {
+
+					throw new IllegalStateException(e);
+				}
+			}
+
+			return next != null;
+		}
+
+		public Todo next() {
+
+			if (!hasNext()) {
+
+				throw new NoSuchElementException();
+			}
+			Todo t = next;
+			next = null;
+
+			return t;
+		}
+
+		public void remove() {
+
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/** Class CsvReader reads the items of a CSV file. */
+	protected static class CsvReader extends ItemReader {
+
+		/** The lower-case column names of the header or null before the header is read. */
+		protected String[] columns;
+		/** The number of the first line of the last record. */
+		protected int recordLine;
+
+		protected CsvReader(Reader in) {
+
+			super(in);
+		}
+
+		@Override
+		protected Todo read() throws IOException {
+
+			if (columns == null) {
+
+				List<String> header = readRecord();
+				if (header == null) {
+
+					return null;
+				}
+				columns = new String[header.size()];
+				for (int i = 0; i < columns.length; i++) {
+
+					columns[i] = header.get(i).trim().toLowerCase();
+				}
+			}
+
+			List<String> fields;
+			do {
+
+				fields = readRecord();
+				if (fields == null) {
+
+					return null;
+				}
+			} while (fields.size() == 1 && fields.get(0).length() == 0);
+
+			if (fields.size() > columns.length) {
+
+				throw new IllegalArgumentException("Line " + recordLine + ": more fields than columns");
+			}
+			Todo t = new Todo(null, null, null, null, null, null, null);
+			for (int i = 0; i < fields.size(); i++) {
+
+				String value = fields.get(i);
+				setField(t, columns[i], value.length() == 0 ? null : value, recordLine);
+			}
+
+			return checkFields(t, recordLine);
+		}
+
+		/** Reads the fields of the next record or returns null at the end of the file. */
+		protected List<String> readRecord() throws IOException {
+
+			int c = in.read();
+			if (c == -1) {
+
+				return null;
+			}
+
+			List<String> fields = new ArrayList<String>();
+			StringBuilder b = new StringBuilder();
+			recordLine = line;
+			boolean isQuoted = false;
+			for (;; c = in.read()) {
+
+				if (isQuoted) {
+
+					if (c == -1) {
+
+						throw new IllegalArgumentException("Line " + recordLine + ": unterminated quote");
+					}
+					if (c != '"') {
+
+						if (c == '\n') {
+
+							line++;
+						}
+						b.append((char) c);
+						continue;
+					}
+					in.mark(1);
+					if (in.read() == '"') {
+
+						b.append('"');
+					} else {
+
+						in.reset();
+						isQuoted = false;
+					}
+				} else if (c == '"') {
+
+					isQuoted = true;
+				} else if (c == ',') {
+
+					fields.add(b.toString());
+					b.setLength(0);
+				} else if (c == '\n' || c == -1) {
+
+					fields.add(b.toString());
+					line++;
+
+					return fields;
+				} else if (c != '\r') {
+
+					b.append((char) c);
+				}
+			}
+		}
+	}
+
+	/** Class JsonLinesReader reads the items of a JSON-lines file. */
+	protected static class JsonLinesReader extends ItemReader {
+
+		/** The line being parsed. */
+		protected String s;
+		/** The parse position in s. */
+		protected int pos;
+
+		protected JsonLinesReader(Reader in) {
+
+			super(in);
+		}
+
+		@Override
+		protected Todo read() throws IOException {
+
+			for (; (s = in.readLine()) != null; line++) {
+
+				pos = 0;
+				skipSpaces();
+				if (pos < s.length()) {
+
+					Todo t = checkFields(parseObject(), line);
+					line++;
+
+					return t;
+				}
+			}
+
+			return null;
+		}
+
+		/** Parses the object of the line. */
+		protected Todo parseObject() {
+
+			Todo t = new Todo(null, null, null, null, null, null, null);
+			expect('{');
+			skipSpaces();
+			if (peek() == '}') {
+
+				pos++;
+			} else {
+
+				for (;;) {
+
+					skipSpaces();
+					expect('"');
+					String key = parseString();
+					skipSpaces();
+					expect(':');
+					skipSpaces();
+					setField(t, key, parseValue(), line);
+					skipSpaces();
+					if (peek() == '}') {
+
+						pos++;
+						break;
+					}
+					expect(',');
+				}
+			}
+			skipSpaces();
+			if (pos < s.length()) {
+
+				throw error("text after the object");
+			}
+
+			return t;
+		}
+
+		/** Parses a string, number or null value. */
+		protected String parseValue() {
+
+			char c = peek();
+			if (c == '"') {
+
+				pos++;
+
+				return parseString();
+			}
+			if (c == '{' || c == '[') {
+
+				throw error("nested values are not supported");
+			}
+
+			int start = pos;
+			while (pos < s.length() && ",} \t".indexOf(s.charAt(pos)) == -1) {
+
+				pos++;
+			}
+			String token = s.substring(start, pos);
+			if (token.length() == 0) {
+
+				throw error("missing value");
+			}
+
+			return token.equals("null") ? null : token;
+		}
+
+		/** Parses the rest of a string whose opening quote has been read. */
+		protected String parseString() {
+
+			StringBuilder b = new StringBuilder();
+			for (;;) {
+
+				if (pos == s.length()) {
+
+					throw error("unterminated string");
+				}
+				char c = s.charAt(pos++);
+				if (c == '"') {
+
+					return b.toString();
+				}
+				if (c != '\\') {
+
+					b.append(c);
+					continue;
+				}
+				if (pos == s.length()) {
+
+					throw error("unterminated string");
+				}
+				c = s.charAt(pos++);
+				switch (c) {
+
+				case 'b':
+					b.append('\b');
+					break;
+				case 'f':
+					b.append('\f');
+					break;
+				case 'n':
+					b.append('\n');
+					break;
+				case 'r':
+					b.append('\r');
+					break;
+				case 't':
+					b.append('\t');
+					break;
+				case 'u':
+					if (pos + 4 > s.length()) {
+
+						throw error("invalid escape");
+					}
+					try {
+
+						b.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+					} catch (NumberFormatException e) {
+
+						throw error("invalid escape");
+					}
+					pos += 4;
+					break;
+				default:
+					b.append(c);
+				}
+			}
+		}
+
+		protected char peek() {
+
+			if (pos == s.length()) {
+
+				throw error("unexpected end of line");
+			}
+
+			return s.charAt(pos);
+		}
+
+		protected void expect(char c) {
+
+			if (peek() != c) {
+
+				throw error("expected " + c);
+			}
+			pos++;
+		}
+
+		protected void skipSpaces() {
+
+			while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+
+				pos++;
+			}
+		}
+
+		protected IllegalArgumentException error(String message) {
+
+			return new IllegalArgumentException("Line " + line + ": " + message);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.util.List;
+
+/**
+ * Class TodoListCursor iterates over a list of todo items as if they were
+ * rows whose columns are TodoSchema.ALL_COLUMNS.
+ *
+ * @author eus
+ */
+public class TodoListCursor implements TodoCursor {
+
+	/** The rows of the cursor. */
+	protected final List<Todo> rows;
+	/** The index of the current row. */
+	protected int pos = -1;
+
+	public TodoListCursor(List<Todo> rows) {
+
+		this.rows = rows;
+	}
+
+	public int getCount() {
+
+		return rows.size();
+	}
+
+	public boolean moveToNext() {
+
+		if (pos < rows.size()) {
+
+			pos++;
+		}
+
+		return pos < rows.size();
+	}
+
+	public int getColumnCount() {
+
+		return TodoSchema.ALL_COLUMNS.length;
+	}
+
+	public int getColumnIndex(String columnName) {
+
+		for (int i = 0; i < TodoSchema.ALL_COLUMNS.length; i++) {
+
+			if (TodoSchema.ALL_COLUMNS[i].equals(columnName)) {
+
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/** Returns the value of a column in the current row. */
+	protected Object get(int columnIndex) {
+
+		Todo t = rows.get(pos);
+
+		switch (columnIndex) {
+		case 0:
+			return t.id;
+		case 1:
+			return t.title;
+		case 2:
+			return t.deadline;
+		case 3:
+			return t.priority;
+		case 4:
+			return t.status;
+		case 5:
+			return t.description;
+		case 6:
+			return t.revision;
+		case 7:
+			return t.fingerprint;
+		default:
+			throw new IllegalArgumentException("Invalid column " + columnIndex);
+		}
+	}
+
+	public boolean isNull(int columnIndex) {
+
+		return get(columnIndex) == null;
+	}
+
+	public int getInt(int columnIndex) {
+
+		Object v = get(columnIndex);
+
+		return v == null ? 0 : ((Number) v).intValue();
+	}
+
+	public long getLong(int columnIndex) {
+
+		Object v = get(columnIndex);
+
+		return v == null ? 0 : ((Number) v).longValue();
+	}
+
+	public String getString(int columnIndex) {
+
+		Object v = get(columnIndex);
+
+		return v == null ? null : v.toString();
+	}
+
+	public byte[] getBlob(int columnIndex) {
+
+		Object v = get(columnIndex);
+
+		return v instanceof byte[] ? (byte[]) v : null;
+	}
+
+	public void close() {
+	}
+}
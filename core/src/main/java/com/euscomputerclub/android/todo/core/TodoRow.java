@@ -0,0 +1,166 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Class TodoRow is a reusable view of the current row of a TodoCursor. The
+ * column indices are looked up once per cursor and the ID, the priority,
+ * the revision and the fingerprint are read as primitives, so that a loop
+ * over the rows allocates nothing unless it calls toTodo() or
+ * toSyncTodo() for the rows it has to keep.
+ *
+ * A description kept compressed out of line is taken from the
+ * DESCRIPTION_DATA_COLUMN if the cursor has it or else loaded from the
+ * store given to the constructor, only by toTodo() and toSyncTodo(), so a
+ * scan comparing the fingerprints never reads it.
+ *
+ * @author eus
+ */
+public class TodoRow {
+
+	/** The viewed cursor. */
+	protected final TodoCursor c;
+	/** The store of the long descriptions of the rows or null. */
+	protected final TodoStore descriptions;
+	/** The column indices, -1 meaning that the cursor lacks the column. */
+	protected final int idIndex, titleIndex, deadlineIndex, priorityIndex, statusIndex, descriptionIndex,
+		revisionIndex, fingerprintIndex, fieldRevisionsIndex, versionVectorIndex, descriptionDataIndex;
+
+	/** Constructs a view of the rows of a cursor having the columns of TodoSchema.ALL_COLUMNS or some of them. */
+	public TodoRow(TodoCursor c) {
+
+		this(c, null);
+	}
+
+	/**
+	 * Constructs a view of the rows of a cursor of the todo table.
+	 *
+	 * @param descriptions the store loading the NULL descriptions, which
+	 * must not be given for the sync table, whose NULL fields are absent
+	 */
+	public TodoRow(TodoCursor c, TodoStore descriptions) {
+
+		this.c = c;
+		this.descriptions = descriptions;
+		idIndex = c.getColumnIndex(TodoSchema.ID_COLUMN);
+		titleIndex = c.getColumnIndex(TodoSchema.TITLE_COLUMN);
+		deadlineIndex = c.getColumnIndex(TodoSchema.DEADLINE_COLUMN);
+		priorityIndex = c.getColumnIndex(TodoSchema.PRIORITY_COLUMN);
+		statusIndex = c.getColumnIndex(TodoSchema.STATUS_COLUMN);
+		descriptionIndex = c.getColumnIndex(TodoSchema.DESCRIPTION_COLUMN);
+		revisionIndex = c.getColumnIndex(TodoSchema.REVISION_COLUMN);
+		fingerprintIndex = c.getColumnIndex(TodoSchema.FINGERPRINT_COLUMN);
+		fieldRevisionsIndex = c.getColumnIndex(TodoSchema.FIELD_REVISIONS_COLUMN);
+		versionVectorIndex = c.getColumnIndex(TodoSchema.VERSION_VECTOR_COLUMN);
+		descriptionDataIndex = c.getColumnIndex(TodoSchema.DESCRIPTION_DATA_COLUMN);
+	}
+
+	/** Moves the cursor to the next row and returns false if there is none. */
+	public boolean moveToNext() {
+
+		return c.moveToNext();
+	}
+
+	public long getId() {
+
+		return c.getLong(idIndex);
+	}
+
+	/** Returns the priority or 0 if it is NULL. */
+	public int getPriority() {
+
+		return c.getInt(priorityIndex);
+	}
+
+	/** Returns the revision or 0 if it is NULL. */
+	public int getRevision() {
+
+		return c.getInt(revisionIndex);
+	}
+
+	/** Returns true if the row has a stored fingerprint. */
+	public boolean hasFingerprint() {
+
+		return fingerprintIndex != -1 && !c.isNull(fingerprintIndex);
+	}
+
+	/** Returns true if all data fields but the ID and the revision are present like Todo.isComplete(). */
+	public boolean isComplete() {
+
+		return !c.isNull(titleIndex) && !c.isNull(deadlineIndex) && !c.isNull(priorityIndex)
+			&& !c.isNull(statusIndex) && !c.isNull(descriptionIndex);
+	}
+
+	/** Returns true if the revision is not NULL. */
+	public boolean hasRevision() {
+
+		return !c.isNull(revisionIndex);
+	}
+
+	/** Returns the description, taking one that is kept out of line if the column is NULL. */
+	public String getDescription() {
+
+		String description = c.getString(descriptionIndex);
+		if (description != null) {
+
+			return description;
+		}
+		if (descriptionDataIndex != -1 && !c.isNull(descriptionDataIndex)) {
+
+			return TodoDescription.decompress(c.getBlob(descriptionDataIndex));
+		}
+
+		return descriptions == null ? null : descriptions.getLongDescription(getId());
+	}
+
+	/**
+	 * Returns true if both rows have the same data fields like
+	 * Todo.equals(), reading the fields only if either row lacks a stored
+	 * fingerprint.
+	 */
+	public boolean hasSameData(TodoRow other) {
+
+		if (hasFingerprint() && other.hasFingerprint()) {
+
+			return c.getLong(fingerprintIndex) == other.c.getLong(other.fingerprintIndex);
+		}
+
+		return toTodo().equals(other.toTodo());
+	}
+
+	/** Returns a copy of the row as SyncEngine.readTodo() does keeping a NULL priority null. */
+	public Todo toTodo() {
+
+		Todo t = new Todo(
+			Long.valueOf(getId()),
+			c.getString(titleIndex),
+			c.getString(deadlineIndex),
+			c.isNull(priorityIndex) ? null : Integer.valueOf(getPriority()),
+			c.getString(statusIndex),
+			getDescription(),
+			Integer.valueOf(getRevision())
+		);
+		t.fingerprint = hasFingerprint() ? Long.valueOf(c.getLong(fingerprintIndex)) : null;
+		t.fieldRevisions = (fieldRevisionsIndex == -1 || c.isNull(fieldRevisionsIndex)
+				    ? null : Integer.valueOf(c.getInt(fieldRevisionsIndex)));
+		t.versionVector = (versionVectorIndex == -1 || c.isNull(versionVectorIndex)
+				   ? null : c.getBlob(versionVectorIndex));
+
+		return t;
+	}
+
+	/** Returns a copy of a sync record keeping its NULL fields absent as SyncEngine.readSyncTodo() does. */
+	public Todo toSyncTodo() {
+
+		Todo t = new Todo(
+			Long.valueOf(getId()),
+			c.getString(titleIndex),
+			c.getString(deadlineIndex),
+			c.isNull(priorityIndex) ? null : Integer.valueOf(getPriority()),
+			c.getString(statusIndex),
+			getDescription(),
+			c.isNull(revisionIndex) ? null : Integer.valueOf(getRevision())
+		);
+		t.fingerprint = hasFingerprint() ? Long.valueOf(c.getLong(fingerprintIndex)) : null;
+
+		return t;
+	}
+}
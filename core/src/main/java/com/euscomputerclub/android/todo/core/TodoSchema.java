@@ -0,0 +1,1095 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.util.Random;
+
+/**
+ * Class TodoSchema holds the table layout and the SQL statements that every
+ * SQLite-backed TodoStore shares.
+ *
+ * A todo ID consists of a random prefix of the device that has created the
+ * item followed by ID_COUNTER_BITS bits of a counter of that device so that
+ * a new item never collides with the items of the other devices. The IDs
+ * below LEGACY_ID_LIMIT come from the AUTOINCREMENT sequence of the versions
+ * that had no prefix.
+ *
+ * A TodoSummary is read from the trigger-maintained counters rather than
+ * from a single keyed row: SELECT_COUNTERS reads the whole todo_counter
+ * table, which has one row per status and per priority, and
+ * SELECT_OVERDUE_COUNT sums the deadline_counter rows before the given day
+ * through its primary key. Overdue depends on the current day, which no
+ * trigger can follow, so the work is bounded by the number of statuses,
+ * priorities and distinct deadlines, not by the number of todo items.
+ *
+ * @author eus
+ */
+public final class TodoSchema {
+
+	/** The todo table name. */
+	public static final String TODO_TABLE = "todo";
+	/** The sync table name. */
+	public static final String SYNC_TABLE = "sync";
+	/** The deleted todo table name. */
+	public static final String DELETED_TODO_TABLE = "deleted_todo";
+	/** The ID column name. */
+	public static final String ID_COLUMN = "_id";
+	/** The title column name. */
+	public static final String TITLE_COLUMN = "title";
+	/** The deadline column name. */
+	public static final String DEADLINE_COLUMN = "deadline";
+	/** The priority column name. */
+	public static final String PRIORITY_COLUMN = "priority";
+	/** The highest priority, as the app lists them. */
+	public static final int MIN_PRIORITY = 1;
+	/** The lowest priority, as the app lists them. */
+	public static final int MAX_PRIORITY = 5;
+	/** The status column name. */
+	public static final String STATUS_COLUMN = "status";
+	/** The description column name. */
+	public static final String DESCRIPTION_COLUMN = "description";
+	/** The revision column name. */
+	public static final String REVISION_COLUMN = "revision";
+	/** The column of Todo.computeFingerprint(). */
+	public static final String FINGERPRINT_COLUMN = "fingerprint";
+	/** The column of the FieldRevisions of a remote todo, which only the sync table has. */
+	public static final String FIELD_REVISIONS_COLUMN = "field_revisions";
+	/** The column of the VersionVector of a remote todo, which only the sync table has. */
+	public static final String VERSION_VECTOR_COLUMN = "version_vector";
+	/** The revision number assigned to a new todo item. */
+	public static final int NEW_TODO_REVISION = -1;
+	/** The largest revision of a resurrected todo item that the sync table can hold, see toSyncRevision(). */
+	public static final int MAX_RESURRECTED_REVISION = Integer.MAX_VALUE - 1;
+	/** The table holding the last ID generated by this device. */
+	public static final String ID_SEQUENCE_TABLE = "id_sequence";
+	/** The column of the last generated ID. */
+	public static final String LAST_ID_COLUMN = "last_id";
+	/** The number of bits of the device counter in a todo ID. */
+	public static final int ID_COUNTER_BITS = 32;
+	/** The first ID that has a device prefix. */
+	public static final long LEGACY_ID_LIMIT = 1L << ID_COUNTER_BITS;
+	/** The table holding the SyncCheckpoint of the running or interrupted sync. */
+	public static final String SYNC_CHECKPOINT_TABLE = "sync_checkpoint";
+	/** The column of the session token. */
+	public static final String SESSION_TOKEN_COLUMN = "session_token";
+	/** The column of the SyncState name of the phase. */
+	public static final String PHASE_COLUMN = "phase";
+	/** The column of the number of received bytes. */
+	public static final String RECEIVED_COLUMN = "received";
+	/** The column of the bucket set. */
+	public static final String BUCKET_SET_COLUMN = "bucket_set";
+	/** The column of the client-server data of a reconciled sync. */
+	public static final String PENDING_COLUMN = "pending";
+	/** The table holding the OutboxOp rows of the local edits not pushed yet. */
+	public static final String OUTBOX_TABLE = "outbox";
+	/** The column of the ID of the edited todo item. */
+	public static final String TODO_ID_COLUMN = "todo_id";
+	/** The column of the TodoTlv chunk type of an operation. */
+	public static final String OPERATION_COLUMN = "operation";
+	/** The column of the SyncPlan field mask of an operation. */
+	public static final String FIELD_MASK_COLUMN = "field_mask";
+	/** The column of the server revision an operation applies to. */
+	public static final String BASE_REVISION_COLUMN = "base_revision";
+	/** The single-row table holding the watermark of the server changes that the todo table has. */
+	public static final String PULL_WATERMARK_TABLE = "pull_watermark";
+	/** The column of the watermark. */
+	public static final String WATERMARK_COLUMN = "watermark";
+	/** The table holding the ThreeWayMerge base of every todo item that both sides have agreed on. */
+	public static final String MERGE_BASE_TABLE = "merge_base";
+	/** The column of the packed field hashes of a base. */
+	public static final String BASE_COLUMN = "base";
+	/** The table of the archived todo items, which has the columns of the todo table. */
+	public static final String ARCHIVED_TODO_TABLE = "archived_todo";
+	/** The single-row table holding the HashTree bucket hashes of the archived todo items. */
+	public static final String ARCHIVE_HASH_TABLE = "archive_hash";
+	/** The column of the packed bucket hashes. */
+	public static final String BUCKETS_COLUMN = "buckets";
+	/** The status of a todo item that can be archived. */
+	public static final String CLOSED_STATUS = "Closed";
+	/** The auto_vacuum mode that lets the free pages be given back to the file system at any time. */
+	public static final int AUTO_VACUUM_INCREMENTAL = 2;
+	/** The table counting the listed todo items per status and per priority. */
+	public static final String COUNTER_TABLE = "todo_counter";
+	/** The column of the name of a counter, which is a prefix followed by a status or a priority. */
+	public static final String NAME_COLUMN = "name";
+	/** The column of the value of a counter. */
+	public static final String COUNT_COLUMN = "count";
+	/** The prefix of the name of the counter of a status. */
+	public static final String STATUS_COUNTER = "status:";
+	/** The prefix of the name of the counter of a priority. */
+	public static final String PRIORITY_COUNTER = "priority:";
+	/** The table counting the listed todo items that are not closed per deadline. */
+	public static final String DEADLINE_COUNTER_TABLE = "deadline_counter";
+	/** The table of the compressed descriptions of the todo items whose description columns are NULL. */
+	public static final String DESCRIPTION_TABLE = "todo_description";
+	/** The column of the DEFLATE compressed UTF-8 bytes of a description. */
+	public static final String DATA_COLUMN = "data";
+	/** The column that the selections of a single todo item add for its compressed description. */
+	public static final String DESCRIPTION_DATA_COLUMN = "description_data";
+
+	/** All columns of the todo and sync tables in their TLV order. */
+	public static final String[] ALL_COLUMNS = {
+		ID_COLUMN,
+		TITLE_COLUMN,
+		DEADLINE_COLUMN,
+		PRIORITY_COLUMN,
+		STATUS_COLUMN,
+		DESCRIPTION_COLUMN,
+		REVISION_COLUMN,
+		FINGERPRINT_COLUMN
+	};
+
+	/** The columns that the [A1]-[A16] rules compare. */
+	public static final String[] FINGERPRINT_COLUMNS = {
+		ID_COLUMN,
+		REVISION_COLUMN,
+		FINGERPRINT_COLUMN
+	};
+
+	/** The SQL statement to create todo table. */
+	public static final String CREATE_TODO_TABLE = ("create table " + TODO_TABLE +" ("
+		+ ID_COLUMN + " integer not null primary key autoincrement, "
+		+ TITLE_COLUMN + " text, "
+		+ DEADLINE_COLUMN + " text, "
+		+ PRIORITY_COLUMN + " integer, "
+		+ STATUS_COLUMN + " text, "
+		+ DESCRIPTION_COLUMN + " text,"
+		+ REVISION_COLUMN + " integer default " + NEW_TODO_REVISION + " not null, "
+		+ FINGERPRINT_COLUMN + " integer);");
+
+	/** The SQL statement to add the fingerprint column to a todo table of version 4. */
+	public static final String ADD_FINGERPRINT_COLUMN = (
+		"alter table " + TODO_TABLE + " add " + FINGERPRINT_COLUMN + " integer;"
+	);
+
+	/**
+	 * The SQL statement to create the sync table in the temp database of the
+	 * connection unless it exists. The staging data of a sync is thrown away
+	 * once the sync ends, so it is neither journaled nor synced to flash,
+	 * and the table is gone when the connection is closed.
+	 */
+	public static final String CREATE_SYNC_TABLE = ("create temp table if not exists " + SYNC_TABLE + " ("
+		+ ID_COLUMN + " integer not null primary key autoincrement,"
+		+ TITLE_COLUMN + " text,"
+		+ DEADLINE_COLUMN + " text,"
+		+ PRIORITY_COLUMN + " integer,"
+		+ STATUS_COLUMN + " text,"
+		+ DESCRIPTION_COLUMN + " text,"
+		+ REVISION_COLUMN + " integer,"
+		+ FINGERPRINT_COLUMN + " integer,"
+		+ FIELD_REVISIONS_COLUMN + " integer,"
+		+ VERSION_VECTOR_COLUMN + " blob);"
+	);
+
+	/** The SQL statement to keep the temp database, and so the sync table, in memory. */
+	public static final String TEMP_STORE_MEMORY = "pragma temp_store = memory";
+
+	/** The SQL statement to empty the sync table without DDL. */
+	public static final String CLEAR_SYNC_TABLE = "delete from " + SYNC_TABLE;
+
+	/** The SQL statement to tell whether the main database still has the sync table of version 10. */
+	public static final String HAS_DISK_SYNC_TABLE = (
+		"select count(*) from main.sqlite_master where type = 'table' and name = '" + SYNC_TABLE + "'"
+	);
+
+	/**
+	 * The SQL statement to move the rows of the sync table of version 10
+	 * into the temp one so that an interrupted sync can still be resumed.
+	 */
+	public static final String COPY_DISK_SYNC_TABLE = (
+		"insert or ignore into temp." + SYNC_TABLE + " ("
+		+ ID_COLUMN + ", "
+		+ TITLE_COLUMN + ", "
+		+ DEADLINE_COLUMN + ", "
+		+ PRIORITY_COLUMN + ", "
+		+ STATUS_COLUMN + ", "
+		+ DESCRIPTION_COLUMN + ", "
+		+ REVISION_COLUMN + ", "
+		+ FINGERPRINT_COLUMN + ") select "
+		+ ID_COLUMN + ", "
+		+ TITLE_COLUMN + ", "
+		+ DEADLINE_COLUMN + ", "
+		+ PRIORITY_COLUMN + ", "
+		+ STATUS_COLUMN + ", "
+		+ DESCRIPTION_COLUMN + ", "
+		+ REVISION_COLUMN + ", "
+		+ FINGERPRINT_COLUMN + " from main." + SYNC_TABLE
+	);
+
+	/** The SQL statement to drop the sync table of version 10 from the main database. */
+	public static final String DROP_DISK_SYNC_TABLE = "drop table if exists main." + SYNC_TABLE;
+
+	/** The SQL statement to create deleted_todo table. */
+	public static final String CREATE_DELETED_TODO_TABLE = ("create table " + DELETED_TODO_TABLE
+		+ " (" + ID_COLUMN + " integer not null references " + TODO_TABLE + " (" + ID_COLUMN + ")"
+		+ " on delete cascade on update cascade)"
+	);
+
+	/** The SQL statement to create id_sequence table. */
+	public static final String CREATE_ID_SEQUENCE_TABLE = ("create table " + ID_SEQUENCE_TABLE + " ("
+		+ LAST_ID_COLUMN + " integer not null);"
+	);
+
+	/** The SQL statement to start the ID sequence with ? as given by firstLastId(). */
+	public static final String INSERT_ID_SEQUENCE = (
+		"insert into " + ID_SEQUENCE_TABLE + " (" + LAST_ID_COLUMN + ") values (?)"
+	);
+
+	/** The SQL statement to advance the ID sequence. */
+	public static final String INCREMENT_LAST_ID = (
+		"update " + ID_SEQUENCE_TABLE + " set " + LAST_ID_COLUMN + " = " + LAST_ID_COLUMN + " + 1"
+	);
+
+	/** The SQL statement to read the last generated ID. */
+	public static final String SELECT_LAST_ID = "select " + LAST_ID_COLUMN + " from " + ID_SEQUENCE_TABLE;
+
+	/** The SQL statement to set the last generated ID to ? after a bulk insert. */
+	public static final String SET_LAST_ID = "update " + ID_SEQUENCE_TABLE + " set " + LAST_ID_COLUMN + " = ?";
+
+	/** The SQL statement to insert a new todo item given its ID, data fields and fingerprint. */
+	public static final String INSERT_NEW_TODO = (
+		"insert into " + TODO_TABLE + " ("
+		+ ID_COLUMN + ", "
+		+ TITLE_COLUMN + ", "
+		+ DEADLINE_COLUMN + ", "
+		+ PRIORITY_COLUMN + ", "
+		+ STATUS_COLUMN + ", "
+		+ DESCRIPTION_COLUMN + ", "
+		+ FINGERPRINT_COLUMN + ") values (?, ?, ?, ?, ?, ?, ?)"
+	);
+
+	/** The SQL statement to insert a restored todo item given all its columns in the ALL_COLUMNS order. */
+	public static final String INSERT_RESTORED_TODO = (
+		"insert into " + TODO_TABLE + " ("
+		+ ID_COLUMN + ", "
+		+ TITLE_COLUMN + ", "
+		+ DEADLINE_COLUMN + ", "
+		+ PRIORITY_COLUMN + ", "
+		+ STATUS_COLUMN + ", "
+		+ DESCRIPTION_COLUMN + ", "
+		+ REVISION_COLUMN + ", "
+		+ FINGERPRINT_COLUMN + ") values (?, ?, ?, ?, ?, ?, ?, ?)"
+	);
+
+	/** The SQL statement to mark a todo item as deleted since the last sync. */
+	public static final String INSERT_DELETED_TODO = (
+		"insert into " + DELETED_TODO_TABLE + " (" + ID_COLUMN + ") values (?)"
+	);
+
+	/**
+	 * The SQL statements to delete all todo items, including the archived
+	 * ones, along with everything kept about them: compressed descriptions,
+	 * tombstones, merge bases, outbox operations, the pull watermark and the
+	 * sync checkpoint. The outbox sequence numbers are not reused
+	 * afterwards.
+	 */
+	public static final String[] CLEAR_TODOS = {
+		"delete from " + DELETED_TODO_TABLE,
+		"delete from " + TODO_TABLE,
+		"delete from " + ARCHIVED_TODO_TABLE,
+		"delete from " + ARCHIVE_HASH_TABLE,
+		"delete from " + DESCRIPTION_TABLE,
+		"delete from " + MERGE_BASE_TABLE,
+		"delete from " + OUTBOX_TABLE,
+		"delete from " + PULL_WATERMARK_TABLE,
+		"delete from " + SYNC_CHECKPOINT_TABLE
+	};
+
+	/** The SQL statement to create sync_checkpoint table, which has at most one row. */
+	public static final String CREATE_SYNC_CHECKPOINT_TABLE = ("create table " + SYNC_CHECKPOINT_TABLE + " ("
+		+ ID_COLUMN + " integer not null primary key check (" + ID_COLUMN + " = 1), "
+		+ SESSION_TOKEN_COLUMN + " integer not null, "
+		+ PHASE_COLUMN + " text not null, "
+		+ RECEIVED_COLUMN + " integer not null, "
+		+ BUCKET_SET_COLUMN + " blob, "
+		+ PENDING_COLUMN + " blob);"
+	);
+
+	/** The SQL statement to add the pending column to a sync_checkpoint table of version 10. */
+	public static final String ADD_PENDING_COLUMN = (
+		"alter table " + SYNC_CHECKPOINT_TABLE + " add " + PENDING_COLUMN + " blob;"
+	);
+
+	/** The SQL statement to save the token, phase, received bytes, bucket set and pending data of a checkpoint. */
+	public static final String SAVE_SYNC_CHECKPOINT = (
+		"insert or replace into " + SYNC_CHECKPOINT_TABLE + " ("
+		+ ID_COLUMN + ", "
+		+ SESSION_TOKEN_COLUMN + ", "
+		+ PHASE_COLUMN + ", "
+		+ RECEIVED_COLUMN + ", "
+		+ BUCKET_SET_COLUMN + ", "
+		+ PENDING_COLUMN + ") values (1, ?, ?, ?, ?, ?)"
+	);
+
+	/** The SQL statement to read the checkpoint. */
+	public static final String SELECT_SYNC_CHECKPOINT = (
+		"select "
+		+ SESSION_TOKEN_COLUMN + ", "
+		+ PHASE_COLUMN + ", "
+		+ RECEIVED_COLUMN + ", "
+		+ BUCKET_SET_COLUMN + ", "
+		+ PENDING_COLUMN
+		+ " from " + SYNC_CHECKPOINT_TABLE
+	);
+
+	/**
+	 * The SQL statement to restart the download of an interrupted sync from
+	 * the first byte because the sync table has not survived the connection.
+	 */
+	public static final String RESTART_SYNC_CHECKPOINT = (
+		"update " + SYNC_CHECKPOINT_TABLE + " set " + RECEIVED_COLUMN + " = 0"
+		+ " where " + PHASE_COLUMN + " = '" + SyncState.SERVER_CLIENT.name() + "'"
+	);
+
+	/** The SQL statement to remove the checkpoint. */
+	public static final String DELETE_SYNC_CHECKPOINT = "delete from " + SYNC_CHECKPOINT_TABLE;
+
+	/**
+	 * The SQL statement to create outbox table. The sequence numbers are
+	 * never reused so that the server can recognize a repeated push.
+	 */
+	public static final String CREATE_OUTBOX_TABLE = ("create table " + OUTBOX_TABLE + " ("
+		+ ID_COLUMN + " integer not null primary key autoincrement, "
+		+ TODO_ID_COLUMN + " integer not null, "
+		+ OPERATION_COLUMN + " integer not null, "
+		+ FIELD_MASK_COLUMN + " integer not null, "
+		+ BASE_REVISION_COLUMN + " integer);"
+	);
+
+	/** The SQL statement to append an operation to the outbox. */
+	public static final String INSERT_OUTBOX = (
+		"insert into " + OUTBOX_TABLE + " ("
+		+ TODO_ID_COLUMN + ", "
+		+ OPERATION_COLUMN + ", "
+		+ FIELD_MASK_COLUMN + ", "
+		+ BASE_REVISION_COLUMN + ") values (?, ?, ?, ?)"
+	);
+
+	/** The SQL statement to read the first ? operations of the outbox. */
+	public static final String SELECT_OUTBOX = (
+		"select "
+		+ ID_COLUMN + ", "
+		+ TODO_ID_COLUMN + ", "
+		+ OPERATION_COLUMN + ", "
+		+ FIELD_MASK_COLUMN + ", "
+		+ BASE_REVISION_COLUMN
+		+ " from " + OUTBOX_TABLE
+		+ " order by " + ID_COLUMN + " limit ?"
+	);
+
+	/** The SQL statement to read the sequence number of the last operation of the outbox. */
+	public static final String SELECT_LAST_OUTBOX_SEQUENCE = (
+		"select coalesce(max(" + ID_COLUMN + "), 0) from " + OUTBOX_TABLE
+	);
+
+	/** The SQL statement to remove the operations up to sequence number ?. */
+	public static final String DELETE_OUTBOX_UP_TO = (
+		"delete from " + OUTBOX_TABLE + " where " + ID_COLUMN + " <= ?"
+	);
+
+	/** The SQL statement to remove the operations of todo item ?. */
+	public static final String DELETE_OUTBOX_OF_TODO = (
+		"delete from " + OUTBOX_TABLE + " where " + TODO_ID_COLUMN + " = ?"
+	);
+
+	/** The SQL statement to remove operations to be completed with a sequence number list. */
+	public static final String DELETE_OUTBOX_IN = "delete from " + OUTBOX_TABLE + " where " + ID_COLUMN + " in ";
+
+	/** The SQL statement to remove the operations of todo items to be completed with an ID list. */
+	public static final String DELETE_OUTBOX_OF_TODOS_IN = (
+		"delete from " + OUTBOX_TABLE + " where " + TODO_ID_COLUMN + " in "
+	);
+
+	/** The SQL statement to create the pull watermark table. */
+	public static final String CREATE_PULL_WATERMARK_TABLE = ("create table " + PULL_WATERMARK_TABLE + " ("
+		+ ID_COLUMN + " integer not null primary key check (" + ID_COLUMN + " = 1), "
+		+ WATERMARK_COLUMN + " integer not null);"
+	);
+
+	/** The SQL statement to save the pull watermark. */
+	public static final String SAVE_PULL_WATERMARK = (
+		"insert or replace into " + PULL_WATERMARK_TABLE + " ("
+		+ ID_COLUMN + ", "
+		+ WATERMARK_COLUMN + ") values (1, ?)"
+	);
+
+	/** The SQL statement to read the pull watermark, which is 0 before the first sync. */
+	public static final String SELECT_PULL_WATERMARK = (
+		"select coalesce(max(" + WATERMARK_COLUMN + "), 0) from " + PULL_WATERMARK_TABLE
+	);
+
+	/** The SQL statement to create the merge base table. */
+	public static final String CREATE_MERGE_BASE_TABLE = ("create table " + MERGE_BASE_TABLE + " ("
+		+ ID_COLUMN + " integer not null primary key, "
+		+ BASE_COLUMN + " blob not null);"
+	);
+
+	/** The SQL statement to create archived_todo table. */
+	public static final String CREATE_ARCHIVED_TODO_TABLE = ("create table " + ARCHIVED_TODO_TABLE + " ("
+		+ ID_COLUMN + " integer not null primary key, "
+		+ TITLE_COLUMN + " text, "
+		+ DEADLINE_COLUMN + " text, "
+		+ PRIORITY_COLUMN + " integer, "
+		+ STATUS_COLUMN + " text, "
+		+ DESCRIPTION_COLUMN + " text, "
+		+ REVISION_COLUMN + " integer not null, "
+		+ FINGERPRINT_COLUMN + " integer not null);"
+	);
+
+	/** The SQL statement to create archive_hash table, which has at most one row. */
+	public static final String CREATE_ARCHIVE_HASH_TABLE = ("create table " + ARCHIVE_HASH_TABLE + " ("
+		+ ID_COLUMN + " integer not null primary key check (" + ID_COLUMN + " = 1), "
+		+ BUCKETS_COLUMN + " blob not null);"
+	);
+
+	/** The SQL statement to save the packed bucket hashes of the archive. */
+	public static final String SAVE_ARCHIVE_HASH = (
+		"insert or replace into " + ARCHIVE_HASH_TABLE + " ("
+		+ ID_COLUMN + ", "
+		+ BUCKETS_COLUMN + ") values (1, ?)"
+	);
+
+	/** The SQL statement to read the packed bucket hashes of the archive. */
+	public static final String SELECT_ARCHIVE_HASH = "select " + BUCKETS_COLUMN + " from " + ARCHIVE_HASH_TABLE;
+
+	/**
+	 * The SQL statement to select the FINGERPRINT_COLUMNS of the closed
+	 * todo items whose deadlines are before ? that can be archived: those
+	 * that the server has and that have no local change to be sent.
+	 */
+	public static final String SELECT_ARCHIVABLE_TODOS = (
+		"select "
+		+ ID_COLUMN + ", "
+		+ REVISION_COLUMN + ", "
+		+ FINGERPRINT_COLUMN
+		+ " from " + TODO_TABLE
+		+ " where " + STATUS_COLUMN + " = '" + CLOSED_STATUS + "'"
+		+ " and " + DEADLINE_COLUMN + " < ?"
+		+ " and " + REVISION_COLUMN + " <> " + NEW_TODO_REVISION
+		+ " and " + FINGERPRINT_COLUMN + " is not null"
+		+ " and " + ID_COLUMN + " not in (select " + ID_COLUMN + " from " + DELETED_TODO_TABLE + ")"
+		+ " and " + ID_COLUMN + " not in (select " + TODO_ID_COLUMN + " from " + OUTBOX_TABLE + ")"
+	);
+
+	/** The SQL statement to select the FINGERPRINT_COLUMNS of the archive, optionally completed with an ID list. */
+	public static final String SELECT_ARCHIVED_FINGERPRINTS = (
+		"select "
+		+ ID_COLUMN + ", "
+		+ REVISION_COLUMN + ", "
+		+ FINGERPRINT_COLUMN
+		+ " from " + ARCHIVED_TODO_TABLE
+	);
+
+	/** The SQL statement to copy todos into the archive to be completed with an ID list. */
+	public static final String ARCHIVE_TODOS_IN = (
+		"insert into " + ARCHIVED_TODO_TABLE
+		+ " select " + columnList() + " from " + TODO_TABLE
+		+ " where " + ID_COLUMN + " in "
+	);
+
+	/** The SQL statement to copy archived todos back into the todo table to be completed with an ID list. */
+	public static final String UNARCHIVE_TODOS_IN = (
+		"insert into " + TODO_TABLE + " (" + columnList() + ")"
+		+ " select " + columnList() + " from " + ARCHIVED_TODO_TABLE
+		+ " where " + ID_COLUMN + " in "
+	);
+
+	/** The SQL statement to delete archived todos to be completed with an ID list. */
+	public static final String DELETE_ARCHIVED_TODO_IN = (
+		"delete from " + ARCHIVED_TODO_TABLE + " where " + ID_COLUMN + " in "
+	);
+
+	/** The SQL statement to tell the auto_vacuum mode of the database. */
+	public static final String SELECT_AUTO_VACUUM = "pragma auto_vacuum";
+
+	/** The SQL statement to switch to AUTO_VACUUM_INCREMENTAL, which takes effect at the next VACUUM. */
+	public static final String SET_AUTO_VACUUM_INCREMENTAL = "pragma auto_vacuum = incremental";
+
+	/** The SQL statement to rebuild the database file. */
+	public static final String VACUUM = "vacuum";
+
+	/** The SQL statement to tell the TodoSchemaUpgrade version of the database, which is 0 if it has none. */
+	public static final String SELECT_USER_VERSION = "pragma user_version";
+
+	/** The SQL statement to set the TodoSchemaUpgrade version of the database to ?, which a pragma cannot bind. */
+	public static final String SET_USER_VERSION = "pragma user_version = ?";
+
+	/** The SQL statement to give all free pages back to the file system. */
+	public static final String INCREMENTAL_VACUUM = "pragma incremental_vacuum";
+
+	/** The SQL statement to refresh the statistics of the query planner. */
+	public static final String ANALYZE = "analyze";
+
+	/** The SQL statement to create todo_counter table. */
+	public static final String CREATE_COUNTER_TABLE = ("create table " + COUNTER_TABLE + " ("
+		+ NAME_COLUMN + " text not null primary key, "
+		+ COUNT_COLUMN + " integer not null);"
+	);
+
+	/** The SQL statement to create deadline_counter table. */
+	public static final String CREATE_DEADLINE_COUNTER_TABLE = ("create table " + DEADLINE_COUNTER_TABLE + " ("
+		+ DEADLINE_COLUMN + " text not null primary key, "
+		+ COUNT_COLUMN + " integer not null);"
+	);
+
+	/**
+	 * The SQL statements to create the triggers that keep todo_counter and
+	 * deadline_counter up to date with the todo items that are listed, i.e.
+	 * those of the todo table without a tombstone. Adding the first
+	 * tombstone of an item or removing its last one counts it out or in, so
+	 * the counters are right whatever the order in which an item and its
+	 * tombstones are deleted.
+	 */
+	public static final String[] CREATE_COUNTER_TRIGGERS = {
+		"create trigger " + TODO_TABLE + "_counter_insert after insert on " + TODO_TABLE
+		+ " when not " + isTombstoned("new") + " begin "
+		+ countTodo(rowFields("new"), "+ 1") + "end;",
+		"create trigger " + TODO_TABLE + "_counter_delete after delete on " + TODO_TABLE
+		+ " when not " + isTombstoned("old") + " begin "
+		+ countTodo(rowFields("old"), "- 1") + "end;",
+		"create trigger " + TODO_TABLE + "_counter_update after update of "
+		+ STATUS_COLUMN + ", " + PRIORITY_COLUMN + ", " + DEADLINE_COLUMN + " on " + TODO_TABLE
+		+ " when not " + isTombstoned("new") + " begin "
+		+ countTodo(rowFields("old"), "- 1") + countTodo(rowFields("new"), "+ 1") + "end;",
+		"create trigger " + DELETED_TODO_TABLE + "_counter_insert after insert on " + DELETED_TODO_TABLE
+		+ " when exists (select " + ID_COLUMN + " from " + TODO_TABLE
+		+ " where " + ID_COLUMN + " = new." + ID_COLUMN + ") and not exists (select " + ID_COLUMN
+		+ " from " + DELETED_TODO_TABLE + " where " + ID_COLUMN + " = new." + ID_COLUMN
+		+ " and rowid <> new.rowid) begin "
+		+ countTodo(todoFields("new"), "- 1") + "end;",
+		"create trigger " + DELETED_TODO_TABLE + "_counter_delete after delete on " + DELETED_TODO_TABLE
+		+ " when exists (select " + ID_COLUMN + " from " + TODO_TABLE
+		+ " where " + ID_COLUMN + " = old." + ID_COLUMN + ") and not " + isTombstoned("old") + " begin "
+		+ countTodo(todoFields("old"), "+ 1") + "end;"
+	};
+
+	/** The SQL statement to index the tombstones, which the counter triggers look up. */
+	public static final String CREATE_DELETED_TODO_INDEX = (
+		"create index " + DELETED_TODO_TABLE + "_" + ID_COLUMN + "_index on " + DELETED_TODO_TABLE
+		+ " (" + ID_COLUMN + ")"
+	);
+
+	/** The SQL statements to recompute the counters from the todo items, e.g. when they are introduced. */
+	public static final String[] RECOMPUTE_COUNTERS = {
+		"delete from " + COUNTER_TABLE,
+		"delete from " + DEADLINE_COUNTER_TABLE,
+		"insert into " + COUNTER_TABLE + " select '" + STATUS_COUNTER + "' || ifnull(" + STATUS_COLUMN + ", ''), count(*)"
+		+ " from " + TODO_TABLE + " where " + isListed() + " group by 1",
+		"insert into " + COUNTER_TABLE + " select '" + PRIORITY_COUNTER + "' || ifnull(" + PRIORITY_COLUMN + ", ''), count(*)"
+		+ " from " + TODO_TABLE + " where " + isListed() + " group by 1",
+		"insert into " + DEADLINE_COUNTER_TABLE + " select " + DEADLINE_COLUMN + ", count(*)"
+		+ " from " + TODO_TABLE + " where " + isListed() + " and " + isOpen(DEADLINE_COLUMN, STATUS_COLUMN)
+		+ " group by " + DEADLINE_COLUMN
+	};
+
+	/** The SQL statement to select the non-zero counters of todo_counter. */
+	public static final String SELECT_COUNTERS = (
+		"select " + NAME_COLUMN + ", " + COUNT_COLUMN + " from " + COUNTER_TABLE
+		+ " where " + COUNT_COLUMN + " <> 0"
+	);
+
+	/** The SQL statement to count the listed todo items that are not closed and whose deadlines are before ?. */
+	public static final String SELECT_OVERDUE_COUNT = (
+		"select ifnull(sum(" + COUNT_COLUMN + "), 0) from " + DEADLINE_COUNTER_TABLE
+		+ " where " + DEADLINE_COLUMN + " < ?"
+	);
+
+	/** The SQL statement to create todo_description table. */
+	public static final String CREATE_DESCRIPTION_TABLE = ("create table " + DESCRIPTION_TABLE + " ("
+		+ ID_COLUMN + " integer not null primary key, "
+		+ DATA_COLUMN + " blob not null);"
+	);
+
+	/**
+	 * The SQL statement to create the trigger dropping a compressed
+	 * description whenever the description column is written, even with
+	 * NULL, so that UNSET_DESCRIPTION must run before SAVE_DESCRIPTION.
+	 */
+	public static final String CREATE_DESCRIPTION_UPDATE_TRIGGER = (
+		"create trigger " + DESCRIPTION_TABLE + "_update after update of " + DESCRIPTION_COLUMN
+		+ " on " + TODO_TABLE + " begin "
+		+ "delete from " + DESCRIPTION_TABLE + " where " + ID_COLUMN + " = new." + ID_COLUMN + "; end;"
+	);
+
+	/**
+	 * The SQL statements to create the triggers dropping a compressed
+	 * description once the description column is written again or once
+	 * its todo item is deleted without having been archived or unarchived.
+	 */
+	public static final String[] CREATE_DESCRIPTION_TRIGGERS = {
+		CREATE_DESCRIPTION_UPDATE_TRIGGER,
+		"create trigger " + DESCRIPTION_TABLE + "_delete after delete on " + TODO_TABLE
+		+ " when old." + DESCRIPTION_COLUMN + " is null and not exists (select " + ID_COLUMN
+		+ " from " + ARCHIVED_TODO_TABLE + " where " + ID_COLUMN + " = old." + ID_COLUMN + ") begin "
+		+ "delete from " + DESCRIPTION_TABLE + " where " + ID_COLUMN + " = old." + ID_COLUMN + "; end;",
+		"create trigger " + DESCRIPTION_TABLE + "_archive_delete after delete on " + ARCHIVED_TODO_TABLE
+		+ " when old." + DESCRIPTION_COLUMN + " is null and not exists (select " + ID_COLUMN
+		+ " from " + TODO_TABLE + " where " + ID_COLUMN + " = old." + ID_COLUMN + ") begin "
+		+ "delete from " + DESCRIPTION_TABLE + " where " + ID_COLUMN + " = old." + ID_COLUMN + "; end;"
+	};
+
+	/** The SQL statement to save the compressed description of a todo item. */
+	public static final String SAVE_DESCRIPTION = (
+		"insert or replace into " + DESCRIPTION_TABLE + " (" + ID_COLUMN + ", " + DATA_COLUMN + ")"
+		+ " values (?, ?)"
+	);
+
+	/** The SQL statement to read the compressed description of a todo item, which may be archived. */
+	public static final String SELECT_DESCRIPTION = (
+		"select " + DATA_COLUMN + " from " + DESCRIPTION_TABLE + " where " + ID_COLUMN + " = ?"
+	);
+
+	/** The SQL statement to clear the description column of a todo item whose description is to be saved. */
+	public static final String UNSET_DESCRIPTION = (
+		"update " + TODO_TABLE + " set " + DESCRIPTION_COLUMN + " = null where " + ID_COLUMN + " = ?"
+	);
+
+	/** The SQL statement to write back a description column, which drops the compressed description. */
+	public static final String INLINE_DESCRIPTION = (
+		"update " + TODO_TABLE + " set " + DESCRIPTION_COLUMN + " = ? where " + ID_COLUMN + " = ?"
+	);
+
+	/** The SQL statement to select the descriptions of the todo items that are to be compressed. */
+	public static final String SELECT_LONG_DESCRIPTIONS = (
+		"select " + ID_COLUMN + ", " + DESCRIPTION_COLUMN + " from " + TODO_TABLE
+		+ " where length(" + DESCRIPTION_COLUMN + ") > " + TodoDescription.MAX_INLINE_LENGTH
+	);
+
+	/** The SQL statement to select the long descriptions that importNewTodos() may have copied. */
+	public static final String SELECT_IMPORTED_LONG_DESCRIPTIONS = (
+		SELECT_LONG_DESCRIPTIONS + " and " + ID_COLUMN + " in (select " + ID_COLUMN + " from " + SYNC_TABLE + ")"
+	);
+
+	/** The SQL statement to select the long descriptions to be completed with an ID list. */
+	public static final String SELECT_LONG_DESCRIPTIONS_IN = SELECT_LONG_DESCRIPTIONS + " and " + ID_COLUMN + " in ";
+
+	/** The SQL statement to select the compressed descriptions to be completed with an ID list. */
+	public static final String SELECT_COMPRESSED_DESCRIPTIONS_IN = (
+		"select " + ID_COLUMN + ", " + DATA_COLUMN + " from " + DESCRIPTION_TABLE + " where " + ID_COLUMN + " in "
+	);
+
+	/** The SQL statement to save the merge base of a todo item. */
+	public static final String SAVE_MERGE_BASE = (
+		"insert or replace into " + MERGE_BASE_TABLE + " ("
+		+ ID_COLUMN + ", "
+		+ BASE_COLUMN + ") values (?, ?)"
+	);
+
+	/** The SQL statement to read the merge base of a todo item. */
+	public static final String SELECT_MERGE_BASE = (
+		"select " + BASE_COLUMN + " from " + MERGE_BASE_TABLE + " where " + ID_COLUMN + " = ?"
+	);
+
+	/** The SQL statement to read merge bases to be completed with an ID list. */
+	public static final String SELECT_MERGE_BASES_IN = (
+		"select " + ID_COLUMN + ", " + BASE_COLUMN + " from " + MERGE_BASE_TABLE + " where " + ID_COLUMN + " in "
+	);
+
+	/** The SQL statement to read the version vectors of remote todos to be completed with an ID list. */
+	public static final String SELECT_SYNC_VERSION_VECTORS_IN = (
+		"select " + ID_COLUMN + ", " + VERSION_VECTOR_COLUMN + " from " + SYNC_TABLE
+		+ " where " + VERSION_VECTOR_COLUMN + " is not null and " + ID_COLUMN + " in "
+	);
+
+	/** The SQL statement to delete merge bases to be completed with an ID list. */
+	public static final String DELETE_MERGE_BASE_IN = "delete from " + MERGE_BASE_TABLE + " where " + ID_COLUMN + " in ";
+
+	/** The SQL statement to write the merged data fields of a local todo keeping its revision. */
+	public static final String MERGE_TODO = (
+		"update " + TODO_TABLE + " set "
+		+ TITLE_COLUMN + " = ?, "
+		+ DEADLINE_COLUMN + " = ?, "
+		+ PRIORITY_COLUMN + " = ?, "
+		+ STATUS_COLUMN + " = ?, "
+		+ DESCRIPTION_COLUMN + " = ?, "
+		+ FINGERPRINT_COLUMN + " = ?"
+		+ " where " + ID_COLUMN + " = ?"
+	);
+
+	/** The SQL statement to read the device prefix of the IDs. */
+	public static final String SELECT_ID_PREFIX = (
+		"select " + LAST_ID_COLUMN + " >> " + ID_COUNTER_BITS + " from " + ID_SEQUENCE_TABLE
+	);
+
+	/** The SQL statement to select the new todos whose IDs have no device prefix. */
+	public static final String SELECT_LEGACY_NEW_TODO_IDS = (
+		"select " + ID_COLUMN + " from " + TODO_TABLE
+		+ " where " + REVISION_COLUMN + " = " + NEW_TODO_REVISION
+		+ " and " + ID_COLUMN + " < " + LEGACY_ID_LIMIT
+		+ " order by " + ID_COLUMN
+	);
+
+	/** The SQL statement to import remote todos that do not exist locally. */
+	public static final String IMPORT_NEW_TODOS = (
+		"insert into " + TODO_TABLE + " ("
+		+ ID_COLUMN + ", "
+		+ TITLE_COLUMN + ", "
+		+ DEADLINE_COLUMN + ", "
+		+ PRIORITY_COLUMN + ", "
+		+ STATUS_COLUMN + ", "
+		+ DESCRIPTION_COLUMN + ", "
+		+ REVISION_COLUMN + ", "
+		+ FINGERPRINT_COLUMN + ")"
+		+ " select "
+		+ ID_COLUMN + ", "
+		+ TITLE_COLUMN + ", "
+		+ DEADLINE_COLUMN + ", "
+		+ PRIORITY_COLUMN + ", "
+		+ STATUS_COLUMN + ", "
+		+ DESCRIPTION_COLUMN + ", "
+		+ REVISION_COLUMN + " + 1, "
+		+ FINGERPRINT_COLUMN
+		+ " from " + SYNC_TABLE
+		+ " where " + ID_COLUMN + " not in ("
+		+ "select " + ID_COLUMN + " from " + TODO_TABLE + ")"
+		+ " and " + TITLE_COLUMN + " is not null"
+		+ " and " + DEADLINE_COLUMN + " is not null"
+		+ " and " + PRIORITY_COLUMN + " is not null"
+		+ " and " + STATUS_COLUMN + " is not null"
+		+ " and " + DESCRIPTION_COLUMN + " is not null"
+		+ " and " + REVISION_COLUMN + " is not null"
+	);
+
+	/**
+	 * The SQL statement to give revision 1 to the new local todos that
+	 * have been copied into the sync table to be sent.
+	 */
+	public static final String CONFIRM_NEW_TODOS = (
+		"update " + TODO_TABLE + " set " + REVISION_COLUMN + " = 1"
+		+ " where " + REVISION_COLUMN + " = " + NEW_TODO_REVISION
+		+ " and " + ID_COLUMN + " in (select " + ID_COLUMN + " from " + SYNC_TABLE
+		+ " where " + REVISION_COLUMN + " = " + NEW_TODO_REVISION + ")"
+	);
+
+	/**
+	 * The SQL statement to delete the new local todos that are left after
+	 * CONFIRM_NEW_TODOS, i.e. those whose IDs the server has taken ([A1]).
+	 */
+	public static final String DELETE_NEW_TODOS = (
+		"delete from " + TODO_TABLE + " where " + REVISION_COLUMN + " = " + NEW_TODO_REVISION
+	);
+
+	/** The selection of sync rows to be sent as new todos. */
+	public static final String NEW_SYNC_TODO_SELECTION = REVISION_COLUMN + " < 0";
+
+	/** The selection of sync rows to be sent as updated todos. */
+	public static final String UPDATED_SYNC_TODO_SELECTION = (
+		"(" + TITLE_COLUMN + " is not null"
+		+ " or " + DEADLINE_COLUMN + " is not null"
+		+ " or " + PRIORITY_COLUMN + " is not null"
+		+ " or " + STATUS_COLUMN + " is not null"
+		+ " or " + DESCRIPTION_COLUMN + " is not null)"
+		+ " and revision is null"
+	);
+
+	/** The selection of sync rows to be sent as deleted todos. */
+	public static final String DELETED_SYNC_TODO_SELECTION = (
+		TITLE_COLUMN + " is null"
+		+ " and " + DEADLINE_COLUMN + " is null"
+		+ " and " + PRIORITY_COLUMN + " is null"
+		+ " and " + STATUS_COLUMN + " is null"
+		+ " and " + DESCRIPTION_COLUMN + " is null"
+		+ " and revision is null"
+	);
+
+	/** The selection of todos that are not deleted locally. */
+	public static final String NOT_DELETED_SELECTION = (
+		ID_COLUMN + " not in (select "
+		+ ID_COLUMN + " from " + DELETED_TODO_TABLE + ")"
+	);
+
+	/** The maximum number of IDs listed in a single batch statement. */
+	public static final int MAX_IDS_PER_STATEMENT = 500;
+
+	/**
+	 * The SQL statement to copy local todos into the sync table as new
+	 * remote ones ([A1]/[A8]) to be completed with an ID list. The revision
+	 * of a resurrected todo is stored as toSyncRevision() gives it, though
+	 * in 64 bits, so a revision above MAX_RESURRECTED_REVISION is only
+	 * rejected by fromSyncRevision() when the record is read back. A
+	 * colliding ID is skipped just like a failing insertToSync().
+	 */
+	public static final String INSERT_TO_SYNC_IN = (
+		"insert or ignore into " + SYNC_TABLE + " ("
+		+ ID_COLUMN + ", "
+		+ TITLE_COLUMN + ", "
+		+ DEADLINE_COLUMN + ", "
+		+ PRIORITY_COLUMN + ", "
+		+ STATUS_COLUMN + ", "
+		+ DESCRIPTION_COLUMN + ", "
+		+ REVISION_COLUMN + ", "
+		+ FINGERPRINT_COLUMN + ")"
+		+ " select "
+		+ ID_COLUMN + ", "
+		+ TITLE_COLUMN + ", "
+		+ DEADLINE_COLUMN + ", "
+		+ PRIORITY_COLUMN + ", "
+		+ STATUS_COLUMN + ", "
+		+ DESCRIPTION_COLUMN + ", "
+		+ "case when " + REVISION_COLUMN + " = " + NEW_TODO_REVISION
+		+ " then " + NEW_TODO_REVISION
+		+ " else " + NEW_TODO_REVISION + " - " + REVISION_COLUMN + " - 1 end, "
+		+ FINGERPRINT_COLUMN
+		+ " from " + TODO_TABLE
+		+ " where " + ID_COLUMN + " in "
+	);
+
+	/**
+	 * The SQL statement to turn remote todos into updates carrying only the
+	 * local fields that differ ([A3]/[A5]) to be completed with an ID list.
+	 */
+	public static final String UPDATE_SYNC_IN = (
+		"update " + SYNC_TABLE + " set "
+		+ changedField(TITLE_COLUMN) + ", "
+		+ changedField(DEADLINE_COLUMN) + ", "
+		+ changedField(PRIORITY_COLUMN) + ", "
+		+ changedField(STATUS_COLUMN) + ", "
+		+ changedField(DESCRIPTION_COLUMN) + ", "
+		+ REVISION_COLUMN + " = null, "
+		+ FINGERPRINT_COLUMN + " = null"
+		+ " where " + ID_COLUMN + " in "
+	);
+
+	/**
+	 * The SQL statement to replace local todos with the remote ones
+	 * ([A4]/[A6]/[A10]/[A12]) to be completed with an ID list.
+	 */
+	public static final String REPLACE_TODOS_IN = (
+		"update " + TODO_TABLE + " set "
+		+ remoteField(TITLE_COLUMN) + ", "
+		+ remoteField(DEADLINE_COLUMN) + ", "
+		+ remoteField(PRIORITY_COLUMN) + ", "
+		+ remoteField(STATUS_COLUMN) + ", "
+		+ remoteField(DESCRIPTION_COLUMN) + ", "
+		+ remoteField(FINGERPRINT_COLUMN) + ", "
+		+ REVISION_COLUMN + " = (select " + REVISION_COLUMN + " + 1 from " + SYNC_TABLE
+		+ " where " + SYNC_TABLE + "." + ID_COLUMN + " = " + TODO_TABLE + "." + ID_COLUMN + ")"
+		+ " where " + ID_COLUMN + " in "
+	);
+
+	/** The SQL statement to delete remote todos to be completed with an ID list. */
+	public static final String REMOVE_SYNC_IN = "delete from " + SYNC_TABLE + " where " + ID_COLUMN + " in ";
+
+	/** The SQL statement to write the fields that a TodoBulkEdit changes in a todo item. */
+	public static final String UPDATE_BULK_EDITED_TODO = (
+		"update " + TODO_TABLE + " set "
+		+ DEADLINE_COLUMN + " = ?, "
+		+ PRIORITY_COLUMN + " = ?, "
+		+ STATUS_COLUMN + " = ?, "
+		+ FINGERPRINT_COLUMN + " = ?"
+		+ " where " + ID_COLUMN + " = ?"
+	);
+
+	/**
+	 * The SQL statement to select the IDs and the revisions of the todo
+	 * items that are not deleted yet to be completed with an ID list.
+	 */
+	public static final String SELECT_DELETABLE_TODOS_IN = (
+		"select " + ID_COLUMN + ", " + REVISION_COLUMN + " from " + TODO_TABLE
+		+ " where " + ID_COLUMN + " not in (select " + ID_COLUMN + " from " + DELETED_TODO_TABLE + ")"
+		+ " and " + ID_COLUMN + " in "
+	);
+
+	/** The SQL statement to delete local todos to be completed with an ID list. */
+	public static final String DELETE_TODO_IN = "delete from " + TODO_TABLE + " where " + ID_COLUMN + " in ";
+
+	/** The SQL statement to delete local tombstones to be completed with an ID list. */
+	public static final String DELETE_DELETED_TODO_IN = "delete from " + DELETED_TODO_TABLE + " where " + ID_COLUMN + " in ";
+
+	/** The SQL statement to mark remote todos for deletion to be completed with an ID list. */
+	public static final String DELETE_SYNC_IN = (
+		"update " + SYNC_TABLE + " set "
+		+ TITLE_COLUMN + " = null, "
+		+ DEADLINE_COLUMN + " = null, "
+		+ PRIORITY_COLUMN + " = null, "
+		+ STATUS_COLUMN + " = null, "
+		+ DESCRIPTION_COLUMN + " = null, "
+		+ REVISION_COLUMN + " = null, "
+		+ FINGERPRINT_COLUMN + " = null"
+		+ " where " + ID_COLUMN + " in "
+	);
+
+	/** The SQL statement to add ? to the local revisions to be completed with an ID list. */
+	public static final String ADD_TODO_REVISION_IN = (
+		"update " + TODO_TABLE + " set " + REVISION_COLUMN + " = " + REVISION_COLUMN + " + ?"
+		+ " where " + ID_COLUMN + " in "
+	);
+
+	private TodoSchema() {
+	}
+
+	/** Returns a random device prefix, which is positive so that every prefixed ID is at least LEGACY_ID_LIMIT. */
+	public static long newIdPrefix(Random random) {
+
+		return 1 + random.nextInt(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the sync table revision of a local todo item copied by
+	 * insertToSync(), which is NEW_TODO_REVISION for a new item and
+	 * NEW_TODO_REVISION - revision - 1 for a resurrected one. The latter is
+	 * below NEW_TODO_REVISION for every revision up to
+	 * MAX_RESURRECTED_REVISION; a larger one would wrap around to a
+	 * non-negative value and is rejected.
+	 *
+	 * @throws IllegalArgumentException if the revision cannot be encoded
+	 */
+	public static int toSyncRevision(int revision) {
+
+		if (revision == NEW_TODO_REVISION) {
+
+			return NEW_TODO_REVISION;
+		}
+		if (revision < 0 || revision > MAX_RESURRECTED_REVISION) {
+
+			throw new IllegalArgumentException("Revision out of range: " + revision);
+		}
+
+		return NEW_TODO_REVISION - revision - 1;
+	}
+
+	/**
+	 * Returns the revision that toSyncRevision() has encoded or null for a
+	 * new todo item.
+	 *
+	 * @throws IllegalStateException if the value is not a new sync revision
+	 */
+	public static Integer fromSyncRevision(int syncRevision) {
+
+		if (syncRevision == NEW_TODO_REVISION) {
+
+			return null;
+		}
+		if (syncRevision > NEW_TODO_REVISION) {
+
+			throw new IllegalStateException("Invalid new sync revision: " + syncRevision);
+		}
+
+		return Integer.valueOf(NEW_TODO_REVISION - syncRevision - 1);
+	}
+
+	/** Returns the value of last_id that makes the first generated ID of a prefix be prefix:1. */
+	public static long firstLastId(long idPrefix) {
+
+		return idPrefix << ID_COUNTER_BITS;
+	}
+
+	/** Returns the condition that the todo item of a trigger row, which is "new" or "old", has a tombstone. */
+	private static String isTombstoned(String row) {
+
+		return "exists (select " + ID_COLUMN + " from " + DELETED_TODO_TABLE
+			+ " where " + ID_COLUMN + " = " + row + "." + ID_COLUMN + ")";
+	}
+
+	/** Returns the condition that a row of the todo table has no tombstone. */
+	private static String isListed() {
+
+		return ID_COLUMN + " not in (select " + ID_COLUMN + " from " + DELETED_TODO_TABLE + ")";
+	}
+
+	/** Returns the condition that an item is counted in deadline_counter. */
+	private static String isOpen(String deadline, String status) {
+
+		return deadline + " is not null and ifnull(" + status + ", '') <> '" + CLOSED_STATUS + "'";
+	}
+
+	/** Returns the status, priority and deadline of a trigger row, which is "new" or "old". */
+	private static String[] rowFields(String row) {
+
+		return new String[] {row + "." + STATUS_COLUMN, row + "." + PRIORITY_COLUMN, row + "." + DEADLINE_COLUMN};
+	}
+
+	/** Returns the status, priority and deadline of the todo item with the ID of a trigger row. */
+	private static String[] todoFields(String row) {
+
+		String[] fields = {STATUS_COLUMN, PRIORITY_COLUMN, DEADLINE_COLUMN};
+		for (int i = 0; i < fields.length; i++) {
+
+			fields[i] = "(select " + fields[i] + " from " + TODO_TABLE
+				+ " where " + ID_COLUMN + " = " + row + "." + ID_COLUMN + ")";
+		}
+
+		return fields;
+	}
+
+	/**
+	 * Returns the trigger statements that add a delta such as "+ 1" to the
+	 * counters of an item given its status, priority and deadline.
+	 */
+	private static String countTodo(String[] fields, String delta) {
+
+		String status = "'" + STATUS_COUNTER + "' || ifnull(" + fields[0] + ", '')";
+		String priority = "'" + PRIORITY_COUNTER + "' || ifnull(" + fields[1] + ", '')";
+		String isOpen = isOpen(fields[2], fields[0]);
+
+		return "insert or ignore into " + COUNTER_TABLE + " values (" + status + ", 0); "
+			+ "update " + COUNTER_TABLE + " set " + COUNT_COLUMN + " = " + COUNT_COLUMN + " " + delta
+			+ " where " + NAME_COLUMN + " = " + status + "; "
+			+ "insert or ignore into " + COUNTER_TABLE + " values (" + priority + ", 0); "
+			+ "update " + COUNTER_TABLE + " set " + COUNT_COLUMN + " = " + COUNT_COLUMN + " " + delta
+			+ " where " + NAME_COLUMN + " = " + priority + "; "
+			+ "insert or ignore into " + DEADLINE_COUNTER_TABLE + " select " + fields[2] + ", 0 where " + isOpen + "; "
+			+ "update " + DEADLINE_COUNTER_TABLE + " set " + COUNT_COLUMN + " = " + COUNT_COLUMN + " " + delta
+			+ " where " + DEADLINE_COLUMN + " = " + fields[2] + " and " + isOpen + "; ";
+	}
+
+	/** Returns the ALL_COLUMNS separated by commas. */
+	private static String columnList() {
+
+		StringBuilder b = new StringBuilder();
+		for (String column : ALL_COLUMNS) {
+
+			if (b.length() != 0) {
+
+				b.append(", ");
+			}
+			b.append(column);
+		}
+
+		return b.toString();
+	}
+
+	/** Returns "column = the local value if it differs from the remote one or NULL". */
+	private static String changedField(String column) {
+
+		return column + " = (select case when " + TODO_TABLE + "." + column + " = " + SYNC_TABLE + "." + column
+			+ " then null else " + TODO_TABLE + "." + column + " end from " + TODO_TABLE
+			+ " where " + TODO_TABLE + "." + ID_COLUMN + " = " + SYNC_TABLE + "." + ID_COLUMN + ")";
+	}
+
+	/** Returns "column = the remote value". */
+	private static String remoteField(String column) {
+
+		return column + " = (select " + column + " from " + SYNC_TABLE
+			+ " where " + SYNC_TABLE + "." + ID_COLUMN + " = " + TODO_TABLE + "." + ID_COLUMN + ")";
+	}
+
+	/**
+	 * Returns the parenthesized list of ids[from] to ids[to - 1] that
+	 * completes one of the *_IN statements.
+	 */
+	public static String idList(long[] ids, int from, int to) {
+
+		StringBuilder b = new StringBuilder("(");
+		for (int i = from; i < to; i++) {
+
+			if (i != from) {
+
+				b.append(',');
+			}
+			b.append(ids[i]);
+		}
+
+		return b.append(')').toString();
+	}
+
+	/**
+	 * Returns the selection of the rows of a table of todo items along
+	 * with their compressed descriptions in the DESCRIPTION_DATA_COLUMN,
+	 * which reads both in a single statement.
+	 */
+	public static String selectWithDescription(String table) {
+
+		return "select *, (select " + DATA_COLUMN + " from " + DESCRIPTION_TABLE
+			+ " where " + DESCRIPTION_TABLE + "." + ID_COLUMN + " = " + table + "." + ID_COLUMN + ") as "
+			+ DESCRIPTION_DATA_COLUMN + " from " + table;
+	}
+}
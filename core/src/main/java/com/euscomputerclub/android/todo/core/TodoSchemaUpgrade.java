@@ -0,0 +1,278 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Class TodoSchemaUpgrade brings a todo DB of an earlier version, as kept
+ * in its user_version by the Android TodoDb, to LAST_VERSION one version
+ * at a time. The subclass runs the statements on its own connection.
+ *
+ * Every step runs the DDL of its own version rather than the current one
+ * of TodoSchema where the two differ, so that the DB is after every step
+ * as a DB created at that version and a later step finds the tables it
+ * alters as it expects them.
+ *
+ * @author eus
+ */
+public abstract class TodoSchemaUpgrade {
+
+	/** The current version of the DB. */
+	public static final int LAST_VERSION = 15;
+
+	/** The version 2 of the SQL statement to create todo table, whose name is "?". */
+	public static final String CREATE_TODO_TABLE_2 = ("create table ? ("
+		+ TodoSchema.ID_COLUMN + " integer primary key autoincrement, "
+		+ TodoSchema.TITLE_COLUMN + " text not null, "
+		+ TodoSchema.DEADLINE_COLUMN + " text not null, "
+		+ TodoSchema.PRIORITY_COLUMN + " integer not null, "
+		+ TodoSchema.STATUS_COLUMN + " text not null, "
+		+ TodoSchema.DESCRIPTION_COLUMN + " text);"
+	);
+
+	/** The version 3 of the SQL statement to create todo table, whose name is "?". */
+	public static final String CREATE_TODO_TABLE_3 = ("create table ? ("
+		+ TodoSchema.ID_COLUMN + " integer not null primary key autoincrement, "
+		+ TodoSchema.TITLE_COLUMN + " text, "
+		+ TodoSchema.DEADLINE_COLUMN + " text, "
+		+ TodoSchema.PRIORITY_COLUMN + " integer, "
+		+ TodoSchema.STATUS_COLUMN + " text, "
+		+ TodoSchema.DESCRIPTION_COLUMN + " text);"
+	);
+
+	/** The version 7 of the SQL statement to create sync_checkpoint table, which has no pending column yet. */
+	public static final String CREATE_SYNC_CHECKPOINT_TABLE_7 = ("create table " + TodoSchema.SYNC_CHECKPOINT_TABLE + " ("
+		+ TodoSchema.ID_COLUMN + " integer not null primary key check (" + TodoSchema.ID_COLUMN + " = 1), "
+		+ TodoSchema.SESSION_TOKEN_COLUMN + " integer not null, "
+		+ TodoSchema.PHASE_COLUMN + " text not null, "
+		+ TodoSchema.RECEIVED_COLUMN + " integer not null, "
+		+ TodoSchema.BUCKET_SET_COLUMN + " blob);"
+	);
+
+	/**
+	 * The condition that a deadline has the month "010", "011" or "012",
+	 * which Deadline wrote for October to December before version 15.
+	 */
+	public static final String HAS_PADDED_MONTH = (
+		TodoSchema.DEADLINE_COLUMN + " glob '[0-9][0-9][0-9][0-9]-01[0-2]-*'"
+	);
+
+	/** The SQL statement of version 15 to count the archived items whose deadlines have a padded month. */
+	public static final String COUNT_ARCHIVED_PADDED_MONTHS = (
+		"select count(*) from " + TodoSchema.ARCHIVED_TODO_TABLE + " where " + HAS_PADDED_MONTH
+	);
+
+	/** The list of the IDs of every archived item, which completes the statements ending with "in ". */
+	public static final String ALL_ARCHIVED_IDS = (
+		"(select " + TodoSchema.ID_COLUMN + " from " + TodoSchema.ARCHIVED_TODO_TABLE + ")"
+	);
+
+	/** The SQL statement to forget the bucket hashes of the archive, which is then empty. */
+	public static final String CLEAR_ARCHIVE_HASH = "delete from " + TodoSchema.ARCHIVE_HASH_TABLE;
+
+	/**
+	 * The SQL statement of version 15 to drop the trigger of version 14,
+	 * which dropped a compressed description only when the description
+	 * column was written with a value.
+	 */
+	public static final String DROP_DESCRIPTION_UPDATE_TRIGGER = (
+		"drop trigger if exists " + TodoSchema.DESCRIPTION_TABLE + "_update"
+	);
+
+	/**
+	 * The SQL statement of version 15 to queue a deadline update of every
+	 * item that the server has with a padded month, so that the server gets
+	 * the normalized deadline as if the user had edited it.
+	 */
+	public static final String QUEUE_PADDED_MONTH_UPDATES = (
+		"insert into " + TodoSchema.OUTBOX_TABLE + " ("
+		+ TodoSchema.TODO_ID_COLUMN + ", "
+		+ TodoSchema.OPERATION_COLUMN + ", "
+		+ TodoSchema.FIELD_MASK_COLUMN + ", "
+		+ TodoSchema.BASE_REVISION_COLUMN + ")"
+		+ " select " + TodoSchema.ID_COLUMN + ", " + TodoTlv.CHUNK_UPDATE_TODO + ", " + SyncPlan.DEADLINE_FIELD + ", null"
+		+ " from " + TodoSchema.TODO_TABLE
+		+ " where " + HAS_PADDED_MONTH
+		+ " and " + TodoSchema.REVISION_COLUMN + " <> " + TodoSchema.NEW_TODO_REVISION
+		+ " and " + TodoSchema.ID_COLUMN + " not in (select " + TodoSchema.ID_COLUMN + " from " + TodoSchema.DELETED_TODO_TABLE + ")"
+		+ " order by " + TodoSchema.ID_COLUMN
+	);
+
+	/**
+	 * The SQL statement of version 15 to drop the padding zero of the
+	 * months of the deadlines and the fingerprints that cover them.
+	 */
+	public static final String NORMALIZE_PADDED_MONTHS = (
+		"update " + TodoSchema.TODO_TABLE + " set "
+		+ TodoSchema.DEADLINE_COLUMN + " = substr(" + TodoSchema.DEADLINE_COLUMN + ", 1, 5) || substr("
+		+ TodoSchema.DEADLINE_COLUMN + ", 7), "
+		+ TodoSchema.FINGERPRINT_COLUMN + " = null"
+		+ " where " + HAS_PADDED_MONTH
+	);
+
+	/** True if the upgrade has moved the rows of the sync table of version 10 to the temp one. */
+	protected boolean isDiskSyncTableCopied;
+
+	/** Upgrades the DB from a version to a later one. */
+	public void upgrade(int oldVersion, int newVersion) {
+
+		for (int upgradeTo = oldVersion + 1; upgradeTo <= newVersion; upgradeTo++) {
+
+			upgradeTo(upgradeTo);
+		}
+	}
+
+	/** Returns true if the upgrade has moved the rows of the sync table of version 10 to the temp one. */
+	public boolean isDiskSyncTableCopied() {
+
+		return isDiskSyncTableCopied;
+	}
+
+	/** Upgrades the DB of the previous version to the given one. */
+	protected void upgradeTo(int version) {
+
+		switch (version) {
+		case 2:
+			recreateTodoTable(CREATE_TODO_TABLE_2);
+			break;
+		case 3:
+			recreateTodoTable(CREATE_TODO_TABLE_3);
+			break;
+		case 4:
+			execSQL("alter table " + TodoSchema.TODO_TABLE + " add "
+				+ TodoSchema.REVISION_COLUMN + " integer default "
+				+ TodoSchema.NEW_TODO_REVISION + " not null;");
+			execSQL(TodoSchema.CREATE_SYNC_TABLE);
+			execSQL(TodoSchema.CREATE_DELETED_TODO_TABLE);
+			break;
+		case 5:
+			execSQL(TodoSchema.ADD_FINGERPRINT_COLUMN);
+			execSQL("drop table if exists " + TodoSchema.SYNC_TABLE + ";");
+			execSQL(TodoSchema.CREATE_SYNC_TABLE);
+			computeFingerprints("select * from " + TodoSchema.TODO_TABLE);
+			break;
+		case 6:
+			createIdSequence();
+			execSQL("drop table if exists " + TodoSchema.SYNC_TABLE + ";");
+			execSQL(TodoSchema.CREATE_SYNC_TABLE);
+			renumberLegacyNewTodos();
+			break;
+		case 7:
+			execSQL(CREATE_SYNC_CHECKPOINT_TABLE_7);
+			break;
+		case 8:
+			execSQL(TodoSchema.CREATE_OUTBOX_TABLE);
+			break;
+		case 9:
+			execSQL(TodoSchema.CREATE_PULL_WATERMARK_TABLE);
+			break;
+		case 10:
+			execSQL(TodoSchema.CREATE_MERGE_BASE_TABLE);
+			break;
+		case 11:
+			execSQL(TodoSchema.ADD_PENDING_COLUMN);
+			execSQL(TodoSchema.CREATE_SYNC_TABLE);
+			if (queryLong(TodoSchema.HAS_DISK_SYNC_TABLE) != 0) {
+
+				execSQL(TodoSchema.COPY_DISK_SYNC_TABLE);
+				execSQL(TodoSchema.DROP_DISK_SYNC_TABLE);
+				isDiskSyncTableCopied = true;
+			}
+			break;
+		case 12:
+			execSQL(TodoSchema.CREATE_ARCHIVED_TODO_TABLE);
+			execSQL(TodoSchema.CREATE_ARCHIVE_HASH_TABLE);
+			break;
+		case 13:
+			createCounters();
+			for (String sql : TodoSchema.RECOMPUTE_COUNTERS) {
+
+				execSQL(sql);
+			}
+			break;
+		case 14:
+			createDescriptions();
+			compressDescriptions(TodoSchema.SELECT_LONG_DESCRIPTIONS);
+			break;
+		case 15:
+			// The bucket hashes of the archive cover the fingerprints of
+			// the padded months, so the whole archive is moved back to
+			// be normalized and archived again by the next archive pass.
+			if (queryLong(COUNT_ARCHIVED_PADDED_MONTHS) != 0) {
+
+				execSQL(TodoSchema.UNARCHIVE_TODOS_IN + ALL_ARCHIVED_IDS);
+				execSQL(TodoSchema.DELETE_ARCHIVED_TODO_IN + ALL_ARCHIVED_IDS);
+				execSQL(CLEAR_ARCHIVE_HASH);
+			}
+			execSQL(QUEUE_PADDED_MONTH_UPDATES);
+			execSQL(NORMALIZE_PADDED_MONTHS);
+			computeFingerprints(TodoSchema.selectWithDescription(TodoSchema.TODO_TABLE)
+					    + " where " + TodoSchema.FINGERPRINT_COLUMN + " is null");
+			execSQL(DROP_DESCRIPTION_UPDATE_TRIGGER);
+			execSQL(TodoSchema.CREATE_DESCRIPTION_UPDATE_TRIGGER);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown version " + version);
+		}
+	}
+
+	/** Moves the rows of the todo table into a new one created by a statement of CREATE_TODO_TABLE_2 or later. */
+	protected void recreateTodoTable(String createTodoTable) {
+
+		execSQL(createTodoTable.replace("?", "TMP_TABLE"));
+		execSQL("insert into TMP_TABLE select * from " + TodoSchema.TODO_TABLE + ";");
+		execSQL("drop table " + TodoSchema.TODO_TABLE + ";");
+		execSQL(createTodoTable.replace("?", TodoSchema.TODO_TABLE));
+		execSQL("insert into " + TodoSchema.TODO_TABLE + " select "
+			+ TodoSchema.ID_COLUMN + ", "
+			+ TodoSchema.TITLE_COLUMN + ", "
+			+ TodoSchema.DEADLINE_COLUMN + ", "
+			+ TodoSchema.PRIORITY_COLUMN + ", "
+			+ TodoSchema.STATUS_COLUMN + ", "
+			+ TodoSchema.DESCRIPTION_COLUMN + " from TMP_TABLE;");
+		execSQL("drop table TMP_TABLE;");
+	}
+
+	/** Creates the counter tables and the triggers keeping them up to date. */
+	protected void createCounters() {
+
+		execSQL(TodoSchema.CREATE_COUNTER_TABLE);
+		execSQL(TodoSchema.CREATE_DEADLINE_COUNTER_TABLE);
+		execSQL(TodoSchema.CREATE_DELETED_TODO_INDEX);
+		for (String sql : TodoSchema.CREATE_COUNTER_TRIGGERS) {
+
+			execSQL(sql);
+		}
+	}
+
+	/** Creates the todo_description table and the triggers dropping its rows. */
+	protected void createDescriptions() {
+
+		execSQL(TodoSchema.CREATE_DESCRIPTION_TABLE);
+		for (String sql : TodoSchema.CREATE_DESCRIPTION_TRIGGERS) {
+
+			execSQL(sql);
+		}
+	}
+
+	/** Runs a statement that returns no rows. */
+	protected abstract void execSQL(String sql);
+
+	/** Returns the first column of the first row of a query or 0 if there is none. */
+	protected abstract long queryLong(String sql);
+
+	/** Creates the ID sequence of this device with a random prefix. */
+	protected abstract void createIdSequence();
+
+	/**
+	 * Gives the new todo items created before version 6 IDs with the
+	 * device prefix so that they cannot collide with the server items.
+	 */
+	protected abstract void renumberLegacyNewTodos();
+
+	/**
+	 * Stores the fingerprint of the todo items that a statement selects
+	 * with all their columns, e.g. those created before version 5.
+	 */
+	protected abstract void computeFingerprints(String sql);
+
+	/** Moves the long descriptions that a statement selects with the IDs of their items into todo_description. */
+	protected abstract void compressDescriptions(String sql);
+}
@@ -0,0 +1,174 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Class TodoSnapshot is a columnar copy of a table of todo items sorted by
+ * ID. Every row is reduced to its ID, its revision, the fingerprint of its
+ * data and whether it has been deleted locally, which is all that the
+ * [A1]-[A16] rules need besides the sides of the conflicts.
+ *
+ * @author eus
+ */
+public class TodoSnapshot {
+
+	/** The IDs in ascending order. */
+	public final long[] ids;
+	/** The revision of every row. */
+	public final int[] revisions;
+	/** The Todo.computeFingerprint() of every row. */
+	public final long[] fingerprints;
+	/** True for every row that is in the deleted_todo table. */
+	public final boolean[] deleted;
+	/** The number of rows. */
+	public final int size;
+
+	protected TodoSnapshot(long[] ids, int[] revisions, long[] fingerprints, boolean[] deleted, int size) {
+
+		this.ids = ids;
+		this.revisions = revisions;
+		this.fingerprints = fingerprints;
+		this.deleted = deleted;
+		this.size = size;
+	}
+
+	/**
+	 * Reads a snapshot of the todo table. The cursor needs at least the
+	 * TodoSchema.FINGERPRINT_COLUMNS; a NULL fingerprint is computed from
+	 * the data columns.
+	 *
+	 * @param local the todo table including the deleted items sorted by ID
+	 * @param deleted the IDs of the deleted_todo table sorted by ID
+	 */
+	public static TodoSnapshot readLocal(TodoCursor local, TodoCursor deleted) {
+
+		Builder b = new Builder(local.getCount());
+		int idIndex = local.getColumnIndex(TodoSchema.ID_COLUMN);
+		int revisionIndex = local.getColumnIndex(TodoSchema.REVISION_COLUMN);
+		long deletedId = deleted.moveToNext() ? deleted.getLong(0) : Long.MAX_VALUE;
+
+		while (local.moveToNext()) {
+
+			long id = local.getLong(idIndex);
+
+			while (deletedId < id) {
+
+				deletedId = deleted.moveToNext() ? deleted.getLong(0) : Long.MAX_VALUE;
+			}
+			b.add(id, local.getInt(revisionIndex), fingerprint(local, false), deletedId == id);
+		}
+
+		return b.build();
+	}
+
+	/**
+	 * Reads a snapshot of the sync table whose records must all carry a
+	 * revision like the received CHUNK_TODO chunks.
+	 *
+	 * @param remote the sync table sorted by ID with at least the
+	 *               TodoSchema.FINGERPRINT_COLUMNS
+	 */
+	public static TodoSnapshot readRemote(TodoCursor remote) {
+
+		Builder b = new Builder(remote.getCount());
+		int idIndex = remote.getColumnIndex(TodoSchema.ID_COLUMN);
+		int revisionIndex = remote.getColumnIndex(TodoSchema.REVISION_COLUMN);
+
+		while (remote.moveToNext()) {
+
+			long id = remote.getLong(idIndex);
+			if (remote.isNull(revisionIndex)) {
+
+				throw new IllegalStateException("Incomplete remote todo " + id);
+			}
+			b.add(id, remote.getInt(revisionIndex), fingerprint(remote, true), false);
+		}
+
+		return b.build();
+	}
+
+	/** Returns the stored fingerprint of the current row or computes it from the data columns. */
+	protected static long fingerprint(TodoCursor c, boolean isRemote) {
+
+		Long f = SyncEngine.readFingerprint(c);
+		if (f != null) {
+
+			return f.longValue();
+		}
+		if (c.getColumnIndex(TodoSchema.TITLE_COLUMN) == -1) {
+
+			throw new IllegalStateException("Missing fingerprint");
+		}
+
+		return (isRemote ? SyncEngine.readSyncTodo(c) : SyncEngine.readTodo(c)).computeFingerprint();
+	}
+
+	/** Returns the index of the first row whose ID is not less than id within [from, to). */
+	public int lowerBound(int from, int to, long id) {
+
+		while (from < to) {
+
+			int mid = (from + to) >>> 1;
+			if (ids[mid] < id) {
+
+				from = mid + 1;
+			} else {
+
+				to = mid;
+			}
+		}
+
+		return from;
+	}
+
+	/** Collects the rows of a snapshot in growable arrays. */
+	protected static class Builder {
+
+		protected long[] ids;
+		protected int[] revisions;
+		protected long[] fingerprints;
+		protected boolean[] deleted;
+		protected int size;
+
+		protected Builder(int capacity) {
+
+			capacity = Math.max(capacity, 16);
+			ids = new long[capacity];
+			revisions = new int[capacity];
+			fingerprints = new long[capacity];
+			deleted = new boolean[capacity];
+		}
+
+		protected void add(long id, int revision, long fingerprint, boolean isDeleted) {
+
+			if (size != 0 && ids[size - 1] >= id) {
+
+				throw new IllegalArgumentException("IDs are not in ascending order: " + id);
+			}
+			if (size == ids.length) {
+
+				int capacity = size * 2;
+				long[] newIds = new long[capacity];
+				int[] newRevisions = new int[capacity];
+				long[] newFingerprints = new long[capacity];
+				boolean[] newDeleted = new boolean[capacity];
+				System.arraycopy(ids, 0, newIds, 0, size);
+				System.arraycopy(revisions, 0, newRevisions, 0, size);
+				System.arraycopy(fingerprints, 0, newFingerprints, 0, size);
+				System.arraycopy(deleted, 0, newDeleted, 0, size);
+				ids = newIds;
+				revisions = newRevisions;
+				fingerprints = newFingerprints;
+				deleted = newDeleted;
+			}
+			ids[size] = id;
+			revisions[size] = revision;
+			fingerprints[size] = fingerprint;
+			deleted[size] = isDeleted;
+			size++;
+		}
+
+		protected TodoSnapshot build() {
+
+			return new TodoSnapshot(ids, revisions, fingerprints, deleted, size);
+		}
+	}
+}
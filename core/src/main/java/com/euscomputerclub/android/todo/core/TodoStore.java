@@ -0,0 +1,348 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interface TodoStore is the storage used by the application and by the
+ * SyncEngine. Besides the todo table, it maintains the deleted_todo
+ * tombstones and the sync staging table described in
+ * doc/assignment6_solution.txt.
+ *
+ * Every edit made through createTodo(), updateTodo() and deleteTodo() is also
+ * appended to the outbox so that an OutboxPusher can send it to the server
+ * without a sync.
+ *
+ * Closed items that are old enough can be archived out of the todo table.
+ * updateTodo() and deleteTodo() bring an archived item back first.
+ *
+ * A store may keep the descriptions that TodoDescription.isLong() accepts
+ * compressed out of line, in which case the cursors of the todo table have
+ * NULL descriptions for them while getTodo() and getLocalTodo() return the
+ * whole items.
+ *
+ * @author eus
+ */
+public interface TodoStore {
+
+	/**
+	 * Creates a new todo item.
+	 *
+	 * @param deadline the todo's deadline as YYYY-MM-DD
+	 *
+	 * @return the row ID of the newly inserted row or -1 if an error occurred.
+	 */
+	long createTodo(String title, String deadline, int priority, String status, String description);
+
+	/**
+	 * Creates new todo items in a single transaction, which is rolled back
+	 * if the iterator throws. Unlike createTodo(), no outbox operation is
+	 * appended because the next sync sends the new items far more cheaply
+	 * than pushes. The ID, revision and fingerprint of the given items are
+	 * ignored.
+	 *
+	 * @return the number of created items
+	 */
+	int createTodos(Iterator<? extends Todo> todos);
+
+	/**
+	 * Deletes all todo items along with their tombstones, merge bases and
+	 * outbox operations, the pull watermark and the sync checkpoint, e.g.
+	 * before a snapshot is restored.
+	 */
+	void clearTodos();
+
+	/**
+	 * Inserts todo items keeping their IDs, revisions and fingerprints in a
+	 * single transaction like createTodos(). A missing revision is
+	 * NEW_TODO_REVISION and a missing fingerprint is computed. The ID
+	 * sequence is advanced past the inserted IDs with the prefix of this
+	 * device.
+	 *
+	 * @return the number of inserted items
+	 */
+	int restoreTodos(Iterator<? extends Todo> todos);
+
+	/** Marks the listed todo items as deleted since the last sync without touching the outbox. */
+	void restoreDeletedTodos(long[] ids);
+
+	/**
+	 * Update a todo item. A null argument leaves the field unchanged.
+	 *
+	 * @return the number of updated todo items.
+	 */
+	int updateTodo(long id, String title, String deadline, Integer priority, String status, String description);
+
+	/**
+	 * Deletes a todo item. A todo item that has ever been synchronized is
+	 * only marked as deleted until the next sync.
+	 *
+	 * @return the number of deleted todo items.
+	 */
+	int deleteTodo(long id);
+
+	/**
+	 * Applies an edit to the listed todo items in a single transaction
+	 * like updateTodo(), appending an outbox operation for every item that
+	 * the edit changes.
+	 *
+	 * @return the number of changed todo items
+	 */
+	int updateTodos(long[] ids, TodoBulkEdit edit);
+
+	/**
+	 * Deletes the listed todo items in a single transaction like
+	 * deleteTodo(), skipping the ones that are already deleted.
+	 *
+	 * @return the number of deleted todo items
+	 */
+	int deleteTodos(long[] ids);
+
+	/** Returns a todo item that is not deleted, which may be archived, or null if it does not exist. */
+	Todo getTodo(long id);
+
+	/** Like getTodo(long) for every listed ID, leaving out the items that do not exist. */
+	List<Todo> getTodos(long[] ids);
+
+	/** Returns a todo item even if it is deleted or null if it does not exist. */
+	Todo getLocalTodo(long id);
+
+	/**
+	 * Returns the description of a todo item, which may be archived, that
+	 * is kept compressed out of line, its description column being NULL,
+	 * or null if there is none.
+	 */
+	String getLongDescription(long id);
+
+	/** Empties the sync table for a new sync. */
+	void recreateSyncTable();
+
+	/** Empties the sync table to save memory once a sync is over. */
+	void dropSync();
+
+	/** Stores a todo item received from the sync server. */
+	long createSyncTodo(long id, String title, String deadline,
+			    int priority, String status, String description,
+			    int revision);
+
+	/** Stores a todo item received from the sync server computing its fingerprint if it is absent. */
+	long createSyncTodo(Todo remoteTodo);
+
+	/** Returns all todo items including the ones deleted since the last sync sorted by ID. */
+	TodoCursor getAllTodoIncludingDeletedOnes();
+
+	/** Returns all records of the sync table sorted by ID. */
+	TodoCursor getAllSyncTodo();
+
+	/**
+	 * Returns the TodoSchema.FINGERPRINT_COLUMNS of all todo items
+	 * including the deleted ones sorted by ID.
+	 */
+	TodoCursor getAllTodoFingerprints();
+
+	/** Returns the TodoSchema.FINGERPRINT_COLUMNS of the sync table sorted by ID. */
+	TodoCursor getAllSyncFingerprints();
+
+	/** Returns the IDs of the todo items deleted since the last sync sorted by ID. */
+	TodoCursor getAllDeletedTodoIds();
+
+	/** Returns a todo item received from the sync server or null. */
+	Todo getRemoteTodo(long id);
+
+	/** Like getRemoteTodo(long) for every listed ID, leaving out the items that do not exist. */
+	List<Todo> getRemoteTodos(long[] ids);
+
+	/** Returns true if the user has deleted the local todo. */
+	boolean isLocalDeleted(long id);
+
+	/** Updates the revision of a local todo item. */
+	int updateTodoRevision(long id, int newRevision);
+
+	/** Updates a remote todo item with the fields that differ locally. */
+	int updateSync(Todo remoteTodo, Todo localTodo);
+
+	/** Replaces a local todo item with the remote one. */
+	int replaceTodo(Todo remoteTodo);
+
+	/** Writes the data fields of a merged todo item to the local one keeping its revision. */
+	int mergeTodo(Todo mergedTodo);
+
+	/** Creates a new remote todo item. */
+	long insertToSync(Todo localTodo);
+
+	/** Removes a remote todo item from the synchronization process. */
+	int removeSync(long id);
+
+	/** Deletes a local todo item. */
+	int deleteLocal(long id);
+
+	/** Marks a remote todo item for deletion. */
+	int deleteSync(long id);
+
+	/** Imports remote todos that do not exist locally. */
+	void importNewTodos();
+
+	/**
+	 * Gives revision 1 to the new local todo items that insertToSync() has
+	 * copied into the sync table and deletes the other new ones, whose IDs
+	 * the server has taken.
+	 */
+	void confirmNewTodos();
+
+	/** Returns all new todo items to be sent to the synchronization server. */
+	TodoCursor getAllNewSyncTodo();
+
+	/** Returns all updated todo items to be sent to the synchronization server. */
+	TodoCursor getAllUpdatedSyncTodo();
+
+	/** Returns all deleted todo items to be sent to the synchronization server. */
+	TodoCursor getAllDeletedSyncTodo();
+
+	/** Like insertToSync(Todo) for every listed local todo item skipping colliding IDs. */
+	void insertToSync(long[] ids);
+
+	/** Like updateSync(Todo, Todo) for every listed todo item. */
+	void updateSync(long[] ids);
+
+	/** Like replaceTodo(Todo) for every listed remote todo item. */
+	void replaceTodos(long[] ids);
+
+	/** Like removeSync(long) for every listed ID. */
+	void removeSync(long[] ids);
+
+	/** Like deleteLocal(long) for every listed ID. */
+	void deleteLocal(long[] ids);
+
+	/** Like deleteSync(long) for every listed ID. */
+	void deleteSync(long[] ids);
+
+	/** Adds delta to the revision of every listed local todo item. */
+	void addTodoRevision(long[] ids, int delta);
+
+	/** Returns the checkpoint of the last sync that has not completed or null. */
+	SyncCheckpoint getSyncCheckpoint();
+
+	/** Saves the checkpoint of the running sync replacing the previous one. */
+	void saveSyncCheckpoint(SyncCheckpoint checkpoint);
+
+	/** Removes the checkpoint once the sync has completed. */
+	void clearSyncCheckpoint();
+
+	/** Returns the random prefix of the IDs of this device, which identifies the device. */
+	long getIdPrefix();
+
+	/**
+	 * Appends an operation to the outbox. createTodo(), updateTodo() and
+	 * deleteTodo() append theirs themselves.
+	 *
+	 * @param type TodoTlv.CHUNK_NEW_TODO, CHUNK_UPDATE_TODO or CHUNK_DELETE_TODO
+	 * @param fieldMask the SyncPlan field mask of the updated fields
+	 * @param baseRevision the server revision the operation applies to or
+	 *                     null to derive it when the operation is pushed
+	 */
+	void appendOutbox(long todoId, byte type, int fieldMask, Integer baseRevision);
+
+	/** Returns the first operations of the outbox sorted by sequence number. */
+	List<OutboxOp> getOutbox(int limit);
+
+	/** Returns the sequence number of the last operation of the outbox or 0 if it is empty. */
+	long getLastOutboxSequence();
+
+	/** Removes the listed operations from the outbox. */
+	void removeOutbox(long[] sequences);
+
+	/** Removes the operations of a todo item from the outbox. */
+	void removeOutboxOf(long todoId);
+
+	/** Removes the operations up to a sequence number, which a sync has covered, from the outbox. */
+	void clearOutbox(long lastSequence);
+
+	/**
+	 * Returns the watermark up to which the todo table has the changes of
+	 * the server or 0 if it is unknown.
+	 */
+	long getPullWatermark();
+
+	/** Saves the watermark up to which the todo table has the changes of the server. */
+	void savePullWatermark(long watermark);
+
+	/**
+	 * Returns the ThreeWayMerge base of a todo item or null if both sides
+	 * have not agreed on the item since the base has been introduced.
+	 * deleteLocal() removes the base along with the item.
+	 */
+	byte[] getMergeBase(long id);
+
+	/** Saves the ThreeWayMerge base of a todo item replacing the previous one. */
+	void saveMergeBase(long id, byte[] base);
+
+	/**
+	 * Like getMergeBase(long) for every listed ID, returning a new map by ID
+	 * that leaves out the IDs without a base.
+	 */
+	Map<Long, byte[]> getMergeBases(long[] ids);
+
+	/** Returns the version vectors of the listed remote todo items that have one by ID. */
+	Map<Long, byte[]> getRemoteVersionVectors(long[] ids);
+
+	/** Like saveMergeBase(long, byte[]) for every entry of a map of bases by ID, in one transaction. */
+	void saveMergeBases(Map<Long, byte[]> bases);
+
+	/**
+	 * Moves the synchronized closed todo items whose deadlines are before a
+	 * date and that have no local change to be sent to the archived_todo
+	 * table and adds them to the archive bucket hashes, in a single
+	 * transaction.
+	 *
+	 * @param deadlineBefore the date as YYYY-MM-DD
+	 *
+	 * @return the number of archived items
+	 */
+	int archiveTodos(String deadlineBefore);
+
+	/**
+	 * Moves the archived todo items of the HashTree buckets set in a bucket
+	 * set back to the todo table, e.g. before a sync compares them.
+	 *
+	 * @param bucketSet the bucket set or null for all archived items
+	 */
+	void unarchiveBuckets(byte[] bucketSet);
+
+	/** Moves the listed todo items that are archived back to the todo table. */
+	void unarchiveTodos(long[] ids);
+
+	/** Returns the XOR of the HashTree leaves of the archived todo items per bucket. */
+	long[] getArchiveBuckets();
+
+	/** Returns all archived todo items sorted by ID. */
+	TodoCursor getAllArchivedTodo();
+
+	/**
+	 * Refreshes the statistics of the query planner and gives the free
+	 * pages back to the file system. Must not be called in a transaction.
+	 */
+	void optimize();
+
+	/**
+	 * Returns the numbers of the listed todo items per status and per
+	 * priority, which the store keeps counted, and the number of overdue
+	 * items.
+	 *
+	 * @param today the day as YYYY-MM-DD before which a deadline is overdue
+	 */
+	TodoSummary getSummary(String today);
+
+	/**
+	 * Begins a transaction that is committed by endTransaction() once marked
+	 * successful. Transactions can be nested, in which case the outermost one
+	 * is committed only if all of them have been marked successful.
+	 */
+	void beginTransaction();
+
+	/** Marks the current transaction as successful. */
+	void setTransactionSuccessful();
+
+	/** Ends the current transaction rolling it back unless it has been marked successful. */
+	void endTransaction();
+}
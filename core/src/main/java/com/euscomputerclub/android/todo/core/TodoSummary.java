@@ -0,0 +1,133 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Class TodoSummary holds the numbers of the listed todo items, i.e. those
+ * that are neither deleted nor archived, per status and per priority, and
+ * the number of overdue items, which are not closed and have a deadline
+ * before the given day.
+ *
+ * @author eus
+ */
+public class TodoSummary {
+
+	/** The number of items per status with "" for no status. */
+	public final Map<String, Integer> statusCounts = new TreeMap<String, Integer>();
+	/** The number of items per priority with null for no priority. */
+	public final Map<Integer, Integer> priorityCounts = new TreeMap<Integer, Integer>(
+		new Comparator<Integer>() {
+
+			public int compare(Integer a, Integer b) {
+
+				return a == null ? (b == null ? 0 : -1) : (b == null ? 1 : a.compareTo(b));
+			}
+		});
+	/** The number of overdue items. */
+	public int overdueCount;
+
+	/**
+	 * Computes a summary from all todo items, which is what the counters of
+	 * a store are kept equal to.
+	 *
+	 * @param c the todo items, which are closed by this method
+	 * @param deletedIds the IDs of the tombstoned items
+	 * @param today the day as YYYY-MM-DD
+	 */
+	public static TodoSummary compute(TodoCursor c, Set<Long> deletedIds, String today) {
+
+		TodoSummary s = new TodoSummary();
+		try {
+
+			TodoRow row = new TodoRow(c);
+			while (c.moveToNext()) {
+
+				Todo t = row.toTodo();
+				if (deletedIds.contains(t.id)) {
+
+					continue;
+				}
+				s.add(t, today);
+			}
+		} finally {
+
+			c.close();
+		}
+
+		return s;
+	}
+
+	/** Counts an item. */
+	protected void add(Todo t, String today) {
+
+		String status = t.status == null ? "" : t.status;
+		statusCounts.put(status, Integer.valueOf(getStatusCount(status) + 1));
+		priorityCounts.put(t.priority, Integer.valueOf(getPriorityCount(t.priority) + 1));
+		if (t.deadline != null && !TodoSchema.CLOSED_STATUS.equals(t.status) && t.deadline.compareTo(today) < 0) {
+
+			overdueCount++;
+		}
+	}
+
+	/**
+	 * Sets a counter of the todo_counter table.
+	 *
+	 * @param name the TodoSchema.STATUS_COUNTER or PRIORITY_COUNTER prefix
+	 *             followed by the status or the priority
+	 */
+	public void putCounter(String name, int count) {
+
+		if (name.startsWith(TodoSchema.STATUS_COUNTER)) {
+
+			statusCounts.put(name.substring(TodoSchema.STATUS_COUNTER.length()), Integer.valueOf(count));
+		} else if (name.startsWith(TodoSchema.PRIORITY_COUNTER)) {
+
+			String priority = name.substring(TodoSchema.PRIORITY_COUNTER.length());
+			priorityCounts.put(priority.length() == 0 ? null : Integer.valueOf(priority), Integer.valueOf(count));
+		}
+	}
+
+	/** Returns the number of items with a status, "" meaning none. */
+	public int getStatusCount(String status) {
+
+		Integer n = statusCounts.get(status);
+
+		return n == null ? 0 : n.intValue();
+	}
+
+	/** Returns the number of items with a priority, null meaning none. */
+	public int getPriorityCount(Integer priority) {
+
+		Integer n = priorityCounts.get(priority);
+
+		return n == null ? 0 : n.intValue();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+
+		if (!(o instanceof TodoSummary)) {
+
+			return false;
+		}
+		TodoSummary s = (TodoSummary) o;
+
+		return statusCounts.equals(s.statusCounts) && priorityCounts.equals(s.priorityCounts)
+			&& overdueCount == s.overdueCount;
+	}
+
+	@Override
+	public int hashCode() {
+
+		return statusCounts.hashCode() * 31 + overdueCount;
+	}
+
+	@Override
+	public String toString() {
+
+		return "TodoSummary[status=" + statusCounts + ", priority=" + priorityCounts + ", overdue=" + overdueCount + "]";
+	}
+}
@@ -0,0 +1,819 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Class TodoSyncIO handles the synchronization communication between the
+ * local database and the remote database.
+ *
+ * A server that acknowledges the registration with a session token
+ * transfers the todo items in fragments that the client requests one by one
+ * by their offsets, and the client can come back with the token after an
+ * interruption to resume the session. A server that gives no token gets the
+ * todo items in single datagrams as before.
+ *
+ * Outside of a session, push() sends a batch of outbox operations in a
+ * single datagram that the server answers with the result of every
+ * operation.
+ *
+ * The server counts the changes of every user with a watermark, which it
+ * gives in the reset acknowledgement of a sync. A client that subscribes
+ * gets a notify datagram with the new watermark whenever the todo items of
+ * the user change, and pull() then fetches only the items changed after
+ * the watermark of the client.
+ *
+ * @author Tadeus Prastowo
+ */
+public class TodoSyncCommunication
+{
+	/** The socket address of the sync server. */
+	protected SocketAddress daddr;
+	/** The communication socket. */
+	protected DatagramSocket sock;
+	/** The session token given by the sync server or 0 if it gives none. */
+	protected long sessionToken;
+	/** Whether the registration has resumed the session of a given token. */
+	protected boolean isResumed;
+	/** The watermark given by the reset acknowledgement or 0 if the server gives none. */
+	protected long watermark;
+	/** The length of the datagram last received by sendAndReceive(). */
+	protected int receivedLen;
+
+	/** The host of the sync server as seen from the emulator. */
+	public static final String DEFAULT_HOST = "10.0.2.2";
+	/** The port of the sync server. */
+	public static final int DEFAULT_PORT = 50001;
+
+	/** The type of a register packet. */
+	public static final byte REGISTER_TYPE = 1;
+	/** The size of a register packet. */
+	public static final int REGISTER_LEN = 40;
+	/** The type of a register packet. */
+	public static final byte REGISTER_ACK_TYPE = 2;
+	/** The size of a register acknowledgement packet carrying the resume flag and the session token. */
+	public static final int REGISTER_ACK_LEN = 16;
+	/** The registration timeout in millisecond. */
+	public static final int REGISTER_TIMEOUT = 1000;
+	/** The maximum number of registration retries. */
+	public static final int MAX_REGISTER_RETRY = 5;
+
+	/** The type of a server-to-client sync request packet. */
+	public static final byte SERVER_CLIENT_SYNC_TYPE = 3;
+	/** The size of a server-to-client sync request packet. */
+	public static final int SERVER_CLIENT_SYNC_LEN = 8;
+	/** The server-to-client sync request timeout in millisecond. */
+	public static final int SERVER_CLIENT_SYNC_TIMEOUT = 1000;
+
+	/** The type of a server-to-client sync response packet. */
+	public static final byte SERVER_CLIENT_RESP_TYPE = 4;
+	/** The size of a server-to-client sync response packet. */
+	public static final int SERVER_CLIENT_RESP_LEN = 40;
+
+	/** The type of a start server-to-client sync packet. */
+	public static final byte SERVER_CLIENT_RESP_ACK_TYPE = 5;
+	/** The size of a start server-to-client sync packet. */
+	public static final int SERVER_CLIENT_RESP_ACK_LEN = 8;
+	/** The start server-to-client sync timeout in millisecond. */
+	public static final int SERVER_CLIENT_RESP_ACK_TIMEOUT = 10000;
+
+	/** The type of a client-to-server sync request packet. */
+	public static final byte CLIENT_SERVER_SYNC_TYPE = 6;
+	/** The size of a client-to-server sync request packet. */
+	public static final int CLIENT_SERVER_SYNC_LEN = 40;
+	/** The client-to-server sync request timeout in millisecond. */
+	public static final int CLIENT_SERVER_SYNC_TIMEOUT = 1000;
+
+	/** The type of a start client-to-server sync response packet. */
+	public static final byte CLIENT_SERVER_RESP_TYPE = 7;
+	/** The size of a client-to-server sync response packet. */
+	public static final int CLIENT_SERVER_RESP_LEN = 8;
+
+	/** The type of a start client-to-server sync complete packet. */
+	public static final byte CLIENT_SERVER_RESP_ACK_TYPE = 8;
+	/** The size of a client-to-server sync complete packet. */
+	public static final int CLIENT_SERVER_RESP_ACK_LEN = 8;
+	/** The client-to-server response acknowledgement timeout in millisecond. */
+	public static final int CLIENT_SERVER_RESP_ACK_TIMEOUT = 10000;
+
+	/** The type of a reset packet. */
+	public static final byte RESET_TYPE = 9;
+	/** The size of a reset packet. */
+	public static final int RESET_LEN = 8;
+	/** The type of a reset acknowledgement packet. */
+	public static final byte RESET_ACK_TYPE = 10;
+	/** The size of a reset acknowledgement packet carrying the watermark of the user at offset 8. */
+	public static final int RESET_ACK_LEN = 16;
+	/** The reset timeout in millisecond. */
+	public static final int RESET_TIMEOUT = 1000;
+
+	/** The type of a server-to-client data packet. */
+	public static final byte SERVER_CLIENT_DATA_TYPE = 11;
+	/** The type of a client-to-server data packet. */
+	public static final byte CLIENT_SERVER_DATA_TYPE = 12;
+
+	/** The type of a hash tree request packet carrying the root of the client. */
+	public static final byte HASH_TREE_TYPE = 13;
+	/** The size of a hash tree request packet. */
+	public static final int HASH_TREE_LEN = 16;
+	/** The hash tree request timeout in millisecond. */
+	public static final int HASH_TREE_TIMEOUT = 1000;
+
+	/** The type of a hash tree response packet. */
+	public static final byte HASH_TREE_RESP_TYPE = 14;
+	/** The size of a hash tree response packet whose root matches. */
+	public static final int HASH_TREE_RESP_LEN = 16;
+	/** The size of a hash tree response packet carrying the bucket hashes. */
+	public static final int HASH_TREE_BUCKETS_RESP_LEN = HASH_TREE_RESP_LEN + 8 * HashTree.BUCKET_COUNT;
+
+	/** The type of a server-to-client sync request packet limited to some buckets. */
+	public static final byte BUCKET_SYNC_TYPE = 15;
+	/** The size of a bucket sync request packet. */
+	public static final int BUCKET_SYNC_LEN = 8 + HashTree.BUCKET_SET_LEN;
+
+	/** The type of a request for a fragment of the server-to-client data. */
+	public static final byte SERVER_CLIENT_FRAGMENT_SYNC_TYPE = 16;
+	/** The size of a server-to-client fragment request packet. */
+	public static final int SERVER_CLIENT_FRAGMENT_SYNC_LEN = 8;
+	/** The type of a fragment of the server-to-client data. */
+	public static final byte SERVER_CLIENT_FRAGMENT_TYPE = 17;
+	/** The type of a fragment of the client-to-server data. */
+	public static final byte CLIENT_SERVER_FRAGMENT_TYPE = 18;
+	/** The type of a client-to-server fragment acknowledgement packet. */
+	public static final byte CLIENT_SERVER_FRAGMENT_ACK_TYPE = 19;
+	/** The size of a client-to-server fragment acknowledgement packet. */
+	public static final int CLIENT_SERVER_FRAGMENT_ACK_LEN = 8;
+	/** The size of the type, the offset and the length of the data of a fragment. */
+	public static final int FRAGMENT_HEADER_LEN = 12;
+	/** The largest data of a fragment unless a single chunk is bigger. */
+	public static final int MAX_FRAGMENT_LEN = 8192;
+	/** The fragment timeout in millisecond. */
+	public static final int FRAGMENT_TIMEOUT = 1000;
+	/** The maximum number of retries of a fragment before the sync is given up. */
+	public static final int MAX_FRAGMENT_RETRY = 10;
+
+	/**
+	 * The type of a push packet carrying outbox operations: the user ID at
+	 * offset 4, the device ID at offset 8, the number of operations at
+	 * offset 16, their sequence numbers from PUSH_HEADER_LEN on and then
+	 * their chunks.
+	 */
+	public static final byte PUSH_TYPE = 20;
+	/** The size of the header of a push packet. */
+	public static final int PUSH_HEADER_LEN = 24;
+	/**
+	 * The type of a push acknowledgement packet: the push status at offset
+	 * 1, the number of operations at offset 4, the first sequence number at
+	 * offset 8 and a PUSH_APPLIED or PUSH_REJECTED result per operation
+	 * from PUSH_ACK_HEADER_LEN on.
+	 */
+	public static final byte PUSH_ACK_TYPE = 21;
+	/** The size of the header of a push acknowledgement packet. */
+	public static final int PUSH_ACK_HEADER_LEN = 16;
+	/** The push status of a push whose operations have been processed. */
+	public static final byte PUSH_OK = 0;
+	/** The push status of a push refused because the user is synchronizing or unknown. */
+	public static final byte PUSH_BUSY = 1;
+	/** The result of an operation that the server has applied. */
+	public static final byte PUSH_APPLIED = 0;
+	/** The result of an operation that conflicts with the server and is left to a sync. */
+	public static final byte PUSH_REJECTED = 1;
+	/** The largest push packet unless a single operation is bigger, which fits in an Ethernet frame. */
+	public static final int MAX_PUSH_LEN = 1400;
+	/** The push timeout in millisecond. */
+	public static final int PUSH_TIMEOUT = 1000;
+	/** The maximum number of push retries. */
+	public static final int MAX_PUSH_RETRY = 5;
+
+	/**
+	 * The type of a subscribe packet asking for notify packets: the user ID
+	 * at offset 4 and the device ID at offset 8, whose own pushes are not
+	 * notified.
+	 */
+	public static final byte SUBSCRIBE_TYPE = 22;
+	/** The size of a subscribe packet. */
+	public static final int SUBSCRIBE_LEN = 16;
+	/** The type of a subscribe acknowledgement packet carrying the watermark at offset 8. */
+	public static final byte SUBSCRIBE_ACK_TYPE = 23;
+	/** The size of a subscribe acknowledgement packet. */
+	public static final int SUBSCRIBE_ACK_LEN = 16;
+	/** The subscribe timeout in millisecond. */
+	public static final int SUBSCRIBE_TIMEOUT = 1000;
+	/** The maximum number of subscribe retries. */
+	public static final int MAX_SUBSCRIBE_RETRY = 5;
+	/** The time after which the server forgets a subscription that is not renewed. */
+	public static final long SUBSCRIPTION_TIMEOUT = 5 * 60 * 1000;
+	/** The type of a notify packet: the user ID at offset 4 and the new watermark at offset 8. */
+	public static final byte NOTIFY_TYPE = 24;
+	/** The size of a notify packet. */
+	public static final int NOTIFY_LEN = 16;
+
+	/**
+	 * The type of a pull packet: the PULL_* flags at offset 1, the user ID
+	 * at offset 4 and the watermark of the client at offset 8.
+	 */
+	public static final byte PULL_TYPE = 25;
+	/** The size of a pull packet. */
+	public static final int PULL_LEN = 16;
+	/**
+	 * The pull flag of a client that takes a CHUNK_UPDATE_TODO carrying the
+	 * revision, the fingerprint, the field revisions and only the fields
+	 * changed after its watermark in place of a CHUNK_TODO.
+	 */
+	public static final byte PULL_UPDATES = 1;
+	/**
+	 * The type of a pull response packet: the pull status at offset 1, 1 at
+	 * offset 2 if no change is left, the length of the chunks at offset 4,
+	 * the watermark of the pull at offset 8, the watermark up to which the
+	 * changes are given at offset 16 and from PULL_RESP_HEADER_LEN on a
+	 * CHUNK_TODO or CHUNK_UPDATE_TODO per changed item and a
+	 * CHUNK_DELETE_TODO per deleted one.
+	 */
+	public static final byte PULL_RESP_TYPE = 26;
+	/** The size of the header of a pull response packet. */
+	public static final int PULL_RESP_HEADER_LEN = 24;
+	/** The pull status of a response carrying the changes. */
+	public static final byte PULL_OK = 0;
+	/** The pull status of a response to a watermark whose deletions the server has forgotten. */
+	public static final byte PULL_TOO_OLD = 1;
+	/** The largest chunks of a pull response unless a single chunk is bigger. */
+	public static final int MAX_PULL_LEN = 8192;
+	/** The pull timeout in millisecond. */
+	public static final int PULL_TIMEOUT = 1000;
+	/** The maximum number of pull retries. */
+	public static final int MAX_PULL_RETRY = 5;
+
+	/** The largest payload that fits in a single UDP datagram. */
+	public static final int MAX_DATAGRAM_LEN = 65507;
+
+	/** The size of a chunk. */
+	public static final int CHUNK_LEN = 24;
+	/** The type of a todo chunk. */
+	public static final int CHUNK_TODO_TYPE = 4;
+
+	/**
+	 * ClientServerSyncData represents the todo sync data to be transfered
+	 * to the sync server.
+	 */
+	public static class ClientServerSyncData
+	{
+		final ByteBuffer buffer;
+
+		public ClientServerSyncData(int capacity) {
+
+			buffer = ByteBuffer.allocate(capacity + 1).put(CLIENT_SERVER_DATA_TYPE);
+		}
+
+		public ClientServerSyncData(byte[] array) {
+
+			byte[] b = new byte[array.length + 1];
+			System.arraycopy(array, 0, b, 1, array.length);
+			buffer = ByteBuffer.wrap(b).put(CLIENT_SERVER_DATA_TYPE);
+		}
+
+		public ClientServerSyncData(byte[] array, int start, int len) {
+
+			byte[] b = new byte[len + 1];
+			System.arraycopy(array, start, b, 1, len);
+			buffer = ByteBuffer.wrap(b).put(CLIENT_SERVER_DATA_TYPE);
+		}
+	}
+
+	/** Class PullData is a response to pull(). */
+	public static class PullData
+	{
+		/** PULL_OK or PULL_TOO_OLD. */
+		public final byte status;
+		/** Whether no change is left after these. */
+		public final boolean isComplete;
+		/** The watermark up to which the changes are given. */
+		public final long watermark;
+		/** The chunks of the changed items. */
+		public final ByteBuffer chunks;
+
+		public PullData(byte status, boolean isComplete, long watermark, ByteBuffer chunks) {
+
+			this.status = status;
+			this.isComplete = isComplete;
+			this.watermark = watermark;
+			this.chunks = chunks;
+		}
+	}
+
+	/** Constructs the sync communication. */
+	public TodoSyncCommunication() throws SocketException {
+
+		// Without a port number, being too long in the conflict
+		// resolution screen will cause the socket to close and to
+		// bind to another port when the conflict is resolved screwing
+		// up the sync session in the server.
+		this(new InetSocketAddress(DEFAULT_HOST, DEFAULT_PORT), DEFAULT_PORT);
+	}
+
+	/**
+	 * Constructs the sync communication with a particular server.
+	 *
+	 * @param server the socket address of the sync server
+	 * @param localPort the local port to bind to (0 picks an ephemeral one)
+	 */
+	public TodoSyncCommunication(SocketAddress server, int localPort) throws SocketException {
+
+		daddr = server;
+		sock = new DatagramSocket(localPort);
+
+		sock.connect(daddr);
+	}
+
+	/**
+	 * Returns a byte buffer with a certain size whose order is in network
+	 * byte order.
+	 */
+	protected ByteBuffer getBuffer(int length) {
+
+		return ByteBuffer.allocate(length);
+	}
+
+	/**
+	 * Authenticates AndroidTodo to the sync server based on the user ID.
+	 *
+	 * @param clientId the ID of the user
+	 *
+	 * @return true if the registration is successful or false if it is not
+	 *              because the server does not respond after certain number
+	 *              of retries indicating that the server does not want to
+	 *              maintain a new user
+	 */
+	public boolean register(int clientId) throws SocketException, IOException {
+
+		return register(clientId, 0);
+	}
+
+	/**
+	 * Authenticates AndroidTodo to the sync server asking it to resume the
+	 * session of a token if it still has that session.
+	 *
+	 * @param resumeToken the token of the session to resume or 0 for none
+	 *
+	 * @see #register(int)
+	 * @see #isResumed()
+	 */
+	public boolean register(int clientId, long resumeToken) throws SocketException, IOException {
+
+		ByteBuffer b = getBuffer(REGISTER_LEN);
+		b.put(REGISTER_TYPE);
+		b.putInt(clientId);
+		b.putLong(8, resumeToken);
+
+		ByteBuffer a = null;
+		for (int i = 0; i < MAX_REGISTER_RETRY && (a == null || a.get(0) != REGISTER_ACK_TYPE); i++) {
+
+			a = sendAndReceive(b, REGISTER_TIMEOUT, REGISTER_ACK_LEN);
+		}
+		if (a.get(0) != REGISTER_ACK_TYPE) {
+
+			return false;
+		}
+		isResumed = a.get(1) != 0;
+		sessionToken = a.getLong(8);
+
+		return true;
+	}
+
+	/** Returns the session token given by the sync server or 0 if it gives none. */
+	public long getSessionToken() {
+
+		return sessionToken;
+	}
+
+	/** Returns true if the registration has resumed the session of the given token. */
+	public boolean isResumed() {
+
+		return isResumed;
+	}
+
+	/**
+	 * Sends the root of the client hash tree and returns the bucket hashes
+	 * of the server.
+	 *
+	 * @return null if both roots are equal.
+	 */
+	public long[] compareHashTree(long root) throws SocketException, IOException {
+
+		ByteBuffer b = getBuffer(HASH_TREE_LEN);
+		b.put(HASH_TREE_TYPE);
+		b.putLong(8, root);
+
+		ByteBuffer a = null;
+		while (a == null || a.get(0) != HASH_TREE_RESP_TYPE) {
+
+			a = sendAndReceive(b, HASH_TREE_TIMEOUT, HASH_TREE_BUCKETS_RESP_LEN);
+		}
+		if (a.get(1) == 0) {
+
+			return null;
+		}
+
+		long[] buckets = new long[HashTree.BUCKET_COUNT];
+		a.position(HASH_TREE_RESP_LEN);
+		for (int i = 0; i < buckets.length; i++) {
+
+			buckets[i] = a.getLong();
+		}
+
+		return buckets;
+	}
+
+	/** Requests the sync server to send the todo items and returns them. */
+	public ByteBuffer serverClientSync() throws SocketException, IOException {
+
+		ByteBuffer b = getBuffer(SERVER_CLIENT_SYNC_LEN);
+		b.put(SERVER_CLIENT_SYNC_TYPE);
+
+		return serverClientSync(b);
+	}
+
+	/**
+	 * Requests the sync server to send the todo items whose IDs are in a
+	 * bucket set of HashTree and returns them.
+	 */
+	public ByteBuffer serverClientSync(byte[] bucketSet) throws SocketException, IOException {
+
+		ByteBuffer b = getBuffer(BUCKET_SYNC_LEN);
+		b.put(BUCKET_SYNC_TYPE);
+		b.position(8);
+		b.put(bucketSet);
+
+		return serverClientSync(b);
+	}
+
+	/** Sends a server-to-client sync request and returns the received todo items. */
+	protected ByteBuffer serverClientSync(ByteBuffer b) throws SocketException, IOException {
+
+		int dataLen = requestServerClientData(b);
+		ByteBuffer a = null;
+		b = getBuffer(SERVER_CLIENT_RESP_ACK_LEN);
+		b.put(SERVER_CLIENT_RESP_ACK_TYPE);
+		while (a == null || a.get() != SERVER_CLIENT_DATA_TYPE) {
+
+			a = sendAndReceive(b, SERVER_CLIENT_RESP_ACK_TIMEOUT, dataLen);
+		}
+
+		return a;
+	}
+
+	/**
+	 * Requests the sync server to prepare the todo items whose IDs are in
+	 * a bucket set of HashTree to be fetched in fragments.
+	 *
+	 * @param bucketSet the bucket set or null for all todo items
+	 *
+	 * @return the number of bytes of the todo items.
+	 */
+	public int requestServerClientData(byte[] bucketSet) throws SocketException, IOException {
+
+		ByteBuffer b;
+		if (bucketSet == null) {
+
+			b = getBuffer(SERVER_CLIENT_SYNC_LEN);
+			b.put(SERVER_CLIENT_SYNC_TYPE);
+		} else {
+
+			b = getBuffer(BUCKET_SYNC_LEN);
+			b.put(BUCKET_SYNC_TYPE);
+			b.position(8);
+			b.put(bucketSet);
+		}
+
+		// the length includes the type of the server-to-client data packet
+		return requestServerClientData(b) - 1;
+	}
+
+	/** Sends a server-to-client sync request and returns the length of the data. */
+	protected int requestServerClientData(ByteBuffer b) throws SocketException, IOException {
+
+		ByteBuffer a = null;
+		while (a == null || a.get() != SERVER_CLIENT_RESP_TYPE) {
+
+			a = sendAndReceive(b, SERVER_CLIENT_SYNC_TIMEOUT, SERVER_CLIENT_RESP_LEN);
+		}
+
+		return a.getInt();
+	}
+
+	/**
+	 * Fetches the fragment of the todo items prepared by
+	 * requestServerClientData() that starts at an offset. The sync server
+	 * only cuts the data between chunks.
+	 *
+	 * @param offset the number of bytes of the todo items fetched so far
+	 *
+	 * @return the chunks of the fragment.
+	 *
+	 * @throws IOException if the server does not respond after
+	 *                     MAX_FRAGMENT_RETRY retries or the fragment does
+	 *                     not fit in its datagram.
+	 */
+	public ByteBuffer fetchServerClientData(int offset) throws SocketException, IOException {
+
+		ByteBuffer b = getBuffer(SERVER_CLIENT_FRAGMENT_SYNC_LEN);
+		b.put(SERVER_CLIENT_FRAGMENT_SYNC_TYPE);
+		b.putInt(4, offset);
+
+		// a fragment of an earlier request may arrive late
+		ByteBuffer a = null;
+		for (int i = 0; i < MAX_FRAGMENT_RETRY && !isFragment(a, offset); i++) {
+
+			a = sendAndReceive(b, FRAGMENT_TIMEOUT, MAX_DATAGRAM_LEN);
+		}
+		if (!isFragment(a, offset)) {
+
+			throw new IOException("No fragment at offset " + offset);
+		}
+
+		int len = a.getInt(8);
+		if (len < 0 || len > receivedLen - FRAGMENT_HEADER_LEN) {
+
+			throw new IOException("Invalid fragment length " + len + " in a datagram of " + receivedLen + " bytes");
+		}
+
+		return ByteBuffer.wrap(a.array(), FRAGMENT_HEADER_LEN, len).slice();
+	}
+
+	/** Returns true if a packet is the server-to-client fragment at an offset. */
+	protected static boolean isFragment(ByteBuffer a, int offset) {
+
+		return a != null && a.get(0) == SERVER_CLIENT_FRAGMENT_TYPE && a.getInt(4) == offset;
+	}
+
+	/**
+	 * Updates the sync server. If the server has given a session token, the
+	 * data are sent in fragments starting from the number of bytes that the
+	 * server has already received in this session.
+	 *
+	 * @throws IOException if a fragment is not acknowledged after
+	 *                     MAX_FRAGMENT_RETRY retries.
+	 */
+	public void clientServerSync(ClientServerSyncData data) throws SocketException, IOException {
+
+		ByteBuffer b = getBuffer(CLIENT_SERVER_SYNC_LEN);
+		b.put(CLIENT_SERVER_SYNC_TYPE);
+		byte[] array = data.buffer.array();
+		int dataLen = array.length;
+		b.putInt(dataLen);
+
+		ByteBuffer a = null;
+		while (a == null || a.get() != CLIENT_SERVER_RESP_TYPE) {
+
+			a = sendAndReceive(b, CLIENT_SERVER_SYNC_TIMEOUT, CLIENT_SERVER_RESP_LEN);
+		}
+
+		if (sessionToken != 0) {
+
+			// the fragments leave out the type of the data packet
+			int sent = a.getInt(4);
+			while (sent < dataLen - 1) {
+
+				int len = Math.min(MAX_FRAGMENT_LEN, dataLen - 1 - sent);
+				b = getBuffer(FRAGMENT_HEADER_LEN + len);
+				b.put(CLIENT_SERVER_FRAGMENT_TYPE);
+				b.putInt(4, sent);
+				b.putInt(8, len);
+				b.position(FRAGMENT_HEADER_LEN);
+				b.put(array, 1 + sent, len);
+
+				// the server acknowledges the number of bytes received in order
+				a = null;
+				for (int i = 0; i < MAX_FRAGMENT_RETRY && !isFragmentAck(a, sent); i++) {
+
+					a = sendAndReceive(b, FRAGMENT_TIMEOUT, CLIENT_SERVER_FRAGMENT_ACK_LEN);
+				}
+				if (!isFragmentAck(a, sent)) {
+
+					throw new IOException("No acknowledgement of the fragment at offset " + sent);
+				}
+				sent = a.getInt(4);
+			}
+			return;
+		}
+
+		a = null;
+		while (a == null || a.get() != CLIENT_SERVER_RESP_ACK_TYPE) {
+
+			a = sendAndReceive(data.buffer, CLIENT_SERVER_RESP_ACK_TIMEOUT, CLIENT_SERVER_RESP_ACK_LEN);
+		}
+	}
+
+	/** Returns true if a packet acknowledges more or less than the given number of bytes. */
+	protected static boolean isFragmentAck(ByteBuffer a, int sent) {
+
+		return a != null && a.get(0) == CLIENT_SERVER_FRAGMENT_ACK_TYPE && a.getInt(4) != sent;
+	}
+
+	/**
+	 * Pushes a batch of outbox operations without a sync session. The
+	 * server applies an operation only once however often its batch is
+	 * repeated.
+	 *
+	 * @param deviceId the device whose sequence numbers these are
+	 * @param sequences the sequence numbers of the operations in order
+	 * @param chunks the chunks of the operations in the same order
+	 *
+	 * @return the PUSH_APPLIED or PUSH_REJECTED result of every operation or
+	 *         null if the server is busy or does not respond.
+	 */
+	public byte[] push(int userId, long deviceId, long[] sequences, byte[] chunks) throws SocketException, IOException {
+
+		ByteBuffer b = getBuffer(PUSH_HEADER_LEN + 8 * sequences.length + chunks.length);
+		b.put(PUSH_TYPE);
+		b.putInt(4, userId);
+		b.putLong(8, deviceId);
+		b.putInt(16, sequences.length);
+		b.position(PUSH_HEADER_LEN);
+		for (long sequence : sequences) {
+
+			b.putLong(sequence);
+		}
+		b.put(chunks);
+
+		// the acknowledgement of an earlier batch may arrive late
+		ByteBuffer a = null;
+		for (int i = 0; i < MAX_PUSH_RETRY && !isPushAck(a, sequences); i++) {
+
+			a = sendAndReceive(b, PUSH_TIMEOUT, PUSH_ACK_HEADER_LEN + sequences.length);
+		}
+		if (!isPushAck(a, sequences) || a.get(1) != PUSH_OK) {
+
+			return null;
+		}
+
+		byte[] results = new byte[sequences.length];
+		a.position(PUSH_ACK_HEADER_LEN);
+		a.get(results);
+
+		return results;
+	}
+
+	/** Returns true if a packet acknowledges the push of the given sequence numbers. */
+	protected static boolean isPushAck(ByteBuffer a, long[] sequences) {
+
+		return a != null && a.get(0) == PUSH_ACK_TYPE
+			&& (a.get(1) != PUSH_OK || a.getInt(4) == sequences.length && a.getLong(8) == sequences[0]);
+	}
+
+	/**
+	 * Subscribes to the notify packets of a user, which are received with
+	 * receiveNotify(). The subscription has to be renewed before
+	 * SUBSCRIPTION_TIMEOUT.
+	 *
+	 * @param deviceId the device whose own pushes are not notified
+	 *
+	 * @return the current watermark of the user or -1 if the server does
+	 *         not respond.
+	 */
+	public long subscribe(int userId, long deviceId) throws SocketException, IOException {
+
+		ByteBuffer b = getBuffer(SUBSCRIBE_LEN);
+		b.put(SUBSCRIBE_TYPE);
+		b.putInt(4, userId);
+		b.putLong(8, deviceId);
+
+		ByteBuffer a = null;
+		for (int i = 0; i < MAX_SUBSCRIBE_RETRY && (a == null || a.get(0) != SUBSCRIBE_ACK_TYPE); i++) {
+
+			a = sendAndReceive(b, SUBSCRIBE_TIMEOUT, SUBSCRIBE_ACK_LEN);
+		}
+
+		return a.get(0) == SUBSCRIBE_ACK_TYPE ? a.getLong(8) : -1;
+	}
+
+	/**
+	 * Waits for a notify packet.
+	 *
+	 * @param timeout the longest wait in millisecond
+	 *
+	 * @return the notified watermark or -1 if none has come.
+	 */
+	public long receiveNotify(int timeout) throws SocketException, IOException {
+
+		ByteBuffer a = sendAndReceive(null, timeout, NOTIFY_LEN);
+
+		return a.get(0) == NOTIFY_TYPE ? a.getLong(8) : -1;
+	}
+
+	/**
+	 * Fetches the todo items that have changed after a watermark. The
+	 * response holds as many changes as fit in MAX_PULL_LEN and the next
+	 * pull continues from its watermark. An item of which only some fields
+	 * have changed comes as a PULL_UPDATES CHUNK_UPDATE_TODO.
+	 *
+	 * @param since the watermark up to which the client has the changes
+	 *
+	 * @return the response or null if the server does not respond.
+	 */
+	public PullData pull(int userId, long since) throws SocketException, IOException {
+
+		ByteBuffer b = getBuffer(PULL_LEN);
+		b.put(PULL_TYPE);
+		b.put(PULL_UPDATES);
+		b.putInt(4, userId);
+		b.putLong(8, since);
+
+		// the response to an earlier pull may arrive late
+		ByteBuffer a = null;
+		for (int i = 0; i < MAX_PULL_RETRY && !isPullResp(a, since); i++) {
+
+			a = sendAndReceive(b, PULL_TIMEOUT, MAX_DATAGRAM_LEN);
+		}
+		if (!isPullResp(a, since)) {
+
+			return null;
+		}
+
+		a.position(PULL_RESP_HEADER_LEN);
+		a.limit(PULL_RESP_HEADER_LEN + a.getInt(4));
+
+		return new PullData(a.get(1), a.get(2) != 0, a.getLong(16), a.slice());
+	}
+
+	/** Returns true if a packet responds to the pull of a watermark. */
+	protected static boolean isPullResp(ByteBuffer a, long since) {
+
+		return a != null && a.get(0) == PULL_RESP_TYPE && a.getLong(8) == since;
+	}
+
+	/** Returns the watermark given by the last reset acknowledgement or 0 if the server gives none. */
+	public long getWatermark() {
+
+		return watermark;
+	}
+
+	/** Closes the socket without a RESET, e.g. after a push, which opens no session. */
+	public void disconnect() {
+
+		sock.close();
+	}
+
+	/** Tears down the connection to the sync server. */
+	public void close() throws SocketException, IOException {
+
+		ByteBuffer b = getBuffer(RESET_LEN);
+		b.put(RESET_TYPE);
+
+		ByteBuffer a = null;
+		while (a == null || a.get() != RESET_ACK_TYPE) {
+
+			a = sendAndReceive(b, RESET_TIMEOUT, RESET_ACK_LEN);
+		}
+		watermark = a.getLong(8);
+
+		sock.close();
+	}
+
+	/** Sends the given data and returns the received data. */
+	protected ByteBuffer sendAndReceive(ByteBuffer data, int timeout, int receivedDataLen) throws SocketException, IOException {
+
+		if (timeout != 0) {
+			sock.setSoTimeout(timeout);
+		}
+		if (data != null) {
+
+			byte[] b = data.array();
+
+			send(new DatagramPacket(b, b.length, daddr));
+		}
+		DatagramPacket d = new DatagramPacket(new byte[receivedDataLen], receivedDataLen);
+		do {
+
+			try {
+
+				receive(d);
+			} catch (SocketTimeoutException to) {
+			}
+		} while (d.getLength() > receivedDataLen);
+		if (timeout != 0) {
+			sock.setSoTimeout(0);
+		}
+		receivedLen = d.getLength();
+
+		return ByteBuffer.wrap(d.getData());
+	}
+
+	/** Sends a datagram to the sync server. */
+	protected void send(DatagramPacket d) throws IOException {
+
+		sock.send(d);
+	}
+
+	/** Receives a datagram from the sync server. */
+	protected void receive(DatagramPacket d) throws IOException {
+
+		sock.receive(d);
+	}
+}
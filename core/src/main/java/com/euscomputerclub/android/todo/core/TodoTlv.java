@@ -0,0 +1,334 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Class TodoTlv encodes and decodes the nested TLV (type-length-value) chunks
+ * exchanged between the client and the sync server. Every chunk consists of
+ * a one-byte type, a two-byte length and the value, and a todo chunk nests
+ * one field chunk per present field.
+ *
+ * The fingerprint, field revisions and version vector fields are optional and a decoder skips the field chunks
+ * that it does not know so that new fields can be added to the protocol.
+ * An ID that fits in an int is encoded in four bytes like the IDs of the
+ * versions without device prefixes and in eight bytes otherwise.
+ *
+ * @author Tadeus Prastowo
+ */
+public final class TodoTlv {
+
+	/** The size of the TLV chunk header. */
+	public static final short SIZE_OF_CHUNK = (short) ((Byte.SIZE + Short.SIZE) / Byte.SIZE);
+	/** The size of an integer field value. */
+	public static final short INT_LEN = (short) (Integer.SIZE / Byte.SIZE);
+	/** The size of a long field value. */
+	public static final short LONG_LEN = (short) (Long.SIZE / Byte.SIZE);
+	/** A new todo item to be stored. */
+	public static final byte CHUNK_NEW_TODO = 1;
+	/** An update for a todo item. */
+	public static final byte CHUNK_UPDATE_TODO = 2;
+	/** Delete a todo item. */
+	public static final byte CHUNK_DELETE_TODO = 3;
+	/** A todo item as stored in the sync server. */
+	public static final byte CHUNK_TODO = 4;
+	/** The ID of a todo. */
+	public static final byte CHUNK_TODO_ID = 5;
+	/** The title of a todo. */
+	public static final byte CHUNK_TODO_TITLE = 6;
+	/** The deadline of a todo. */
+	public static final byte CHUNK_TODO_DEADLINE = 7;
+	/** The priority of a todo. */
+	public static final byte CHUNK_TODO_PRIORITY = 8;
+	/** The status of a todo. */
+	public static final byte CHUNK_TODO_STATUS = 9;
+	/** The description of a todo. */
+	public static final byte CHUNK_TODO_DESCRIPTION = 10;
+	/** The revision of a todo. */
+	public static final byte CHUNK_TODO_REVISION = 11;
+	/** The Todo.computeFingerprint() of a todo. */
+	public static final byte CHUNK_TODO_FINGERPRINT = 12;
+	/** The FieldRevisions vector of a todo. */
+	public static final byte CHUNK_TODO_FIELD_REVISIONS = 13;
+	/** The VersionVector of a todo. */
+	public static final byte CHUNK_TODO_VERSION_VECTOR = 14;
+
+	/** The encoding of all string fields. */
+	public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** Receives the todo items found while decoding a TLV stream. */
+	public interface Visitor {
+
+		/**
+		 * Called for every decoded top-level chunk.
+		 *
+		 * @param chunkType one of CHUNK_NEW_TODO, CHUNK_UPDATE_TODO,
+		 *                  CHUNK_DELETE_TODO or CHUNK_TODO
+		 * @param todo the fields found in the chunk (absent ones are null)
+		 */
+		void visit(byte chunkType, Todo todo);
+	}
+
+	private TodoTlv() {
+	}
+
+	/** Returns the number of bytes needed to encode the present fields of a todo. */
+	public static int sizeOf(Todo t) {
+
+		int size = SIZE_OF_CHUNK;
+
+		size += SIZE_OF_CHUNK + idLen(t.id.longValue());
+		if (t.title != null) {
+
+			size += SIZE_OF_CHUNK + t.title.getBytes(UTF_8).length;
+		}
+		if (t.deadline != null) {
+
+			size += SIZE_OF_CHUNK + t.deadline.getBytes(UTF_8).length;
+		}
+		if (t.priority != null) {
+
+			size += SIZE_OF_CHUNK + INT_LEN;
+		}
+		if (t.status != null) {
+
+			size += SIZE_OF_CHUNK + t.status.getBytes(UTF_8).length;
+		}
+		if (t.description != null) {
+
+			size += SIZE_OF_CHUNK + t.description.getBytes(UTF_8).length;
+		}
+		if (t.revision != null) {
+
+			size += SIZE_OF_CHUNK + INT_LEN;
+		}
+		if (t.fingerprint != null) {
+
+			size += SIZE_OF_CHUNK + LONG_LEN;
+		}
+		if (t.fieldRevisions != null) {
+
+			size += SIZE_OF_CHUNK + INT_LEN;
+		}
+		if (t.versionVector != null) {
+
+			size += SIZE_OF_CHUNK + t.versionVector.length;
+		}
+
+		return size;
+	}
+
+	/** Returns the number of bytes needed to encode a CHUNK_DELETE_TODO. */
+	public static int sizeOfDelete(long id) {
+
+		return 2 * SIZE_OF_CHUNK + idLen(id);
+	}
+
+	/** Returns the size of the value of a CHUNK_TODO_ID. */
+	public static short idLen(long id) {
+
+		return id == (int) id ? INT_LEN : LONG_LEN;
+	}
+
+	/** Returns the size of the chunk that starts at an absolute position of a buffer. */
+	public static int chunkSize(ByteBuffer b, int position) {
+
+		return SIZE_OF_CHUNK + b.getShort(position + 1);
+	}
+
+	/** Encodes the present fields of a todo as a chunk of the given type. */
+	public static void put(ByteBuffer b, byte chunkType, Todo t) {
+
+		b.put(chunkType);
+		int chunkLenPos = b.position();
+		b.putShort((short) 0);
+
+		putId(b, t.id.longValue());
+		if (t.title != null) {
+
+			putString(b, CHUNK_TODO_TITLE, t.title);
+		}
+		if (t.deadline != null) {
+
+			putString(b, CHUNK_TODO_DEADLINE, t.deadline);
+		}
+		if (t.priority != null) {
+
+			putInt(b, CHUNK_TODO_PRIORITY, t.priority.intValue());
+		}
+		if (t.status != null) {
+
+			putString(b, CHUNK_TODO_STATUS, t.status);
+		}
+		if (t.description != null) {
+
+			putString(b, CHUNK_TODO_DESCRIPTION, t.description);
+		}
+		if (t.revision != null) {
+
+			putInt(b, CHUNK_TODO_REVISION, t.revision.intValue());
+		}
+		if (t.fingerprint != null) {
+
+			putLong(b, CHUNK_TODO_FINGERPRINT, t.fingerprint.longValue());
+		}
+		if (t.fieldRevisions != null) {
+
+			putInt(b, CHUNK_TODO_FIELD_REVISIONS, t.fieldRevisions.intValue());
+		}
+		if (t.versionVector != null) {
+
+			putBytes(b, CHUNK_TODO_VERSION_VECTOR, t.versionVector);
+		}
+
+		b.putShort(chunkLenPos, (short) (b.position() - chunkLenPos - Short.SIZE / Byte.SIZE));
+	}
+
+	/** Encodes a CHUNK_DELETE_TODO. */
+	public static void putDelete(ByteBuffer b, long id) {
+
+		b.put(CHUNK_DELETE_TODO);
+		b.putShort((short) (SIZE_OF_CHUNK + idLen(id)));
+		putId(b, id);
+	}
+
+	/** Encodes a CHUNK_TODO_ID in as few bytes as idLen() gives. */
+	public static void putId(ByteBuffer b, long id) {
+
+		if (idLen(id) == INT_LEN) {
+
+			putInt(b, CHUNK_TODO_ID, (int) id);
+		} else {
+
+			putLong(b, CHUNK_TODO_ID, id);
+		}
+	}
+
+	/**
+	 * Decodes all chunks remaining in the buffer.
+	 *
+	 * @throws IllegalStateException if the data are malformed.
+	 */
+	public static void read(ByteBuffer b, Visitor v) {
+
+		while (b.remaining() > 0) {
+
+			readChunk(b, v);
+		}
+	}
+
+	/**
+	 * Decodes the chunk at the position of the buffer, which must hold the
+	 * whole chunk.
+	 *
+	 * @throws IllegalStateException if the data are malformed.
+	 */
+	public static void readChunk(ByteBuffer b, Visitor v) {
+
+		byte chunkType = b.get();
+		if (chunkType < CHUNK_NEW_TODO || chunkType > CHUNK_TODO) {
+
+			throw new IllegalStateException("Invalid chunk data: Unknown chunk " + chunkType);
+		}
+
+		int nextChunkPos = b.getShort();
+		nextChunkPos += b.position();
+		Todo t = new Todo(null, null, null, null, null, null, null);
+		while (b.position() < nextChunkPos) {
+
+			byte fieldType = b.get();
+			short len = b.getShort();
+			switch (fieldType) {
+			case CHUNK_TODO_ID:
+				t.id = Long.valueOf(len == LONG_LEN ? b.getLong() : b.getInt());
+				break;
+			case CHUNK_TODO_TITLE:
+				t.title = getString(b, len);
+				break;
+			case CHUNK_TODO_DEADLINE:
+				t.deadline = getString(b, len);
+				break;
+			case CHUNK_TODO_PRIORITY:
+				t.priority = Integer.valueOf(b.getInt());
+				break;
+			case CHUNK_TODO_STATUS:
+				t.status = getString(b, len);
+				break;
+			case CHUNK_TODO_DESCRIPTION:
+				t.description = getString(b, len);
+				break;
+			case CHUNK_TODO_REVISION:
+				t.revision = Integer.valueOf(b.getInt());
+				break;
+			case CHUNK_TODO_FINGERPRINT:
+				t.fingerprint = Long.valueOf(b.getLong());
+				break;
+			case CHUNK_TODO_FIELD_REVISIONS:
+				t.fieldRevisions = Integer.valueOf(b.getInt());
+				break;
+			case CHUNK_TODO_VERSION_VECTOR:
+				if (len < 0 || b.position() + len > nextChunkPos) {
+
+					throw new IllegalStateException("Invalid chunk data: Field " + fieldType + " overflows its chunk");
+				}
+				t.versionVector = new byte[len];
+				b.get(t.versionVector);
+				if (!VersionVector.isValid(t.versionVector)) {
+
+					throw new IllegalStateException("Invalid chunk data: Malformed CHUNK_TODO_VERSION_VECTOR");
+				}
+				break;
+			default:
+				if (b.position() + len > nextChunkPos) {
+
+					throw new IllegalStateException("Invalid chunk data: Field " + fieldType + " overflows its chunk");
+				}
+				b.position(b.position() + len);
+				break;
+			}
+		}
+		if (t.id == null) {
+
+			throw new IllegalStateException("Invalid chunk data: Missing CHUNK_TODO_ID");
+		}
+		v.visit(chunkType, t);
+	}
+
+	public static void putInt(ByteBuffer b, byte fieldType, int value) {
+
+		b.put(fieldType);
+		b.putShort(INT_LEN);
+		b.putInt(value);
+	}
+
+	public static void putLong(ByteBuffer b, byte fieldType, long value) {
+
+		b.put(fieldType);
+		b.putShort(LONG_LEN);
+		b.putLong(value);
+	}
+
+	public static void putString(ByteBuffer b, byte fieldType, String value) {
+
+		byte[] blob = value.getBytes(UTF_8);
+
+		b.put(fieldType);
+		b.putShort((short) blob.length);
+		b.put(blob);
+	}
+
+	public static void putBytes(ByteBuffer b, byte fieldType, byte[] value) {
+
+		b.put(fieldType);
+		b.putShort((short) value.length);
+		b.put(value);
+	}
+
+	public static String getString(ByteBuffer b, short len) {
+
+		byte[] s = new byte[len];
+		b.get(s);
+
+		return new String(s, UTF_8);
+	}
+}
@@ -0,0 +1,289 @@
+package com.euscomputerclub.android.todo.core;
+
+/**
+ * Class VersionVector encodes the version vector of a todo item: a counter
+ * of the changes of every device that has changed the item keyed by the ID
+ * prefix of the device, which is a positive int. The changes of the
+ * clients that send no vector are counted for LEGACY_DEVICE.
+ *
+ * A vector is a byte array of its entries sorted by device, every entry
+ * being the device in four bytes followed by its counter as a varint, so
+ * that a vector costs about five bytes per device. A vector is never
+ * modified in place, and null is the vector of an item whose history is
+ * unknown. A vector received from elsewhere has to pass isValid() before
+ * it is given to the other methods.
+ *
+ * @author eus
+ */
+public final class VersionVector {
+
+	/** The device of the changes made without a vector. */
+	public static final int LEGACY_DEVICE = 0;
+
+	/** compare() of two equal vectors. */
+	public static final int EQUAL = 0;
+	/** compare() of a vector that the other one dominates. */
+	public static final int BEFORE = 1;
+	/** compare() of a vector that dominates the other one. */
+	public static final int AFTER = 2;
+	/** compare() of two concurrent vectors. */
+	public static final int CONCURRENT = 3;
+
+	/** The longest varint of a counter. */
+	private static final int MAX_VARINT_LEN = 5;
+
+	private VersionVector() {
+	}
+
+	/** Returns a vector whose counter of a device is one more than in another vector, which may be null. */
+	public static byte[] increment(byte[] v, long device) {
+
+		int d = (int) device;
+		if (d != device || d < 0) {
+
+			throw new IllegalArgumentException("Invalid device " + device);
+		}
+
+		int n = size(v);
+		int[] devices = new int[n + 1];
+		int[] counters = new int[n + 1];
+		decode(v, devices, counters);
+
+		int i = 0;
+		while (i < n && devices[i] < d) {
+
+			i++;
+		}
+		if (i < n && devices[i] == d) {
+
+			counters[i]++;
+		} else {
+
+			System.arraycopy(devices, i, devices, i + 1, n - i);
+			System.arraycopy(counters, i, counters, i + 1, n - i);
+			devices[i] = d;
+			counters[i] = 1;
+			n++;
+		}
+
+		return encode(devices, counters, n);
+	}
+
+	/** Returns the entrywise maximum of two vectors, either of which may be null. */
+	public static byte[] merge(byte[] a, byte[] b) {
+
+		if (a == null) {
+
+			return b;
+		}
+		if (b == null) {
+
+			return a;
+		}
+
+		int na = size(a);
+		int nb = size(b);
+		int[] da = new int[na];
+		int[] ca = new int[na];
+		int[] db = new int[nb];
+		int[] cb = new int[nb];
+		decode(a, da, ca);
+		decode(b, db, cb);
+
+		int[] devices = new int[na + nb];
+		int[] counters = new int[na + nb];
+		int n = 0;
+		for (int i = 0, j = 0; i < na || j < nb; n++) {
+
+			if (j == nb || (i < na && da[i] < db[j])) {
+
+				devices[n] = da[i];
+				counters[n] = ca[i++];
+			} else if (i == na || db[j] < da[i]) {
+
+				devices[n] = db[j];
+				counters[n] = cb[j++];
+			} else {
+
+				devices[n] = da[i];
+				counters[n] = Math.max(ca[i++], cb[j++]);
+			}
+		}
+
+		return encode(devices, counters, n);
+	}
+
+	/**
+	 * Compares two vectors, which must not be null.
+	 *
+	 * @return EQUAL, BEFORE if b has seen every change of a, AFTER if a
+	 *         has seen every change of b or CONCURRENT.
+	 */
+	public static int compare(byte[] a, byte[] b) {
+
+		int na = size(a);
+		int nb = size(b);
+		int[] da = new int[na];
+		int[] ca = new int[na];
+		int[] db = new int[nb];
+		int[] cb = new int[nb];
+		decode(a, da, ca);
+		decode(b, db, cb);
+
+		boolean isLess = false;
+		boolean isGreater = false;
+		for (int i = 0, j = 0; i < na || j < nb; ) {
+
+			if (j == nb || (i < na && da[i] < db[j])) {
+
+				isGreater = true;
+				i++;
+			} else if (i == na || db[j] < da[i]) {
+
+				isLess = true;
+				j++;
+			} else {
+
+				isGreater |= ca[i] > cb[j];
+				isLess |= ca[i] < cb[j];
+				i++;
+				j++;
+			}
+		}
+
+		return isLess ? (isGreater ? CONCURRENT : BEFORE) : (isGreater ? AFTER : EQUAL);
+	}
+
+	/**
+	 * Returns true if a vector, e.g. one received from the network, is
+	 * well-formed: every entry is complete, its counter fits a non-negative
+	 * int in at most five bytes and the devices are non-negative and
+	 * strictly ascending. null is a valid vector.
+	 */
+	public static boolean isValid(byte[] v) {
+
+		if (v == null) {
+
+			return true;
+		}
+		long previousDevice = -1;
+		for (int i = 0; i < v.length; ) {
+
+			if (v.length - i < Integer.SIZE / Byte.SIZE + 1) {
+
+				return false;
+			}
+			int device = ((v[i] & 0xff) << 24) | ((v[i + 1] & 0xff) << 16) | ((v[i + 2] & 0xff) << 8) | (v[i + 3] & 0xff);
+			if (device < 0 || device <= previousDevice) {
+
+				return false;
+			}
+			previousDevice = device;
+			i += Integer.SIZE / Byte.SIZE;
+
+			for (int start = i; ; ) {
+
+				if (i == v.length || i - start == MAX_VARINT_LEN) {
+
+					return false;
+				}
+				int b = v[i++] & 0xff;
+				if ((b & 0x80) == 0) {
+
+					// the fifth byte only has the three bits left of a non-negative int
+					if (i - start == MAX_VARINT_LEN && b > 0x07) {
+
+						return false;
+					}
+					break;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/** Returns the number of entries of a valid vector, which may be null. */
+	public static int size(byte[] v) {
+
+		int n = 0;
+		if (v != null) {
+
+			for (int i = 0; i < v.length; n++) {
+
+				i += Integer.SIZE / Byte.SIZE;
+				while ((v[i++] & 0x80) != 0) {
+				}
+			}
+		}
+
+		return n;
+	}
+
+	/** Decodes the entries of a vector into arrays of at least size() elements. */
+	private static void decode(byte[] v, int[] devices, int[] counters) {
+
+		if (v == null) {
+
+			return;
+		}
+		for (int i = 0, n = 0; i < v.length; n++) {
+
+			devices[n] = ((v[i] & 0xff) << 24) | ((v[i + 1] & 0xff) << 16) | ((v[i + 2] & 0xff) << 8) | (v[i + 3] & 0xff);
+			i += Integer.SIZE / Byte.SIZE;
+
+			int counter = 0;
+			int shift = 0;
+			byte b;
+			do {
+
+				b = v[i++];
+				counter |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			counters[n] = counter;
+		}
+	}
+
+	/** Encodes the first n entries of the given arrays. */
+	private static byte[] encode(int[] devices, int[] counters, int n) {
+
+		int len = 0;
+		for (int i = 0; i < n; i++) {
+
+			len += Integer.SIZE / Byte.SIZE + varintLen(counters[i]);
+		}
+
+		byte[] v = new byte[len];
+		int pos = 0;
+		for (int i = 0; i < n; i++) {
+
+			v[pos++] = (byte) (devices[i] >>> 24);
+			v[pos++] = (byte) (devices[i] >>> 16);
+			v[pos++] = (byte) (devices[i] >>> 8);
+			v[pos++] = (byte) devices[i];
+			for (int c = counters[i]; ; c >>>= 7) {
+
+				if ((c & ~0x7f) == 0) {
+
+					v[pos++] = (byte) c;
+					break;
+				}
+				v[pos++] = (byte) ((c & 0x7f) | 0x80);
+			}
+		}
+
+		return v;
+	}
+
+	private static int varintLen(int value) {
+
+		int len = 1;
+		while ((value >>>= 7) != 0) {
+
+			len++;
+		}
+
+		return len;
+	}
+}
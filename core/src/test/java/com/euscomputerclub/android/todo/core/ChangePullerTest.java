@@ -0,0 +1,179 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.LinkedList;
+
+import org.junit.Test;
+
+/**
+ * Checks that ChangePuller advances the pull watermark of MemoryTodoStore
+ * and JdbcTodoStore only once a pull response has been applied, and that a
+ * pull of items that the store already has changes none of them.
+ *
+ * @author eus
+ */
+public class ChangePullerTest {
+
+	private static final int USER_ID = 1;
+
+	/** Class FakeCommunication answers the pulls with the queued responses. */
+	private static class FakeCommunication extends TodoSyncCommunication {
+
+		/** The responses with null for a pull that gets none. */
+		final LinkedList<PullData> responses = new LinkedList<PullData>();
+		/** The watermarks of the pulls. */
+		final LinkedList<Long> pulls = new LinkedList<Long>();
+
+		FakeCommunication() throws SocketException {
+
+			super(new InetSocketAddress(InetAddress.getLoopbackAddress(), 9), 0);
+		}
+
+		@Override
+		public PullData pull(int userId, long since) throws IOException {
+
+			pulls.add(Long.valueOf(since));
+
+			return responses.removeFirst();
+		}
+	}
+
+	/** Returns a response with the chunks of some items. */
+	private static TodoSyncCommunication.PullData response(boolean isComplete, long watermark,
+								 byte chunkType, Todo... items) {
+
+		ByteBuffer b = ByteBuffer.allocate(4096);
+		for (Todo t : items) {
+
+			TodoTlv.put(b, chunkType, t);
+		}
+		b.flip();
+
+		return new TodoSyncCommunication.PullData(TodoSyncCommunication.PULL_OK, isComplete, watermark, b);
+	}
+
+	/** Returns an item as the server has it. */
+	private static Todo remote(long id, String title, int revision) {
+
+		Todo t = new Todo(Long.valueOf(id), title, "2026-10-05", Integer.valueOf(1), "Open", "d",
+				  Integer.valueOf(revision));
+		t.fingerprint = Long.valueOf(t.computeFingerprint());
+
+		return t;
+	}
+
+	@Test
+	public void watermarkAdvancesOnlyAfterApply() throws IOException, SQLException {
+
+		for (TodoStore db : newStores()) {
+
+			FakeCommunication comm = new FakeCommunication();
+			try {
+
+				ChangePuller puller = new ChangePuller(db);
+
+				// nothing is pulled before the first sync
+				assertFalse(puller.pull(comm, USER_ID));
+				assertTrue(comm.pulls.isEmpty());
+				db.savePullWatermark(5);
+
+				// a pull without a response or with a forgotten watermark changes nothing
+				comm.responses.add(null);
+				assertFalse(puller.pull(comm, USER_ID));
+				comm.responses.add(new TodoSyncCommunication.PullData(TodoSyncCommunication.PULL_TOO_OLD, true, 9,
+											ByteBuffer.allocate(0)));
+				assertFalse(puller.pull(comm, USER_ID));
+				assertEquals(5, db.getPullWatermark());
+
+				// the first response is applied before the second one turns out invalid
+				comm.responses.add(response(false, 6, TodoTlv.CHUNK_TODO, remote(100, "imported", 1)));
+				comm.responses.add(response(true, 7, TodoTlv.CHUNK_NEW_TODO, remote(101, "invalid", 1)));
+				try {
+
+					puller.pull(comm, USER_ID);
+					fail("Invalid pull data applied");
+				} catch (IllegalStateException e) {
+
+					// expected
+				}
+				assertEquals(6, db.getPullWatermark());
+				assertEquals("imported", db.getTodo(100).title);
+				assertNull(db.getLocalTodo(101));
+				assertEquals(Long.valueOf(6), comm.pulls.getLast());
+
+				// the next pull starts at the applied watermark
+				comm.responses.add(response(true, 7, TodoTlv.CHUNK_TODO, remote(101, "pulled", 1)));
+				assertTrue(puller.pull(comm, USER_ID));
+				assertEquals(Long.valueOf(6), comm.pulls.getLast());
+				assertEquals(7, db.getPullWatermark());
+				assertEquals("pulled", db.getTodo(101).title);
+				assertEquals(0, puller.deferredItems);
+			} finally {
+
+				comm.disconnect();
+				closeStore(db);
+			}
+		}
+	}
+
+	@Test
+	public void pullOfUnchangedItemsChangesNothing() throws IOException, SQLException {
+
+		for (TodoStore db : newStores()) {
+
+			FakeCommunication comm = new FakeCommunication();
+			try {
+
+				long id = db.createTodo("synced", "2026-10-05", 1, "Open", "d");
+				// the local revision is one more than that of the server after a sync
+				db.updateTodoRevision(id, 3);
+				db.clearOutbox(db.getLastOutboxSequence());
+				db.savePullWatermark(5);
+				Todo before = db.getLocalTodo(id);
+
+				ChangePuller puller = new ChangePuller(db);
+				comm.responses.add(response(true, 6, TodoTlv.CHUNK_TODO, remote(id, "synced", 2)));
+				assertTrue(puller.pull(comm, USER_ID));
+				assertEquals(1, puller.pulledItems);
+				assertEquals(0, puller.deferredItems);
+
+				Todo after = db.getLocalTodo(id);
+				assertEquals(before.revision, after.revision);
+				assertEquals(before.fingerprint, after.fingerprint);
+				assertEquals("synced", after.title);
+				assertFalse(db.isLocalDeleted(id));
+				assertTrue(db.getOutbox(10).isEmpty());
+				assertNull(db.getLocalTodo(id + 1));
+				assertEquals(6, db.getPullWatermark());
+			} finally {
+
+				comm.disconnect();
+				closeStore(db);
+			}
+		}
+	}
+
+	private static TodoStore[] newStores() throws SQLException {
+
+		return new TodoStore[] {new MemoryTodoStore(1), new JdbcTodoStore("jdbc:sqlite::memory:")};
+	}
+
+	private static void closeStore(TodoStore db) throws SQLException {
+
+		if (db instanceof JdbcTodoStore) {
+
+			((JdbcTodoStore) db).close();
+		}
+	}
+}
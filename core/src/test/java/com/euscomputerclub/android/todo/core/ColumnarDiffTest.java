@@ -0,0 +1,111 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that ColumnarDiff gives the same plan as the cursor loop of
+ * SyncPlanner for new, updated, deleted, conflicting and tombstoned items,
+ * both below THRESHOLD and when the rows are split across tasks, and that
+ * executing either plan leaves the same tables.
+ *
+ * @author eus
+ */
+public class ColumnarDiffTest {
+
+	private static ForkJoinPool pool;
+
+	@BeforeClass
+	public static void startPool() {
+
+		pool = new ForkJoinPool(4);
+	}
+
+	@AfterClass
+	public static void stopPool() {
+
+		pool.shutdown();
+	}
+
+	@Test
+	public void smallPlanMatchesCursorLoop() throws SQLException {
+
+		for (int seed = 1; seed <= 5; seed++) {
+
+			JdbcTodoStore diffed = new JdbcTodoStore("jdbc:sqlite::memory:");
+			JdbcTodoStore looped = new JdbcTodoStore("jdbc:sqlite::memory:");
+			try {
+
+				assertSamePlan(seed, 300, diffed, looped);
+			} finally {
+
+				diffed.close();
+				looped.close();
+			}
+		}
+	}
+
+	@Test
+	public void splitPlanMatchesCursorLoop() {
+
+		SyncPlan plan = assertSamePlan(1, 4 * ColumnarDiff.THRESHOLD, new MemoryTodoStore(1), new MemoryTodoStore(1));
+		assertTrue(plan.size() > 2 * ColumnarDiff.THRESHOLD);
+	}
+
+	/**
+	 * Loads a workload into both stores, plans it with ColumnarDiff and
+	 * with SyncPlanner, compares the plans, executes them and compares the
+	 * tables.
+	 *
+	 * @return the executed plan of ColumnarDiff
+	 */
+	private static SyncPlan assertSamePlan(long seed, int size, TodoStore diffed, TodoStore looped) {
+
+		SyncWorkload w = new SyncWorkload(seed, size);
+		w.load(diffed);
+		w.load(looped);
+
+		SyncPlan diffPlan = ColumnarDiff.plan(diffed, pool);
+		SyncPlan loopPlan = new SyncEngine(looped, SyncWorkload.BY_PARITY).plan();
+
+		assertEquals(describe(loopPlan), describe(diffPlan));
+		for (SyncAction a : new SyncAction[] {SyncAction.PUSH_NEW, SyncAction.PUSH_UPDATE, SyncAction.REPLACE_LOCAL,
+						      SyncAction.DELETE_LOCAL, SyncAction.DELETE_BOTH, SyncAction.IMPORT,
+						      SyncAction.CONFLICT, SyncAction.REMOTE_DELETION_CONFLICT,
+						      SyncAction.LOCAL_DELETION_CONFLICT}) {
+
+			assertTrue(a + " " + diffPlan, diffPlan.getCount(a) > 0);
+		}
+		for (int i = 0; i < diffPlan.size(); i++) {
+
+			assertEquals(loopPlan.getLocalTodo(i), diffPlan.getLocalTodo(i));
+			assertEquals(loopPlan.getRemoteTodo(i), diffPlan.getRemoteTodo(i));
+		}
+
+		new SyncEngine(diffed, SyncWorkload.BY_PARITY).sync(diffPlan);
+		new SyncEngine(looped, SyncWorkload.BY_PARITY).sync(loopPlan);
+		assertEquals("seed " + seed, SyncWorkload.dump(looped), SyncWorkload.dump(diffed));
+
+		return diffPlan;
+	}
+
+	/** Describes the entries of a plan leaving out the field masks, which ColumnarDiff does not compute. */
+	private static String describe(SyncPlan plan) {
+
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < plan.size(); i++) {
+
+			b.append(plan.getId(i)).append(' ').append(plan.getAction(i)).append(" [A")
+				.append(plan.getRule(i)).append("]\n");
+		}
+
+		return b.toString();
+	}
+}
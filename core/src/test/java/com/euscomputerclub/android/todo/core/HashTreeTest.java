@@ -0,0 +1,127 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the bucket hashes of HashTree and that a sync limited to the
+ * buckets that differ leaves the same tables as a full sync.
+ *
+ * @author eus
+ */
+public class HashTreeTest {
+
+	@Test
+	public void changedFieldFlipsOnlyItsBucket() {
+
+		MemoryTodoStore db = new MemoryTodoStore(1);
+		SyncWorkload w = new SyncWorkload(1, 0);
+		w.addSynchronized(SyncWorkload.ID_PREFIX, 2000);
+		w.load(db);
+		HashTree before = HashTree.readLocal(db);
+
+		Todo t = w.localTodos.get(1234);
+		db.updateTodo(t.id.longValue(), null, null, null, t.status.equals("Open") ? "In progress" : "Open", null);
+		HashTree after = HashTree.readLocal(db);
+
+		int bucket = HashTree.bucketOf(t.id.longValue());
+		for (int i = 0; i < HashTree.BUCKET_COUNT; i++) {
+
+			assertEquals("bucket " + i, i != bucket, before.getBucket(i) == after.getBucket(i));
+		}
+		assertFalse(before.getRoot() == after.getRoot());
+
+		byte[] bucketSet = after.getChangedBuckets(before.getBuckets());
+		assertEquals(1, HashTree.countBuckets(bucketSet));
+		assertTrue(HashTree.hasId(bucketSet, t.id.longValue()));
+	}
+
+	@Test
+	public void leavesCancelOnRemoveAndReadd() {
+
+		Random rnd = new Random(1);
+		List<long[]> leaves = new ArrayList<long[]>();
+		HashTree tree = new HashTree();
+		for (int i = 0; i < 5000; i++) {
+
+			long[] leaf = {rnd.nextLong(), rnd.nextInt(100), rnd.nextLong()};
+			leaves.add(leaf);
+			tree.add(leaf[0], (int) leaf[1], leaf[2]);
+		}
+		long[] buckets = tree.getBuckets();
+		long root = tree.getRoot();
+
+		long[] leaf = leaves.get(42);
+		tree.remove(leaf[0], (int) leaf[1], leaf[2]);
+		assertFalse(buckets[HashTree.bucketOf(leaf[0])] == tree.getBucket(HashTree.bucketOf(leaf[0])));
+		tree.add(leaf[0], (int) leaf[1], leaf[2]);
+		assertArrayEquals(buckets, tree.getBuckets());
+		assertEquals(root, tree.getRoot());
+
+		// the order of the leaves does not matter
+		Collections.shuffle(leaves, rnd);
+		HashTree shuffled = new HashTree();
+		for (long[] l : leaves) {
+
+			shuffled.add(l[0], (int) l[1], l[2]);
+		}
+		assertArrayEquals(buckets, shuffled.getBuckets());
+
+		for (long[] l : leaves) {
+
+			shuffled.remove(l[0], (int) l[1], l[2]);
+		}
+		assertArrayEquals(new long[HashTree.BUCKET_COUNT], shuffled.getBuckets());
+		assertEquals(HashTree.getRoot(new long[HashTree.BUCKET_COUNT]), shuffled.getRoot());
+		assertArrayEquals(buckets, HashTree.unpack(HashTree.pack(buckets)));
+	}
+
+	@Test
+	public void bucketSyncMatchesFullSync() {
+
+		for (int seed = 1; seed <= 10; seed++) {
+
+			SyncWorkload w = new SyncWorkload(seed, 30);
+			w.addSynchronized(SyncWorkload.ID_PREFIX + 1, 5000);
+
+			MemoryTodoStore full = new MemoryTodoStore(1);
+			w.load(full);
+			new SyncEngine(full, SyncWorkload.BY_PARITY).sync();
+
+			MemoryTodoStore limited = new MemoryTodoStore(1);
+			w.load(limited);
+			long[] serverBuckets = new long[HashTree.BUCKET_COUNT];
+			for (Todo t : w.remoteTodos) {
+
+				serverBuckets[HashTree.bucketOf(t.id.longValue())]
+					^= HashTree.leaf(t.id.longValue(), t.revision.intValue(), t.getFingerprint());
+			}
+			byte[] bucketSet = HashTree.readLocal(limited).getChangedBuckets(serverBuckets);
+			int buckets = HashTree.countBuckets(bucketSet);
+			assertTrue(buckets > 0 && buckets < HashTree.BUCKET_COUNT / 2);
+
+			// the server only sends the items of the buckets that differ
+			limited.recreateSyncTable();
+			for (Todo t : w.remoteTodos) {
+
+				if (HashTree.hasId(bucketSet, t.id.longValue())) {
+
+					limited.createSyncTodo(new Todo(t));
+				}
+			}
+			SyncEngine engine = new SyncEngine(limited, SyncWorkload.BY_PARITY);
+			engine.sync(engine.plan(limited.getAllSyncTodo(), bucketSet));
+
+			assertEquals("seed " + seed, SyncWorkload.dump(full), SyncWorkload.dump(limited));
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that NotifyCoalescer fetches a burst of notifies by a single pull,
+ * pulls again only for the notifies that come during a pull, and leaves
+ * the notifies of a failed pull to the sync.
+ *
+ * @author eus
+ */
+public class NotifyCoalescerTest {
+
+	private static final long DELAY = 100;
+
+	@Test
+	public void burstIsPulledOnce() {
+
+		NotifyCoalescer c = new NotifyCoalescer(DELAY);
+		c.setKnown(5);
+
+		// the store already has this watermark
+		assertFalse(c.noteNotify(0, 5));
+		assertEquals(NotifyCoalescer.NEVER, c.getDueTime());
+
+		assertTrue(c.noteNotify(10, 6));
+		assertEquals(10 + DELAY, c.getDueTime());
+		// the rest of the burst only raises the watermark to be reached
+		assertFalse(c.noteNotify(20, 7));
+		assertFalse(c.noteNotify(30, 6));
+		assertEquals(10 + DELAY, c.getDueTime());
+
+		c.pullStarted();
+		assertEquals(NotifyCoalescer.NEVER, c.getDueTime());
+		assertFalse(c.pullFinished(120, true, 7));
+		assertEquals(NotifyCoalescer.NEVER, c.getDueTime());
+		assertEquals(4, c.getNotifies());
+		assertEquals(1, c.getPulls());
+	}
+
+	@Test
+	public void notifyDuringPullIsPulledAfterIt() {
+
+		NotifyCoalescer c = new NotifyCoalescer(DELAY);
+		c.setKnown(5);
+		assertTrue(c.noteNotify(0, 6));
+		c.pullStarted();
+		assertFalse(c.noteNotify(110, 8));
+		assertEquals(NotifyCoalescer.NEVER, c.getDueTime());
+
+		// the pull has stopped at the watermark of the first notify
+		assertTrue(c.pullFinished(130, true, 6));
+		assertEquals(130 + DELAY, c.getDueTime());
+		assertFalse(c.noteNotify(140, 8));
+
+		c.pullStarted();
+		assertFalse(c.pullFinished(240, true, 8));
+		assertEquals(2, c.getPulls());
+
+		// a pull that reaches the watermark anyway needs no other pull
+		assertTrue(c.noteNotify(300, 9));
+		c.pullStarted();
+		assertFalse(c.noteNotify(310, 10));
+		assertFalse(c.pullFinished(320, true, 10));
+		assertEquals(NotifyCoalescer.NEVER, c.getDueTime());
+		assertEquals(3, c.getPulls());
+	}
+
+	@Test
+	public void failedPullLeavesNotifiesToSync() {
+
+		NotifyCoalescer c = new NotifyCoalescer(DELAY);
+		c.setKnown(5);
+		assertTrue(c.noteNotify(0, 6));
+		c.pullStarted();
+		assertFalse(c.noteNotify(110, 7));
+		assertFalse(c.pullFinished(120, false, 5));
+		assertEquals(NotifyCoalescer.NEVER, c.getDueTime());
+
+		// the sync gives the watermark
+		c.setKnown(7);
+		assertFalse(c.noteNotify(200, 7));
+		assertTrue(c.noteNotify(210, 8));
+		assertEquals(210 + DELAY, c.getDueTime());
+	}
+}
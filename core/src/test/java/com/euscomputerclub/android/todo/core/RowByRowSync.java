@@ -0,0 +1,140 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class RowByRowSync is the reconciliation that SyncEngine.sync() made
+ * before SyncPlanner and SyncPlanExecutor: it decides the [A1]-[A16] rule of
+ * every local todo item and applies it at once with the single-row
+ * operations of the store. The tests run it in lock step with the planner
+ * and the executor, which must leave the same tables.
+ *
+ * @author eus
+ */
+class RowByRowSync {
+
+	private final TodoStore db;
+	private final ConflictResolver resolver;
+
+	RowByRowSync(TodoStore db, ConflictResolver resolver) {
+
+		this.db = db;
+		this.resolver = resolver;
+	}
+
+	/** Reconciles the todo table with the sync table. */
+	void sync() {
+
+		db.beginTransaction();
+		try {
+
+			for (Todo localTodo : readLocalTodos()) {
+
+				sync(localTodo);
+			}
+			db.confirmNewTodos();
+			db.importNewTodos(); // [A16]
+			db.setTransactionSuccessful();
+		} finally {
+
+			db.endTransaction();
+		}
+	}
+
+	private List<Todo> readLocalTodos() {
+
+		List<Todo> todos = new ArrayList<Todo>();
+		TodoCursor c = db.getAllTodoIncludingDeletedOnes();
+		try {
+
+			TodoRow row = new TodoRow(c, db);
+			while (row.moveToNext()) {
+
+				todos.add(row.toTodo());
+			}
+		} finally {
+
+			c.close();
+		}
+
+		return todos;
+	}
+
+	private void sync(Todo localTodo) {
+
+		long localId = localTodo.id.longValue();
+		int localRev = localTodo.revision.intValue();
+
+		if (localRev == TodoSchema.NEW_TODO_REVISION) { // [A1]
+
+			db.insertToSync(localTodo);
+			return;
+		}
+
+		Todo remoteTodo = db.getRemoteTodo(localId);
+		if (remoteTodo == null) {
+
+			if (db.isLocalDeleted(localId)) { // [A9]
+
+				db.deleteLocal(localId);
+			} else if (resolver.resolveRemoteDeletion(localTodo) == ConflictResolution.PICK_LOCAL) { // [A8]
+
+				db.insertToSync(localTodo);
+				db.updateTodoRevision(localId, localRev + 1);
+			} else { // [A7]
+
+				db.deleteLocal(localId);
+			}
+			return;
+		}
+
+		int remoteRev = remoteTodo.revision.intValue();
+		if (db.isLocalDeleted(localId)) {
+
+			if (remoteRev > localRev) { // [A10]
+
+				db.replaceTodo(remoteTodo);
+				db.removeSync(localId);
+			} else if (remoteRev < localRev || localTodo.equals(remoteTodo)) { // [A14], [A11]
+
+				db.deleteLocal(localId);
+				db.deleteSync(localId);
+			} else if (resolver.resolveLocalDeletion(remoteTodo) == ConflictResolution.PICK_LOCAL) { // [A13]
+
+				db.deleteLocal(localId);
+				db.deleteSync(localId);
+			} else { // [A12]
+
+				db.replaceTodo(remoteTodo);
+				db.removeSync(localId);
+			}
+		} else if (localRev > remoteRev) {
+
+			if (localTodo.equals(remoteTodo)) { // [A2]
+
+				db.removeSync(localId);
+			} else { // [A3]
+
+				db.updateSync(remoteTodo, localTodo);
+				db.updateTodoRevision(localId, localRev + 1);
+			}
+		} else if (localRev < remoteRev) { // [A4]
+
+			db.replaceTodo(remoteTodo);
+			db.removeSync(localId);
+		} else if (localTodo.equals(remoteTodo)) { // [A15]
+
+			db.removeSync(localId);
+			db.updateTodoRevision(localId, localRev + 1);
+		} else if (resolver.resolveTwoItemsConflict(localTodo, remoteTodo) == ConflictResolution.PICK_LOCAL) { // [A5]
+
+			db.updateTodoRevision(localId, localRev + 2);
+			db.updateSync(remoteTodo, localTodo);
+		} else { // [A6]
+
+			db.replaceTodo(remoteTodo);
+			db.removeSync(localId);
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks that SyncPlanExecutor leaves the same tables as the row-by-row
+ * reconciliation when every kind of change has more IDs than a single
+ * statement lists, that every stored fingerprint stays equal to a fresh
+ * computation, and that an [A4] replacement of a local item whose version
+ * vector is concurrent to the remote one is a conflict. The merge bases
+ * and the remote version vectors are read and saved in chunks of IDs.
+ *
+ * @author eus
+ */
+public class SyncPlanExecutorTest {
+
+	/** A size at which every chunked action gets more than MAX_IDS_PER_STATEMENT IDs. */
+	private static final int WORKLOAD_SIZE = 20000;
+
+	/** The ID of the item of the [A4] tests. */
+	private static final long ID = 5;
+	/** The revision of the version of the item of the [A4] tests that both sides have agreed on. */
+	private static final int AGREED_REVISION = 3;
+
+	private static final SyncAction[] CHUNKED_ACTIONS = {
+		SyncAction.PUSH_NEW, SyncAction.RESURRECT_REMOTE, SyncAction.PUSH_UPDATE, SyncAction.OVERRIDE_REMOTE,
+		SyncAction.REPLACE_LOCAL, SyncAction.DROP_REMOTE, SyncAction.CONFIRM, SyncAction.DELETE_LOCAL,
+		SyncAction.DELETE_BOTH
+	};
+
+	@Test
+	public void memoryStoreMatchesRowByRowSync() {
+
+		MemoryTodoStore planned = new MemoryTodoStore(1);
+		assertChunked(SyncPlannerTest.assertLockStep(1, WORKLOAD_SIZE, planned, new MemoryTodoStore(1)));
+		assertFingerprints(planned);
+	}
+
+	@Test
+	public void jdbcStoreMatchesRowByRowSync() throws SQLException {
+
+		JdbcTodoStore planned = new JdbcTodoStore("jdbc:sqlite::memory:");
+		JdbcTodoStore rowByRow = new JdbcTodoStore("jdbc:sqlite::memory:");
+		try {
+
+			assertChunked(SyncPlannerTest.assertLockStep(1, WORKLOAD_SIZE, planned, rowByRow));
+			assertFingerprints(planned);
+		} finally {
+
+			planned.close();
+			rowByRow.close();
+		}
+	}
+
+	@Test
+	public void storesAgree() throws SQLException {
+
+		MemoryTodoStore memory = new MemoryTodoStore(1);
+		JdbcTodoStore jdbc = new JdbcTodoStore("jdbc:sqlite::memory:");
+		try {
+
+			SyncWorkload w = new SyncWorkload(2, 3000);
+			w.load(memory);
+			w.load(jdbc);
+			new SyncEngine(memory, SyncWorkload.BY_PARITY).sync();
+			new SyncEngine(jdbc, SyncWorkload.BY_PARITY).sync();
+
+			assertEquals(SyncWorkload.dump(memory), SyncWorkload.dump(jdbc));
+
+			// the bases saved in chunks are those of the agreed items,
+			// whose vectors differ by the device IDs of the stores
+			long[] ids = SyncEngine.readIds(memory.getAllTodoIncludingDeletedOnes());
+			Map<Long, byte[]> bases = memory.getMergeBases(ids);
+			assertTrue(bases.size() > TodoSchema.MAX_IDS_PER_STATEMENT);
+			for (long id : ids) {
+
+				byte[] base = bases.get(Long.valueOf(id));
+				byte[] jdbcBase = jdbc.getMergeBase(id);
+				assertEquals(base == null, jdbcBase == null);
+				if (base != null) {
+
+					assertEquals(0, ThreeWayMerge.changedFields(base, memory.getTodo(id)));
+					assertEquals(0, ThreeWayMerge.changedFields(jdbcBase, jdbc.getTodo(id)));
+				}
+			}
+		} finally {
+
+			jdbc.close();
+		}
+	}
+
+	@Test
+	public void versionVectorsAreReadInChunks() throws SQLException {
+
+		for (TodoStore db : newStores()) {
+
+			try {
+
+				// every other item has a base and every third one a remote vector
+				long[] ids = new long[2 * TodoSchema.MAX_IDS_PER_STATEMENT + 1];
+				db.recreateSyncTable();
+				for (int i = 0; i < ids.length; i++) {
+
+					ids[i] = i + 1;
+					Todo remote = new Todo(Long.valueOf(ids[i]), "title", "2026-10-05", Integer.valueOf(1), "Open",
+							       "description", Integer.valueOf(1));
+					if (i % 3 == 0) {
+
+						remote.versionVector = VersionVector.increment(null, i);
+					}
+					db.createSyncTodo(remote);
+					if (i % 2 == 0) {
+
+						db.saveMergeBase(ids[i], ThreeWayMerge.baseOf(remote));
+					}
+				}
+
+				Map<Long, byte[]> bases = db.getMergeBases(ids);
+				Map<Long, byte[]> vectors = db.getRemoteVersionVectors(ids);
+				assertEquals(TodoSchema.MAX_IDS_PER_STATEMENT + 1, bases.size());
+				assertEquals(ids.length / 3 + 1, vectors.size());
+				for (long id : ids) {
+
+					assertArrayEquals(db.getMergeBase(id), bases.get(Long.valueOf(id)));
+					assertArrayEquals(db.getRemoteTodo(id).versionVector, vectors.get(Long.valueOf(id)));
+				}
+			} finally {
+
+				closeStore(db);
+			}
+		}
+	}
+
+	@Test
+	public void concurrentReplacementIsMerged() throws SQLException {
+
+		for (TodoStore db : newStores()) {
+
+			try {
+
+				// the server has changed the status twice, this device the title
+				SyncPlan plan = planReplacement(db, "local title", null);
+				SyncPlanExecutor executor = new SyncPlanExecutor(db, SyncWorkload.BY_PARITY);
+				executor.autoResolve(plan);
+				assertEquals(SyncAction.MERGE, plan.getAction(0));
+				assertEquals(5, plan.getRule(0));
+
+				new SyncEngine(db, SyncWorkload.BY_PARITY).sync(plan);
+				Todo t = db.getTodo(ID);
+				assertEquals("local title", t.title);
+				assertEquals("Closed", t.status);
+			} finally {
+
+				closeStore(db);
+			}
+		}
+	}
+
+	@Test
+	public void concurrentReplacementOfSameFieldIsConflict() throws SQLException {
+
+		for (TodoStore db : newStores()) {
+
+			try {
+
+				SyncPlan plan = planReplacement(db, null, "In progress");
+				new SyncPlanExecutor(db, SyncWorkload.BY_PARITY).autoResolve(plan);
+				assertEquals(SyncAction.CONFLICT, plan.getAction(0));
+				assertEquals("In progress", plan.getLocalTodo(0).status);
+				assertEquals("Closed", plan.getRemoteTodo(0).status);
+			} finally {
+
+				closeStore(db);
+			}
+		}
+	}
+
+	@Test
+	public void followingReplacementStaysA4() throws SQLException {
+
+		for (TodoStore db : newStores()) {
+
+			try {
+
+				// no local change: the remote vector dominates the local one
+				SyncPlan plan = planReplacement(db, null, null);
+				new SyncPlanExecutor(db, SyncWorkload.BY_PARITY).autoResolve(plan);
+				assertEquals(SyncAction.REPLACE_LOCAL, plan.getAction(0));
+				assertEquals(4, plan.getRule(0));
+				assertNull(plan.getLocalTodo(0));
+			} finally {
+
+				closeStore(db);
+			}
+		}
+	}
+
+	private static TodoStore[] newStores() throws SQLException {
+
+		return new TodoStore[] {new MemoryTodoStore(1), new JdbcTodoStore("jdbc:sqlite::memory:")};
+	}
+
+	private static void closeStore(TodoStore db) throws SQLException {
+
+		if (db instanceof JdbcTodoStore) {
+
+			((JdbcTodoStore) db).close();
+		}
+	}
+
+	/**
+	 * Stores an item synchronized at AGREED_REVISION with its base, applies
+	 * the given local edits and plans the remote item that another device
+	 * has changed twice since, which SyncPlanner takes as an [A4].
+	 */
+	private static SyncPlan planReplacement(TodoStore db, String localTitle, String localStatus) {
+
+		long device = db.getIdPrefix();
+		long otherDevice = device + 1;
+		Todo agreed = new Todo(Long.valueOf(ID), "title", "2026-10-05", Integer.valueOf(3), "Open",
+				       "description", Integer.valueOf(AGREED_REVISION));
+		agreed.versionVector = VersionVector.increment(VersionVector.increment(null, device), otherDevice);
+
+		Todo local = new Todo(agreed);
+		local.revision = Integer.valueOf(AGREED_REVISION + 1);
+		local.versionVector = null;
+		db.restoreTodos(Collections.singletonList(local).iterator());
+		db.saveMergeBase(ID, ThreeWayMerge.baseOf(agreed));
+		if (localTitle != null || localStatus != null) {
+
+			db.updateTodo(ID, localTitle, null, null, localStatus, null);
+		}
+
+		Todo remote = new Todo(agreed);
+		remote.revision = Integer.valueOf(AGREED_REVISION + 2);
+		remote.status = "Closed";
+		remote.versionVector = VersionVector.increment(VersionVector.increment(agreed.versionVector, otherDevice),
+							       otherDevice);
+		db.recreateSyncTable();
+		db.createSyncTodo(remote);
+
+		SyncPlan plan = new SyncEngine(db, SyncWorkload.BY_PARITY).plan();
+		assertEquals(1, plan.size());
+		assertEquals(SyncAction.REPLACE_LOCAL, plan.getAction(0));
+		assertEquals(4, plan.getRule(0));
+
+		return plan;
+	}
+
+	/** Asserts that every chunked action of a plan has more IDs than a statement lists. */
+	private static void assertChunked(SyncPlan plan) {
+
+		for (SyncAction a : CHUNKED_ACTIONS) {
+
+			assertTrue(a + " " + plan, plan.getCount(a) > TodoSchema.MAX_IDS_PER_STATEMENT);
+		}
+	}
+
+	/** Asserts that the stored fingerprints of the todo table and of the complete sync records are right. */
+	private static void assertFingerprints(TodoStore db) {
+
+		TodoCursor c = db.getAllTodoIncludingDeletedOnes();
+		try {
+
+			TodoRow row = new TodoRow(c, db);
+			while (row.moveToNext()) {
+
+				Todo t = row.toTodo();
+				assertEquals(t.id.toString(), t.computeFingerprint(), t.fingerprint.longValue());
+			}
+		} finally {
+
+			c.close();
+		}
+		c = db.getAllSyncTodo();
+		try {
+
+			TodoRow row = new TodoRow(c);
+			while (row.moveToNext()) {
+
+				Todo t = row.toSyncTodo();
+				if (t.fingerprint != null) {
+
+					assertTrue(t.id.toString(), t.isComplete());
+					assertEquals(t.id.toString(), t.computeFingerprint(), t.fingerprint.longValue());
+				}
+			}
+		} finally {
+
+			c.close();
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+/**
+ * Checks that planning the reconciliation with SyncPlanner and executing it
+ * with SyncPlanExecutor leaves the same todo, deleted_todo and sync tables
+ * as the row-by-row reconciliation, and that planning changes nothing.
+ *
+ * @author eus
+ */
+public class SyncPlannerTest {
+
+	private static final int WORKLOADS = 20;
+	private static final int WORKLOAD_SIZE = 300;
+
+	@Test
+	public void memoryStoreMatchesRowByRowSync() {
+
+		for (int seed = 1; seed <= WORKLOADS; seed++) {
+
+			assertLockStep(seed, WORKLOAD_SIZE, new MemoryTodoStore(1), new MemoryTodoStore(1));
+		}
+	}
+
+	@Test
+	public void jdbcStoreMatchesRowByRowSync() throws SQLException {
+
+		for (int seed = 1; seed <= WORKLOADS; seed++) {
+
+			JdbcTodoStore planned = new JdbcTodoStore("jdbc:sqlite::memory:");
+			JdbcTodoStore rowByRow = new JdbcTodoStore("jdbc:sqlite::memory:");
+			try {
+
+				assertLockStep(seed, WORKLOAD_SIZE, planned, rowByRow);
+			} finally {
+
+				planned.close();
+				rowByRow.close();
+			}
+		}
+	}
+
+	@Test
+	public void planCountsEveryRule() {
+
+		MemoryTodoStore db = new MemoryTodoStore(1);
+		new SyncWorkload(1, 2000).load(db);
+		SyncPlan plan = new SyncEngine(db, SyncWorkload.BY_PARITY).plan();
+
+		int actions = 0;
+		for (SyncAction a : SyncAction.values()) {
+
+			actions += plan.getCount(a);
+		}
+		assertEquals(plan.size(), actions);
+		// the conflicts are only decided by the executor
+		for (int rule : new int[] {1, 2, 3, 4, 9, 10, 11, 14, 15, 16}) {
+
+			assertTrue("[A" + rule + "]", plan.getRuleCount(rule) > 0);
+		}
+		assertTrue(plan.getCount(SyncAction.CONFLICT) > 0);
+		assertTrue(plan.getCount(SyncAction.REMOTE_DELETION_CONFLICT) > 0);
+		assertTrue(plan.getCount(SyncAction.LOCAL_DELETION_CONFLICT) > 0);
+	}
+
+	@Test
+	public void previewChangesNothing() throws SQLException {
+
+		JdbcTodoStore db = new JdbcTodoStore("jdbc:sqlite::memory:");
+		try {
+
+			SyncWorkload w = new SyncWorkload(7, WORKLOAD_SIZE);
+			w.load(db);
+			String tables = SyncWorkload.dump(db);
+			SyncEngine engine = new SyncEngine(db, SyncWorkload.BY_PARITY);
+
+			SyncPlan planned = engine.plan();
+			int len = 0;
+			for (Todo t : w.remoteTodos) {
+
+				len += TodoTlv.sizeOf(t);
+			}
+			ByteBuffer chunks = ByteBuffer.allocate(len);
+			for (Todo t : w.remoteTodos) {
+
+				TodoTlv.put(chunks, TodoTlv.CHUNK_TODO, t);
+			}
+			chunks.flip();
+			SyncPlan previewed = engine.preview(chunks);
+
+			assertEquals(SyncWorkload.describe(planned), SyncWorkload.describe(previewed));
+			assertEquals(tables, SyncWorkload.dump(db));
+		} finally {
+
+			db.close();
+		}
+	}
+
+	/**
+	 * Loads a workload into both stores, reconciles them both ways and
+	 * compares their tables.
+	 *
+	 * @return the plan executed in the first store
+	 */
+	static SyncPlan assertLockStep(long seed, int size, TodoStore planned, TodoStore rowByRow) {
+
+		SyncWorkload w = new SyncWorkload(seed, size);
+		w.load(planned);
+		w.load(rowByRow);
+		assertEquals(SyncWorkload.dump(planned), SyncWorkload.dump(rowByRow));
+
+		SyncPlan plan = new SyncEngine(planned, SyncWorkload.BY_PARITY).sync();
+		new RowByRowSync(rowByRow, SyncWorkload.BY_PARITY).sync();
+
+		assertEquals("seed " + seed, SyncWorkload.dump(rowByRow), SyncWorkload.dump(planned));
+
+		return plan;
+	}
+}
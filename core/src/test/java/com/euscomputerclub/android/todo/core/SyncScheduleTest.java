@@ -0,0 +1,161 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the quiet period, the maximum delay and the backoff of
+ * SyncSchedule on a fixed clock. The jitter is drawn from a seeded Random
+ * and replayed by a second one with the same seed.
+ *
+ * @author eus
+ */
+public class SyncScheduleTest {
+
+	private static final long SEED = 7;
+	private static final long QUIET_PERIOD = 1000;
+	private static final long MAX_DELAY = 5000;
+	private static final long MIN_BACKOFF = 2000;
+	private static final long MAX_BACKOFF = 16000;
+
+	/** Replays the jitter drawn by the schedule under test. */
+	private final Random jitter = new Random(SEED);
+
+	private SyncSchedule newSchedule(long minBackoff, long maxBackoff) {
+
+		return new SyncSchedule(QUIET_PERIOD, MAX_DELAY, minBackoff, maxBackoff, new Random(SEED));
+	}
+
+	/** Returns the backoff that the schedule draws next if its undithered backoff is backoff. */
+	private long nextBackoff(long backoff) {
+
+		return backoff / 2 + (long) (jitter.nextDouble() * (backoff / 2));
+	}
+
+	@Test
+	public void burstOfEditsIsCoalescedIntoOneSync() {
+
+		SyncSchedule schedule = newSchedule(MIN_BACKOFF, MAX_BACKOFF);
+		assertEquals(SyncSchedule.NEVER, schedule.getDueTime());
+
+		for (long now = 0; now <= 600; now += 200) {
+
+			schedule.noteEdit(now);
+			assertEquals(now + QUIET_PERIOD, schedule.getDueTime());
+		}
+		assertTrue(schedule.hasPendingEdits());
+
+		schedule.syncStarted(1600);
+		assertTrue(schedule.isSyncing());
+		assertFalse(schedule.hasPendingEdits());
+		assertEquals(SyncSchedule.NEVER, schedule.getDueTime());
+
+		schedule.syncFinished(1700, true);
+		assertFalse(schedule.isSyncing());
+		assertFalse(schedule.hasPendingEdits());
+		assertEquals(SyncSchedule.NEVER, schedule.getDueTime());
+		assertEquals(0, schedule.getFailures());
+	}
+
+	@Test
+	public void maxDelayCapsTheQuietPeriod() {
+
+		SyncSchedule schedule = newSchedule(MIN_BACKOFF, MAX_BACKOFF);
+
+		schedule.noteEdit(100);
+		for (long now = 600; now <= 8000; now += 500) {
+
+			schedule.noteEdit(now);
+			assertEquals(Math.min(now + QUIET_PERIOD, 100 + MAX_DELAY), schedule.getDueTime());
+		}
+		assertEquals(100 + MAX_DELAY, schedule.getDueTime());
+
+		// the next burst is measured from its own first edit
+		schedule.syncStarted(8000);
+		schedule.noteEdit(8200);
+		schedule.syncFinished(8300, true);
+		schedule.noteEdit(8400);
+		assertEquals(8400 + QUIET_PERIOD, schedule.getDueTime());
+	}
+
+	@Test
+	public void backoffDoublesUpToMaxBackoff() {
+
+		SyncSchedule schedule = newSchedule(MIN_BACKOFF, MAX_BACKOFF);
+		long now = 0;
+		schedule.noteEdit(now);
+
+		long backoff = MIN_BACKOFF;
+		for (int failures = 1; failures <= 6; failures++) {
+
+			now = schedule.getDueTime();
+			schedule.syncStarted(now);
+			now += 100;
+			schedule.syncFinished(now, false);
+			assertEquals(failures, schedule.getFailures());
+			assertTrue(schedule.hasPendingEdits());
+
+			long delay = schedule.getDueTime() - now;
+			assertEquals(nextBackoff(backoff), delay);
+			assertTrue(delay >= backoff / 2 && delay < backoff);
+
+			backoff = Math.min(backoff * 2, MAX_BACKOFF);
+		}
+
+		// a success clears the failures and the pending edits
+		now = schedule.getDueTime();
+		schedule.syncStarted(now);
+		schedule.syncFinished(now + 100, true);
+		assertEquals(0, schedule.getFailures());
+		assertFalse(schedule.hasPendingEdits());
+		schedule.noteEdit(now + 200);
+		assertEquals(now + 200 + QUIET_PERIOD, schedule.getDueTime());
+	}
+
+	@Test
+	public void editsDuringFailedSyncWaitForTheBackoff() {
+
+		// a backoff longer than the maximum delay, which the edits must not shorten
+		SyncSchedule schedule = newSchedule(4 * MAX_DELAY, 4 * MAX_DELAY);
+
+		schedule.noteEdit(0);
+		schedule.syncStarted(QUIET_PERIOD);
+		schedule.noteEdit(1100);
+		assertTrue(schedule.hasPendingEdits());
+		assertEquals(SyncSchedule.NEVER, schedule.getDueTime());
+
+		schedule.syncFinished(1200, false);
+		long retry = 1200 + nextBackoff(4 * MAX_DELAY);
+		assertTrue(schedule.hasPendingEdits());
+		assertEquals(retry, schedule.getDueTime());
+
+		for (long now = 1300; now < retry; now += 700) {
+
+			schedule.noteEdit(now);
+			assertEquals(retry, schedule.getDueTime());
+		}
+
+		// the retry covers the edits of the failed sync and those made since
+		schedule.syncStarted(retry);
+		schedule.syncFinished(retry + 100, true);
+		assertFalse(schedule.hasPendingEdits());
+		assertEquals(SyncSchedule.NEVER, schedule.getDueTime());
+	}
+
+	@Test
+	public void failedSyncWithoutNewEditsRetriesItsEdits() {
+
+		SyncSchedule schedule = newSchedule(MIN_BACKOFF, MAX_BACKOFF);
+
+		schedule.noteEdit(0);
+		schedule.syncStarted(QUIET_PERIOD);
+		schedule.syncFinished(1100, false);
+		assertTrue(schedule.hasPendingEdits());
+		assertEquals(1100 + nextBackoff(MIN_BACKOFF), schedule.getDueTime());
+	}
+}
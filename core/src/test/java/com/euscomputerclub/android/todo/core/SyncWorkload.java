@@ -0,0 +1,269 @@
+package com.euscomputerclub.android.todo.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class SyncWorkload is a random state of a TodoStore about to be
+ * reconciled: local todo items, tombstones and the remote items of the sync
+ * table, spread over every [A1]-[A16] case. The same seed gives the same
+ * state so that it can be loaded into several stores.
+ *
+ * @author eus
+ */
+class SyncWorkload {
+
+	/** The prefix of the IDs of the generated items. */
+	static final long ID_PREFIX = 5;
+	/** The number of kinds of generated items, see add(). */
+	static final int KINDS = 14;
+
+	/** Picks the local side of the conflicts of even IDs and the remote side of the others. */
+	static final ConflictResolver BY_PARITY = new ConflictResolver() {
+
+		public ConflictResolution resolveTwoItemsConflict(Todo localTodo, Todo remoteTodo) {
+
+			return pick(localTodo.id);
+		}
+
+		public ConflictResolution resolveRemoteDeletion(Todo localTodo) {
+
+			return pick(localTodo.id);
+		}
+
+		public ConflictResolution resolveLocalDeletion(Todo remoteTodo) {
+
+			return pick(remoteTodo.id);
+		}
+
+		private ConflictResolution pick(Long id) {
+
+			return id.longValue() % 2 == 0 ? ConflictResolution.PICK_LOCAL : ConflictResolution.PICK_REMOTE;
+		}
+	};
+
+	private static final String[] STATUSES = {"Open", "In progress", TodoSchema.CLOSED_STATUS};
+
+	final List<Todo> localTodos = new ArrayList<Todo>();
+	final List<Todo> remoteTodos = new ArrayList<Todo>();
+	final List<Long> deletedIds = new ArrayList<Long>();
+	private final Random rnd;
+
+	/**
+	 * Generates a workload.
+	 *
+	 * @param size the number of IDs, each of which gets a kind at random
+	 */
+	SyncWorkload(long seed, int size) {
+
+		rnd = new Random(seed);
+		for (int i = 1; i <= size; i++) {
+
+			add((ID_PREFIX << TodoSchema.ID_COUNTER_BITS) + i, rnd.nextInt(KINDS));
+		}
+	}
+
+	/** Adds the sides of an ID of a kind. */
+	private void add(long id, int kind) {
+
+		int revision = 1 + rnd.nextInt(5);
+		Todo local = randomTodo(id, revision);
+		Todo remote = new Todo(local);
+
+		switch (kind) {
+		case 0: // [A1]
+			local.revision = null;
+			remote = null;
+			break;
+		case 1: // [A1] of an ID that the server has taken
+			local.revision = null;
+			change(remote);
+			break;
+		case 2: // [A7]/[A8]
+			remote = null;
+			break;
+		case 3: // [A9]
+			remote = null;
+			deletedIds.add(Long.valueOf(id));
+			break;
+		case 4: // [A16]
+			local = null;
+			break;
+		case 5: // [A2]
+			remote.revision = Integer.valueOf(revision - 1);
+			break;
+		case 6: // [A3]
+			remote.revision = Integer.valueOf(revision - 1);
+			change(remote);
+			break;
+		case 7: // [A4]
+			remote.revision = Integer.valueOf(revision + 1 + rnd.nextInt(3));
+			change(remote);
+			break;
+		case 8: // [A15]
+			break;
+		case 9: // [A5]/[A6]
+			change(remote);
+			break;
+		case 10: // [A10]
+			remote.revision = Integer.valueOf(revision + 1);
+			change(remote);
+			deletedIds.add(Long.valueOf(id));
+			break;
+		case 11: // [A14]
+			remote.revision = Integer.valueOf(revision - 1);
+			deletedIds.add(Long.valueOf(id));
+			break;
+		case 12: // [A11]
+			deletedIds.add(Long.valueOf(id));
+			break;
+		case 13: // [A12]/[A13]
+			change(remote);
+			deletedIds.add(Long.valueOf(id));
+			break;
+		}
+		if (local != null) {
+
+			localTodos.add(local);
+		}
+		if (remote != null) {
+
+			remoteTodos.add(remote);
+		}
+	}
+
+	/** Adds items that both sides agree on, which a sync only drops from the sync table ([A2]). */
+	void addSynchronized(long idPrefix, int count) {
+
+		for (int i = 1; i <= count; i++) {
+
+			int revision = 1 + rnd.nextInt(5);
+			Todo local = randomTodo((idPrefix << TodoSchema.ID_COUNTER_BITS) + i, revision);
+			Todo remote = new Todo(local);
+			remote.revision = Integer.valueOf(revision - 1);
+			localTodos.add(local);
+			remoteTodos.add(remote);
+		}
+	}
+
+	/** Loads the workload into an empty store leaving the sync table filled as after a download. */
+	void load(TodoStore db) {
+
+		db.restoreTodos(localTodos.iterator());
+		long[] ids = new long[deletedIds.size()];
+		for (int i = 0; i < ids.length; i++) {
+
+			ids[i] = deletedIds.get(i).longValue();
+		}
+		db.restoreDeletedTodos(ids);
+		db.recreateSyncTable();
+		for (Todo t : remoteTodos) {
+
+			db.createSyncTodo(new Todo(t));
+		}
+	}
+
+	private Todo randomTodo(long id, int revision) {
+
+		// a few descriptions are long enough to be kept out of line
+		String description = (rnd.nextInt(100) == 0
+				      ? new String(new char[TodoDescription.MAX_INLINE_LENGTH + 1]).replace('\0', 'x')
+				      : "d" + rnd.nextInt(3));
+
+		return new Todo(Long.valueOf(id), "t" + rnd.nextInt(1000), randomDeadline(),
+				Integer.valueOf(1 + rnd.nextInt(5)), STATUSES[rnd.nextInt(STATUSES.length)],
+				description, Integer.valueOf(revision));
+	}
+
+	private String randomDeadline() {
+
+		return "2024-0" + (1 + rnd.nextInt(9)) + "-" + (10 + rnd.nextInt(19));
+	}
+
+	/** Changes one data field of an item at random. */
+	private void change(Todo t) {
+
+		switch (rnd.nextInt(5)) {
+		case 0:
+			t.title = t.title + "'";
+			break;
+		case 1:
+			t.deadline = t.deadline.compareTo("2024-05") < 0 ? "2024-12-01" : "2024-01-01";
+			break;
+		case 2:
+			t.priority = Integer.valueOf(t.priority.intValue() % 5 + 1);
+			break;
+		case 3:
+			t.status = t.status.equals("Open") ? "In progress" : "Open";
+			break;
+		case 4:
+			t.description = t.description + "'";
+			break;
+		}
+		t.fingerprint = null;
+	}
+
+	/** Returns the todo, deleted_todo and sync tables of a store one row per line. */
+	static String dump(TodoStore db) {
+
+		StringBuilder b = new StringBuilder();
+		TodoCursor c = db.getAllTodoIncludingDeletedOnes();
+		try {
+
+			TodoRow row = new TodoRow(c, db);
+			while (row.moveToNext()) {
+
+				append(b.append("todo "), row.toTodo());
+			}
+		} finally {
+
+			c.close();
+		}
+		c = db.getAllDeletedTodoIds();
+		try {
+
+			while (c.moveToNext()) {
+
+				b.append("deleted_todo ").append(c.getLong(0)).append('\n');
+			}
+		} finally {
+
+			c.close();
+		}
+		c = db.getAllSyncTodo();
+		try {
+
+			TodoRow row = new TodoRow(c);
+			while (row.moveToNext()) {
+
+				append(b.append("sync "), row.toSyncTodo());
+			}
+		} finally {
+
+			c.close();
+		}
+
+		return b.toString();
+	}
+
+	/** Returns the entries of a plan one per line. */
+	static String describe(SyncPlan plan) {
+
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < plan.size(); i++) {
+
+			b.append(plan.getId(i)).append(' ').append(plan.getAction(i)).append(" [A").append(plan.getRule(i))
+				.append("] ").append(plan.getFieldMask(i)).append('\n');
+		}
+
+		return b.toString();
+	}
+
+	private static void append(StringBuilder b, Todo t) {
+
+		b.append(t.id).append('|').append(t.title).append('|').append(t.deadline).append('|')
+			.append(t.priority).append('|').append(t.status).append('|').append(t.description).append('|')
+			.append(t.revision).append('|').append(t.fingerprint).append('\n');
+	}
+}
@@ -0,0 +1,219 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Checks which conflicts ThreeWayMerge resolves without asking the user and
+ * which fields the merged item takes from either side.
+ *
+ * @author eus
+ */
+public class ThreeWayMergeTest {
+
+	/** The revision of the version both sides have agreed on. */
+	private static final int AGREED_REVISION = 3;
+
+	private static Todo agreed() {
+
+		return new Todo(Long.valueOf(1), "title", "2026-10-05", Integer.valueOf(3), "Open",
+				"description", Integer.valueOf(AGREED_REVISION));
+	}
+
+	/** Returns the local side, whose revision is one more than the agreed remote one. */
+	private static Todo local() {
+
+		Todo t = agreed();
+		t.revision = Integer.valueOf(AGREED_REVISION + 1);
+
+		return t;
+	}
+
+	/** Returns the remote side at the next server revision. */
+	private static Todo remote() {
+
+		Todo t = agreed();
+		t.revision = Integer.valueOf(AGREED_REVISION + 1);
+
+		return t;
+	}
+
+	/** Returns the FieldRevisions of an item whose fields of a field mask have changed at its last revision. */
+	private static int changedAtLastRevision(int fieldMask) {
+
+		int packed = 0;
+		for (int i = 0; i < Integer.bitCount(SyncPlan.ALL_FIELDS); i++) {
+
+			packed |= FieldRevisions.MAX_AGE << (i * FieldRevisions.AGE_BITS);
+		}
+
+		return FieldRevisions.update(packed, fieldMask);
+	}
+
+	private static void assertFields(Todo expected, Todo actual) {
+
+		assertEquals(expected.id, actual.id);
+		assertEquals(expected.title, actual.title);
+		assertEquals(expected.deadline, actual.deadline);
+		assertEquals(expected.priority, actual.priority);
+		assertEquals(expected.status, actual.status);
+		assertEquals(expected.description, actual.description);
+		assertEquals(expected.revision, actual.revision);
+		assertEquals(Long.valueOf(actual.computeFingerprint()), actual.fingerprint);
+	}
+
+	@Test
+	public void disjointEditsMergeWithoutConflict() {
+
+		byte[] base = ThreeWayMerge.baseOf(agreed());
+		Todo localTodo = local();
+		localTodo.title = "local title";
+		localTodo.description = "local description";
+		Todo remoteTodo = remote();
+		remoteTodo.priority = Integer.valueOf(5);
+		remoteTodo.status = "Closed";
+
+		assertEquals(SyncPlan.TITLE_FIELD | SyncPlan.DESCRIPTION_FIELD,
+			     ThreeWayMerge.changedFields(base, localTodo));
+		assertEquals(SyncPlan.PRIORITY_FIELD | SyncPlan.STATUS_FIELD,
+			     ThreeWayMerge.changedFields(base, remoteTodo));
+
+		Todo merged = ThreeWayMerge.merge(localTodo, remoteTodo, base);
+		assertNotNull(merged);
+		Todo expected = local();
+		expected.title = "local title";
+		expected.description = "local description";
+		expected.priority = Integer.valueOf(5);
+		expected.status = "Closed";
+		assertFields(expected, merged);
+		// the sides are left as they are
+		assertEquals(Integer.valueOf(3), localTodo.priority);
+	}
+
+	@Test
+	public void overlappingEditIsConflict() {
+
+		byte[] base = ThreeWayMerge.baseOf(agreed());
+		Todo localTodo = local();
+		localTodo.title = "local title";
+		localTodo.priority = Integer.valueOf(1);
+		Todo remoteTodo = remote();
+		remoteTodo.priority = Integer.valueOf(5);
+
+		assertNull(ThreeWayMerge.merge(localTodo, remoteTodo, base));
+	}
+
+	@Test
+	public void identicalEditIsNoConflict() {
+
+		byte[] base = ThreeWayMerge.baseOf(agreed());
+		Todo localTodo = local();
+		localTodo.deadline = "2026-11-01";
+		localTodo.title = "local title";
+		Todo remoteTodo = remote();
+		remoteTodo.deadline = "2026-11-01";
+
+		Todo merged = ThreeWayMerge.merge(localTodo, remoteTodo, base);
+		assertNotNull(merged);
+		Todo expected = local();
+		expected.deadline = "2026-11-01";
+		expected.title = "local title";
+		assertFields(expected, merged);
+	}
+
+	@Test
+	public void unknownBaseIsConflict() {
+
+		Todo localTodo = local();
+		localTodo.title = "local title";
+		Todo remoteTodo = remote();
+		remoteTodo.status = "Closed";
+
+		assertNull(ThreeWayMerge.merge(localTodo, remoteTodo, null));
+		assertNull(ThreeWayMerge.merge(localTodo, remoteTodo, new byte[ThreeWayMerge.BASE_LEN - 1]));
+	}
+
+	@Test
+	public void fieldRevisionsDecideTheRemoteChanges() {
+
+		// the base is older than the agreed version: its description hash
+		// is stale, yet the server says that only the status has changed
+		Todo older = agreed();
+		older.description = "older description";
+		byte[] base = ThreeWayMerge.baseOf(older);
+		Todo localTodo = local();
+		localTodo.title = "local title";
+		Todo remoteTodo = remote();
+		remoteTodo.revision = Integer.valueOf(AGREED_REVISION + 2);
+		remoteTodo.status = "Closed";
+		remoteTodo.description = "remote description";
+		remoteTodo.fieldRevisions = Integer.valueOf(changedAtLastRevision(SyncPlan.STATUS_FIELD));
+
+		Todo merged = ThreeWayMerge.merge(localTodo, remoteTodo, base);
+		assertNotNull(merged);
+		Todo expected = local();
+		expected.title = "local title";
+		expected.status = "Closed";
+		assertFields(expected, merged);
+
+		// without the FieldRevisions the stale hash makes both sides look
+		// as if they had changed the description
+		remoteTodo.fieldRevisions = null;
+		assertEquals(SyncPlan.STATUS_FIELD | SyncPlan.DESCRIPTION_FIELD,
+			     ThreeWayMerge.changedFields(base, remoteTodo));
+		assertNull(ThreeWayMerge.merge(localTodo, remoteTodo, base));
+
+		// and the remote description is taken if the local one is as in the base
+		localTodo.description = "older description";
+		merged = ThreeWayMerge.merge(localTodo, remoteTodo, base);
+		assertNotNull(merged);
+		expected.description = "remote description";
+		assertFields(expected, merged);
+	}
+
+	@Test
+	public void fieldRevisionsOfOverlappingEditIsConflict() {
+
+		byte[] base = ThreeWayMerge.baseOf(agreed());
+		Todo localTodo = local();
+		localTodo.title = "local title";
+		Todo remoteTodo = remote();
+		remoteTodo.title = "remote title";
+		remoteTodo.fieldRevisions = Integer.valueOf(changedAtLastRevision(SyncPlan.TITLE_FIELD));
+
+		assertNull(ThreeWayMerge.merge(localTodo, remoteTodo, base));
+	}
+
+	@Test
+	public void newLocalTodoUsesTheBase() {
+
+		Todo older = agreed();
+		older.description = "older description";
+		byte[] base = ThreeWayMerge.baseOf(older);
+		Todo localTodo = local();
+		localTodo.revision = Integer.valueOf(TodoSchema.NEW_TODO_REVISION);
+		localTodo.description = "older description";
+		localTodo.title = "local title";
+		Todo remoteTodo = remote();
+		remoteTodo.status = "Closed";
+		// a NEW_TODO_REVISION item has no agreed revision to compare the
+		// FieldRevisions with, so they are ignored
+		remoteTodo.fieldRevisions = Integer.valueOf(changedAtLastRevision(SyncPlan.STATUS_FIELD));
+
+		Todo merged = ThreeWayMerge.merge(localTodo, remoteTodo, base);
+		assertNotNull(merged);
+		Todo expected = local();
+		expected.revision = Integer.valueOf(TodoSchema.NEW_TODO_REVISION);
+		expected.title = "local title";
+		expected.status = "Closed";
+		expected.description = "description";
+		assertFields(expected, merged);
+
+		// by the base, both sides have changed the description
+		localTodo.description = "local description";
+		assertNull(ThreeWayMerge.merge(localTodo, remoteTodo, base));
+	}
+}
@@ -0,0 +1,159 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks the deadline shifts and field masks of TodoBulkEdit, and the bulk
+ * edits and deletions of MemoryTodoStore and JdbcTodoStore with the
+ * operations that they append to the outbox.
+ *
+ * @author eus
+ */
+public class TodoBulkEditTest {
+
+	@Test
+	public void deadlinesAreShiftedAcrossMonthsAndYears() {
+
+		assertEquals("2026-10-06", TodoBulkEdit.shiftDeadline("2026-10-05", 1));
+		assertEquals("2026-02-28", TodoBulkEdit.shiftDeadline("2026-03-01", -1));
+		assertEquals("2024-02-29", TodoBulkEdit.shiftDeadline("2024-03-01", -1));
+		assertEquals("2025-12-31", TodoBulkEdit.shiftDeadline("2026-01-01", -1));
+		assertEquals("2025-12-25", TodoBulkEdit.shiftDeadline("2026-01-01", -7));
+		assertEquals("2027-01-06", TodoBulkEdit.shiftDeadline("2026-12-30", 7));
+	}
+
+	@Test
+	public void malformedDeadlineIsLeftUnchanged() {
+
+		assertEquals("2026-13-01", TodoBulkEdit.shiftDeadline("2026-13-01", 1));
+		assertEquals("2026-02-30", TodoBulkEdit.shiftDeadline("2026-02-30", -1));
+		assertEquals("tomorrow", TodoBulkEdit.shiftDeadline("tomorrow", 1));
+
+		Todo t = todo("tomorrow");
+		assertEquals(0, new TodoBulkEdit(null, null, -1).apply(t));
+		assertEquals("tomorrow", t.deadline);
+	}
+
+	@Test
+	public void applyReturnsTheChangedFields() {
+
+		Todo t = todo("2026-01-01");
+		assertEquals(SyncPlan.DEADLINE_FIELD | SyncPlan.PRIORITY_FIELD,
+			     new TodoBulkEdit("Open", Integer.valueOf(3), -1).apply(t));
+		assertEquals("2025-12-31", t.deadline);
+		assertEquals(Integer.valueOf(3), t.priority);
+		assertEquals("Open", t.status);
+
+		assertEquals(SyncPlan.STATUS_FIELD, new TodoBulkEdit("Closed", Integer.valueOf(3), 0).apply(t));
+		assertEquals("Closed", t.status);
+
+		TodoBulkEdit empty = new TodoBulkEdit(null, null, 0);
+		assertTrue(empty.isEmpty());
+		assertFalse(new TodoBulkEdit(null, null, -1).isEmpty());
+		assertEquals(0, empty.apply(t));
+	}
+
+	@Test
+	public void storesApplyBulkEdits() throws SQLException {
+
+		for (TodoStore db : newStores()) {
+
+			try {
+
+				long first = db.createTodo("a", "2026-01-01", 1, "Open", "d");
+				long second = db.createTodo("b", "tomorrow", 2, "Open", "d");
+				db.clearOutbox(db.getLastOutboxSequence());
+
+				// an empty edit appends nothing
+				assertEquals(0, db.updateTodos(new long[] {first, second}, new TodoBulkEdit(null, null, 0)));
+				assertTrue(db.getOutbox(10).isEmpty());
+
+				assertEquals(2, db.updateTodos(new long[] {first, second}, new TodoBulkEdit(null, Integer.valueOf(3), -1)));
+				Todo t = db.getTodo(first);
+				assertEquals("2025-12-31", t.deadline);
+				assertEquals(Integer.valueOf(3), t.priority);
+				assertEquals(Long.valueOf(t.computeFingerprint()), t.fingerprint);
+				t = db.getTodo(second);
+				assertEquals("tomorrow", t.deadline);
+				assertEquals(Long.valueOf(t.computeFingerprint()), t.fingerprint);
+
+				List<OutboxOp> ops = db.getOutbox(10);
+				assertEquals(2, ops.size());
+				assertEquals(first, ops.get(0).todoId);
+				assertEquals(TodoTlv.CHUNK_UPDATE_TODO, ops.get(0).type);
+				assertEquals(SyncPlan.DEADLINE_FIELD | SyncPlan.PRIORITY_FIELD, ops.get(0).fieldMask);
+				// the malformed deadline is left unchanged
+				assertEquals(second, ops.get(1).todoId);
+				assertEquals(SyncPlan.PRIORITY_FIELD, ops.get(1).fieldMask);
+			} finally {
+
+				closeStore(db);
+			}
+		}
+	}
+
+	@Test
+	public void newItemsAreDeletedAndSentOnesTombstoned() throws SQLException {
+
+		for (TodoStore db : newStores()) {
+
+			try {
+
+				long newId = db.createTodo("new", "2026-10-05", 1, "Open", "d");
+				long sentId = db.createTodo("sent", "2026-10-05", 1, "Open", "d");
+				db.updateTodoRevision(sentId, 3);
+				db.clearOutbox(db.getLastOutboxSequence());
+				db.appendOutbox(newId, TodoTlv.CHUNK_NEW_TODO, SyncPlan.ALL_FIELDS, null);
+
+				assertEquals(2, db.deleteTodos(new long[] {newId, sentId}));
+
+				// the server has never seen the new item
+				assertNull(db.getLocalTodo(newId));
+				assertFalse(db.isLocalDeleted(newId));
+
+				assertNull(db.getTodo(sentId));
+				assertTrue(db.isLocalDeleted(sentId));
+				assertEquals(Integer.valueOf(3), db.getLocalTodo(sentId).revision);
+
+				List<OutboxOp> ops = db.getOutbox(10);
+				assertEquals(1, ops.size());
+				assertEquals(sentId, ops.get(0).todoId);
+				assertEquals(TodoTlv.CHUNK_DELETE_TODO, ops.get(0).type);
+
+				// a deleted item is not deleted again
+				assertEquals(0, db.deleteTodos(new long[] {sentId}));
+				assertEquals(1, db.getOutbox(10).size());
+			} finally {
+
+				closeStore(db);
+			}
+		}
+	}
+
+	private static Todo todo(String deadline) {
+
+		return new Todo(Long.valueOf(1), "title", deadline, Integer.valueOf(1), "Open", "description",
+				Integer.valueOf(1));
+	}
+
+	private static TodoStore[] newStores() throws SQLException {
+
+		return new TodoStore[] {new MemoryTodoStore(1), new JdbcTodoStore("jdbc:sqlite::memory:")};
+	}
+
+	private static void closeStore(TodoStore db) throws SQLException {
+
+		if (db instanceof JdbcTodoStore) {
+
+			((JdbcTodoStore) db).close();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Checks the least recently read eviction and the byte accounting of
+ * TodoCache, and that an item read before an invalidation or a clear is
+ * not cached, like the reads of TodoDb around its writes and syncs.
+ *
+ * @author eus
+ */
+public class TodoCacheTest {
+
+	private static Todo todo(long id, String title) {
+
+		return new Todo(Long.valueOf(id), title, "2026-10-05", Integer.valueOf(1), "Open", "description",
+				Integer.valueOf(1));
+	}
+
+	/** Caches an item read at the current generation. */
+	private static void read(TodoCache cache, Todo t) {
+
+		cache.put(t, cache.getGeneration());
+	}
+
+	@Test
+	public void leastRecentlyReadItemsAreEvicted() {
+
+		Todo a = todo(1, "a");
+		Todo b = todo(2, "b");
+		Todo c = todo(3, "c");
+		int size = TodoCache.sizeOf(a);
+		TodoCache cache = new TodoCache(2 * size);
+		read(cache, a);
+		read(cache, b);
+		assertEquals(2 * size, cache.getBytes());
+
+		// reading a makes b the least recently read item
+		assertSame(a, cache.get(1));
+		read(cache, c);
+		assertEquals(2, cache.size());
+		assertEquals(2 * size, cache.getBytes());
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.get(2));
+		assertSame(a, cache.get(1));
+		assertSame(c, cache.get(3));
+		assertEquals(3, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		// an item larger than the cache is not cached
+		Todo large = todo(4, new String(new char[size]));
+		read(cache, large);
+		assertNull(cache.get(4));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void bytesFollowReplacementsAndRemovals() {
+
+		TodoCache cache = new TodoCache(100000);
+		Todo a = todo(1, "a");
+		Todo longer = todo(1, "a longer title");
+		longer.versionVector = VersionVector.increment(null, 7);
+		Todo b = todo(2, "b");
+		read(cache, a);
+		read(cache, b);
+		assertEquals(TodoCache.sizeOf(a) + TodoCache.sizeOf(b), cache.getBytes());
+
+		// a newer read of an item replaces the cached one
+		read(cache, longer);
+		assertEquals(2, cache.size());
+		assertEquals(TodoCache.sizeOf(longer) + TodoCache.sizeOf(b), cache.getBytes());
+
+		cache.invalidate(1);
+		assertEquals(TodoCache.sizeOf(b), cache.getBytes());
+		// removing an item that is not cached changes nothing
+		cache.invalidate(new long[] {1, 3});
+		assertEquals(1, cache.size());
+		assertEquals(TodoCache.sizeOf(b), cache.getBytes());
+		cache.invalidate(new long[] {2});
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void staleReadIsDropped() {
+
+		TodoCache cache = new TodoCache(100000);
+		long generation = cache.getGeneration();
+
+		// another thread writes the item between the read and the put
+		cache.invalidate(1);
+		cache.put(todo(1, "old"), generation);
+		assertNull(cache.get(1));
+		assertEquals(0, cache.getBytes());
+
+		read(cache, todo(1, "new"));
+		assertEquals("new", cache.get(1).title);
+	}
+
+	@Test
+	public void writtenItemsAreInvalidated() {
+
+		TodoCache cache = new TodoCache(100000);
+		read(cache, todo(1, "a"));
+		read(cache, todo(2, "b"));
+		read(cache, todo(3, "c"));
+
+		// a bulk edit invalidates its items once it has been committed
+		long generation = cache.getGeneration();
+		cache.invalidate(new long[] {1, 3});
+		assertNull(cache.get(1));
+		assertEquals("b", cache.get(2).title);
+		assertNull(cache.get(3));
+		assertEquals(TodoCache.sizeOf(todo(2, "b")), cache.getBytes());
+
+		cache.put(todo(1, "a"), generation);
+		assertNull(cache.get(1));
+	}
+
+	@Test
+	public void syncClearsAllItems() {
+
+		TodoCache cache = new TodoCache(100000);
+		read(cache, todo(1, "a"));
+		read(cache, todo(2, "b"));
+
+		// the end of a sync transaction clears the cache, which drops the
+		// items read while the sync was writing
+		long generation = cache.getGeneration();
+		cache.clear();
+		cache.put(todo(2, "b"), generation);
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+
+		read(cache, todo(2, "synced"));
+		assertEquals("synced", cache.get(2).title);
+		assertEquals(TodoCache.sizeOf(todo(2, "synced")), cache.getBytes());
+	}
+}
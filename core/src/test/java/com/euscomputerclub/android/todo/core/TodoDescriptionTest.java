@@ -0,0 +1,157 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Checks that MemoryTodoStore and JdbcTodoStore read back every long
+ * description that is written by an edit, a sync or a bulk insert, and
+ * that JdbcTodoStore keeps a compressed description only for the items
+ * whose description is long.
+ *
+ * @author eus
+ */
+public class TodoDescriptionTest {
+
+	/** Returns a description long enough to be kept out of line, which starts with a prefix. */
+	private static String longDescription(String prefix) {
+
+		StringBuilder b = new StringBuilder(prefix);
+		while (!TodoDescription.isLong(b.toString())) {
+
+			b.append(" a long description");
+		}
+
+		return b.toString();
+	}
+
+	/** Returns the number of compressed descriptions of a store or -1 if it keeps none. */
+	private static long countCompressed(TodoStore db) {
+
+		if (!(db instanceof JdbcTodoStore)) {
+
+			return -1;
+		}
+
+		return ((JdbcTodoStore) db).queryLong("select count(*) from " + TodoSchema.DESCRIPTION_TABLE);
+	}
+
+	private static void assertCompressed(long expected, TodoStore db) {
+
+		if (db instanceof JdbcTodoStore) {
+
+			assertEquals(expected, countCompressed(db));
+		}
+	}
+
+	@Test
+	public void longDescriptionsAreReadBack() throws SQLException {
+
+		TodoStore[] stores = {new MemoryTodoStore(1), new JdbcTodoStore("jdbc:sqlite::memory:")};
+		for (TodoStore db : stores) {
+
+			try {
+
+				assertReadBack(db);
+			} finally {
+
+				if (db instanceof JdbcTodoStore) {
+
+					((JdbcTodoStore) db).close();
+				}
+			}
+		}
+	}
+
+	private static void assertReadBack(TodoStore db) {
+
+		String first = longDescription("first");
+		long id = db.createTodo("title", "2026-10-05", 1, "Open", first);
+		assertEquals(first, db.getTodo(id).description);
+		assertCompressed(1, db);
+
+		// a long description replaces a long one
+		String second = longDescription("second");
+		db.updateTodo(id, null, null, null, null, second);
+		assertEquals(second, db.getTodo(id).description);
+		assertCompressed(1, db);
+
+		// an edit of the other fields keeps it
+		db.updateTodo(id, "new title", null, Integer.valueOf(2), null, null);
+		Todo t = db.getTodo(id);
+		assertEquals("new title", t.title);
+		assertEquals(second, t.description);
+		assertEquals(Long.valueOf(t.computeFingerprint()), t.fingerprint);
+
+		// a short description drops it
+		db.updateTodo(id, null, null, null, null, "short");
+		assertEquals("short", db.getTodo(id).description);
+		assertCompressed(0, db);
+
+		String third = longDescription("third");
+		db.updateTodo(id, null, null, null, null, third);
+		assertEquals(third, db.getTodo(id).description);
+		assertCompressed(1, db);
+
+		// the sync writes the remote and the merged descriptions
+		db.updateTodoRevision(id, 3);
+		String remote = longDescription("remote");
+		db.replaceTodo(new Todo(Long.valueOf(id), "remote", "2026-10-06", Integer.valueOf(3), "Open", remote,
+					Integer.valueOf(4)));
+		t = db.getTodo(id);
+		assertEquals(remote, t.description);
+		assertEquals(Integer.valueOf(5), t.revision);
+		assertCompressed(1, db);
+
+		String merged = longDescription("merged");
+		t.description = merged;
+		db.mergeTodo(t);
+		assertEquals(merged, db.getTodo(id).description);
+		assertCompressed(1, db);
+
+		t.description = "merged short";
+		db.mergeTodo(t);
+		assertEquals("merged short", db.getTodo(id).description);
+		assertCompressed(0, db);
+
+		// a bulk insert compresses the long descriptions of its items
+		String bulk = longDescription("bulk");
+		assertEquals(2, db.createTodos(Arrays.asList(
+			new Todo(null, "bulk", "2026-10-07", Integer.valueOf(1), "Open", bulk, null),
+			new Todo(null, "bulk short", "2026-10-07", Integer.valueOf(1), "Open", "short", null)).iterator()));
+		assertEquals(bulk, db.getTodo(id + 1).description);
+		assertEquals("short", db.getTodo(id + 2).description);
+		assertCompressed(1, db);
+	}
+
+	@Test
+	public void everyDescriptionWriteDropsTheCompressedOne() throws SQLException {
+
+		JdbcTodoStore db = new JdbcTodoStore("jdbc:sqlite::memory:");
+		try {
+
+			String description = longDescription("long");
+			long id = db.createTodo("title", "2026-10-05", 1, "Open", description);
+			assertEquals(description, db.getLongDescription(id));
+
+			// clearing the column leaves no stale compressed description behind
+			db.execSQL("update " + TodoSchema.TODO_TABLE + " set " + TodoSchema.DESCRIPTION_COLUMN + " = null"
+				   + " where " + TodoSchema.ID_COLUMN + " = " + id);
+			assertNull(db.getLongDescription(id));
+			assertEquals(0, countCompressed(db));
+
+			db.updateTodo(id, null, null, null, null, description);
+			assertEquals(description, db.getLongDescription(id));
+			assertTrue(TodoDescription.isLong(db.getTodo(id).description));
+		} finally {
+
+			db.close();
+		}
+	}
+}
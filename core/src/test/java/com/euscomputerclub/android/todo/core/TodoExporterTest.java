@@ -0,0 +1,194 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+/**
+ * Checks that the CSV and JSON-lines exports of TodoExporter are read back
+ * by TodoImporter with the same fields, however they are quoted or escaped,
+ * without the deleted items, and that a NULL priority is exported as
+ * missing.
+ *
+ * @author eus
+ */
+public class TodoExporterTest {
+
+	/** Titles and descriptions that need quoting or escaping. */
+	private static final String[][] TEXTS = {
+		{"plain", "plain description"},
+		{"comma, in title", "say \"hi\", then leave"},
+		{"\"quoted\"", "first line\nsecond line\r\nthird line"},
+		{"tab\tand \\u0041 \\ backslash", "café \u0001 control"},
+		{"empty description", ""},
+	};
+
+	@Test
+	public void csvIsImportedBack() throws IOException, SQLException {
+
+		for (TodoStore db : newStores()) {
+
+			try {
+
+				Todo[] expected = createItems(db);
+				StringWriter out = new StringWriter();
+				assertEquals(TEXTS.length, new TodoExporter(db).exportCsv(out));
+				assertTrue(out.toString(), out.toString().startsWith("title,deadline,priority,status,description\n"));
+				assertImportedBack(expected, out.toString(), false);
+			} finally {
+
+				closeStore(db);
+			}
+		}
+	}
+
+	@Test
+	public void jsonLinesAreImportedBack() throws IOException, SQLException {
+
+		for (TodoStore db : newStores()) {
+
+			try {
+
+				Todo[] expected = createItems(db);
+				StringWriter out = new StringWriter();
+				assertEquals(TEXTS.length, new TodoExporter(db).exportJsonLines(out));
+				assertTrue(out.toString(), out.toString().contains("\\u0001"));
+				assertImportedBack(expected, out.toString(), true);
+			} finally {
+
+				closeStore(db);
+			}
+		}
+	}
+
+	@Test
+	public void nullPriorityIsExportedAsMissing() throws IOException, SQLException {
+
+		JdbcTodoStore db = new JdbcTodoStore("jdbc:sqlite::memory:");
+		try {
+
+			long id = db.createTodo("no, priority", "2026-10-05", 1, "Open", "d");
+			db.execSQL("update " + TodoSchema.TODO_TABLE + " set " + TodoSchema.PRIORITY_COLUMN + " = null"
+				   + " where " + TodoSchema.ID_COLUMN + " = " + id);
+
+			StringWriter csv = new StringWriter();
+			new TodoExporter(db).exportCsv(csv);
+			assertEquals("title,deadline,priority,status,description\n\"no, priority\",2026-10-05,,Open,d\n",
+				     csv.toString());
+			StringWriter jsonLines = new StringWriter();
+			new TodoExporter(db).exportJsonLines(jsonLines);
+			assertEquals("{\"title\":\"no, priority\",\"deadline\":\"2026-10-05\",\"priority\":null,"
+				     + "\"status\":\"Open\",\"description\":\"d\"}\n", jsonLines.toString());
+
+			// the importer requires a priority
+			TodoImporter importer = new TodoImporter(new MemoryTodoStore(1));
+			try {
+
+				importer.importCsv(new StringReader(csv.toString()));
+				fail("Imported an item without a priority");
+			} catch (IllegalArgumentException e) {
+
+				assertEquals("Line 2: missing priority", e.getMessage());
+			}
+			try {
+
+				importer.importJsonLines(new StringReader(jsonLines.toString()));
+				fail("Imported an item without a priority");
+			} catch (IllegalArgumentException e) {
+
+				assertEquals("Line 1: missing priority", e.getMessage());
+			}
+		} finally {
+
+			db.close();
+		}
+	}
+
+	/**
+	 * Creates the TEXTS items with all the priorities, a deleted item that
+	 * is not exported and an archived one that is.
+	 *
+	 * @return the exported items in their export order
+	 */
+	private static Todo[] createItems(TodoStore db) {
+
+		long[] ids = new long[TEXTS.length];
+		for (int i = 0; i < TEXTS.length; i++) {
+
+			ids[i] = db.createTodo(TEXTS[i][0], "2026-10-0" + (i + 1), TodoSchema.MIN_PRIORITY + i % TodoSchema.MAX_PRIORITY,
+					       i % 2 == 0 ? "Open" : "Closed", TEXTS[i][1]);
+		}
+
+		// a sent item gets a tombstone
+		long deleted = db.createTodo("deleted", "2026-10-05", 1, "Open", "d");
+		db.updateTodoRevision(deleted, 3);
+		assertEquals(1, db.deleteTodo(deleted));
+
+		// the archived items follow the others
+		int[] order = {0, 2, 3, 4, 1};
+		Todo[] expected = new Todo[order.length];
+		for (int i = 0; i < order.length; i++) {
+
+			expected[i] = db.getTodo(ids[order[i]]);
+		}
+		db.updateTodoRevision(ids[1], 3);
+		db.clearOutbox(db.getLastOutboxSequence());
+		assertEquals(1, db.archiveTodos("2026-10-03"));
+
+		return expected;
+	}
+
+	/** Asserts that an export imported into an empty store gives the expected items in order. */
+	private static void assertImportedBack(Todo[] expected, String export, boolean isJsonLines)
+		throws IOException, SQLException {
+
+		JdbcTodoStore imported = new JdbcTodoStore("jdbc:sqlite::memory:");
+		try {
+
+			TodoImporter importer = new TodoImporter(imported);
+			StringReader in = new StringReader(export);
+			assertEquals(expected.length, isJsonLines ? importer.importJsonLines(in) : importer.importCsv(in));
+			TodoCursor c = imported.getAllTodoIncludingDeletedOnes();
+			try {
+
+				TodoRow row = new TodoRow(c, imported);
+				for (Todo e : expected) {
+
+					assertTrue(row.moveToNext());
+					Todo t = row.toTodo();
+					assertEquals(e.title, t.title);
+					assertEquals(e.deadline, t.deadline);
+					assertEquals(e.priority, t.priority);
+					assertEquals(e.status, t.status);
+					assertEquals(e.description, t.description);
+				}
+			} finally {
+
+				c.close();
+			}
+		} finally {
+
+			imported.close();
+		}
+	}
+
+	private static TodoStore[] newStores() throws SQLException {
+
+		return new TodoStore[] {new MemoryTodoStore(1), new JdbcTodoStore("jdbc:sqlite::memory:")};
+	}
+
+	private static void closeStore(TodoStore db) throws SQLException {
+
+		if (db instanceof JdbcTodoStore) {
+
+			((JdbcTodoStore) db).close();
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the device-prefixed todo IDs generated through the id_sequence
+ * table and the revision encoding of the new and resurrected items of the
+ * sync table.
+ *
+ * @author eus
+ */
+public class TodoIdTest {
+
+	/** The revisions that the encoding must carry, from the first one to the largest one. */
+	private static final int[] REVISIONS = {
+		0, 1, 2, 12345, 1 << 30, TodoSchema.MAX_RESURRECTED_REVISION - 1, TodoSchema.MAX_RESURRECTED_REVISION
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void prefixRoundTrips() {
+
+		Random rnd = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+
+			long prefix = TodoSchema.newIdPrefix(rnd);
+			assertTrue(prefix > 0 && prefix <= Integer.MAX_VALUE);
+
+			long firstId = TodoSchema.firstLastId(prefix) + 1;
+			assertEquals(prefix, firstId >>> TodoSchema.ID_COUNTER_BITS);
+			assertTrue(firstId >= TodoSchema.LEGACY_ID_LIMIT);
+		}
+	}
+
+	@Test
+	public void idSequenceSurvivesReopening() throws SQLException {
+
+		File f = new File(folder.getRoot(), "todo.db");
+		JdbcTodoStore db = new JdbcTodoStore("jdbc:sqlite:" + f);
+		long prefix = db.getIdPrefix();
+		long last = 0;
+		try {
+
+			for (int i = 1; i <= 3; i++) {
+
+				last = db.createTodo("t" + i, "2024-01-01", 1, "Open", "d");
+				assertEquals(TodoSchema.firstLastId(prefix) + i, last);
+			}
+		} finally {
+
+			db.close();
+		}
+
+		db = new JdbcTodoStore("jdbc:sqlite:" + f);
+		try {
+
+			assertEquals(prefix, db.getIdPrefix());
+			assertEquals(last + 1, db.createTodo("t4", "2024-01-01", 1, "Open", "d"));
+			assertRestoredIdsAdvanceSequence(db);
+		} finally {
+
+			db.close();
+		}
+	}
+
+	@Test
+	public void memoryIdSequence() {
+
+		MemoryTodoStore db = new MemoryTodoStore(3);
+		assertEquals(3, db.getIdPrefix());
+		assertEquals(TodoSchema.firstLastId(3) + 1, db.createTodo("t", "2024-01-01", 1, "Open", "d"));
+		assertRestoredIdsAdvanceSequence(db);
+	}
+
+	@Test
+	public void syncRevisionRoundTrips() {
+
+		assertEquals(TodoSchema.NEW_TODO_REVISION, TodoSchema.toSyncRevision(TodoSchema.NEW_TODO_REVISION));
+		assertNull(TodoSchema.fromSyncRevision(TodoSchema.NEW_TODO_REVISION));
+		for (int revision : REVISIONS) {
+
+			int syncRevision = TodoSchema.toSyncRevision(revision);
+			assertTrue(syncRevision < TodoSchema.NEW_TODO_REVISION);
+			assertEquals(Integer.valueOf(revision), TodoSchema.fromSyncRevision(syncRevision));
+		}
+		assertEquals(Integer.MIN_VALUE, TodoSchema.toSyncRevision(TodoSchema.MAX_RESURRECTED_REVISION));
+
+		// the next revision would wrap around to a non-negative value
+		for (int revision : new int[] {Integer.MAX_VALUE, -2, Integer.MIN_VALUE}) {
+
+			try {
+
+				TodoSchema.toSyncRevision(revision);
+				fail("Encoded " + revision);
+			} catch (IllegalArgumentException e) {
+
+				// expected
+			}
+		}
+		try {
+
+			TodoSchema.fromSyncRevision(0);
+			fail("Decoded 0");
+		} catch (IllegalStateException e) {
+
+			// expected
+		}
+	}
+
+	@Test
+	public void resurrectedItemsKeepTheirRevisions() throws SQLException {
+
+		assertResurrectedRevisions(new MemoryTodoStore(1));
+		JdbcTodoStore db = new JdbcTodoStore("jdbc:sqlite::memory:");
+		try {
+
+			assertResurrectedRevisions(db);
+		} finally {
+
+			db.close();
+		}
+	}
+
+	/**
+	 * Asserts that restoring an item of the device prefix advances the
+	 * sequence past it while restoring an item of another prefix does not.
+	 */
+	private static void assertRestoredIdsAdvanceSequence(TodoStore db) {
+
+		long own = TodoSchema.firstLastId(db.getIdPrefix()) + 100;
+		long other = TodoSchema.firstLastId(db.getIdPrefix() + 1) + 200;
+		db.restoreTodos(Arrays.asList(
+			new Todo(Long.valueOf(own), "own", "2024-01-01", Integer.valueOf(1), "Open", "d", Integer.valueOf(1)),
+			new Todo(Long.valueOf(other), "other", "2024-01-01", Integer.valueOf(1), "Open", "d", Integer.valueOf(1))
+		).iterator());
+
+		assertEquals(own + 1, db.createTodo("next", "2024-01-01", 1, "Open", "d"));
+	}
+
+	/**
+	 * Syncs local items that the server has deleted, which are resurrected
+	 * by picking the local side ([A8]), along with a new item, and asserts
+	 * that the sent data carry the original revisions and no revision for
+	 * the new item.
+	 */
+	private static void assertResurrectedRevisions(TodoStore db) {
+
+		ConflictResolver pickLocal = new ConflictResolver() {
+
+			public ConflictResolution resolveTwoItemsConflict(Todo localTodo, Todo remoteTodo) {
+
+				return ConflictResolution.PICK_LOCAL;
+			}
+
+			public ConflictResolution resolveRemoteDeletion(Todo localTodo) {
+
+				return ConflictResolution.PICK_LOCAL;
+			}
+
+			public ConflictResolution resolveLocalDeletion(Todo remoteTodo) {
+
+				return ConflictResolution.PICK_LOCAL;
+			}
+		};
+
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		Todo[] todos = new Todo[REVISIONS.length];
+		for (int i = 0; i < REVISIONS.length; i++) {
+
+			Long id = Long.valueOf((SyncWorkload.ID_PREFIX << TodoSchema.ID_COUNTER_BITS) + i);
+			todos[i] = new Todo(id, "t" + i, "2024-01-01", Integer.valueOf(1), "Open", "d",
+					    Integer.valueOf(REVISIONS[i]));
+			expected.put(id, Integer.valueOf(REVISIONS[i]));
+		}
+		db.restoreTodos(Arrays.asList(todos).iterator());
+		long newId = db.createTodo("new", "2024-01-01", 1, "Open", "d");
+		expected.put(Long.valueOf(newId), null);
+
+		// the executor copies the items with INSERT_TO_SYNC_IN
+		db.recreateSyncTable();
+		SyncEngine engine = new SyncEngine(db, pickLocal);
+		SyncPlan plan = engine.sync();
+		assertEquals(REVISIONS.length, plan.getCount(SyncAction.RESURRECT_REMOTE));
+		assertEquals(expected, readNewTodoRevisions(engine));
+
+		// the row-by-row reconciliation copies them one by one
+		db.clearTodos();
+		db.restoreTodos(Arrays.asList(todos).iterator());
+		db.restoreTodos(Arrays.asList(new Todo(Long.valueOf(newId), "new", "2024-01-01", Integer.valueOf(1),
+						       "Open", "d", null)).iterator());
+		db.recreateSyncTable();
+		new RowByRowSync(db, pickLocal).sync();
+		assertEquals(expected, readNewTodoRevisions(engine));
+	}
+
+	/** Returns the revisions of the CHUNK_NEW_TODO chunks that a sync would send keyed by ID. */
+	private static Map<Long, Integer> readNewTodoRevisions(SyncEngine engine) {
+
+		final Map<Long, Integer> revisions = new HashMap<Long, Integer>();
+		ByteBuffer b = engine.createSyncData().buffer;
+		b.flip();
+		b.get();
+		TodoTlv.read(b.slice(), new TodoTlv.Visitor() {
+
+			public void visit(byte chunkType, Todo t) {
+
+				if (chunkType == TodoTlv.CHUNK_NEW_TODO) {
+
+					revisions.put(t.id, t.revision);
+				}
+			}
+		});
+
+		return revisions;
+	}
+}
@@ -0,0 +1,207 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks the CSV and JSON-lines parsers of TodoImporter, the fields that an
+ * item requires and the line numbers of the errors, and that a failed
+ * import creates no item.
+ *
+ * @author eus
+ */
+public class TodoImporterTest {
+
+	private static final String HEADER = "title,deadline,priority,status,description\n";
+
+	private static List<Todo> readAll(Iterator<Todo> r) {
+
+		List<Todo> todos = new ArrayList<Todo>();
+		while (r.hasNext()) {
+
+			todos.add(r.next());
+		}
+
+		return todos;
+	}
+
+	private static List<Todo> readCsv(String csv) {
+
+		return readAll(new TodoImporter.CsvReader(new StringReader(csv)));
+	}
+
+	private static List<Todo> readJsonLines(String jsonLines) {
+
+		return readAll(new TodoImporter.JsonLinesReader(new StringReader(jsonLines)));
+	}
+
+	/** Asserts that reading a CSV file fails with a message starting with the given one. */
+	private static void assertCsvError(String expected, String csv) {
+
+		try {
+
+			readCsv(csv);
+			fail(expected);
+		} catch (IllegalArgumentException e) {
+
+			assertTrue(e.getMessage(), e.getMessage().startsWith(expected));
+		}
+	}
+
+	/** Asserts that reading a JSON-lines file fails with a message starting with the given one. */
+	private static void assertJsonLinesError(String expected, String jsonLines) {
+
+		try {
+
+			readJsonLines(jsonLines);
+			fail(expected);
+		} catch (IllegalArgumentException e) {
+
+			assertTrue(e.getMessage(), e.getMessage().startsWith(expected));
+		}
+	}
+
+	private static void assertTodo(String title, String deadline, int priority, String status, String description,
+				       Todo t) {
+
+		assertEquals(title, t.title);
+		assertEquals(deadline, t.deadline);
+		assertEquals(Integer.valueOf(priority), t.priority);
+		assertEquals(status, t.status);
+		assertEquals(description, t.description);
+	}
+
+	@Test
+	public void csvQuotedFields() {
+
+		List<Todo> todos = readCsv(HEADER
+					   + "\"a, b\",2026-10-05,1,Open,\"line 1\nline 2\"\n"
+					   + "\"say \"\"hi\"\"\",2026-10-06, 5 ,Closed,\"\"\"\"\n");
+		assertEquals(2, todos.size());
+		assertTodo("a, b", "2026-10-05", 1, "Open", "line 1\nline 2", todos.get(0));
+		assertTodo("say \"hi\"", "2026-10-06", 5, "Closed", "\"", todos.get(1));
+	}
+
+	@Test
+	public void csvLineEndingsAndBlankLines() {
+
+		List<Todo> todos = readCsv("Title,Deadline,Priority,Status,Description,Ignored\r\n"
+					   + "\r\n"
+					   + "a,2026-10-05,1,Open,d,x\r\n"
+					   + "\n"
+					   + "b,2026-10-06,2,Open,d,y");
+		assertEquals(2, todos.size());
+		assertTodo("a", "2026-10-05", 1, "Open", "d", todos.get(0));
+		assertTodo("b", "2026-10-06", 2, "Open", "d", todos.get(1));
+
+		// the line numbers count the blank lines and the line breaks of the quoted fields
+		assertCsvError("Line 5: invalid priority 6",
+			       HEADER + "a,2026-10-05,1,Open,\"1\r\n2\"\n\nb,2026-10-06,6,Open,d\r\n");
+	}
+
+	@Test
+	public void csvMissingFields() {
+
+		// an empty or missing description is an empty one
+		List<Todo> todos = readCsv(HEADER + "a,2026-10-05,1,Open,\nb,2026-10-06,2,Open\n");
+		assertTodo("a", "2026-10-05", 1, "Open", "", todos.get(0));
+		assertTodo("b", "2026-10-06", 2, "Open", "", todos.get(1));
+
+		assertCsvError("Line 2: missing title", HEADER + ",2026-10-05,1,Open,d\n");
+		assertCsvError("Line 2: missing deadline", HEADER + "a,,1,Open,d\n");
+		assertCsvError("Line 3: missing priority", HEADER + "a,2026-10-05,1,Open,d\nb,2026-10-05,,Open,d\n");
+		assertCsvError("Line 2: missing status", HEADER + "a,2026-10-05,1\n");
+		assertCsvError("Line 2: missing status", "title,deadline,priority,description\na,2026-10-05,1,d\n");
+	}
+
+	@Test
+	public void csvMalformedRecords() {
+
+		assertCsvError("Line 2: invalid priority high", HEADER + "a,2026-10-05,high,Open,d\n");
+		assertCsvError("Line 2: invalid priority 0", HEADER + "a,2026-10-05,0,Open,d\n");
+		assertCsvError("Line 2: invalid priority -1", HEADER + "a,2026-10-05,-1,Open,d\n");
+		assertCsvError("Line 3: invalid priority 6", HEADER + "a,2026-10-05,5,Open,d\nb,2026-10-05,6,Open,d\n");
+		assertCsvError("Line 2: more fields than columns", HEADER + "a,2026-10-05,1,Open,d,extra\n");
+		assertCsvError("Line 3: unterminated quote", HEADER + "a,2026-10-05,1,Open,d\nb,2026-10-05,1,Open,\"d\n\n");
+	}
+
+	@Test
+	public void jsonLines() {
+
+		List<Todo> todos = readJsonLines(
+			"{\"title\": \"a, \\\"b\\\"\", \"deadline\": \"2026-10-05\", \"priority\": 1, \"status\": \"Open\","
+			+ " \"description\": \"line 1\\nline 2 \\u00e9\"}\r\n"
+			+ "   \r\n"
+			+ "{\"status\":\"Closed\",\"priority\":5,\"title\":\"b\",\"deadline\":\"2026-10-06\",\"description\":null,"
+			+ "\"other\":true}\n");
+		assertEquals(2, todos.size());
+		assertTodo("a, \"b\"", "2026-10-05", 1, "Open", "line 1\nline 2 \u00e9", todos.get(0));
+		assertTodo("b", "2026-10-06", 5, "Closed", "", todos.get(1));
+	}
+
+	@Test
+	public void jsonLinesMalformedObjects() {
+
+		String valid = "{\"title\":\"a\",\"deadline\":\"2026-10-05\",\"priority\":1,\"status\":\"Open\"}\n";
+		assertNull(readJsonLines(valid).get(0).id);
+
+		assertJsonLinesError("Line 3: missing title",
+				     valid + "\n{\"title\":null,\"deadline\":\"2026-10-05\",\"priority\":1,\"status\":\"Open\"}\n");
+		assertJsonLinesError("Line 1: missing priority",
+				     "{\"title\":\"a\",\"deadline\":\"2026-10-05\",\"priority\":null,\"status\":\"Open\"}\n");
+		assertJsonLinesError("Line 1: missing status", "{\"title\":\"a\",\"deadline\":\"2026-10-05\",\"priority\":1}\n");
+		assertJsonLinesError("Line 2: invalid priority 9",
+				     valid + "{\"title\":\"a\",\"deadline\":\"2026-10-05\",\"priority\":9,\"status\":\"Open\"}\n");
+		assertJsonLinesError("Line 1: nested values are not supported",
+				     "{\"title\":\"a\",\"deadline\":{\"y\":2026},\"priority\":1,\"status\":\"Open\"}\n");
+		assertJsonLinesError("Line 1: nested values are not supported",
+				     "{\"title\":[\"a\"],\"deadline\":\"2026-10-05\",\"priority\":1,\"status\":\"Open\"}\n");
+		assertJsonLinesError("Line 1: unterminated string", "{\"title\":\"a}\n");
+		assertJsonLinesError("Line 1: text after the object", valid.trim() + " {}\n");
+		assertJsonLinesError("Line 1: missing value", "{\"title\":,\"deadline\":\"2026-10-05\"}\n");
+	}
+
+	@Test
+	public void failedImportCreatesNothing() throws IOException, SQLException {
+
+		TodoStore[] stores = {new MemoryTodoStore(1), new JdbcTodoStore("jdbc:sqlite::memory:")};
+		for (TodoStore db : stores) {
+
+			try {
+
+				TodoImporter importer = new TodoImporter(db);
+				try {
+
+					importer.importCsv(new StringReader(HEADER + "a,2026-10-05,1,Open,d\nb,2026-10-05,7,Open,d\n"));
+					fail();
+				} catch (IllegalArgumentException e) {
+
+					assertEquals("Line 3: invalid priority 7", e.getMessage());
+				}
+				assertEquals(0, db.getSummary("2026-10-01").getStatusCount("Open"));
+
+				assertEquals(2, importer.importCsv(new StringReader(HEADER + "a,2026-10-05,1,Open,d\nb,2026-10-05,2,Open,\n")));
+				assertEquals(2, importer.importedItems);
+				long id = TodoSchema.firstLastId(db.getIdPrefix()) + 2;
+				assertTodo("b", "2026-10-05", 2, "Open", "", db.getTodo(id));
+			} finally {
+
+				if (db instanceof JdbcTodoStore) {
+
+					((JdbcTodoStore) db).close();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+/**
+ * Checks that a TodoRow reused over the rows of MemoryTodoStore and
+ * JdbcTodoStore gives the same items as reading every row on its own, a
+ * NULL priority included, and that it takes a description kept compressed
+ * out of line from the cursor or the store.
+ *
+ * @author eus
+ */
+public class TodoRowTest {
+
+	/** Reads the current row looking up every column like SyncEngine.readTodo() once did. */
+	private static Todo readRow(TodoCursor c) {
+
+		int priority = c.getColumnIndex(TodoSchema.PRIORITY_COLUMN);
+		Todo t = new Todo(
+			Long.valueOf(c.getLong(c.getColumnIndex(TodoSchema.ID_COLUMN))),
+			c.getString(c.getColumnIndex(TodoSchema.TITLE_COLUMN)),
+			c.getString(c.getColumnIndex(TodoSchema.DEADLINE_COLUMN)),
+			c.isNull(priority) ? null : Integer.valueOf(c.getInt(priority)),
+			c.getString(c.getColumnIndex(TodoSchema.STATUS_COLUMN)),
+			c.getString(c.getColumnIndex(TodoSchema.DESCRIPTION_COLUMN)),
+			Integer.valueOf(c.getInt(c.getColumnIndex(TodoSchema.REVISION_COLUMN)))
+		);
+		t.fingerprint = SyncEngine.readFingerprint(c);
+		t.fieldRevisions = SyncEngine.readFieldRevisions(c);
+		t.versionVector = SyncEngine.readVersionVector(c);
+
+		return t;
+	}
+
+	@Test
+	public void reusedRowReadsLikeEveryRowOnItsOwn() throws SQLException {
+
+		for (TodoStore db : new TodoStore[] {new MemoryTodoStore(1), new JdbcTodoStore("jdbc:sqlite::memory:")}) {
+
+			try {
+
+				long first = db.createTodo("first", "2026-10-05", 1, "Open", "d");
+				long second = db.createTodo("second", "2026-10-06", 5, "Closed", "");
+				db.updateTodoRevision(second, 3);
+				long third = db.createTodo("third", "2026-10-07", 3, "Open", "another");
+				if (db instanceof JdbcTodoStore) {
+
+					((JdbcTodoStore) db).execSQL("update " + TodoSchema.TODO_TABLE + " set " + TodoSchema.PRIORITY_COLUMN
+								     + " = null where " + TodoSchema.ID_COLUMN + " = " + third);
+				}
+
+				// one cursor for the reused row and one for the per-row reads
+				TodoCursor c = db.getAllTodoIncludingDeletedOnes();
+				TodoCursor perRow = db.getAllTodoIncludingDeletedOnes();
+				try {
+
+					TodoRow row = new TodoRow(c, db);
+					int rows = 0;
+					while (row.moveToNext()) {
+
+						assertTrue(perRow.moveToNext());
+						Todo expected = readRow(perRow);
+						Todo t = row.toTodo();
+						assertEquals(expected.id, t.id);
+						assertEquals(expected.title, t.title);
+						assertEquals(expected.deadline, t.deadline);
+						assertEquals(expected.priority, t.priority);
+						assertEquals(expected.status, t.status);
+						assertEquals(expected.description, t.description);
+						assertEquals(expected.revision, t.revision);
+						assertEquals(expected.fingerprint, t.fingerprint);
+						assertEquals(expected.fieldRevisions, t.fieldRevisions);
+						assertArrayEquals(expected.versionVector, t.versionVector);
+						assertEquals(expected, t);
+						if (t.id.longValue() == third && db instanceof JdbcTodoStore) {
+
+							// a NULL priority is not read as 0
+							assertNull(t.priority);
+							assertEquals(0, row.getPriority());
+						}
+						rows++;
+					}
+					assertFalse(perRow.moveToNext());
+					assertEquals(3, rows);
+				} finally {
+
+					c.close();
+					perRow.close();
+				}
+				assertEquals(Integer.valueOf(1), db.getTodo(first).priority);
+			} finally {
+
+				if (db instanceof JdbcTodoStore) {
+
+					((JdbcTodoStore) db).close();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void longDescriptionIsTakenFromCursorOrStore() throws SQLException {
+
+		JdbcTodoStore db = new JdbcTodoStore("jdbc:sqlite::memory:");
+		try {
+
+			StringBuilder b = new StringBuilder("long");
+			while (!TodoDescription.isLong(b.toString())) {
+
+				b.append(" description");
+			}
+			String description = b.toString();
+			db.createTodo("long", "2026-10-05", 1, "Open", description);
+
+			// the todo table keeps a NULL description column
+			TodoCursor c = db.getAllTodoIncludingDeletedOnes();
+			try {
+
+				TodoRow row = new TodoRow(c, db);
+				assertTrue(row.moveToNext());
+				assertNull(c.getString(c.getColumnIndex(TodoSchema.DESCRIPTION_COLUMN)));
+				assertNull(new TodoRow(c).getDescription());
+				assertEquals(description, row.getDescription());
+				assertEquals(description, row.toTodo().description);
+			} finally {
+
+				c.close();
+			}
+
+			// the compressed description read along with the row
+			c = db.query(TodoSchema.selectWithDescription(TodoSchema.TODO_TABLE), null);
+			try {
+
+				TodoRow row = new TodoRow(c);
+				assertTrue(row.moveToNext());
+				assertEquals(description, row.getDescription());
+				assertEquals(description, row.toSyncTodo().description);
+			} finally {
+
+				c.close();
+			}
+		} finally {
+
+			db.close();
+		}
+	}
+}
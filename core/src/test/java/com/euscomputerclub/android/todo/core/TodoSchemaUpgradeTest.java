@@ -0,0 +1,411 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that TodoSchemaUpgrade brings DBs of the Android TodoDb of
+ * versions 4 and 6 to the schema of a new DB and keeps their items, and
+ * that version 15 normalizes the October to December deadlines that
+ * Deadline wrote with a padded month, also of the archived items.
+ *
+ * @author eus
+ */
+public class TodoSchemaUpgradeTest {
+
+	/** The todo table of version 4. */
+	private static final String CREATE_TODO_TABLE_4 = ("create table todo ("
+		+ "_id integer not null primary key autoincrement, "
+		+ "title text, "
+		+ "deadline text, "
+		+ "priority integer, "
+		+ "status text, "
+		+ "description text,"
+		+ "revision integer default -1 not null);"
+	);
+
+	/** The sync table of version 4. */
+	private static final String CREATE_SYNC_TABLE_4 = ("create table sync ("
+		+ "_id integer not null primary key autoincrement,"
+		+ "title text,"
+		+ "deadline text,"
+		+ "priority integer,"
+		+ "status text,"
+		+ "description text,"
+		+ "revision integer);"
+	);
+
+	/** The sync table of versions 5 to 10. */
+	private static final String CREATE_SYNC_TABLE_5 = ("create table sync ("
+		+ "_id integer not null primary key autoincrement,"
+		+ "title text,"
+		+ "deadline text,"
+		+ "priority integer,"
+		+ "status text,"
+		+ "description text,"
+		+ "revision integer,"
+		+ "fingerprint integer);"
+	);
+
+	/** The deleted_todo table of versions 4 on. */
+	private static final String CREATE_DELETED_TODO_TABLE_4 = ("create table deleted_todo ("
+		+ "_id integer not null references todo (_id) on delete cascade on update cascade)"
+	);
+
+	/** The ID prefix of the DB of version 6. */
+	private static final long PREFIX = 77;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void upgradeFromVersion4() throws SQLException {
+
+		File f = new File(folder.getRoot(), "todo4.db");
+		Connection conn = DriverManager.getConnection("jdbc:sqlite:" + f);
+		try {
+
+			execSQL(conn, CREATE_TODO_TABLE_4);
+			execSQL(conn, CREATE_SYNC_TABLE_4);
+			execSQL(conn, CREATE_DELETED_TODO_TABLE_4);
+			insertTodos(conn);
+			execSQL(conn, "insert into sync values (2, 'remote', '2026-01-02', 1, 'Open', 'd', 5)");
+			execSQL(conn, "pragma user_version = 4");
+		} finally {
+
+			conn.close();
+		}
+
+		JdbcTodoStore db = new JdbcTodoStore("jdbc:sqlite:" + f);
+		try {
+
+			assertUpgraded(db);
+			long prefix = db.getIdPrefix();
+			assertTrue(prefix > 0);
+			assertNewTodoRenumbered(db, prefix);
+			// the sync table of version 4 has been dropped with its rows
+			assertNull(db.getRemoteTodo(2));
+		} finally {
+
+			db.close();
+		}
+	}
+
+	@Test
+	public void upgradeFromVersion6() throws SQLException {
+
+		File f = new File(folder.getRoot(), "todo6.db");
+		Connection conn = DriverManager.getConnection("jdbc:sqlite:" + f);
+		try {
+
+			execSQL(conn, CREATE_TODO_TABLE_4);
+			execSQL(conn, TodoSchema.ADD_FINGERPRINT_COLUMN);
+			execSQL(conn, CREATE_SYNC_TABLE_5);
+			execSQL(conn, CREATE_DELETED_TODO_TABLE_4);
+			execSQL(conn, TodoSchema.CREATE_ID_SEQUENCE_TABLE);
+			execSQL(conn, "insert into id_sequence values (" + TodoSchema.firstLastId(PREFIX) + ")");
+			insertTodos(conn);
+			execSQL(conn, "update todo set _id = " + (TodoSchema.firstLastId(PREFIX) + 1) + " where _id = 3");
+			execSQL(conn, "update id_sequence set last_id = last_id + 1");
+			storeFingerprints(conn);
+			execSQL(conn, "insert into sync values (2, 'remote', '2026-01-02', 1, 'Open', 'd', 5, null)");
+			execSQL(conn, "pragma user_version = 6");
+		} finally {
+
+			conn.close();
+		}
+
+		JdbcTodoStore db = new JdbcTodoStore("jdbc:sqlite:" + f);
+		try {
+
+			assertUpgraded(db);
+			assertEquals(PREFIX, db.getIdPrefix());
+			assertNewTodoRenumbered(db, PREFIX);
+			// the rows of the sync table of version 10 and before are kept
+			Todo remote = db.getRemoteTodo(2);
+			assertNotNull(remote);
+			assertEquals("remote", remote.title);
+			assertEquals(Integer.valueOf(5), remote.revision);
+		} finally {
+
+			db.close();
+		}
+
+		// the upgraded DB opens again without upgrading
+		db = new JdbcTodoStore("jdbc:sqlite:" + f);
+		try {
+
+			assertEquals(TodoSchemaUpgrade.LAST_VERSION, db.queryLong(TodoSchema.SELECT_USER_VERSION));
+			assertEquals("synced", db.getTodo(1).title);
+		} finally {
+
+			db.close();
+		}
+	}
+
+	@Test
+	public void paddedMonthsAreNormalized() throws SQLException {
+
+		// a DB of the Android TodoDb of version 14 and a store without a version
+		for (int version : new int[] {14, 0}) {
+
+			File f = new File(folder.getRoot(), "todo" + version + ".db");
+			JdbcTodoStore db = new JdbcTodoStore("jdbc:sqlite:" + f);
+			long october;
+			long november;
+			long december;
+			long february;
+			try {
+
+				october = db.createTodo("october", "2026-010-05", 1, "Open", longDescription());
+				db.updateTodoRevision(october, 3);
+				november = db.createTodo("november", "2026-011-30", 2, "Open", "d");
+				december = db.createTodo("december", "2026-012-01", 2, "Open", "d");
+				db.updateTodoRevision(december, 2);
+				db.deleteTodo(december);
+				february = db.createTodo("february", "2026-02-01", 3, "Open", "d");
+				db.clearOutbox(db.getLastOutboxSequence());
+				// the padded months sort between January and February
+				assertEquals(3, db.getSummary("2026-03-01").overdueCount);
+				db.execSQL("pragma user_version = " + version);
+			} finally {
+
+				db.close();
+			}
+
+			db = new JdbcTodoStore("jdbc:sqlite:" + f);
+			try {
+
+				assertEquals(TodoSchemaUpgrade.LAST_VERSION, db.queryLong(TodoSchema.SELECT_USER_VERSION));
+				Todo t = db.getTodo(october);
+				assertEquals("2026-10-05", t.deadline);
+				assertTrue(TodoDescription.isLong(t.description));
+				assertEquals(Long.valueOf(t.computeFingerprint()), t.fingerprint);
+				t = db.getTodo(november);
+				assertEquals("2026-11-30", t.deadline);
+				assertEquals(Long.valueOf(t.computeFingerprint()), t.fingerprint);
+				assertEquals("2026-02-01", db.getTodo(february).deadline);
+				assertEquals("2026-12-01", db.getLocalTodo(december).deadline);
+
+				// only the item that the server has gets its deadline sent
+				List<OutboxOp> ops = db.getOutbox(10);
+				assertEquals(1, ops.size());
+				assertEquals(october, ops.get(0).todoId);
+				assertEquals(TodoTlv.CHUNK_UPDATE_TODO, ops.get(0).type);
+				assertEquals(SyncPlan.DEADLINE_FIELD, ops.get(0).fieldMask);
+
+				assertEquals(1, db.getSummary("2026-03-01").overdueCount);
+				assertEquals(1, db.getSummary("2026-10-05").overdueCount);
+				assertEquals(2, db.getSummary("2026-10-19").overdueCount);
+				assertEquals(3, db.getSummary("2026-12-01").overdueCount);
+			} finally {
+
+				db.close();
+			}
+		}
+	}
+
+	@Test
+	public void archivedPaddedMonthsAreNormalized() throws SQLException {
+
+		File f = new File(folder.getRoot(), "todo14archive.db");
+		JdbcTodoStore db = new JdbcTodoStore("jdbc:sqlite:" + f);
+		long october;
+		long february;
+		try {
+
+			october = db.createTodo("october", "2026-010-05", 1, TodoSchema.CLOSED_STATUS, longDescription());
+			db.updateTodoRevision(october, 3);
+			february = db.createTodo("february", "2026-02-01", 1, TodoSchema.CLOSED_STATUS, "d");
+			db.updateTodoRevision(february, 2);
+			db.clearOutbox(db.getLastOutboxSequence());
+			// the padded month is archived in March
+			assertEquals(2, db.archiveTodos("2026-03-01"));
+			db.execSQL("pragma user_version = 14");
+		} finally {
+
+			db.close();
+		}
+
+		db = new JdbcTodoStore("jdbc:sqlite:" + f);
+		try {
+
+			// the whole archive is back with its long description
+			assertArrayEquals(new long[HashTree.BUCKET_COUNT], db.getArchiveBuckets());
+			Todo t = db.getLocalTodo(october);
+			assertEquals("2026-10-05", t.deadline);
+			assertTrue(TodoDescription.isLong(t.description));
+			assertEquals(Long.valueOf(t.computeFingerprint()), t.fingerprint);
+			assertEquals("2026-02-01", db.getLocalTodo(february).deadline);
+
+			// the October item waits for its deadline to be sent
+			assertEquals(1, db.archiveTodos("2026-10-06"));
+			assertNull(db.getLocalTodo(february));
+			assertEquals(1, db.getOutbox(10).size());
+			db.clearOutbox(db.getLastOutboxSequence());
+
+			assertEquals(0, db.archiveTodos("2026-03-01"));
+			assertEquals(0, db.archiveTodos("2026-10-05"));
+			assertEquals(1, db.archiveTodos("2026-10-06"));
+			assertNull(db.getLocalTodo(october));
+			db.unarchiveTodos(new long[] {october});
+			t = db.getTodo(october);
+			assertTrue(TodoDescription.isLong(t.description));
+			assertEquals(Long.valueOf(t.computeFingerprint()), t.fingerprint);
+		} finally {
+
+			db.close();
+		}
+	}
+
+	/** Returns a description long enough to be kept out of line. */
+	private static String longDescription() {
+
+		StringBuilder longDescription = new StringBuilder();
+		while (!TodoDescription.isLong(longDescription.toString())) {
+
+			longDescription.append("a long description ");
+		}
+
+		return longDescription.toString();
+	}
+
+	/** Inserts a synchronized item 1, a new item 3 whose ID is legacy, a deleted item 4 and a long description. */
+	private static void insertTodos(Connection conn) throws SQLException {
+
+		execSQL(conn, "insert into todo (_id, title, deadline, priority, status, description, revision)"
+			+ " values (1, 'synced', '2026-01-01', 2, 'Open', 'd', 4)");
+		execSQL(conn, "insert into todo (_id, title, deadline, priority, status, description, revision)"
+			+ " values (3, 'new', '2026-01-03', 3, 'Open', '" + longDescription() + "', -1)");
+		execSQL(conn, "insert into todo (_id, title, deadline, priority, status, description, revision)"
+			+ " values (4, 'deleted', '2026-01-04', 1, 'Closed', 'd', 2)");
+		execSQL(conn, "insert into deleted_todo values (4)");
+	}
+
+	/** Stores the fingerprints of the todo items as version 5 has computed them. */
+	private static void storeFingerprints(Connection conn) throws SQLException {
+
+		List<Todo> todos = new ArrayList<Todo>();
+		Statement s = conn.createStatement();
+		try {
+
+			ResultSet rs = s.executeQuery("select _id, title, deadline, priority, status, description, revision from todo");
+			while (rs.next()) {
+
+				todos.add(new Todo(Long.valueOf(rs.getLong(1)), rs.getString(2), rs.getString(3),
+						   Integer.valueOf(rs.getInt(4)), rs.getString(5), rs.getString(6),
+						   Integer.valueOf(rs.getInt(7))));
+			}
+		} finally {
+
+			s.close();
+		}
+		for (Todo t : todos) {
+
+			execSQL(conn, "update todo set fingerprint = " + t.computeFingerprint() + " where _id = " + t.id);
+		}
+	}
+
+	/** Asserts that an upgraded store has the schema of a new one, its version and the items of insertTodos(). */
+	private static void assertUpgraded(JdbcTodoStore db) throws SQLException {
+
+		JdbcTodoStore fresh = new JdbcTodoStore("jdbc:sqlite::memory:");
+		try {
+
+			assertEquals(dumpSchema(fresh.conn), dumpSchema(db.conn));
+		} finally {
+
+			fresh.close();
+		}
+		assertEquals(TodoSchemaUpgrade.LAST_VERSION, db.queryLong(TodoSchema.SELECT_USER_VERSION));
+
+		Todo t = db.getTodo(1);
+		assertEquals("synced", t.title);
+		assertEquals(Integer.valueOf(4), t.revision);
+		assertEquals(Long.valueOf(t.computeFingerprint()), t.fingerprint);
+		assertTrue(db.isLocalDeleted(4));
+		assertNull(db.getTodo(4));
+
+		TodoSummary summary = db.getSummary("2026-01-02");
+		assertEquals(2, summary.getStatusCount("Open"));
+		assertEquals(0, summary.getStatusCount("Closed"));
+		assertEquals(1, summary.overdueCount);
+	}
+
+	/** Asserts that the new item of insertTodos() has an ID with the given prefix and keeps its long description. */
+	private static void assertNewTodoRenumbered(JdbcTodoStore db, long prefix) {
+
+		assertNull(db.getTodo(3));
+		long id = TodoSchema.firstLastId(prefix) + 1;
+		Todo t = db.getTodo(id);
+		assertNotNull(t);
+		assertEquals("new", t.title);
+		assertEquals(Integer.valueOf(TodoSchema.NEW_TODO_REVISION), t.revision);
+		assertTrue(TodoDescription.isLong(t.description));
+		assertEquals(Long.valueOf(t.computeFingerprint()), t.fingerprint);
+		assertEquals(id + 1, db.createTodo("next", "2026-01-05", 1, "Open", "d"));
+	}
+
+	/** Returns the columns of every table and the names of the indexes and triggers of the main database. */
+	private static List<String> dumpSchema(Connection conn) throws SQLException {
+
+		List<String> schema = new ArrayList<String>();
+		List<String> tables = new ArrayList<String>();
+		Statement s = conn.createStatement();
+		try {
+
+			ResultSet rs = s.executeQuery("select type, name from main.sqlite_master"
+						      + " where name not like 'sqlite_%' order by type, name");
+			while (rs.next()) {
+
+				schema.add(rs.getString(1) + " " + rs.getString(2));
+				if ("table".equals(rs.getString(1))) {
+
+					tables.add(rs.getString(2));
+				}
+			}
+			for (String table : tables) {
+
+				rs = s.executeQuery("pragma main.table_info(" + table + ")");
+				while (rs.next()) {
+
+					schema.add(table + "." + rs.getString("name") + " " + rs.getString("type")
+						   + " " + rs.getInt("notnull") + " " + rs.getString("dflt_value") + " " + rs.getInt("pk"));
+				}
+			}
+		} finally {
+
+			s.close();
+		}
+
+		return schema;
+	}
+
+	private static void execSQL(Connection conn, String sql) throws SQLException {
+
+		Statement s = conn.createStatement();
+		try {
+
+			s.execute(sql);
+		} finally {
+
+			s.close();
+		}
+	}
+}
@@ -0,0 +1,296 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the counters kept by the triggers of JdbcTodoStore give the
+ * same TodoSummary as a full recomputation over the listed todo items after
+ * every kind of change to the todo and deleted_todo tables.
+ *
+ * @author eus
+ */
+public class TodoSummaryTest {
+
+	private static final String TODAY = "2024-06-01";
+	private static final String[] STATUSES = {"Open", "In progress", TodoSchema.CLOSED_STATUS};
+	private static final ConflictResolver PICK_REMOTE = new ConflictResolver() {
+
+		public ConflictResolution resolveTwoItemsConflict(Todo localTodo, Todo remoteTodo) {
+
+			return ConflictResolution.PICK_REMOTE;
+		}
+
+		public ConflictResolution resolveRemoteDeletion(Todo localTodo) {
+
+			return ConflictResolution.PICK_REMOTE;
+		}
+
+		public ConflictResolution resolveLocalDeletion(Todo remoteTodo) {
+
+			return ConflictResolution.PICK_REMOTE;
+		}
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Random rnd = new Random(1);
+	/** The items of the simulated server, whose revisions are one less than the synchronized local ones. */
+	private final Map<Long, Todo> remoteTodos = new TreeMap<Long, Todo>();
+	private JdbcTodoStore db;
+	private List<Long> ids;
+
+	@Before
+	public void setUp() throws Exception {
+
+		db = new JdbcTodoStore("jdbc:sqlite::memory:");
+		ids = new ArrayList<Long>();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		db.close();
+	}
+
+	@Test
+	public void countersFollowEveryChange() throws Exception {
+
+		for (int i = 0; i < 300; i++) {
+
+			ids.add(Long.valueOf(db.createTodo("t" + i, randomDeadline(), 1 + rnd.nextInt(5), randomStatus(), "d")));
+		}
+		assertCounters("create");
+		assertTrue(db.getSummary(TODAY).overdueCount > 0);
+
+		for (int i = 0; i < 200; i++) {
+
+			long id = (7L << TodoSchema.ID_COUNTER_BITS) + i;
+			remoteTodos.put(Long.valueOf(id), new Todo(Long.valueOf(id), "r" + i, randomDeadline(),
+								   Integer.valueOf(1 + rnd.nextInt(5)), randomStatus(), "d",
+								   Integer.valueOf(rnd.nextInt(3))));
+			ids.add(Long.valueOf(id));
+		}
+		sync();
+		assertCounters("sync import");
+		assertEquals(500, total(db.getSummary(TODAY)));
+
+		for (int i = 0; i < 100; i++) {
+
+			db.updateTodo(randomId(), null, rnd.nextBoolean() ? "2099-12-01" : randomDeadline(),
+				      Integer.valueOf(1 + rnd.nextInt(5)), randomStatus(), null);
+		}
+		assertCounters("update");
+
+		db.updateTodos(randomIds(150), new TodoBulkEdit(randomStatus(), Integer.valueOf(3), -40));
+		assertCounters("bulk update");
+
+		for (int i = 0; i < 30; i++) {
+
+			db.deleteTodo(randomId());
+		}
+		assertCounters("delete");
+
+		db.deleteTodos(randomIds(40));
+		assertCounters("bulk delete");
+
+		// a second tombstone of an item must not count it out twice
+		long[] tombstoned = randomIds(20);
+		db.restoreDeletedTodos(tombstoned);
+		db.restoreDeletedTodos(tombstoned);
+		assertCounters("tombstone");
+
+		Iterator<Todo> it = remoteTodos.values().iterator();
+		while (it.hasNext()) {
+
+			Todo t = it.next();
+			switch (rnd.nextInt(4)) {
+
+			case 0: // [A4], [A10]
+				t.status = randomStatus();
+				t.priority = Integer.valueOf(1 + rnd.nextInt(5));
+				t.revision = Integer.valueOf(t.revision.intValue() + 1);
+				t.fingerprint = null;
+				break;
+			case 1: // [A7], [A9]
+				it.remove();
+				break;
+			}
+		}
+		for (int i = 0; i < 50; i++) {
+
+			long id = (8L << TodoSchema.ID_COUNTER_BITS) + i;
+			remoteTodos.put(Long.valueOf(id), new Todo(Long.valueOf(id), "s" + i, randomDeadline(),
+								   Integer.valueOf(1 + rnd.nextInt(5)), randomStatus(), "d",
+								   Integer.valueOf(1)));
+		}
+		sync();
+		assertCounters("sync replace and remote delete");
+
+		int archived = new TodoArchiver(db).maintain(System.currentTimeMillis());
+		assertTrue(archived > 0);
+		assertCounters("archive");
+
+		db.unarchiveBuckets(null);
+		assertEquals(0, countArchived());
+		assertCounters("unarchive");
+
+		new TodoArchiver(db).maintain(System.currentTimeMillis());
+		TodoSummary before = db.getSummary(TODAY);
+		File f = folder.newFile("todo.snap");
+		RandomAccessFile out = new RandomAccessFile(f, "rw");
+		try {
+
+			new TodoExporter(db).export(out.getChannel());
+		} finally {
+
+			out.close();
+		}
+		db.clearTodos();
+		assertCounters("clear");
+		assertEquals(0, total(db.getSummary(TODAY)));
+
+		FileInputStream in = new FileInputStream(f);
+		try {
+
+			new TodoExporter(db).restore(in.getChannel());
+		} finally {
+
+			in.close();
+		}
+		assertCounters("restore");
+		// the archived items are restored to the todo table
+		assertTrue(total(db.getSummary(TODAY)) >= total(before));
+	}
+
+	/** Runs a sync against remoteTodos and lets the simulated server take the local items. */
+	private void sync() {
+
+		db.recreateSyncTable();
+		for (Todo t : remoteTodos.values()) {
+
+			db.createSyncTodo(new Todo(t));
+		}
+		new SyncEngine(db, PICK_REMOTE).sync();
+		db.dropSync();
+
+		Set<Long> deletedIds = readDeletedIds();
+		remoteTodos.clear();
+		TodoCursor c = db.getAllTodoIncludingDeletedOnes();
+		try {
+
+			TodoRow row = new TodoRow(c, db);
+			while (c.moveToNext()) {
+
+				Todo t = row.toTodo();
+				if (!deletedIds.contains(t.id)) {
+
+					t.revision = Integer.valueOf(t.revision.intValue() - 1);
+					remoteTodos.put(t.id, t);
+				}
+			}
+		} finally {
+
+			c.close();
+		}
+	}
+
+	/** Asserts that the counters equal a full recomputation over the listed items. */
+	private void assertCounters(String step) {
+
+		TodoSummary expected = TodoSummary.compute(db.getAllTodoIncludingDeletedOnes(), readDeletedIds(), TODAY);
+		assertEquals(step, expected, db.getSummary(TODAY));
+	}
+
+	private Set<Long> readDeletedIds() {
+
+		Set<Long> deletedIds = new HashSet<Long>();
+		TodoCursor c = db.getAllDeletedTodoIds();
+		try {
+
+			while (c.moveToNext()) {
+
+				deletedIds.add(Long.valueOf(c.getLong(0)));
+			}
+		} finally {
+
+			c.close();
+		}
+
+		return deletedIds;
+	}
+
+	private int countArchived() {
+
+		int n = 0;
+		TodoCursor c = db.getAllArchivedTodo();
+		try {
+
+			while (c.moveToNext()) {
+
+				n++;
+			}
+		} finally {
+
+			c.close();
+		}
+
+		return n;
+	}
+
+	private static int total(TodoSummary s) {
+
+		int n = 0;
+		for (Integer count : s.statusCounts.values()) {
+
+			n += count.intValue();
+		}
+
+		return n;
+	}
+
+	private String randomStatus() {
+
+		return STATUSES[rnd.nextInt(STATUSES.length)];
+	}
+
+	private String randomDeadline() {
+
+		return "2024-0" + (1 + rnd.nextInt(9)) + "-15";
+	}
+
+	private long randomId() {
+
+		return ids.get(rnd.nextInt(ids.size())).longValue();
+	}
+
+	private long[] randomIds(int n) {
+
+		long[] result = new long[n];
+		for (int i = 0; i < n; i++) {
+
+			result[i] = randomId();
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,183 @@
+package com.euscomputerclub.android.todo.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Checks the comparison, the merge and the increment of VersionVector, its
+ * encoding of large counters and the rejection of a malformed vector
+ * received in a CHUNK_TODO.
+ *
+ * @author eus
+ */
+public class VersionVectorTest {
+
+	/** Returns the vector counting the given number of changes of every device of a device-count list. */
+	private static byte[] vector(long... deviceCounts) {
+
+		byte[] v = null;
+		for (int i = 0; i < deviceCounts.length; i += 2) {
+
+			for (long n = 0; n < deviceCounts[i + 1]; n++) {
+
+				v = VersionVector.increment(v, deviceCounts[i]);
+			}
+		}
+
+		return v;
+	}
+
+	@Test
+	public void compare() {
+
+		assertEquals(VersionVector.EQUAL, VersionVector.compare(vector(1, 2, 7, 1), vector(7, 1, 1, 2)));
+		assertEquals(VersionVector.EQUAL, VersionVector.compare(new byte[0], new byte[0]));
+
+		assertEquals(VersionVector.BEFORE, VersionVector.compare(vector(1, 2, 7, 1), vector(1, 2, 7, 3)));
+		assertEquals(VersionVector.AFTER, VersionVector.compare(vector(1, 2, 7, 3), vector(1, 2, 7, 1)));
+		assertEquals(VersionVector.CONCURRENT, VersionVector.compare(vector(1, 3, 7, 1), vector(1, 2, 7, 3)));
+
+		// a device missing on one side counts no change there
+		assertEquals(VersionVector.BEFORE, VersionVector.compare(vector(1, 2), vector(1, 2, 7, 1)));
+		assertEquals(VersionVector.AFTER, VersionVector.compare(vector(1, 2, 7, 1), vector(7, 1)));
+		assertEquals(VersionVector.BEFORE, VersionVector.compare(new byte[0], vector(3, 1)));
+
+		// disjoint devices have each seen a change that the other has not
+		assertEquals(VersionVector.CONCURRENT, VersionVector.compare(vector(1, 1), vector(2, 1)));
+		assertEquals(VersionVector.CONCURRENT, VersionVector.compare(vector(1, 5, 3, 1), vector(2, 1, 4, 9)));
+		assertEquals(VersionVector.CONCURRENT,
+			     VersionVector.compare(vector(VersionVector.LEGACY_DEVICE, 1), vector(Integer.MAX_VALUE, 1)));
+	}
+
+	@Test
+	public void merge() {
+
+		assertNull(VersionVector.merge(null, null));
+		byte[] a = vector(1, 3, 5, 1);
+		assertArrayEquals(a, VersionVector.merge(a, null));
+		assertArrayEquals(a, VersionVector.merge(null, a));
+
+		byte[] b = vector(2, 4, 5, 200);
+		byte[] merged = VersionVector.merge(a, b);
+		assertArrayEquals(vector(1, 3, 2, 4, 5, 200), merged);
+		assertArrayEquals(merged, VersionVector.merge(b, a));
+		assertEquals(3, VersionVector.size(merged));
+		assertEquals(VersionVector.AFTER, VersionVector.compare(merged, a));
+		assertEquals(VersionVector.AFTER, VersionVector.compare(merged, b));
+		assertArrayEquals(merged, VersionVector.merge(merged, a));
+	}
+
+	@Test
+	public void increment() {
+
+		byte[] v = VersionVector.increment(null, 7);
+		assertArrayEquals(new byte[] {0, 0, 0, 7, 1}, v);
+		assertArrayEquals(new byte[] {0, 0, 0, 3, 1, 0, 0, 0, 7, 1}, VersionVector.increment(v, 3));
+		assertArrayEquals(new byte[] {0, 0, 0, 7, 1, 0, 0, 1, 0, 1}, VersionVector.increment(v, 256));
+		// the argument is never modified
+		assertArrayEquals(new byte[] {0, 0, 0, 7, 1}, v);
+
+		for (int i = 1; i < 127; i++) {
+
+			v = VersionVector.increment(v, 7);
+		}
+		assertArrayEquals(new byte[] {0, 0, 0, 7, 127}, v);
+		// a counter of 128 or more takes more than one varint byte
+		byte[] w = VersionVector.increment(v, 7);
+		assertArrayEquals(new byte[] {0, 0, 0, 7, (byte) 0x80, 1}, w);
+		assertEquals(VersionVector.BEFORE, VersionVector.compare(v, w));
+
+		w = VersionVector.increment(w, 2);
+		assertArrayEquals(new byte[] {0, 0, 0, 2, 1, 0, 0, 0, 7, (byte) 0x80, 1}, w);
+		assertEquals(2, VersionVector.size(w));
+		for (int i = 128; i < 300; i++) {
+
+			w = VersionVector.increment(w, 7);
+		}
+		// 300 = 0b10_0101100
+		assertArrayEquals(new byte[] {0, 0, 0, 2, 1, 0, 0, 0, 7, (byte) 0xac, 2}, w);
+		assertEquals(VersionVector.CONCURRENT, VersionVector.compare(w, vector(2, 2, 7, 299)));
+		assertArrayEquals(w, VersionVector.merge(w, vector(2, 1, 7, 299)));
+	}
+
+	@Test
+	public void incrementRejectsInvalidDevice() {
+
+		for (long device : new long[] {-1, 1L << 31, Long.MAX_VALUE}) {
+
+			try {
+
+				VersionVector.increment(null, device);
+				fail(Long.toString(device));
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+	@Test
+	public void isValid() {
+
+		assertTrue(VersionVector.isValid(null));
+		assertTrue(VersionVector.isValid(new byte[0]));
+		byte[] v = vector(2, 1, 7, 300);
+		assertTrue(VersionVector.isValid(v));
+		assertTrue(VersionVector.isValid(new byte[] {0, 0, 0, 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07}));
+
+		// every truncation of a valid vector
+		for (int len = 1; len < v.length; len++) {
+
+			assertEquals(Integer.toString(len), len == 5, VersionVector.isValid(Arrays.copyOf(v, len)));
+		}
+		// a counter overflowing an int or taking more than five bytes
+		assertFalse(VersionVector.isValid(new byte[] {0, 0, 0, 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x08}));
+		assertFalse(VersionVector.isValid(new byte[] {0, 0, 0, 1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0}));
+		// devices out of order, repeated or negative
+		assertFalse(VersionVector.isValid(new byte[] {0, 0, 0, 7, 1, 0, 0, 0, 2, 1}));
+		assertFalse(VersionVector.isValid(new byte[] {0, 0, 0, 7, 1, 0, 0, 0, 7, 1}));
+		assertFalse(VersionVector.isValid(new byte[] {(byte) 0x80, 0, 0, 0, 1}));
+	}
+
+	@Test
+	public void malformedVectorIsRejected() {
+
+		Todo t = new Todo(Long.valueOf(1), "title", "2026-10-05", Integer.valueOf(3), "Open", "description",
+				  Integer.valueOf(2));
+		t.versionVector = vector(2, 1, 7, 300);
+		assertArrayEquals(t.versionVector, readBack(t).versionVector);
+
+		t.versionVector = Arrays.copyOf(t.versionVector, t.versionVector.length - 1);
+		try {
+
+			readBack(t);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	/** Encodes a todo item into a CHUNK_TODO and decodes it again. */
+	private static Todo readBack(Todo t) {
+
+		ByteBuffer b = ByteBuffer.allocate(TodoTlv.sizeOf(t));
+		TodoTlv.put(b, TodoTlv.CHUNK_TODO, t);
+		b.flip();
+		final Todo[] read = new Todo[1];
+		TodoTlv.read(b, new TodoTlv.Visitor() {
+
+			public void visit(byte chunkType, Todo t) {
+
+				read[0] = t;
+			}
+		});
+
+		return read[0];
+	}
+}
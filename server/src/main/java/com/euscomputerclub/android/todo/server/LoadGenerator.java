@@ -0,0 +1,445 @@
+package com.euscomputerclub.android.todo.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class LoadGenerator replays a number of users, each owning several
+ * simulated devices, that edit their todo items and synchronize them with a
+ * sync server. It reports the sync latency percentiles and the server
+ * throughput.
+ *
+ * Every user runs in its own thread and synchronizes its devices one after
+ * another because the server only opens one sync session per user. In every
+ * round, each device applies a number of edits (mixed between new, updated
+ * and deleted items) and then all devices synchronize. With the conflict rate
+ * probability, an update is also applied differently on a sibling device so
+ * that the later sync hits the [A5]/[A6] conflict path.
+ *
+ * With the interrupt rate probability, the link of a device goes down on a
+ * received datagram and the device tries the sync again, resuming the
+ * interrupted session unless resuming is disabled. The bytes that the
+ * devices receive show how much of the transfer the retries repeat.
+ *
+ * Unless pushing is disabled, every device pushes its outbox right after
+ * its edits so that the syncs of the round only carry what the pushes have
+ * not: the edits of conflicting siblings, which the server rejects, and the
+ * items of the other devices.
+ *
+ * Unless notifying is disabled, every device subscribes to the changes of its
+ * user after the initial sync. Once all devices have pushed, each one
+ * coalesces the notifies of the round and pulls the changes at most once, so
+ * that the syncs of the round mostly find both sides equal.
+ *
+ * Usage: java com.euscomputerclub.android.todo.server.LoadGenerator [--option=value ...]
+ * <pre>
+ *   --server=host:port     the server to load (default: an embedded one)
+ *   --users=4              the number of users
+ *   --devices=2            the number of devices per user
+ *   --items=200            the number of todo items per user
+ *   --description-size=64  the size of every description
+ *   --rounds=20            the number of edit-and-sync rounds
+ *   --edits=10             the number of edits per device per round
+ *   --mix=2:6:2            the ratio of new, updated and deleted items
+ *   --conflict-rate=0.1    the probability that an update conflicts
+ *   --loss=0.0             the probability that a datagram is lost
+ *   --seed=1               the seed of the random generators
+ *   --hash-tree=true       whether to compare the hash trees before a sync
+ *   --interrupt-rate=0.0   the probability that the link goes down on a received datagram
+ *   --resume=true          whether an interrupted sync resumes from its checkpoint
+ *   --push=true            whether a device pushes its outbox after its edits
+ *   --notify=true          whether a device pulls the changes notified by the server
+ * </pre>
+ *
+ * @author eus
+ */
+public class LoadGenerator {
+
+	/** The longest wait in millisecond for a notify that has not arrived yet. */
+	static final int NOTIFY_WAIT = 10;
+
+	/** Class User drives all devices of a single user. */
+	protected class User extends Thread {
+
+		final int userId;
+		final SimulatedDevice[] devices;
+		final Random random;
+
+		User(int userId) {
+
+			super("User-" + userId);
+			this.userId = userId;
+			random = new Random(seed + userId);
+			devices = new SimulatedDevice[deviceCount];
+			for (int i = 0; i < deviceCount; i++) {
+
+				devices[i] = new SimulatedDevice(userId, server, loss, interruptRate,
+							 seed * 31 + userId * deviceCount + i,
+							 isHashTreeEnabled, isResumeEnabled);
+			}
+		}
+
+		@Override
+		public void run() {
+
+			try {
+
+				// the first device seeds the server, the others get the data
+				for (int i = 0; i < itemCount; i++) {
+
+					devices[0].createTodo(descriptionSize);
+				}
+				for (SimulatedDevice d : devices) {
+
+					sync(d, initialLatencies);
+					if (isNotifyEnabled && !d.subscribe()) {
+
+						failures.add(new IOException("Subscription of user " + userId + " is refused"));
+					}
+				}
+
+				for (int round = 0; round < rounds; round++) {
+
+					for (int i = 0; i < devices.length; i++) {
+
+						edit(i);
+						if (isPushEnabled && !devices[i].push()) {
+
+							synchronized (LoadGenerator.this) {
+
+								pushFailures++;
+							}
+						}
+					}
+					if (isNotifyEnabled) {
+
+						for (SimulatedDevice d : devices) {
+
+							d.receiveNotifies(NOTIFY_WAIT);
+							d.pullIfDue();
+						}
+					}
+					for (SimulatedDevice d : devices) {
+
+						sync(d, latencies);
+					}
+				}
+			} catch (IOException ioe) {
+
+				System.err.println(getName() + ": " + ioe);
+				failures.add(ioe);
+			}
+
+			for (SimulatedDevice d : devices) {
+
+				d.unsubscribe();
+				synchronized (LoadGenerator.this) {
+
+					conflicts += d.conflicts;
+					remoteDeletions += d.remoteDeletions;
+					localDeletions += d.localDeletions;
+					packetsSent += d.packetsSent;
+					bytesSent += d.bytesSent;
+					pushBytes += d.pushBytes;
+					appliedOps += d.pusher.appliedOps;
+					rejectedOps += d.pusher.rejectedOps;
+					bytesDownloaded += d.bytesDownloaded;
+					bytesUploaded += d.bytesUploaded;
+					bytesReceived += d.bytesReceived;
+					interruptions += d.interruptions;
+					notifies += d.coalescer.getNotifies();
+					pulls += d.coalescer.getPulls();
+					deferredPulls += d.deferredPulls;
+					pulledItems += d.puller.pulledItems;
+					updatedItems += d.puller.updatedItems;
+					deferredItems += d.puller.deferredItems;
+					pullBytes += d.pullBytes;
+				}
+			}
+		}
+
+		/** Applies the edits of a round to a device. */
+		protected void edit(int deviceIndex) {
+
+			SimulatedDevice d = devices[deviceIndex];
+
+			for (int e = 0; e < editCount; e++) {
+
+				int op = random.nextInt(mix[0] + mix[1] + mix[2]);
+				if (op < mix[0]) {
+
+					d.createTodo(descriptionSize);
+					continue;
+				}
+
+				long id = d.randomId();
+				if (id == -1) {
+
+					continue;
+				}
+				if (op < mix[0] + mix[1]) {
+
+					d.updateTodo(id, descriptionSize);
+					if (devices.length > 1 && random.nextDouble() < conflictRate) {
+
+						int sibling = (deviceIndex + 1 + random.nextInt(devices.length - 1)) % devices.length;
+						devices[sibling].updateTodo(id, descriptionSize);
+					}
+				} else {
+
+					d.deleteTodo(id);
+				}
+			}
+		}
+
+		/** Synchronizes a device and records the latency. */
+		protected void sync(SimulatedDevice d, List<Long> record) throws IOException {
+
+			long start = System.nanoTime();
+			if (d.sync()) {
+
+				record.add(Long.valueOf(System.nanoTime() - start));
+			} else {
+
+				failures.add(new IOException("Registration of user " + userId + " is refused"));
+			}
+		}
+	}
+
+	protected SocketAddress server;
+	protected int userCount = 4;
+	protected int deviceCount = 2;
+	protected int itemCount = 200;
+	protected int descriptionSize = 64;
+	protected int rounds = 20;
+	protected int editCount = 10;
+	protected int[] mix = {2, 6, 2};
+	protected double conflictRate = 0.1;
+	protected double loss;
+	protected long seed = 1;
+	protected boolean isHashTreeEnabled = true;
+	protected double interruptRate;
+	protected boolean isResumeEnabled = true;
+	protected boolean isPushEnabled = true;
+	protected boolean isNotifyEnabled = true;
+
+	/** The latencies of the initial syncs in nanosecond. */
+	protected final List<Long> initialLatencies = Collections.synchronizedList(new ArrayList<Long>());
+	/** The latencies of the syncs after edits in nanosecond. */
+	protected final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+	/** The failed syncs. */
+	protected final List<IOException> failures = Collections.synchronizedList(new ArrayList<IOException>());
+	protected int conflicts;
+	protected int remoteDeletions;
+	protected int localDeletions;
+	protected long packetsSent;
+	protected long bytesSent;
+	protected long pushBytes;
+	protected int appliedOps;
+	protected int rejectedOps;
+	protected int pushFailures;
+	protected long bytesDownloaded;
+	protected long bytesUploaded;
+	protected long bytesReceived;
+	protected int interruptions;
+	protected int notifies;
+	protected int pulls;
+	protected int deferredPulls;
+	protected int pulledItems;
+	protected int updatedItems;
+	protected int deferredItems;
+	protected long pullBytes;
+
+	/** Parses a command line option of the form --name=value. */
+	protected void parse(String arg) {
+
+		int eq = arg.indexOf('=');
+		if (!arg.startsWith("--") || eq == -1) {
+
+			throw new IllegalArgumentException("Invalid option: " + arg);
+		}
+		String name = arg.substring(2, eq);
+		String value = arg.substring(eq + 1);
+
+		if (name.equals("server")) {
+
+			int colon = value.lastIndexOf(':');
+			server = new InetSocketAddress(value.substring(0, colon), Integer.parseInt(value.substring(colon + 1)));
+		} else if (name.equals("users")) {
+
+			userCount = Integer.parseInt(value);
+		} else if (name.equals("devices")) {
+
+			deviceCount = Integer.parseInt(value);
+		} else if (name.equals("items")) {
+
+			itemCount = Integer.parseInt(value);
+		} else if (name.equals("description-size")) {
+
+			descriptionSize = Integer.parseInt(value);
+		} else if (name.equals("rounds")) {
+
+			rounds = Integer.parseInt(value);
+		} else if (name.equals("edits")) {
+
+			editCount = Integer.parseInt(value);
+		} else if (name.equals("mix")) {
+
+			String[] parts = value.split(":");
+			if (parts.length != 3) {
+
+				throw new IllegalArgumentException("--mix must be new:updated:deleted");
+			}
+			for (int i = 0; i < 3; i++) {
+
+				mix[i] = Integer.parseInt(parts[i]);
+			}
+		} else if (name.equals("conflict-rate")) {
+
+			conflictRate = Double.parseDouble(value);
+		} else if (name.equals("loss")) {
+
+			loss = Double.parseDouble(value);
+		} else if (name.equals("seed")) {
+
+			seed = Long.parseLong(value);
+		} else if (name.equals("hash-tree")) {
+
+			isHashTreeEnabled = Boolean.parseBoolean(value);
+		} else if (name.equals("interrupt-rate")) {
+
+			interruptRate = Double.parseDouble(value);
+		} else if (name.equals("resume")) {
+
+			isResumeEnabled = Boolean.parseBoolean(value);
+		} else if (name.equals("push")) {
+
+			isPushEnabled = Boolean.parseBoolean(value);
+		} else if (name.equals("notify")) {
+
+			isNotifyEnabled = Boolean.parseBoolean(value);
+		} else {
+
+			throw new IllegalArgumentException("Unknown option: " + name);
+		}
+	}
+
+	/** Returns the given percentile of sorted latencies in millisecond. */
+	protected static double percentile(long[] sorted, double p) {
+
+		if (sorted.length == 0) {
+
+			return Double.NaN;
+		}
+		int i = (int) Math.ceil(p / 100 * sorted.length) - 1;
+
+		return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1e6;
+	}
+
+	protected static long[] sorted(List<Long> l) {
+
+		long[] a;
+		synchronized (l) {
+
+			a = new long[l.size()];
+			for (int i = 0; i < a.length; i++) {
+
+				a[i] = l.get(i).longValue();
+			}
+		}
+		Arrays.sort(a);
+
+		return a;
+	}
+
+	protected static void printLatencies(String label, long[] a) {
+
+		System.out.printf("%s: %d syncs, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+				  label, a.length, percentile(a, 50), percentile(a, 99), percentile(a, 100));
+	}
+
+	public void run() throws Exception {
+
+		TodoSyncServer embedded = null;
+		if (server == null) {
+
+			embedded = new TodoSyncServer(0, userCount);
+			embedded.start();
+			server = embedded.getAddress();
+		}
+
+		User[] users = new User[userCount];
+		for (int i = 0; i < userCount; i++) {
+
+			users[i] = new User(i);
+		}
+		long start = System.nanoTime();
+		for (User u : users) {
+
+			u.start();
+		}
+		for (User u : users) {
+
+			u.join();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		long[] initial = sorted(initialLatencies);
+		long[] steady = sorted(latencies);
+
+		System.out.printf("users=%d devices=%d items=%d description-size=%d rounds=%d edits=%d mix=%d:%d:%d conflict-rate=%.2f loss=%.2f hash-tree=%b interrupt-rate=%.3f resume=%b push=%b notify=%b%n",
+				  userCount, deviceCount, itemCount, descriptionSize, rounds, editCount,
+				  mix[0], mix[1], mix[2], conflictRate, loss, isHashTreeEnabled,
+				  interruptRate, isResumeEnabled, isPushEnabled, isNotifyEnabled);
+		printLatencies("initial", initial);
+		printLatencies("steady", steady);
+		System.out.printf("total: %d syncs, %d failed, %.2f s, %.1f syncs/s%n",
+				  initial.length + steady.length, failures.size(), elapsed,
+				  (initial.length + steady.length) / elapsed);
+		System.out.printf("resolutions: %d conflicts, %d remote deletions, %d local deletions%n",
+				  conflicts, remoteDeletions, localDeletions);
+		System.out.printf("client: %d packets sent, %d bytes sent, %d bytes received, %d bytes downloaded, %d bytes uploaded, %d interruptions%n",
+				  packetsSent, bytesSent, bytesReceived, bytesDownloaded, bytesUploaded, interruptions);
+		if (isPushEnabled) {
+
+			System.out.printf("push: %d ops applied, %d rejected, %d bytes sent, %.1f bytes/op, %d failed%n",
+					  appliedOps, rejectedOps, pushBytes,
+					  (double) pushBytes / Math.max(1, appliedOps + rejectedOps), pushFailures);
+		}
+		if (isNotifyEnabled) {
+
+			System.out.printf("notify: %d notifies, %d pulls, %d items pulled, %d as updates, %d deferred, %d bytes, %d needing a sync%n",
+					  notifies, pulls, pulledItems, updatedItems, deferredItems, pullBytes, deferredPulls);
+		}
+		if (embedded != null) {
+
+			System.out.printf("server: %d packets in, %d packets out, %d bytes in, %d bytes out, %.1f packets/s, %.1f KiB/s out, %d syncs completed, %d resumed%n",
+					  embedded.packetsIn.get(), embedded.packetsOut.get(),
+					  embedded.bytesIn.get(), embedded.bytesOut.get(),
+					  (embedded.packetsIn.get() + embedded.packetsOut.get()) / elapsed,
+					  embedded.bytesOut.get() / 1024.0 / elapsed,
+					  embedded.completedSyncs.get(), embedded.resumedSessions.get());
+			long[] sizes = embedded.getChunkSizes();
+			System.out.printf("metadata: %d items, %d chunk bytes, %d version vector bytes, %.1f bytes/item, %.1f%% of the chunks%n",
+					  sizes[0], sizes[1], sizes[2], (double) sizes[2] / Math.max(1, sizes[0]),
+					  100.0 * sizes[2] / Math.max(1, sizes[1]));
+			embedded.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		LoadGenerator g = new LoadGenerator();
+		for (String arg : args) {
+
+			g.parse(arg);
+		}
+		g.run();
+	}
+}
@@ -0,0 +1,449 @@
+package com.euscomputerclub.android.todo.server;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.Random;
+
+import com.euscomputerclub.android.todo.core.ChangePuller;
+import com.euscomputerclub.android.todo.core.ConflictResolution;
+import com.euscomputerclub.android.todo.core.ConflictResolver;
+import com.euscomputerclub.android.todo.core.MemoryTodoStore;
+import com.euscomputerclub.android.todo.core.NotifyCoalescer;
+import com.euscomputerclub.android.todo.core.OutboxPusher;
+import com.euscomputerclub.android.todo.core.SyncEngine;
+import com.euscomputerclub.android.todo.core.Todo;
+import com.euscomputerclub.android.todo.core.TodoSchema;
+import com.euscomputerclub.android.todo.core.TodoSyncCommunication;
+
+/**
+ * Class SimulatedDevice plays the role of one Android device of a user. It
+ * runs the same SyncEngine and TodoSyncCommunication as the application on
+ * top of a MemoryTodoStore, with conflicts resolved by a coin toss instead
+ * of the user.
+ *
+ * Outgoing and incoming datagrams are dropped with a configurable
+ * probability to emulate a lossy link. The link may also go down on a
+ * received datagram with another probability, which aborts the sync like a
+ * dying worker thread does, and the sync is then retried from the same
+ * local port like the application does. So is a sync whose fragment is
+ * lost more than MAX_FRAGMENT_RETRY times.
+ *
+ * Between the syncs, a device may push the edits in its outbox with the
+ * same OutboxPusher as the application. A device may also subscribe to the
+ * changes of its user on a separate socket and pull them with the same
+ * ChangePuller as the application once the notifies have been coalesced.
+ *
+ * @author eus
+ */
+class SimulatedDevice implements ConflictResolver {
+
+	/** Class LinkDownException aborts a sync when the link goes down. */
+	protected static class LinkDownException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		LinkDownException() {
+
+			super("Link down");
+		}
+	}
+
+	/**
+	 * Class LossyCommunication drops datagrams at random and counts the
+	 * sent and received ones.
+	 */
+	protected class LossyCommunication extends TodoSyncCommunication {
+
+		LossyCommunication() throws SocketException {
+
+			super(server, localPort);
+			localPort = sock.getLocalPort();
+		}
+
+		/** Constructs a communication on a given port, e.g. 0 for an ephemeral one. */
+		LossyCommunication(int port) throws SocketException {
+
+			super(server, port);
+		}
+
+		/** Closes the socket even if the sync has been aborted. */
+		void closeSocket() {
+
+			sock.close();
+		}
+
+		@Override
+		protected void send(DatagramPacket d) throws IOException {
+
+			packetsSent++;
+			bytesSent += d.getLength();
+			if (random.nextDouble() >= loss) {
+
+				super.send(d);
+			}
+		}
+
+		@Override
+		protected void receive(DatagramPacket d) throws IOException {
+
+			super.receive(d);
+			bytesReceived += d.getLength();
+			if (interruptRate > 0 && random.nextDouble() < interruptRate) {
+
+				throw new LinkDownException();
+			}
+			if (random.nextDouble() < loss) {
+
+				Arrays.fill(d.getData(), (byte) 0);
+				throw new SocketTimeoutException("Dropped");
+			}
+		}
+	}
+
+	/** The statuses a todo item can have. */
+	static final String[] STATUS_VALUES = {"Open", "Closed", "In progress"};
+	/** The number of times a sync is tried before giving up. */
+	static final int MAX_SYNC_ATTEMPTS = 100;
+
+	/** The user owning this device. */
+	final int userId;
+	/** The address of the sync server. */
+	final SocketAddress server;
+	/** The probability of dropping a datagram. */
+	final double loss;
+	/** The probability that the link goes down on a received datagram. */
+	final double interruptRate;
+	/** The random generator of this device. */
+	final Random random;
+	/** The local todo items. */
+	final MemoryTodoStore db;
+	/** The sync engine of this device. */
+	final SyncEngine engine;
+	/** The pusher of the outbox of this device. */
+	final OutboxPusher pusher;
+	/** The puller of the changes of the other devices. */
+	final ChangePuller puller;
+	/** The coalescer of the notifies received by the subscription. */
+	final NotifyCoalescer coalescer = new NotifyCoalescer(0);
+	/** The communication receiving the notifies or null before subscribe(). */
+	LossyCommunication subscription;
+	/** The local port of the last sync or 0 before the first one. */
+	int localPort;
+
+	/** The number of [A5]/[A6] conflicts encountered so far. */
+	int conflicts;
+	/** The number of [A7]/[A8] remote deletions encountered so far. */
+	int remoteDeletions;
+	/** The number of [A12]/[A13] local deletions encountered so far. */
+	int localDeletions;
+	/** The number of datagrams sent so far including retransmissions. */
+	int packetsSent;
+	/** The number of bytes sent in all datagrams including the dropped ones. */
+	long bytesSent;
+	/** The number of bytes sent in push packets including the dropped ones. */
+	long pushBytes;
+	/** The number of bytes received in server-to-client data packets. */
+	long bytesDownloaded;
+	/** The number of bytes sent in client-to-server data packets. */
+	long bytesUploaded;
+	/** The number of bytes received in all datagrams including the dropped ones. */
+	long bytesReceived;
+	/** The number of syncs aborted by the link going down. */
+	int interruptions;
+	/** The number of bytes sent and received by pulls including the dropped ones. */
+	long pullBytes;
+	/** The number of pulls that have left some changes to the next sync. */
+	int deferredPulls;
+
+	SimulatedDevice(int userId, SocketAddress server, double loss, double interruptRate, long seed,
+			boolean isHashTreeEnabled, boolean isResumeEnabled) {
+
+		this.userId = userId;
+		this.server = server;
+		this.loss = loss;
+		this.interruptRate = interruptRate;
+		random = new Random(seed);
+		db = new MemoryTodoStore(TodoSchema.newIdPrefix(random));
+		engine = new SyncEngine(db, this);
+		engine.setHashTreeEnabled(isHashTreeEnabled);
+		engine.setResumeEnabled(isResumeEnabled);
+		pusher = new OutboxPusher(db);
+		puller = new ChangePuller(db);
+	}
+
+	/** Returns a random description of the given size. */
+	String randomText(int size) {
+
+		char[] c = new char[size];
+		for (int i = 0; i < size; i++) {
+
+			c[i] = (char) ('a' + random.nextInt(26));
+		}
+
+		return new String(c);
+	}
+
+	/** Returns a random deadline string. */
+	String randomDeadline() {
+
+		return String.format("%04d-%02d-%02d", 2010 + random.nextInt(10),
+				     1 + random.nextInt(12), 1 + random.nextInt(28));
+	}
+
+	/** Creates a new todo item. */
+	void createTodo(int descriptionSize) {
+
+		db.createTodo("todo " + random.nextInt(Integer.MAX_VALUE), randomDeadline(),
+			      1 + random.nextInt(5),
+			      STATUS_VALUES[random.nextInt(STATUS_VALUES.length)],
+			      randomText(descriptionSize));
+	}
+
+	/** Updates a single field of a todo item. */
+	void updateTodo(long id, int descriptionSize) {
+
+		switch (random.nextInt(3)) {
+		case 0:
+			db.updateTodo(id, null, null, null,
+				      STATUS_VALUES[random.nextInt(STATUS_VALUES.length)], null);
+			break;
+		case 1:
+			db.updateTodo(id, null, null, Integer.valueOf(1 + random.nextInt(5)), null, null);
+			break;
+		default:
+			db.updateTodo(id, null, null, null, null, randomText(descriptionSize));
+		}
+	}
+
+	/** Deletes a todo item. */
+	void deleteTodo(long id) {
+
+		db.deleteTodo(id);
+	}
+
+	/** Returns the ID of a random visible todo item or -1 if there is none. */
+	long randomId() {
+
+		NavigableSet<Long> ids = db.getTodoIds();
+		if (ids.isEmpty()) {
+
+			return -1;
+		}
+		// the IDs of the devices are far apart so that they are picked by index
+		Iterator<Long> i = ids.iterator();
+		for (int n = random.nextInt(ids.size()); n > 0; n--) {
+
+			i.next();
+		}
+		long id = i.next().longValue();
+
+		return db.isLocalDeleted(id) ? -1 : id;
+	}
+
+	/**
+	 * Pushes the outbox trying again whenever the link goes down.
+	 *
+	 * @return false if the server is busy or does not respond.
+	 */
+	boolean push() throws IOException {
+
+		for (int attempt = 1; ; attempt++) {
+
+			long sent = bytesSent;
+			LossyCommunication comm = new LossyCommunication();
+			try {
+
+				return pusher.push(comm, userId);
+			} catch (LinkDownException lde) {
+
+				interruptions++;
+				if (attempt == MAX_SYNC_ATTEMPTS) {
+
+					throw lde;
+				}
+			} finally {
+
+				comm.closeSocket();
+				pushBytes += bytesSent - sent;
+			}
+		}
+	}
+
+	/**
+	 * Subscribes to the notifies of the user trying again whenever the
+	 * link goes down.
+	 *
+	 * @return false if the server does not respond.
+	 */
+	boolean subscribe() throws IOException {
+
+		for (int attempt = 1; ; attempt++) {
+
+			if (subscription == null) {
+
+				subscription = new LossyCommunication(0);
+			}
+			try {
+
+				return subscription.subscribe(userId, db.getIdPrefix()) != -1;
+			} catch (LinkDownException lde) {
+
+				interruptions++;
+				if (attempt == MAX_SYNC_ATTEMPTS) {
+
+					throw lde;
+				}
+			}
+		}
+	}
+
+	/** Closes the subscription socket if any. */
+	void unsubscribe() {
+
+		if (subscription != null) {
+
+			subscription.closeSocket();
+		}
+	}
+
+	/**
+	 * Passes the notifies that have arrived to the coalescer.
+	 *
+	 * @param timeout the longest wait for a notify in millisecond
+	 */
+	void receiveNotifies(int timeout) throws IOException {
+
+		for (;;) {
+
+			long watermark;
+			try {
+
+				watermark = subscription.receiveNotify(timeout);
+			} catch (LinkDownException lde) {
+
+				// the notify is lost
+				continue;
+			}
+			if (watermark == -1) {
+
+				break;
+			}
+			coalescer.noteNotify(System.currentTimeMillis(), watermark);
+		}
+	}
+
+	/**
+	 * Pulls the changes if the coalesced notifies have made a pull due,
+	 * trying again whenever the link goes down.
+	 */
+	void pullIfDue() throws IOException {
+
+		if (coalescer.getDueTime() == NotifyCoalescer.NEVER) {
+
+			return;
+		}
+		coalescer.pullStarted();
+
+		boolean isPulled;
+		for (int attempt = 1; ; attempt++) {
+
+			long sent = bytesSent;
+			long received = bytesReceived;
+			LossyCommunication comm = new LossyCommunication(0);
+			try {
+
+				isPulled = puller.pull(comm, userId);
+				break;
+			} catch (LinkDownException lde) {
+
+				interruptions++;
+				if (attempt == MAX_SYNC_ATTEMPTS) {
+
+					throw lde;
+				}
+			} finally {
+
+				comm.closeSocket();
+				pullBytes += bytesSent - sent + bytesReceived - received;
+			}
+		}
+		if (!isPulled) {
+
+			deferredPulls++;
+		}
+		coalescer.pullFinished(System.currentTimeMillis(), isPulled, db.getPullWatermark());
+	}
+
+	/**
+	 * Performs a complete sync with the server trying again whenever the
+	 * link goes down or a fragment is given up.
+	 *
+	 * @return false if the server refuses the registration.
+	 */
+	boolean sync() throws IOException {
+
+		for (int attempt = 1; ; attempt++) {
+
+			LossyCommunication comm = new LossyCommunication();
+			try {
+
+				if (!engine.synchronize(comm, userId)) {
+
+					return false;
+				}
+				break;
+			} catch (IOException ioe) {
+
+				interruptions++;
+				if (attempt == MAX_SYNC_ATTEMPTS) {
+
+					throw ioe;
+				}
+			} finally {
+
+				comm.closeSocket();
+			}
+		}
+		coalescer.setKnown(db.getPullWatermark());
+		bytesDownloaded += engine.processTodosTotalBytes;
+		if (engine.syncBuckets != 0) {
+
+			bytesUploaded += engine.createDataTotalBytes + 1;
+		}
+
+		return true;
+	}
+
+	public ConflictResolution resolveTwoItemsConflict(Todo localTodo, Todo remoteTodo) {
+
+		conflicts++;
+
+		return pick();
+	}
+
+	public ConflictResolution resolveRemoteDeletion(Todo localTodo) {
+
+		remoteDeletions++;
+
+		return pick();
+	}
+
+	public ConflictResolution resolveLocalDeletion(Todo remoteTodo) {
+
+		localDeletions++;
+
+		return pick();
+	}
+
+	/** Resolves a conflict by a coin toss. */
+	protected ConflictResolution pick() {
+
+		return random.nextBoolean() ? ConflictResolution.PICK_LOCAL : ConflictResolution.PICK_REMOTE;
+	}
+}
@@ -0,0 +1,803 @@
+package com.euscomputerclub.android.todo.server;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.euscomputerclub.android.todo.core.HashTree;
+import com.euscomputerclub.android.todo.core.Todo;
+import com.euscomputerclub.android.todo.core.TodoSyncCommunication;
+import com.euscomputerclub.android.todo.core.TodoTlv;
+
+/**
+ * Class TodoSyncServer is a headless stand-in for the synchronization server
+ * that the client in TodoSyncCommunication talks to. It implements the four
+ * protocol phases (REGISTER, server-to-client sync, client-to-server sync and
+ * RESET) over UDP and keeps the todo items of every user in memory. Before
+ * the server-to-client sync, a client may compare its HashTree with that of
+ * the server and request only the buckets that differ.
+ *
+ * Every request is answered statelessly with respect to retransmissions: a
+ * repeated request gets the same answer again, and a repeated client-to-server
+ * data packet is acknowledged without being applied twice.
+ *
+ * Every session has a random token that the client gets with the
+ * registration acknowledgement. The data of a session are transferred in
+ * fragments, and a client that registers again with the token of a live
+ * session, possibly from another address, resumes that session: the
+ * server-to-client data are served from the same snapshot and the
+ * client-to-server data continue from the bytes already received.
+ *
+ * Outside of a session, a client may push the operations of its outbox,
+ * which UserStore applies at most once. A push is refused as busy while the
+ * user is synchronizing because the client-to-server data of the sync are
+ * applied without checking the revisions.
+ *
+ * A client may also subscribe to the changes of a user. Whenever a sync or
+ * a push changes the todo items, every subscriber but the pushing device
+ * gets a notify packet with the new watermark of the user, after which it
+ * pulls the items changed after its own watermark. Pulls need no session,
+ * and a subscription expires unless it is renewed within
+ * SUBSCRIPTION_TIMEOUT.
+ *
+ * Usage: java com.euscomputerclub.android.todo.server.TodoSyncServer [port [maxUsers]]
+ *
+ * @author eus
+ */
+public class TodoSyncServer implements Runnable {
+
+	/** The port the emulator reaches through 10.0.2.2. */
+	public static final int DEFAULT_PORT = 50001;
+	/** The number of users the server maintains as per the assignment. */
+	public static final int DEFAULT_MAX_USERS = 10;
+	/** The idle time in millisecond after which a sync session is dropped. */
+	public static final long SESSION_TIMEOUT = 5 * 60 * 1000;
+
+	/**
+	 * Class Session tracks a sync session of a user registered from a
+	 * particular socket address.
+	 */
+	protected static class Session {
+
+		/** The user being synchronized. */
+		final UserStore store;
+		/** The token with which the client can resume this session. */
+		final long token;
+		/** The address of the client, which changes when the session is resumed from another one. */
+		SocketAddress address;
+		/** The server-to-client data snapshot for retransmissions. */
+		byte[] serverClientData;
+		/** The expected length of the client-to-server data packet. */
+		int clientServerDataLen = -1;
+		/** The client-to-server data received in fragments so far without the packet type. */
+		byte[] clientServerData;
+		/** The number of bytes of clientServerData received in order. */
+		int clientServerDataReceived;
+		/** Whether the client-to-server data have been applied. */
+		boolean isClientServerDataApplied;
+		/** The last time a packet is received in this session. */
+		long lastSeen;
+
+		Session(UserStore store, SocketAddress address, long token) {
+
+			this.store = store;
+			this.address = address;
+			this.token = token;
+		}
+	}
+
+	/** Class Subscriber is a subscription to the notify packets of a user. */
+	protected static class Subscriber {
+
+		/** The device whose own pushes are not notified. */
+		final long deviceId;
+		/** The last time the subscription is renewed. */
+		long lastSeen;
+
+		Subscriber(long deviceId, long lastSeen) {
+
+			this.deviceId = deviceId;
+			this.lastSeen = lastSeen;
+		}
+	}
+
+	/** The server socket. */
+	protected final DatagramSocket sock;
+	/** The maximum number of maintained users. */
+	protected final int maxUsers;
+	/** The todo stores keyed by user ID. */
+	protected final Map<Integer, UserStore> users = new HashMap<Integer, UserStore>();
+	/** The open sessions keyed by client address. */
+	protected final Map<SocketAddress, Session> sessions = new HashMap<SocketAddress, Session>();
+	/** The open sessions keyed by token. */
+	protected final Map<Long, Session> tokens = new HashMap<Long, Session>();
+	/** The subscribers of every user keyed by user ID and address. */
+	protected final Map<Integer, Map<SocketAddress, Subscriber>> subscribers = new HashMap<Integer, Map<SocketAddress, Subscriber>>();
+	/** The generator of the session tokens. */
+	protected final SecureRandom random = new SecureRandom();
+	/** The logger of the server. */
+	protected final Logger log = Logger.getLogger(TodoSyncServer.class.getName());
+	/** The thread running the receive loop. */
+	protected Thread thread;
+
+	/** The number of received datagrams. */
+	public final AtomicLong packetsIn = new AtomicLong();
+	/** The number of sent datagrams. */
+	public final AtomicLong packetsOut = new AtomicLong();
+	/** The number of received bytes. */
+	public final AtomicLong bytesIn = new AtomicLong();
+	/** The number of sent bytes. */
+	public final AtomicLong bytesOut = new AtomicLong();
+	/** The number of sessions that have been closed with RESET. */
+	public final AtomicLong completedSyncs = new AtomicLong();
+	/** The number of registrations that have been refused. */
+	public final AtomicLong refusedRegistrations = new AtomicLong();
+	/** The number of sessions that have been resumed. */
+	public final AtomicLong resumedSessions = new AtomicLong();
+	/** The number of push packets that have been processed. */
+	public final AtomicLong pushes = new AtomicLong();
+	/** The number of push packets that have been refused as busy. */
+	public final AtomicLong busyPushes = new AtomicLong();
+	/** The number of pushed operations that have been rejected. */
+	public final AtomicLong rejectedPushOps = new AtomicLong();
+	/** The number of notify packets that have been sent. */
+	public final AtomicLong notifies = new AtomicLong();
+	/** The number of pull packets that have been answered. */
+	public final AtomicLong pulls = new AtomicLong();
+	/** The number of pull packets that have been answered as too old. */
+	public final AtomicLong tooOldPulls = new AtomicLong();
+
+	/**
+	 * Constructs a server listening on the given port.
+	 *
+	 * @param port the UDP port to listen on (0 picks an ephemeral one)
+	 * @param maxUsers the maximum number of users to maintain
+	 */
+	public TodoSyncServer(int port, int maxUsers) throws SocketException {
+
+		sock = new DatagramSocket(port);
+		this.maxUsers = maxUsers;
+	}
+
+	/** Returns the address the server is listening on. */
+	public InetSocketAddress getAddress() {
+
+		return new InetSocketAddress("127.0.0.1", sock.getLocalPort());
+	}
+
+	/** Starts serving in a background thread. */
+	public synchronized void start() {
+
+		thread = new Thread(this, "TodoSyncServer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Stops serving and closes the socket. */
+	public void close() {
+
+		sock.close();
+		if (thread != null) {
+
+			try {
+
+				thread.join();
+			} catch (InterruptedException ie) {
+
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Seeds the store of a user with a todo item bypassing the protocol.
+	 *
+	 * @return false if the user cannot be maintained anymore.
+	 */
+	public boolean seed(int userId, long id, String title, String deadline,
+			    int priority, String status, String description, int revision) {
+
+		UserStore store = getUserStore(userId);
+		if (store == null) {
+
+			return false;
+		}
+		store.put(new Todo(Long.valueOf(id), title, deadline, Integer.valueOf(priority),
+				   status, description, Integer.valueOf(revision)));
+
+		return true;
+	}
+
+	/** Returns the number of todo items stored for a user. */
+	public int size(int userId) {
+
+		UserStore store;
+		synchronized (users) {
+
+			store = users.get(Integer.valueOf(userId));
+		}
+
+		return store == null ? 0 : store.size();
+	}
+
+	/**
+	 * Returns the number of todo items of all users, the number of bytes
+	 * of their CHUNK_TODO chunks and the number of bytes of their version
+	 * vector fields.
+	 */
+	public long[] getChunkSizes() {
+
+		long[] sizes = new long[3];
+		synchronized (users) {
+
+			for (UserStore store : users.values()) {
+
+				long[] s = store.getChunkSizes();
+				sizes[0] += store.size();
+				sizes[1] += s[0];
+				sizes[2] += s[1];
+			}
+		}
+
+		return sizes;
+	}
+
+	public void run() {
+
+		byte[] buf = new byte[TodoSyncCommunication.MAX_DATAGRAM_LEN];
+		DatagramPacket d = new DatagramPacket(buf, buf.length);
+
+		while (!sock.isClosed()) {
+
+			try {
+
+				d.setLength(buf.length);
+				sock.receive(d);
+				packetsIn.incrementAndGet();
+				bytesIn.addAndGet(d.getLength());
+
+				handle(d.getSocketAddress(), ByteBuffer.wrap(buf, 0, d.getLength()));
+			} catch (SocketException se) {
+
+				// the socket is closed
+			} catch (IOException ioe) {
+
+				log.log(Level.WARNING, "Cannot receive", ioe);
+			} catch (RuntimeException re) {
+
+				log.log(Level.WARNING, "Dropping bad packet from " + d.getSocketAddress(), re);
+			}
+		}
+	}
+
+	/** Dispatches a received packet according to its type. */
+	protected void handle(SocketAddress from, ByteBuffer b) throws IOException {
+
+		byte type = b.get();
+		long now = System.currentTimeMillis();
+
+		if (type == TodoSyncCommunication.REGISTER_TYPE) {
+
+			handleRegister(from, b.getInt(), b.limit() >= 16 ? b.getLong(8) : 0, now);
+			return;
+		}
+		if (type == TodoSyncCommunication.RESET_TYPE) {
+
+			// Acknowledge even unknown sessions because the previous
+			// acknowledgement may have been lost, in which case the
+			// watermark is 0.
+			Session s = sessions.get(from);
+			ByteBuffer resp = ByteBuffer.allocate(TodoSyncCommunication.RESET_ACK_LEN);
+			resp.put(TodoSyncCommunication.RESET_ACK_TYPE);
+			if (s != null) {
+
+				resp.putLong(8, s.store.getWatermark());
+			}
+			if (removeSession(s)) {
+
+				completedSyncs.incrementAndGet();
+			}
+			send(from, resp.array());
+			return;
+		}
+		if (type == TodoSyncCommunication.PUSH_TYPE) {
+
+			handlePush(from, b, now);
+			return;
+		}
+		if (type == TodoSyncCommunication.SUBSCRIBE_TYPE) {
+
+			handleSubscribe(from, b.getInt(4), b.getLong(8), now);
+			return;
+		}
+		if (type == TodoSyncCommunication.PULL_TYPE) {
+
+			handlePull(from, b.getInt(4), b.getLong(8),
+				   (b.get(1) & TodoSyncCommunication.PULL_UPDATES) != 0);
+			return;
+		}
+
+		Session s = sessions.get(from);
+		if (s == null) {
+
+			return;
+		}
+		s.lastSeen = now;
+
+		switch (type) {
+		case TodoSyncCommunication.HASH_TREE_TYPE:
+			handleHashTree(s, b.getLong(8));
+			break;
+		case TodoSyncCommunication.SERVER_CLIENT_SYNC_TYPE:
+		case TodoSyncCommunication.BUCKET_SYNC_TYPE:
+			if (s.serverClientData == null) {
+
+				byte[] bucketSet = null;
+				if (type == TodoSyncCommunication.BUCKET_SYNC_TYPE) {
+
+					bucketSet = new byte[HashTree.BUCKET_SET_LEN];
+					b.position(8);
+					b.get(bucketSet);
+				}
+				s.serverClientData = s.store.createServerClientData(bucketSet);
+			}
+			ByteBuffer resp = ByteBuffer.allocate(TodoSyncCommunication.SERVER_CLIENT_RESP_LEN);
+			resp.put(TodoSyncCommunication.SERVER_CLIENT_RESP_TYPE);
+			resp.putInt(s.serverClientData.length);
+			send(from, resp.array());
+			break;
+		case TodoSyncCommunication.SERVER_CLIENT_RESP_ACK_TYPE:
+			if (s.serverClientData != null) {
+
+				send(from, s.serverClientData);
+			}
+			break;
+		case TodoSyncCommunication.SERVER_CLIENT_FRAGMENT_SYNC_TYPE:
+			handleServerClientFragment(s, b.getInt(4));
+			break;
+		case TodoSyncCommunication.CLIENT_SERVER_SYNC_TYPE:
+			int len = b.getInt();
+			if (len != s.clientServerDataLen) {
+
+				s.clientServerDataLen = len;
+				s.clientServerData = null;
+				s.clientServerDataReceived = 0;
+			}
+			resp = ByteBuffer.allocate(TodoSyncCommunication.CLIENT_SERVER_RESP_LEN);
+			resp.put(TodoSyncCommunication.CLIENT_SERVER_RESP_TYPE);
+			resp.putInt(4, getClientServerDataReceived(s));
+			send(from, resp.array());
+			break;
+		case TodoSyncCommunication.CLIENT_SERVER_FRAGMENT_TYPE:
+			handleClientServerFragment(s, b);
+			break;
+		case TodoSyncCommunication.CLIENT_SERVER_DATA_TYPE:
+			if (!s.isClientServerDataApplied) {
+
+				if (s.clientServerDataLen != -1 && s.clientServerDataLen != b.limit()) {
+
+					log.warning("Expecting " + s.clientServerDataLen
+						    + " bytes of client-server data but got " + b.limit());
+					return;
+				}
+				s.store.applyClientServerData(b);
+				s.isClientServerDataApplied = true;
+				notify(s.store, 0, now);
+			}
+			reply(from, TodoSyncCommunication.CLIENT_SERVER_RESP_ACK_TYPE, TodoSyncCommunication.CLIENT_SERVER_RESP_ACK_LEN);
+			break;
+		default:
+			log.warning("Unknown packet type " + type + " from " + from);
+		}
+	}
+
+	/**
+	 * Sends the fragment of the server-to-client data that starts at an
+	 * offset. A fragment ends at a chunk boundary and holds as many chunks
+	 * as fit in MAX_FRAGMENT_LEN but at least one.
+	 */
+	protected void handleServerClientFragment(Session s, int offset) throws IOException {
+
+		byte[] data = s.serverClientData;
+		// the offsets leave out the type of the data packet
+		if (data == null || offset < 0 || offset >= data.length - 1) {
+
+			return;
+		}
+
+		ByteBuffer chunks = ByteBuffer.wrap(data);
+		int start = 1 + offset;
+		int end = start + TodoTlv.chunkSize(chunks, start);
+		while (end < data.length
+		       && end + TodoTlv.chunkSize(chunks, end) - start <= TodoSyncCommunication.MAX_FRAGMENT_LEN) {
+
+			end += TodoTlv.chunkSize(chunks, end);
+		}
+
+		ByteBuffer resp = ByteBuffer.allocate(TodoSyncCommunication.FRAGMENT_HEADER_LEN + end - start);
+		resp.put(TodoSyncCommunication.SERVER_CLIENT_FRAGMENT_TYPE);
+		resp.putInt(4, offset);
+		resp.putInt(8, end - start);
+		resp.position(TodoSyncCommunication.FRAGMENT_HEADER_LEN);
+		resp.put(data, start, end - start);
+		send(s.address, resp.array());
+	}
+
+	/**
+	 * Stores a fragment of the client-to-server data if it continues the
+	 * received bytes, applies the data once all of them are received and
+	 * acknowledges the number of received bytes.
+	 */
+	protected void handleClientServerFragment(Session s, ByteBuffer b) throws IOException {
+
+		int offset = b.getInt(4);
+		int len = b.getInt(8);
+
+		if (!s.isClientServerDataApplied && s.clientServerDataLen != -1) {
+
+			int total = s.clientServerDataLen - 1;
+			if (s.clientServerData == null) {
+
+				s.clientServerData = new byte[total];
+			}
+			if (offset == s.clientServerDataReceived && len > 0 && offset + len <= total) {
+
+				b.position(TodoSyncCommunication.FRAGMENT_HEADER_LEN);
+				b.get(s.clientServerData, offset, len);
+				s.clientServerDataReceived += len;
+			}
+			if (s.clientServerDataReceived == total) {
+
+				s.store.applyClientServerData(ByteBuffer.wrap(s.clientServerData));
+				s.isClientServerDataApplied = true;
+				s.clientServerData = null;
+				notify(s.store, 0, System.currentTimeMillis());
+			}
+		}
+
+		ByteBuffer resp = ByteBuffer.allocate(TodoSyncCommunication.CLIENT_SERVER_FRAGMENT_ACK_LEN);
+		resp.put(TodoSyncCommunication.CLIENT_SERVER_FRAGMENT_ACK_TYPE);
+		resp.putInt(4, getClientServerDataReceived(s));
+		send(s.address, resp.array());
+	}
+
+	/** Returns the number of bytes of the client-to-server data that a session has received. */
+	protected static int getClientServerDataReceived(Session s) {
+
+		return s.isClientServerDataApplied ? s.clientServerDataLen - 1 : s.clientServerDataReceived;
+	}
+
+	/**
+	 * Applies the operations of a push packet unless the user is unknown
+	 * and the maximum number of users is reached or the user is
+	 * synchronizing, and acknowledges them with their results.
+	 */
+	protected void handlePush(SocketAddress from, ByteBuffer b, long now) throws IOException {
+
+		int userId = b.getInt(4);
+		long deviceId = b.getLong(8);
+		int count = b.getInt(16);
+		if (count <= 0 || TodoSyncCommunication.PUSH_HEADER_LEN + 8L * count > b.limit()) {
+
+			log.warning("Invalid push of " + count + " operations from " + from);
+			return;
+		}
+
+		long[] sequences = new long[count];
+		b.position(TodoSyncCommunication.PUSH_HEADER_LEN);
+		for (int i = 0; i < count; i++) {
+
+			sequences[i] = b.getLong();
+		}
+
+		byte[] results = null;
+		UserStore store = getUserStore(userId);
+		if (store == null || isSynchronizing(userId, null, now)) {
+
+			busyPushes.incrementAndGet();
+		} else {
+
+			long watermark = store.getWatermark();
+			results = store.applyPush(deviceId, sequences, b.slice());
+			pushes.incrementAndGet();
+			for (byte result : results) {
+
+				if (result != TodoSyncCommunication.PUSH_APPLIED) {
+
+					rejectedPushOps.incrementAndGet();
+				}
+			}
+			if (store.getWatermark() != watermark) {
+
+				notify(store, deviceId, now);
+			}
+		}
+
+		ByteBuffer resp = ByteBuffer.allocate(TodoSyncCommunication.PUSH_ACK_HEADER_LEN + (results == null ? 0 : count));
+		resp.put(TodoSyncCommunication.PUSH_ACK_TYPE);
+		resp.put(results == null ? TodoSyncCommunication.PUSH_BUSY : TodoSyncCommunication.PUSH_OK);
+		resp.putInt(4, count);
+		resp.putLong(8, sequences[0]);
+		if (results != null) {
+
+			resp.position(TodoSyncCommunication.PUSH_ACK_HEADER_LEN);
+			resp.put(results);
+		}
+		send(from, resp.array());
+	}
+
+	/**
+	 * Adds or renews the subscription of an address unless the user is
+	 * unknown and the maximum number of users is reached, and acknowledges
+	 * it with the watermark of the user.
+	 */
+	protected void handleSubscribe(SocketAddress from, int userId, long deviceId, long now) throws IOException {
+
+		UserStore store = getUserStore(userId);
+		if (store == null) {
+
+			return;
+		}
+
+		Integer key = Integer.valueOf(userId);
+		Map<SocketAddress, Subscriber> m = subscribers.get(key);
+		if (m == null) {
+
+			m = new HashMap<SocketAddress, Subscriber>();
+			subscribers.put(key, m);
+		}
+		m.put(from, new Subscriber(deviceId, now));
+
+		ByteBuffer resp = ByteBuffer.allocate(TodoSyncCommunication.SUBSCRIBE_ACK_LEN);
+		resp.put(TodoSyncCommunication.SUBSCRIBE_ACK_TYPE);
+		resp.putLong(8, store.getWatermark());
+		send(from, resp.array());
+	}
+
+	/**
+	 * Sends the watermark of a user to its subscribers. Expired
+	 * subscriptions are dropped along the way.
+	 *
+	 * @param originId the device that has made the change by a push, which
+	 *        already knows about it, or 0 for none
+	 */
+	protected void notify(UserStore store, long originId, long now) throws IOException {
+
+		Map<SocketAddress, Subscriber> m = subscribers.get(Integer.valueOf(store.userId));
+		if (m == null) {
+
+			return;
+		}
+
+		ByteBuffer resp = ByteBuffer.allocate(TodoSyncCommunication.NOTIFY_LEN);
+		resp.put(TodoSyncCommunication.NOTIFY_TYPE);
+		resp.putInt(4, store.userId);
+		resp.putLong(8, store.getWatermark());
+		for (Iterator<Map.Entry<SocketAddress, Subscriber>> i = m.entrySet().iterator(); i.hasNext(); ) {
+
+			Map.Entry<SocketAddress, Subscriber> e = i.next();
+			if (now - e.getValue().lastSeen > TodoSyncCommunication.SUBSCRIPTION_TIMEOUT) {
+
+				i.remove();
+			} else if (e.getValue().deviceId != originId) {
+
+				send(e.getKey(), resp.array());
+				notifies.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Answers a pull with the items changed after the watermark of the
+	 * client unless the user is unknown and the maximum number of users is
+	 * reached.
+	 *
+	 * @param isUpdates true if the client takes PULL_UPDATES
+	 */
+	protected void handlePull(SocketAddress from, int userId, long since, boolean isUpdates) throws IOException {
+
+		UserStore store = getUserStore(userId);
+		if (store == null) {
+
+			return;
+		}
+
+		byte[] resp = store.createPullData(since, isUpdates);
+		pulls.incrementAndGet();
+		if (resp[1] == TodoSyncCommunication.PULL_TOO_OLD) {
+
+			tooOldPulls.incrementAndGet();
+		}
+		send(from, resp);
+	}
+
+	/**
+	 * Answers a hash tree request with the bucket hashes of the user unless
+	 * the root of the client is equal to that of the user.
+	 */
+	protected void handleHashTree(Session s, long clientRoot) throws IOException {
+
+		ByteBuffer resp;
+		long root = s.store.getRoot();
+
+		if (root == clientRoot) {
+
+			resp = ByteBuffer.allocate(TodoSyncCommunication.HASH_TREE_RESP_LEN);
+			resp.put(TodoSyncCommunication.HASH_TREE_RESP_TYPE);
+			resp.put((byte) 0);
+		} else {
+
+			resp = ByteBuffer.allocate(TodoSyncCommunication.HASH_TREE_BUCKETS_RESP_LEN);
+			resp.put(TodoSyncCommunication.HASH_TREE_RESP_TYPE);
+			resp.put((byte) 1);
+			resp.position(TodoSyncCommunication.HASH_TREE_RESP_LEN);
+			for (long h : s.store.getBuckets()) {
+
+				resp.putLong(h);
+			}
+		}
+		resp.putLong(8, root);
+		send(s.address, resp.array());
+	}
+
+	/**
+	 * Resumes the live session of a token of the user or opens a session
+	 * unless the user is unknown and the maximum number of users is reached
+	 * or the user is already synchronizing from another address.
+	 *
+	 * @param token the token of the session to resume or 0 for none
+	 */
+	protected void handleRegister(SocketAddress from, int userId, long token, long now) throws IOException {
+
+		Session s = token == 0 ? null : tokens.get(Long.valueOf(token));
+		boolean isResumed = s != null && s.store.userId == userId && now - s.lastSeen <= SESSION_TIMEOUT;
+
+		if (isResumed) {
+
+			if (!s.address.equals(from)) {
+
+				removeSession(sessions.get(from));
+				sessions.remove(s.address);
+				s.address = from;
+				sessions.put(from, s);
+			}
+			resumedSessions.incrementAndGet();
+		} else {
+
+			s = sessions.get(from);
+			// A retransmitted REGISTER keeps the session while a REGISTER
+			// after the session has progressed starts a new sync.
+			if (s == null || s.store.userId != userId
+			    || s.serverClientData != null || s.clientServerDataLen != -1) {
+
+				removeSession(s);
+
+				UserStore store = getUserStore(userId);
+				if (store == null || isSynchronizing(userId, from, now)) {
+
+					refusedRegistrations.incrementAndGet();
+					return;
+				}
+				s = new Session(store, from, newToken());
+				sessions.put(from, s);
+				tokens.put(Long.valueOf(s.token), s);
+			}
+		}
+		s.lastSeen = now;
+
+		ByteBuffer resp = ByteBuffer.allocate(TodoSyncCommunication.REGISTER_ACK_LEN);
+		resp.put(TodoSyncCommunication.REGISTER_ACK_TYPE);
+		resp.put((byte) (isResumed ? 1 : 0));
+		resp.putLong(8, s.token);
+		send(from, resp.array());
+	}
+
+	/** Returns a random session token that is neither 0 nor in use. */
+	protected long newToken() {
+
+		long token;
+		do {
+
+			token = random.nextLong();
+		} while (token == 0 || tokens.containsKey(Long.valueOf(token)));
+
+		return token;
+	}
+
+	/**
+	 * Closes a session.
+	 *
+	 * @param s the session or null
+	 *
+	 * @return false if the session is null.
+	 */
+	protected boolean removeSession(Session s) {
+
+		if (s == null) {
+
+			return false;
+		}
+		sessions.remove(s.address);
+		tokens.remove(Long.valueOf(s.token));
+
+		return true;
+	}
+
+	/**
+	 * Returns true if the user has a live session from another address than
+	 * the given one, which may be null.
+	 * Expired sessions are dropped along the way.
+	 */
+	protected boolean isSynchronizing(int userId, SocketAddress from, long now) {
+
+		boolean result = false;
+
+		for (Iterator<Session> i = sessions.values().iterator(); i.hasNext(); ) {
+
+			Session s = i.next();
+			if (now - s.lastSeen > SESSION_TIMEOUT) {
+
+				i.remove();
+				tokens.remove(Long.valueOf(s.token));
+			} else if (s.store.userId == userId && !s.address.equals(from)) {
+
+				result = true;
+			}
+		}
+
+		return result;
+	}
+
+	/** Returns the store of a user or null if the user cannot be maintained. */
+	protected UserStore getUserStore(int userId) {
+
+		synchronized (users) {
+
+			Integer key = Integer.valueOf(userId);
+			UserStore store = users.get(key);
+			if (store == null && users.size() < maxUsers) {
+
+				store = new UserStore(userId);
+				users.put(key, store);
+			}
+
+			return store;
+		}
+	}
+
+	/** Sends a packet that consists of only a type. */
+	protected void reply(SocketAddress to, byte type, int len) throws IOException {
+
+		byte[] b = new byte[len];
+		b[0] = type;
+		send(to, b);
+	}
+
+	protected void send(SocketAddress to, byte[] b) throws IOException {
+
+		sock.send(new DatagramPacket(b, b.length, to));
+		packetsOut.incrementAndGet();
+		bytesOut.addAndGet(b.length);
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int maxUsers = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_USERS;
+
+		TodoSyncServer server = new TodoSyncServer(port, maxUsers);
+		System.out.println("Listening on UDP port " + port + " for up to " + maxUsers + " users");
+		server.run();
+	}
+}
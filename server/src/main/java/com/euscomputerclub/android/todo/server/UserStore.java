@@ -0,0 +1,566 @@
+package com.euscomputerclub.android.todo.server;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.euscomputerclub.android.todo.core.FieldRevisions;
+import com.euscomputerclub.android.todo.core.HashTree;
+import com.euscomputerclub.android.todo.core.SyncPlan;
+import com.euscomputerclub.android.todo.core.Todo;
+import com.euscomputerclub.android.todo.core.TodoSyncCommunication;
+import com.euscomputerclub.android.todo.core.TodoTlv;
+import com.euscomputerclub.android.todo.core.VersionVector;
+
+/**
+ * Class UserStore keeps the todo items of a single user in memory.
+ *
+ * The revisions are maintained as described in
+ * doc/assignment6_solution.txt: a new item gets revision 0 unless the client
+ * resurrects it with an explicit revision, and every update increments the
+ * revision by one. Every stored item carries its fingerprint, which is
+ * computed here rather than trusted from the client, and is sent to the
+ * clients as the optional CHUNK_TODO_FINGERPRINT field.
+ *
+ * The HashTree of the items is updated along with every change so that a
+ * client can compare its tree without the server hashing all items.
+ *
+ * The operations pushed by a device are applied at most once: the store
+ * remembers the last sequence number of every device and the results of its
+ * last batch, which are given again when the batch is retransmitted.
+ *
+ * Every change increments the watermark of the store, and the last change
+ * of every item is kept in a change log so that a client can pull the items
+ * changed after a watermark. The change log keeps at most MAX_TOMBSTONES
+ * deleted items; a client whose watermark precedes the forgotten deletions
+ * has to sync instead.
+ *
+ * Every stored item also carries its FieldRevisions, and the watermark of
+ * the last change of every field is kept so that a client taking
+ * PULL_UPDATES gets only the fields changed after its watermark.
+ *
+ * Every stored item carries a VersionVector as well. A client that sends
+ * the vector of its change gives it to the item if it follows the stored
+ * one, and any other change is counted for VersionVector.LEGACY_DEVICE so
+ * that the new vector still follows the stored one.
+ *
+ * @author eus
+ */
+class UserStore {
+
+	/** The owner of this store. */
+	protected final int userId;
+	/** The todo items sorted by their IDs. */
+	protected final TreeMap<Long, Todo> todos = new TreeMap<Long, Todo>();
+	/** The hash tree of the todo items. */
+	protected final HashTree tree = new HashTree();
+	/** The push state of every device keyed by its ID. */
+	protected final Map<Long, PushState> pushStates = new HashMap<Long, PushState>();
+	/** The number of changes so far. */
+	protected long watermark;
+	/** The watermark of the last change of every item keyed by its ID. */
+	protected final Map<Long, Long> changedAt = new HashMap<Long, Long>();
+	/** The IDs of the changed items keyed by the watermark of their last change. */
+	protected final TreeMap<Long, Long> changes = new TreeMap<Long, Long>();
+	/** The watermark up to which the changes have been forgotten. */
+	protected long forgotten;
+	/** The watermarks of the last changes of the fields of every item keyed by its ID. */
+	protected final Map<Long, long[]> fieldChangedAt = new HashMap<Long, long[]>();
+
+	/** The maximum number of deleted items kept in the change log. */
+	public static final int MAX_TOMBSTONES = 10000;
+
+	/** Class PushState tracks the operations pushed by a device. */
+	protected static class PushState {
+
+		/** The highest sequence number that has been processed. */
+		long lastSequence;
+		/** The results of the last batch keyed by sequence number. */
+		Map<Long, Byte> lastResults = new HashMap<Long, Byte>();
+	}
+
+	UserStore(int userId) {
+
+		this.userId = userId;
+	}
+
+	/** Returns the number of stored todo items. */
+	synchronized int size() {
+
+		return todos.size();
+	}
+
+	/**
+	 * Returns the number of bytes of the CHUNK_TODO chunks of the stored
+	 * todo items and the number of bytes of their version vector fields.
+	 */
+	synchronized long[] getChunkSizes() {
+
+		long[] sizes = new long[2];
+		for (Todo t : todos.values()) {
+
+			sizes[0] += TodoTlv.sizeOf(t);
+			if (t.versionVector != null) {
+
+				sizes[1] += TodoTlv.SIZE_OF_CHUNK + t.versionVector.length;
+			}
+		}
+
+		return sizes;
+	}
+
+	/** Stores a copy of the given todo item replacing any existing one. */
+	synchronized void put(Todo t) {
+
+		Todo stored = new Todo(t);
+		stored.fingerprint = Long.valueOf(stored.computeFingerprint());
+		store(stored);
+	}
+
+	/** Stores a todo item whose fingerprint is set replacing any existing one, all of whose fields change. */
+	protected void store(Todo t) {
+
+		t.fieldRevisions = Integer.valueOf(FieldRevisions.ALL_CHANGED);
+		if (t.versionVector == null) {
+
+			t.versionVector = VersionVector.increment(null, VersionVector.LEGACY_DEVICE);
+		}
+		Todo old = todos.put(t.id, t);
+		if (old != null) {
+
+			tree.remove(t.id.longValue(), old.revision.intValue(), old.fingerprint.longValue());
+		}
+		tree.add(t.id.longValue(), t.revision.intValue(), t.fingerprint.longValue());
+		recordChange(t.id);
+		recordFieldChanges(t.id, SyncPlan.ALL_FIELDS);
+	}
+
+	/** Removes a todo item if it exists. */
+	protected void remove(Long id) {
+
+		Todo t = todos.remove(id);
+		if (t != null) {
+
+			tree.remove(id.longValue(), t.revision.intValue(), t.fingerprint.longValue());
+			fieldChangedAt.remove(id);
+			recordChange(id);
+		}
+	}
+
+	/**
+	 * Moves an item to the end of the change log with a new watermark.
+	 * The oldest changes are forgotten once the log has more than
+	 * MAX_TOMBSTONES entries of deleted items.
+	 */
+	protected void recordChange(Long id) {
+
+		Long last = Long.valueOf(++watermark);
+		Long previous = changedAt.put(id, last);
+		if (previous != null) {
+
+			changes.remove(previous);
+		}
+		changes.put(last, id);
+
+		while (changes.size() > todos.size() + MAX_TOMBSTONES) {
+
+			Map.Entry<Long, Long> oldest = changes.pollFirstEntry();
+			changedAt.remove(oldest.getValue());
+			forgotten = oldest.getKey().longValue();
+		}
+	}
+
+	/** Gives the fields of a field mask the watermark of the last change. */
+	protected void recordFieldChanges(Long id, int fieldMask) {
+
+		long[] changed = fieldChangedAt.get(id);
+		if (changed == null) {
+
+			changed = new long[Integer.bitCount(SyncPlan.ALL_FIELDS)];
+			fieldChangedAt.put(id, changed);
+		}
+		for (int i = 0; i < changed.length; i++) {
+
+			if ((fieldMask & (1 << i)) != 0) {
+
+				changed[i] = watermark;
+			}
+		}
+	}
+
+	/** Returns the watermark of the last change. */
+	synchronized long getWatermark() {
+
+		return watermark;
+	}
+
+	/** Returns the root hash of the todo items. */
+	synchronized long getRoot() {
+
+		return tree.getRoot();
+	}
+
+	/** Returns the bucket hashes of the todo items. */
+	synchronized long[] getBuckets() {
+
+		return tree.getBuckets();
+	}
+
+	/** Returns a copy of a stored todo item or null if it does not exist. */
+	synchronized Todo get(long id) {
+
+		Todo t = todos.get(Long.valueOf(id));
+
+		return t == null ? null : new Todo(t);
+	}
+
+	/**
+	 * Returns a server-to-client data packet containing all todo items as
+	 * CHUNK_TODO chunks.
+	 */
+	synchronized byte[] createServerClientData() {
+
+		return createServerClientData(null);
+	}
+
+	/**
+	 * Returns a server-to-client data packet containing the todo items
+	 * whose IDs are in a bucket set of HashTree as CHUNK_TODO chunks.
+	 *
+	 * @param bucketSet the bucket set or null for all todo items
+	 */
+	synchronized byte[] createServerClientData(byte[] bucketSet) {
+
+		int len = 1;
+		for (Todo t : todos.values()) {
+
+			if (bucketSet == null || HashTree.hasId(bucketSet, t.id.longValue())) {
+
+				len += TodoTlv.sizeOf(t);
+			}
+		}
+
+		ByteBuffer b = ByteBuffer.allocate(len);
+		b.put(TodoSyncCommunication.SERVER_CLIENT_DATA_TYPE);
+		for (Todo t : todos.values()) {
+
+			if (bucketSet == null || HashTree.hasId(bucketSet, t.id.longValue())) {
+
+				TodoTlv.put(b, TodoTlv.CHUNK_TODO, t);
+			}
+		}
+
+		return b.array();
+	}
+
+	/**
+	 * Returns a pull response packet with the items changed after a
+	 * watermark: a CHUNK_TODO for every existing item and a
+	 * CHUNK_DELETE_TODO for every deleted one in the order of their
+	 * changes. The chunks are limited to MAX_PULL_LEN bytes unless the
+	 * first one is bigger, and the response then gives the watermark of its
+	 * last change to continue from.
+	 *
+	 * @param since the watermark of the client, which is too old if the
+	 *        changes after it have been forgotten or if it is ahead of the
+	 *        store, e.g. after the server has restarted
+	 * @param isUpdates true if the client takes PULL_UPDATES
+	 */
+	synchronized byte[] createPullData(long since, boolean isUpdates) {
+
+		ByteBuffer b;
+		if (since < forgotten || since > watermark) {
+
+			b = ByteBuffer.allocate(TodoSyncCommunication.PULL_RESP_HEADER_LEN);
+			b.put(1, TodoSyncCommunication.PULL_TOO_OLD);
+			b.putLong(16, watermark);
+		} else {
+
+			int len = 0;
+			long last = since;
+			boolean isComplete = true;
+			for (Map.Entry<Long, Long> e : changes.tailMap(Long.valueOf(since), false).entrySet()) {
+
+				Todo t = pullChunk(e.getValue(), since, isUpdates);
+				int size = t == null ? TodoTlv.sizeOfDelete(e.getValue().longValue()) : TodoTlv.sizeOf(t);
+				if (len != 0 && len + size > TodoSyncCommunication.MAX_PULL_LEN) {
+
+					isComplete = false;
+					break;
+				}
+				len += size;
+				last = e.getKey().longValue();
+			}
+
+			b = ByteBuffer.allocate(TodoSyncCommunication.PULL_RESP_HEADER_LEN + len);
+			b.put(1, TodoSyncCommunication.PULL_OK);
+			b.put(2, (byte) (isComplete ? 1 : 0));
+			b.putInt(4, len);
+			b.putLong(16, isComplete ? watermark : last);
+			b.position(TodoSyncCommunication.PULL_RESP_HEADER_LEN);
+			for (Long id : changes.subMap(Long.valueOf(since), false, Long.valueOf(last), true).values()) {
+
+				Todo t = pullChunk(id, since, isUpdates);
+				if (t == null) {
+
+					TodoTlv.putDelete(b, id.longValue());
+				} else {
+
+					TodoTlv.put(b, t.isComplete() ? TodoTlv.CHUNK_TODO : TodoTlv.CHUNK_UPDATE_TODO, t);
+				}
+			}
+		}
+		b.put(0, TodoSyncCommunication.PULL_RESP_TYPE);
+		b.putLong(8, since);
+
+		return b.array();
+	}
+
+	/**
+	 * Returns the pulled chunk of a changed item, which lacks the fields
+	 * that have not changed after a watermark if the client takes
+	 * PULL_UPDATES, or null if the item is deleted.
+	 */
+	protected Todo pullChunk(Long id, long since, boolean isUpdates) {
+
+		Todo t = todos.get(id);
+		if (t == null || !isUpdates) {
+
+			return t;
+		}
+
+		long[] changed = fieldChangedAt.get(id);
+		Todo chunk = new Todo(t);
+		if (changed[0] <= since) {
+
+			chunk.title = null;
+		}
+		if (changed[1] <= since) {
+
+			chunk.deadline = null;
+		}
+		if (changed[2] <= since) {
+
+			chunk.priority = null;
+		}
+		if (changed[3] <= since) {
+
+			chunk.status = null;
+		}
+		if (changed[4] <= since) {
+
+			chunk.description = null;
+		}
+
+		return chunk;
+	}
+
+	/**
+	 * Applies the chunks of a client-to-server data packet.
+	 *
+	 * @param chunks the chunks positioned after the packet type
+	 *
+	 * @throws IllegalStateException if the data are malformed.
+	 */
+	synchronized void applyClientServerData(ByteBuffer chunks) {
+
+		TodoTlv.read(chunks, new TodoTlv.Visitor() {
+
+			public void visit(byte chunkType, Todo t) {
+
+				Long id = t.id;
+
+				switch (chunkType) {
+				case TodoTlv.CHUNK_NEW_TODO:
+					if (!t.isComplete()) {
+
+						throw new IllegalStateException("Incomplete new todo " + t.id);
+					}
+					if (t.revision == null) {
+
+						t.revision = Integer.valueOf(0);
+					}
+					t.fingerprint = Long.valueOf(t.computeFingerprint());
+					store(t);
+					break;
+				case TodoTlv.CHUNK_UPDATE_TODO:
+					Todo stored = todos.get(id);
+					if (stored != null) {
+
+						update(stored, t);
+					}
+					break;
+				case TodoTlv.CHUNK_DELETE_TODO:
+					remove(id);
+					break;
+				default:
+					throw new IllegalStateException("Invalid chunk data: Unexpected CHUNK_TODO");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Updates a stored todo item with the present fields of another one and
+	 * increments its revision. Only the fields whose values differ count as
+	 * changed in the field revisions. The version vector of the other item
+	 * is merged into the stored one.
+	 */
+	protected void update(Todo stored, Todo t) {
+
+		long id = stored.id.longValue();
+		int changed = 0;
+
+		tree.remove(id, stored.revision.intValue(), stored.fingerprint.longValue());
+		if (t.title != null && !t.title.equals(stored.title)) {
+
+			stored.title = t.title;
+			changed |= SyncPlan.TITLE_FIELD;
+		}
+		if (t.deadline != null && !t.deadline.equals(stored.deadline)) {
+
+			stored.deadline = t.deadline;
+			changed |= SyncPlan.DEADLINE_FIELD;
+		}
+		if (t.priority != null && !t.priority.equals(stored.priority)) {
+
+			stored.priority = t.priority;
+			changed |= SyncPlan.PRIORITY_FIELD;
+		}
+		if (t.status != null && !t.status.equals(stored.status)) {
+
+			stored.status = t.status;
+			changed |= SyncPlan.STATUS_FIELD;
+		}
+		if (t.description != null && !t.description.equals(stored.description)) {
+
+			stored.description = t.description;
+			changed |= SyncPlan.DESCRIPTION_FIELD;
+		}
+		stored.revision = Integer.valueOf(stored.revision.intValue() + 1);
+		stored.fingerprint = Long.valueOf(stored.computeFingerprint());
+		stored.fieldRevisions = Integer.valueOf(FieldRevisions.update(stored.fieldRevisions.intValue(), changed));
+		byte[] merged = VersionVector.merge(stored.versionVector, t.versionVector);
+		stored.versionVector = (stored.versionVector == null
+					|| VersionVector.compare(merged, stored.versionVector) == VersionVector.AFTER
+					? merged
+					: VersionVector.increment(merged, VersionVector.LEGACY_DEVICE));
+		tree.add(id, stored.revision.intValue(), stored.fingerprint.longValue());
+		recordChange(stored.id);
+		recordFieldChanges(stored.id, changed);
+	}
+
+	/**
+	 * Applies the operations of a push packet. An update or a delete is
+	 * only applied if the item still has the revision that the operation
+	 * carries, and the operations following a rejected one of the same item
+	 * are rejected as well. An operation whose sequence number has already
+	 * been processed is not applied again but gets its earlier result if it
+	 * is in the last batch of the device and is rejected otherwise.
+	 *
+	 * @param chunks the chunks of the operations
+	 *
+	 * @return the PUSH_APPLIED or PUSH_REJECTED result of every operation.
+	 *
+	 * @throws IllegalStateException if the data are malformed.
+	 */
+	synchronized byte[] applyPush(long deviceId, final long[] sequences, ByteBuffer chunks) {
+
+		Long key = Long.valueOf(deviceId);
+		PushState state = pushStates.get(key);
+		if (state == null) {
+
+			state = new PushState();
+			pushStates.put(key, state);
+		}
+
+		final PushState last = state;
+		final byte[] results = new byte[sequences.length];
+		final Set<Long> rejected = new HashSet<Long>();
+		final int[] count = new int[1];
+		TodoTlv.read(chunks, new TodoTlv.Visitor() {
+
+			public void visit(byte chunkType, Todo t) {
+
+				int i = count[0]++;
+				if (i == sequences.length) {
+
+					throw new IllegalStateException("Invalid push data: More chunks than operations");
+				}
+
+				long sequence = sequences[i];
+				if (sequence <= last.lastSequence) {
+
+					Byte result = last.lastResults.get(Long.valueOf(sequence));
+					results[i] = result == null ? TodoSyncCommunication.PUSH_REJECTED : result.byteValue();
+					return;
+				}
+
+				boolean isApplied = !rejected.contains(t.id) && applyPushed(chunkType, t);
+				if (!isApplied) {
+
+					rejected.add(t.id);
+				}
+				results[i] = isApplied ? TodoSyncCommunication.PUSH_APPLIED : TodoSyncCommunication.PUSH_REJECTED;
+			}
+		});
+		if (count[0] != sequences.length) {
+
+			throw new IllegalStateException("Invalid push data: Fewer chunks than operations");
+		}
+
+		state.lastResults.clear();
+		for (int i = 0; i < sequences.length; i++) {
+
+			state.lastResults.put(Long.valueOf(sequences[i]), Byte.valueOf(results[i]));
+			state.lastSequence = Math.max(state.lastSequence, sequences[i]);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Applies a pushed operation.
+	 *
+	 * @return false if the operation conflicts with the stored items.
+	 */
+	protected boolean applyPushed(byte chunkType, Todo t) {
+
+		Todo stored = todos.get(t.id);
+
+		switch (chunkType) {
+		case TodoTlv.CHUNK_NEW_TODO:
+			if (stored != null || !t.isComplete()) {
+
+				return false;
+			}
+			t.revision = Integer.valueOf(0);
+			t.fingerprint = Long.valueOf(t.computeFingerprint());
+			store(t);
+			return true;
+		case TodoTlv.CHUNK_UPDATE_TODO:
+			if (stored == null || !stored.revision.equals(t.revision)) {
+
+				return false;
+			}
+			update(stored, t);
+			return true;
+		case TodoTlv.CHUNK_DELETE_TODO:
+			if (stored == null) {
+
+				return true;
+			}
+			if (!stored.revision.equals(t.revision)) {
+
+				return false;
+			}
+			remove(t.id);
+			return true;
+		default:
+			throw new IllegalStateException("Invalid push data: Unexpected chunk " + chunkType);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.euscomputerclub.android.todo.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+import com.euscomputerclub.android.todo.core.ChangePuller;
+import com.euscomputerclub.android.todo.core.FieldRevisions;
+import com.euscomputerclub.android.todo.core.JdbcTodoStore;
+import com.euscomputerclub.android.todo.core.MemoryTodoStore;
+import com.euscomputerclub.android.todo.core.SyncPlan;
+import com.euscomputerclub.android.todo.core.Todo;
+import com.euscomputerclub.android.todo.core.TodoStore;
+import com.euscomputerclub.android.todo.core.TodoSyncCommunication;
+import com.euscomputerclub.android.todo.core.TodoTlv;
+
+/**
+ * Checks that FieldRevisions survive the TLV encoding, that the server
+ * bumps the revision of only the fields whose values an update changes,
+ * and that ChangePuller applies a pull of some changed fields to
+ * MemoryTodoStore and JdbcTodoStore without touching the other fields.
+ *
+ * @author eus
+ */
+public class FieldRevisionsTest {
+
+	private static final int USER_ID = 1;
+
+	/** Class StoreCommunication answers the pulls from a UserStore without a socket round trip. */
+	private static class StoreCommunication extends TodoSyncCommunication {
+
+		final UserStore store;
+
+		StoreCommunication(UserStore store) throws SocketException {
+
+			super(new InetSocketAddress(InetAddress.getLoopbackAddress(), 9), 0);
+			this.store = store;
+		}
+
+		@Override
+		public PullData pull(int userId, long since) throws IOException {
+
+			ByteBuffer a = ByteBuffer.wrap(store.createPullData(since, true));
+			a.position(PULL_RESP_HEADER_LEN);
+			a.limit(PULL_RESP_HEADER_LEN + a.getInt(4));
+
+			return new PullData(a.get(1), a.get(2) != 0, a.getLong(16), a.slice());
+		}
+	}
+
+	private static Todo todo(long id, String title) {
+
+		return new Todo(Long.valueOf(id), title, "2026-10-05", Integer.valueOf(1), "Open", "description",
+				Integer.valueOf(0));
+	}
+
+	/** Pushes an update of the present fields of an item having a revision. */
+	private static void pushUpdate(UserStore store, long sequence, Todo update) {
+
+		ByteBuffer b = ByteBuffer.allocate(TodoTlv.sizeOf(update));
+		TodoTlv.put(b, TodoTlv.CHUNK_UPDATE_TODO, update);
+		b.flip();
+		byte[] results = store.applyPush(1, new long[] {sequence}, b);
+		assertEquals(TodoSyncCommunication.PUSH_APPLIED, results[0]);
+	}
+
+	/** Returns an update of an item at a revision without any field. */
+	private static Todo update(long id, int revision) {
+
+		return new Todo(Long.valueOf(id), null, null, null, null, null, Integer.valueOf(revision));
+	}
+
+	@Test
+	public void vectorIsEncodedAndDecoded() {
+
+		int packed = FieldRevisions.update(FieldRevisions.ALL_CHANGED, SyncPlan.TITLE_FIELD);
+		packed = FieldRevisions.update(packed, SyncPlan.STATUS_FIELD);
+		assertEquals(SyncPlan.STATUS_FIELD, FieldRevisions.changedAfter(packed, 2, 1));
+		assertEquals(SyncPlan.TITLE_FIELD | SyncPlan.STATUS_FIELD, FieldRevisions.changedAfter(packed, 2, 0));
+		assertEquals(SyncPlan.ALL_FIELDS, FieldRevisions.changedAfter(packed, 2, -1));
+
+		Todo t = todo(7, "title");
+		t.fieldRevisions = Integer.valueOf(packed);
+		ByteBuffer b = ByteBuffer.allocate(2 * TodoTlv.sizeOf(t));
+		TodoTlv.put(b, TodoTlv.CHUNK_TODO, t);
+		t.fieldRevisions = null;
+		TodoTlv.put(b, TodoTlv.CHUNK_TODO, t);
+		b.flip();
+
+		final Todo[] read = new Todo[2];
+		TodoTlv.read(b, new TodoTlv.Visitor() {
+
+			int i;
+
+			public void visit(byte chunkType, Todo t) {
+
+				read[i++] = t;
+			}
+		});
+		assertEquals(Integer.valueOf(packed), read[0].fieldRevisions);
+		// an item without the vector leaves the merge to the base hashes
+		assertNull(read[1].fieldRevisions);
+
+		// an age that does not fit saturates
+		int old = FieldRevisions.ALL_CHANGED;
+		for (int i = 0; i < FieldRevisions.MAX_AGE + 10; i++) {
+
+			old = FieldRevisions.update(old, SyncPlan.TITLE_FIELD);
+		}
+		assertEquals(SyncPlan.TITLE_FIELD, FieldRevisions.changedAfter(old, 1000, 999));
+		assertEquals(SyncPlan.ALL_FIELDS, FieldRevisions.changedAfter(old, 1000, 1000 - FieldRevisions.MAX_AGE - 1));
+	}
+
+	@Test
+	public void onlyEditedFieldIsBumped() {
+
+		UserStore store = new UserStore(USER_ID);
+		store.put(todo(1, "title"));
+		assertEquals(Integer.valueOf(FieldRevisions.ALL_CHANGED), store.get(1).fieldRevisions);
+
+		// the priority is given but keeps its value
+		Todo u = update(1, 0);
+		u.title = "edited";
+		u.priority = Integer.valueOf(1);
+		pushUpdate(store, 1, u);
+		Todo t = store.get(1);
+		assertEquals(Integer.valueOf(1), t.revision);
+		assertEquals(SyncPlan.TITLE_FIELD, FieldRevisions.changedAfter(t.fieldRevisions.intValue(), 1, 0));
+
+		u = update(1, 1);
+		u.deadline = "2026-10-06";
+		pushUpdate(store, 2, u);
+		t = store.get(1);
+		int packed = t.fieldRevisions.intValue();
+		assertEquals(SyncPlan.DEADLINE_FIELD, FieldRevisions.changedAfter(packed, 2, 1));
+		assertEquals(SyncPlan.TITLE_FIELD | SyncPlan.DEADLINE_FIELD, FieldRevisions.changedAfter(packed, 2, 0));
+		assertEquals(SyncPlan.ALL_FIELDS, FieldRevisions.changedAfter(packed, 2, -1));
+	}
+
+	@Test
+	public void partialPullAppliesOnlyChangedFields() throws IOException, SQLException {
+
+		for (TodoStore db : newStores()) {
+
+			UserStore store = new UserStore(USER_ID);
+			StoreCommunication comm = new StoreCommunication(store);
+			try {
+
+				// the client has pulled the first change before the item is added
+				store.put(todo(100, "other"));
+				db.savePullWatermark(store.getWatermark());
+				store.put(todo(1, "title"));
+				ChangePuller puller = new ChangePuller(db);
+				assertTrue(puller.pull(comm, USER_ID));
+				assertEquals("title", db.getTodo(1).title);
+				assertEquals(0, puller.updatedItems);
+
+				Todo u = update(1, 0);
+				u.title = "edited";
+				pushUpdate(store, 1, u);
+				long pulledBytes = puller.pulledBytes;
+				assertTrue(puller.pull(comm, USER_ID));
+				assertEquals(1, puller.updatedItems);
+				assertEquals(0, puller.deferredItems);
+				// the chunk lacks the description and the other unchanged fields
+				assertTrue(puller.pulledBytes - pulledBytes < TodoTlv.sizeOf(store.get(1)));
+
+				Todo local = db.getTodo(1);
+				Todo remote = store.get(1);
+				assertEquals("edited", local.title);
+				assertEquals(remote.deadline, local.deadline);
+				assertEquals(remote.priority, local.priority);
+				assertEquals(remote.status, local.status);
+				assertEquals(remote.description, local.description);
+				assertEquals(remote.fingerprint, Long.valueOf(local.computeFingerprint()));
+				assertEquals(store.getWatermark(), db.getPullWatermark());
+			} finally {
+
+				comm.disconnect();
+				closeStore(db);
+			}
+		}
+	}
+
+	private static TodoStore[] newStores() throws SQLException {
+
+		return new TodoStore[] {new MemoryTodoStore(1), new JdbcTodoStore("jdbc:sqlite::memory:")};
+	}
+
+	private static void closeStore(TodoStore db) throws SQLException {
+
+		if (db instanceof JdbcTodoStore) {
+
+			((JdbcTodoStore) db).close();
+		}
+	}
+}
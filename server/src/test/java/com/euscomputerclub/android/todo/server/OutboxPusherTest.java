@@ -0,0 +1,242 @@
+package com.euscomputerclub.android.todo.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.euscomputerclub.android.todo.core.JdbcTodoStore;
+import com.euscomputerclub.android.todo.core.MemoryTodoStore;
+import com.euscomputerclub.android.todo.core.OutboxPusher;
+import com.euscomputerclub.android.todo.core.Todo;
+import com.euscomputerclub.android.todo.core.TodoStore;
+import com.euscomputerclub.android.todo.core.TodoSyncCommunication;
+
+/**
+ * Checks that OutboxPusher sends the outbox of MemoryTodoStore and
+ * JdbcTodoStore in batches that fit MAX_PUSH_LEN, that a push whose
+ * acknowledgements are lost is pushed again without the server applying
+ * it twice, and that a new item deleted before it is pushed leaves nothing
+ * to push.
+ *
+ * @author eus
+ */
+public class OutboxPusherTest {
+
+	private static final int DESCRIPTION_LEN = 300;
+
+	/**
+	 * Class AckDroppingCommunication drops a number of push acknowledgements
+	 * after the server has applied the push and records the lengths of the
+	 * sent pushes.
+	 */
+	private class AckDroppingCommunication extends TodoSyncCommunication {
+
+		/** The lengths of the sent push datagrams. */
+		final List<Integer> pushLengths = new ArrayList<Integer>();
+		/** The number of acknowledgements still to be dropped. */
+		int droppedAcks;
+
+		AckDroppingCommunication() throws SocketException {
+
+			super(server.getAddress(), 0);
+		}
+
+		@Override
+		protected void send(DatagramPacket d) throws IOException {
+
+			if (d.getData()[0] == PUSH_TYPE) {
+
+				pushLengths.add(Integer.valueOf(d.getLength()));
+			}
+			super.send(d);
+		}
+
+		@Override
+		protected void receive(DatagramPacket d) throws IOException {
+
+			super.receive(d);
+			if (d.getData()[0] == PUSH_ACK_TYPE && droppedAcks > 0) {
+
+				droppedAcks--;
+				Arrays.fill(d.getData(), (byte) 0);
+				throw new SocketTimeoutException("Dropped");
+			}
+		}
+
+		void closeSocket() {
+
+			sock.close();
+		}
+	}
+
+	private TodoSyncServer server;
+	private AckDroppingCommunication comm;
+
+	@Before
+	public void setUp() throws Exception {
+
+		server = new TodoSyncServer(0, 4);
+		server.start();
+		comm = new AckDroppingCommunication();
+	}
+
+	@After
+	public void tearDown() {
+
+		comm.closeSocket();
+		server.close();
+	}
+
+	@Test
+	public void outboxIsPushedInSmallBatches() throws IOException, SQLException {
+
+		TodoStore[] stores = newStores();
+		for (int s = 0; s < stores.length; s++) {
+
+			TodoStore db = stores[s];
+			try {
+
+				int userId = s + 1;
+				long[] ids = new long[30];
+				for (int i = 0; i < ids.length; i++) {
+
+					ids[i] = db.createTodo("t" + i, "2026-10-05", 1 + i % 5, "Open", description(i));
+				}
+				comm.pushLengths.clear();
+
+				OutboxPusher pusher = new OutboxPusher(db);
+				assertTrue(pusher.push(comm, userId));
+				assertTrue(pusher.batches > 1);
+				assertEquals(pusher.batches, comm.pushLengths.size());
+				for (Integer length : comm.pushLengths) {
+
+					assertTrue(length.toString(), length.intValue() <= TodoSyncCommunication.MAX_PUSH_LEN);
+				}
+				assertEquals(ids.length, pusher.appliedOps);
+				assertTrue(db.getOutbox(OutboxPusher.MAX_BATCH_OPS).isEmpty());
+				assertEquals(ids.length, server.size(userId));
+				for (long id : ids) {
+
+					assertEquals(Integer.valueOf(1), db.getTodo(id).revision);
+				}
+			} finally {
+
+				closeStore(db);
+			}
+		}
+	}
+
+	@Test
+	public void lostAcknowledgementIsPushedAgain() throws IOException, SQLException {
+
+		TodoStore[] stores = newStores();
+		for (int s = 0; s < stores.length; s++) {
+
+			TodoStore db = stores[s];
+			try {
+
+				int userId = s + 1;
+				long created = db.createTodo("created", "2026-10-05", 1, "Open", "d");
+				long updated = db.createTodo("updated", "2026-10-05", 1, "Open", "d");
+				OutboxPusher pusher = new OutboxPusher(db);
+				assertTrue(pusher.push(comm, userId));
+				long added = db.createTodo("added", "2026-10-06", 2, "Open", "d");
+				db.updateTodo(updated, "updated twice", null, null, null, null);
+
+				// the server applies the batch but no retry gets its acknowledgement
+				comm.droppedAcks = TodoSyncCommunication.MAX_PUSH_RETRY;
+				assertFalse(pusher.push(comm, userId));
+				assertEquals(2, db.getOutbox(OutboxPusher.MAX_BATCH_OPS).size());
+				assertEquals(3, server.size(userId));
+				assertEquals("updated twice", server.getUserStore(userId).get(updated).title);
+
+				// the server answers the same batch with the results it has kept
+				assertTrue(pusher.push(comm, userId));
+				assertEquals(0, pusher.rejectedOps);
+				assertEquals(4, pusher.appliedOps);
+				assertTrue(db.getOutbox(OutboxPusher.MAX_BATCH_OPS).isEmpty());
+				assertEquals(3, server.size(userId));
+				assertRevision(db, userId, created, 1);
+				assertRevision(db, userId, updated, 2);
+				assertRevision(db, userId, added, 1);
+			} finally {
+
+				closeStore(db);
+			}
+		}
+	}
+
+	@Test
+	public void newItemDeletedBeforePushLeavesNothing() throws IOException, SQLException {
+
+		TodoStore[] stores = newStores();
+		for (int s = 0; s < stores.length; s++) {
+
+			TodoStore db = stores[s];
+			try {
+
+				int userId = s + 1;
+				long id = db.createTodo("deleted", "2026-10-05", 1, "Open", "d");
+				db.updateTodo(id, "edited", null, null, null, null);
+				assertEquals(1, db.deleteTodo(id));
+				assertTrue(db.getOutbox(OutboxPusher.MAX_BATCH_OPS).isEmpty());
+				assertNull(db.getLocalTodo(id));
+
+				OutboxPusher pusher = new OutboxPusher(db);
+				assertTrue(pusher.push(comm, userId));
+				assertEquals(0, pusher.batches);
+				assertEquals(0, server.size(userId));
+			} finally {
+
+				closeStore(db);
+			}
+		}
+	}
+
+	/**
+	 * Asserts the local revision of an item, which is one more than that of
+	 * the server like after a sync.
+	 */
+	private void assertRevision(TodoStore db, int userId, long id, int revision) {
+
+		assertEquals(Integer.valueOf(revision), db.getTodo(id).revision);
+		Todo stored = server.getUserStore(userId).get(id);
+		assertEquals(Integer.valueOf(revision - 1), stored.revision);
+	}
+
+	private static String description(int i) {
+
+		char[] c = new char[DESCRIPTION_LEN];
+		Arrays.fill(c, (char) ('a' + i % 26));
+
+		return new String(c);
+	}
+
+	private static TodoStore[] newStores() throws SQLException {
+
+		return new TodoStore[] {new MemoryTodoStore(1), new JdbcTodoStore("jdbc:sqlite::memory:")};
+	}
+
+	private static void closeStore(TodoStore db) throws SQLException {
+
+		if (db instanceof JdbcTodoStore) {
+
+			((JdbcTodoStore) db).close();
+		}
+	}
+}
@@ -0,0 +1,374 @@
+package com.euscomputerclub.android.todo.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.euscomputerclub.android.todo.core.ConflictResolution;
+import com.euscomputerclub.android.todo.core.ConflictResolver;
+import com.euscomputerclub.android.todo.core.MemoryTodoStore;
+import com.euscomputerclub.android.todo.core.SyncCheckpoint;
+import com.euscomputerclub.android.todo.core.SyncEngine;
+import com.euscomputerclub.android.todo.core.SyncState;
+import com.euscomputerclub.android.todo.core.Todo;
+import com.euscomputerclub.android.todo.core.TodoCursor;
+import com.euscomputerclub.android.todo.core.TodoRow;
+import com.euscomputerclub.android.todo.core.TodoSchema;
+import com.euscomputerclub.android.todo.core.TodoSyncCommunication;
+
+/**
+ * Checks that a sync interrupted on a lossy link resumes from its
+ * checkpoint without fetching or sending again more than the fragment in
+ * flight, that it converges with the server, and that a fragment which is
+ * never delivered or does not fit in its datagram aborts the sync with an
+ * IOException.
+ *
+ * @author eus
+ */
+public class ResumedSyncTest {
+
+	private static final int USER_ID = 1;
+	/** The number of items of the server, which take several fragments. */
+	private static final int SERVER_TODOS = 120;
+	/** The number of new items of the device, which take several fragments too. */
+	private static final int LOCAL_TODOS = 60;
+	private static final int DESCRIPTION_LEN = 600;
+	private static final double LOSS = 0.1;
+	/** The timeout of the test link, which is shorter than the protocol ones because it is the loopback. */
+	private static final int TIMEOUT = 100;
+
+	private static final ConflictResolver PICK_REMOTE = new ConflictResolver() {
+
+		public ConflictResolution resolveTwoItemsConflict(Todo localTodo, Todo remoteTodo) {
+
+			return ConflictResolution.PICK_REMOTE;
+		}
+
+		public ConflictResolution resolveRemoteDeletion(Todo localTodo) {
+
+			return ConflictResolution.PICK_REMOTE;
+		}
+
+		public ConflictResolution resolveLocalDeletion(Todo remoteTodo) {
+
+			return ConflictResolution.PICK_REMOTE;
+		}
+	};
+
+	/**
+	 * Class TestCommunication drops datagrams at random, records the
+	 * fragments that get through and takes the link down on a given one.
+	 */
+	private class TestCommunication extends TodoSyncCommunication {
+
+		/** The lengths of the server-to-client fragments received by offset. */
+		final Map<Integer, Integer> fetched = new TreeMap<Integer, Integer>();
+		/** The lengths of the client-to-server fragments sent by offset. */
+		final Map<Integer, Integer> uploaded = new TreeMap<Integer, Integer>();
+		/** The type of the packets that are never sent or -1 for none. */
+		byte lostType = -1;
+		/** The type of the packets on which the link goes down. */
+		byte interruptType;
+		/** The number of packets of interruptType after which the link goes down or 0 for never. */
+		int interruptAfter;
+		/** Whether the length of the server-to-client fragments is overstated. */
+		boolean isCorrupting;
+		private int interruptCount;
+
+		TestCommunication() throws SocketException {
+
+			super(server.getAddress(), 0);
+		}
+
+		@Override
+		protected ByteBuffer sendAndReceive(ByteBuffer data, int timeout, int receivedDataLen) throws SocketException, IOException {
+
+			return super.sendAndReceive(data, timeout == 0 ? 0 : TIMEOUT, receivedDataLen);
+		}
+
+		@Override
+		protected void send(DatagramPacket d) throws IOException {
+
+			ByteBuffer b = ByteBuffer.wrap(d.getData(), 0, d.getLength());
+			if (b.get(0) == lostType || random.nextDouble() < LOSS) {
+
+				return;
+			}
+			if (b.get(0) == CLIENT_SERVER_FRAGMENT_TYPE) {
+
+				uploaded.put(Integer.valueOf(b.getInt(4)), Integer.valueOf(b.getInt(8)));
+			}
+			super.send(d);
+		}
+
+		@Override
+		protected void receive(DatagramPacket d) throws IOException {
+
+			super.receive(d);
+			ByteBuffer b = ByteBuffer.wrap(d.getData(), 0, d.getLength());
+			if (random.nextDouble() < LOSS) {
+
+				Arrays.fill(d.getData(), (byte) 0);
+				throw new SocketTimeoutException("Dropped");
+			}
+			if (b.get(0) == SERVER_CLIENT_FRAGMENT_TYPE) {
+
+				fetched.put(Integer.valueOf(b.getInt(4)), Integer.valueOf(b.getInt(8)));
+				if (isCorrupting) {
+
+					b.putInt(8, d.getLength() - FRAGMENT_HEADER_LEN + 1);
+				}
+			}
+			if (b.get(0) == interruptType && interruptAfter != 0 && ++interruptCount == interruptAfter) {
+
+				throw new IOException("Link down");
+			}
+		}
+
+		void closeSocket() {
+
+			sock.close();
+		}
+	}
+
+	private final Random random = new Random(1);
+	private TodoSyncServer server;
+	private MemoryTodoStore db;
+	private SyncEngine engine;
+
+	@Before
+	public void setUp() throws Exception {
+
+		server = new TodoSyncServer(0, 4);
+		server.start();
+		for (int i = 1; i <= SERVER_TODOS; i++) {
+
+			server.seed(USER_ID, (3L << TodoSchema.ID_COUNTER_BITS) + i, "s" + i, "2024-01-15",
+				    1 + i % 5, "Open", randomText(), 1);
+		}
+
+		db = new MemoryTodoStore(1);
+		for (int i = 0; i < LOCAL_TODOS; i++) {
+
+			db.createTodo("l" + i, "2024-02-15", 1 + i % 5, "In progress", randomText());
+		}
+		engine = new SyncEngine(db, PICK_REMOTE);
+	}
+
+	@After
+	public void tearDown() {
+
+		server.close();
+	}
+
+	@Test
+	public void interruptedDownloadResumes() throws IOException {
+
+		TestCommunication first = new TestCommunication();
+		first.interruptType = TodoSyncCommunication.SERVER_CLIENT_FRAGMENT_TYPE;
+		first.interruptAfter = 3;
+		int received = assertInterrupted(first, SyncState.SERVER_CLIENT).received;
+
+		TestCommunication second = sync();
+		assertTrue(engine.processTodosTotalBytes > 2 * TodoSyncCommunication.MAX_FRAGMENT_LEN);
+		// only the fragment received when the link went down is fetched again
+		int resent = assertFragments(first.fetched, second.fetched, engine.processTodosTotalBytes);
+		assertTrue(resent > 0 && resent <= TodoSyncCommunication.MAX_FRAGMENT_LEN);
+		assertEquals(first.fetched.get(Integer.valueOf(received)).intValue(), resent);
+		assertConverged();
+	}
+
+	@Test
+	public void interruptedUploadResumes() throws IOException {
+
+		TestCommunication first = new TestCommunication();
+		first.interruptType = TodoSyncCommunication.CLIENT_SERVER_FRAGMENT_ACK_TYPE;
+		first.interruptAfter = 2;
+		assertInterrupted(first, SyncState.CLIENT_SERVER);
+
+		TestCommunication second = sync();
+		assertTrue(second.fetched.isEmpty());
+		// the server has acknowledged the fragments sent before the link went down
+		int total = 0;
+		for (Map.Entry<Integer, Integer> e : second.uploaded.entrySet()) {
+
+			total = Math.max(total, e.getKey().intValue() + e.getValue().intValue());
+		}
+		assertTrue(total > 2 * TodoSyncCommunication.MAX_FRAGMENT_LEN);
+		assertEquals(0, assertFragments(first.uploaded, second.uploaded, total));
+		assertConverged();
+	}
+
+	@Test
+	public void lostFragmentsAbortTheSync() throws IOException {
+
+		TestCommunication first = new TestCommunication();
+		first.lostType = TodoSyncCommunication.SERVER_CLIENT_FRAGMENT_SYNC_TYPE;
+		assertAborted(first, "No fragment at offset 0");
+		assertNotNull(db.getSyncCheckpoint());
+
+		sync();
+		assertConverged();
+	}
+
+	@Test
+	public void lostAcknowledgementsAbortTheSync() throws IOException {
+
+		TestCommunication first = new TestCommunication();
+		first.lostType = TodoSyncCommunication.CLIENT_SERVER_FRAGMENT_TYPE;
+		assertAborted(first, "No acknowledgement of the fragment at offset 0");
+		assertEquals(SyncState.CLIENT_SERVER, db.getSyncCheckpoint().phase);
+
+		sync();
+		assertConverged();
+	}
+
+	@Test
+	public void oversizedFragmentAbortsTheSync() throws IOException {
+
+		TestCommunication first = new TestCommunication();
+		first.isCorrupting = true;
+		assertAborted(first, "Invalid fragment length");
+		assertEquals(0, db.getSyncCheckpoint().received);
+	}
+
+	/** Runs a sync that must be interrupted in the given phase and returns its checkpoint. */
+	private SyncCheckpoint assertInterrupted(TestCommunication comm, SyncState phase) {
+
+		assertAborted(comm, "Link down");
+		SyncCheckpoint checkpoint = db.getSyncCheckpoint();
+		assertNotNull(checkpoint);
+		assertEquals(phase, checkpoint.phase);
+
+		return new SyncCheckpoint(checkpoint);
+	}
+
+	/** Runs a sync that must be aborted with an IOException whose message starts with the given one. */
+	private void assertAborted(TestCommunication comm, String message) {
+
+		try {
+
+			engine.synchronize(comm, USER_ID);
+			fail("The sync has not been aborted");
+		} catch (IOException ioe) {
+
+			assertTrue(ioe.getMessage(), ioe.getMessage().startsWith(message));
+		} finally {
+
+			comm.closeSocket();
+		}
+	}
+
+	/** Runs a sync that must complete. */
+	private TestCommunication sync() throws IOException {
+
+		TestCommunication comm = new TestCommunication();
+		try {
+
+			assertTrue(engine.synchronize(comm, USER_ID));
+		} finally {
+
+			comm.closeSocket();
+		}
+		assertEquals(null, db.getSyncCheckpoint());
+
+		return comm;
+	}
+
+	/**
+	 * Asserts that the fragments of an interrupted attempt and of its
+	 * resumption cover the data without a gap.
+	 *
+	 * @return the number of bytes of the fragments transferred in both attempts.
+	 */
+	private static int assertFragments(Map<Integer, Integer> first, Map<Integer, Integer> second, int total) {
+
+		Map<Integer, Integer> all = new TreeMap<Integer, Integer>(first);
+		all.putAll(second);
+		int offset = 0;
+		for (Map.Entry<Integer, Integer> e : all.entrySet()) {
+
+			assertEquals(offset, e.getKey().intValue());
+			offset += e.getValue().intValue();
+		}
+		assertEquals(total, offset);
+
+		int resent = 0;
+		for (Integer o : second.keySet()) {
+
+			if (first.containsKey(o)) {
+
+				resent += first.get(o).intValue();
+			}
+		}
+
+		return resent;
+	}
+
+	/** Asserts that the device and the server have the same items by syncing a new device. */
+	private void assertConverged() throws IOException {
+
+		assertEquals(SERVER_TODOS + LOCAL_TODOS, server.size(USER_ID));
+
+		MemoryTodoStore other = new MemoryTodoStore(2);
+		TestCommunication comm = new TestCommunication();
+		try {
+
+			assertTrue(new SyncEngine(other, PICK_REMOTE).synchronize(comm, USER_ID));
+		} finally {
+
+			comm.closeSocket();
+		}
+		assertEquals(dump(db), dump(other));
+	}
+
+	/** Returns the data fields of the items of a store. */
+	private static List<String> dump(MemoryTodoStore store) {
+
+		List<String> todos = new ArrayList<String>();
+		TodoCursor c = store.getAllTodoIncludingDeletedOnes();
+		try {
+
+			TodoRow row = new TodoRow(c, store);
+			while (row.moveToNext()) {
+
+				Todo t = row.toTodo();
+				todos.add(t.id + "|" + t.title + "|" + t.deadline + "|" + t.priority + "|" + t.status + "|"
+					  + t.description);
+			}
+		} finally {
+
+			c.close();
+		}
+
+		return todos;
+	}
+
+	private String randomText() {
+
+		char[] c = new char[DESCRIPTION_LEN];
+		for (int i = 0; i < c.length; i++) {
+
+			c[i] = (char) ('a' + random.nextInt(26));
+		}
+
+		return new String(c);
+	}
+}